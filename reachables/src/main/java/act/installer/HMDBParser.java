@@ -24,6 +24,7 @@
 package act.installer;
 
 import act.installer.pubchem.PubchemParser;
+import act.server.ChemicalBulkWriter;
 import act.server.MongoDB;
 import act.shared.Chemical;
 import org.apache.commons.cli.CommandLine;
@@ -411,41 +412,42 @@ public class HMDBParser {
     SortedSet<File> files = findHMDBFilesInDirectory(inputDir);
     LOGGER.info("Found %d HMDB XML files in directory %s", files.size(), inputDir.getAbsolutePath());
 
-    for (File file : files) {
-      LOGGER.debug("Processing HMDB XML file %s", file.getAbsolutePath());
-
-      /* Promote our XML-specific exceptions to generic IllegalArgumentExceptions to reduce error handling surface
-       * area for the caller. */
-      Document d;
-      try {
-        d = documentBuilder.parse(file);
-      } catch (SAXException e) {
-        String msg = String.format("Unable to parse XML file at %s: %s", file.getAbsolutePath(), e.getMessage());
-        throw new IllegalArgumentException(msg, e);
+    try (ChemicalBulkWriter chemicalWriter = db.getChemicalBulkWriter(ChemicalBulkWriter.DEFAULT_BATCH_SIZE)) {
+      for (File file : files) {
+        LOGGER.debug("Processing HMDB XML file %s", file.getAbsolutePath());
+
+        /* Promote our XML-specific exceptions to generic IllegalArgumentExceptions to reduce error handling surface
+         * area for the caller. */
+        Document d;
+        try {
+          d = documentBuilder.parse(file);
+        } catch (SAXException e) {
+          String msg = String.format("Unable to parse XML file at %s: %s", file.getAbsolutePath(), e.getMessage());
+          throw new IllegalArgumentException(msg, e);
+        }
+
+        /* Jaxen doesn't throw exceptions if it can't find a path, so a JaxenException here is completely unexpected.
+         * It might mean corrupted XML or some unrecoverable XPath problem that we don't expect.  In any case, promote
+         * the exception to the caller as it's unclear how we could deal with such an error here. */
+        Chemical chem;
+        try {
+          chem = extractChemicalFromXMLDocument(d);
+        } catch (JaxenException e) {
+          String msg = String.format("Unable to extract features from XML file at %s: %s",
+              file.getAbsolutePath(), e.getMessage());
+          throw new IllegalArgumentException(msg, e);
+        }
+
+        // Not all HMDB entries contain
+        if (chem == null) {
+          LOGGER.warn("Unable to create chemical from file %s", file.getAbsolutePath());
+          continue;
+        }
+
+        // The writer creates or merges as necessary, and writes to the DB in batches.
+        long id = chemicalWriter.submit(chem);
+        LOGGER.debug("Submitted chemical %d to the DB", id);
       }
-
-      /* Jaxen doesn't throw exceptions if it can't find a path, so a JaxenException here is completely unexpected.
-       * It might mean corrupted XML or some unrecoverable XPath problem that we don't expect.  In any case, promote
-       * the exception to the caller as it's unclear how we could deal with such an error here. */
-      Chemical chem;
-      try {
-        chem = extractChemicalFromXMLDocument(d);
-      } catch (JaxenException e) {
-        String msg = String.format("Unable to extract features from XML file at %s: %s",
-            file.getAbsolutePath(), e.getMessage());
-        throw new IllegalArgumentException(msg, e);
-      }
-
-      // Not all HMDB entries contain
-      if (chem == null) {
-        LOGGER.warn("Unable to create chemical from file %s", file.getAbsolutePath());
-        continue;
-      }
-
-      // submitToActChemicalDB creates or merges as necessary.
-      Long id = db.getNextAvailableChemicalDBid();
-      db.submitToActChemicalDB(chem, id);
-      LOGGER.debug("Submitted chemical %d to the DB", id);
     }
     LOGGER.info("Loaded %d HMDB chemicals into DB", files.size());
   }
@@ -30,6 +30,7 @@ import act.installer.kegg.KeggParser;
 import act.installer.metacyc.MetaCyc;
 import act.installer.patents.FTO;
 import act.installer.sequence.SwissProt;
+import act.server.ChemicalBulkWriter;
 import act.server.MongoDB;
 import act.shared.Chemical;
 import act.shared.ConsistentInChI;
@@ -114,18 +115,11 @@ public class Main {
   }
 
   private void addImportantNotAlreadyAdded(ImportantChemicals imp) throws Exception {
-    for (Chemical c : imp.remaining()) {
-      long installid = db.getNextAvailableChemicalDBid();
-      /*
-         This use of a locally incremented installid counter
-         will not be safe if multiple processes are
-         writing to the DB. E.g., if we distribute the installer
-
-         If that is the case, then use some locks and
-         long installid = db.getNextAvailableChemicalDBid();
-         to pick the next available id to install this chem to
-      */
-      db.submitToActChemicalDB(c, installid);
+    // The bulk writer allocates ids locally, so this must be the only process writing chemicals while it runs.
+    try (ChemicalBulkWriter chemicalWriter = db.getChemicalBulkWriter(ChemicalBulkWriter.DEFAULT_BATCH_SIZE)) {
+      for (Chemical c : imp.remaining()) {
+        chemicalWriter.submit(c);
+      }
     }
   }
 
@@ -349,33 +343,24 @@ public class Main {
 
       System.out.println("Total: " + nfiles + " level3 biopax files found.");
       System.out.println("Range: [" + start + ", " + end + ")");
-      int chunk = 1; // you can go up to a max of about 20 chunks (mem:3gb)
       // see "Performance" section below for a run over 100 files
       MongoDB db = new MongoDB(server, dbPort, dbname);
-      for (int i=start; i<nfiles && i<end; i+=chunk) {
-        long startTime = System.currentTimeMillis();
-
-        // Now create a new MetaCyc object for each chunk. Holds the entire
-        // processed information in a HashMap of OrganismCompositions.
-        //
-        // By default, metacyc will load all Tier 1,2, and 3 files.
-        // If you need it to load only 38 Tier 1,2 files call m.loadOnlyTier12(true)
-        //
-        // Give metacyc the precomputed owls so we don't need to do that again.
-        MetaCyc m = new MetaCyc(path, init.getOWLs());
-
-        int chunkEnd = i + chunk > end ? end : i + chunk;
-        System.out.format("Processing: [%d, %d)\n", i, chunkEnd);
-        m.process(i, chunkEnd);          // process the chunk
-        m.sendToDB(db);                 // install in DB
-        long endTime = System.currentTimeMillis();
-        long timeDiff = endTime - startTime;
-        System.out.println(String.format("--- Total time for chunk [%d, %d): %d ms, %d ms per file",
-            i, chunkEnd, timeDiff, timeDiff / chunk));
-        // when iterating to new chunk, MetaCyc object will be GC'ed releasing
-        // accumulated OrganismCompositions information for those organisms
-        // but that is ok, since we already installed it in MongoDB.
-      }
+      long startTime = System.currentTimeMillis();
+
+      // Files are parsed in parallel, but only a few parsed OrganismCompositions are held in memory at a time and
+      // they are installed strictly in file order, so ids come out exactly as they would in a serial run.
+      //
+      // By default, metacyc will load all Tier 1,2, and 3 files.
+      // If you need it to load only 38 Tier 1,2 files call m.loadOnlyTier12(true)
+      //
+      // Give metacyc the precomputed owls so we don't need to do that again.
+      MetaCyc m = new MetaCyc(path, init.getOWLs());
+      List<String> files = init.getOWLs().subList(Math.min(start, nfiles), Math.min(end, nfiles));
+      m.processAndSendToDB(files, db, MetaCyc.DEFAULT_PARSER_THREADS, MetaCyc.DEFAULT_MAX_BUFFERED_MODELS);
+
+      long timeDiff = System.currentTimeMillis() - startTime;
+      System.out.println(String.format("--- Total time for [%d, %d): %d ms, %d ms per file",
+          start, start + files.size(), timeDiff, timeDiff / Math.max(1, files.size())));
       db.close();
 
       // Performance:
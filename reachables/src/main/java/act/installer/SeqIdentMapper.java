@@ -30,23 +30,32 @@ import act.server.MongoDB;
 import act.shared.Reaction;
 import act.shared.Seq;
 import act.shared.helpers.P;
+import com.act.utils.ExternalKeyGrouper;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.XML;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -435,50 +444,47 @@ public class SeqIdentMapper {
   }
 
   private void connect_using_fingerprint() {
-    // Map of rxn_id -> sequence fingerprint
-    HashMap<Long, Set<SeqFingerPrint>> rxnIdent = new HashMap<Long, Set<SeqFingerPrint>>();
-    // Map of seq_id -> sequence fingerprint
-    HashMap<Long, Set<SeqFingerPrint>> seqIdent = new HashMap<Long, Set<SeqFingerPrint>>();
-    double done, total;
-
     // take entries from db.actfamilies
     // map them to (ref_set, org_set, ec)
     // if (ref, org, ec) matches an entry in db.seq
     // map that sequence to the actfamilies entry
 
-    System.out.println("[MAP_SEQ] mapping reactions -> (ec, org, pmid)");
-    // Populate rxnIdent
-    List<Long> reactionids = db.getAllReactionUUIDs();
-    done = 0; total = reactionids.size();
-    for (Long uuid : reactionids) {
-      Reaction r = db.getReactionFromUUID(uuid);
-      Set<SeqFingerPrint> si = SeqFingerPrint.createFrom(r, db);
-      rxnIdent.put(uuid, si);
-      System.out.format("[MAP_SEQ] Done: %.0f%%\r", (100*done++/total));
-    }
-    System.out.println();
+    // Both sides are streamed into an on-disk sort-merge join keyed on the fingerprint, so neither the reactions'
+    // nor the sequences' fingerprints need to be held in memory at once.
+    long[] found = {0L};
+    try (SeqFingerPrintJoin join = new SeqFingerPrintJoin(null, ExternalKeyGrouper.DEFAULT_MAX_BUFFERED_BYTES)) {
+      System.out.println("[MAP_SEQ] mapping reactions -> (ec, org, pmid)");
+      long done = 0;
+      Iterator<Reaction> reactions = db.getReactionsIterator();
+      while (reactions.hasNext()) {
+        Reaction r = reactions.next();
+        join.addLeft(r.getUUID(), SeqFingerPrint.createFrom(r, db));
+        System.out.format("[MAP_SEQ] Done: %d\r", ++done);
+      }
+      System.out.println();
+
+      System.out.println("[MAP_SEQ] mapping sequences -> (ec, org, pmid)");
+      done = 0;
+      Iterator<Seq> seqs = db.getSeqIterator();
+      while (seqs.hasNext()) {
+        Seq s = seqs.next();
+        join.addRight(s.getUUID(), SeqFingerPrint.createFrom(s));
+        System.out.format("[MAP_SEQ] Done: %d\r", ++done);
+      }
+      System.out.println();
 
-    System.out.println("[MAP_SEQ] mapping sequences -> (ec, org, pmid)");
-    // Populate seqIdent
-    List<Long> seqids = db.getAllSeqUUIDs();
-    done = 0; total = seqids.size();
-    for (Long seqid : seqids) {
-      Seq s = db.getSeqFromID(seqid);
-      Set<SeqFingerPrint> si = SeqFingerPrint.createFrom(s);
-      seqIdent.put(seqid, si);
-      System.out.format("[MAP_SEQ] Done: %.0f%%\r", (100*done++/total));
+      // for each pair (rxnid, seqid) that share a fingerprint
+      // insert the mapping rxnid <-> seqid into the db
+      System.out.println("[MAP_SEQ] Joining reactions and sequences on (ec, org, pmid)");
+      join.forEachMatch((rxnid, seqid) -> {
+        addToDB(rxnid, seqid);
+        found[0]++;
+      });
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to join reaction and sequence fingerprints", e);
     }
-    System.out.println();
-
-    // SeqIndent holds the (ref, org, ec) -> inferReln find connections
-    Set<P<Long, Long>> rxn2seq = SeqFingerPrint.inferReln(rxnIdent, seqIdent);
-
-    // for each pair (rxnid, seqid) in rxn2seq
-    // insert the mapping rxnid <-> seqid into the db
-    for (P<Long, Long> r2s : rxn2seq)
-      addToDB(r2s.fst(), r2s.snd());
 
-    System.out.format("Found SwissProt sequences for %d rxns\n", rxn2seq.size());
+    System.out.format("Found SwissProt sequences for %d rxns\n", found[0]);
     System.out.format("   using exact matches: ref:%s, org:%s, ec:%s between db.actfamilies and db.seq\n", SeqFingerPrint.track_ref, SeqFingerPrint.track_org, SeqFingerPrint.track_ec);
   }
 
@@ -778,6 +784,30 @@ class SeqFingerPrint {
     return reln;
   }
 
+  /**
+   * A key that sorts fingerprints which are equal() next to each other, so that they can be matched up by sorting
+   * instead of hashing.  Fingerprints with a missing field never equal anything, so they have no key.
+   * @return The fingerprint's fields as length-prefixed UTF-8, or null if any field is null.
+   */
+  public byte[] toSortKey() {
+    if (this.ref == null || this.ec == null || this.org == null) return null;
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      for (String field : new String[] { this.ref, this.ec, this.org }) {
+        byte[] encoded = field.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+      }
+      out.flush();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      // Cannot happen when writing to a byte array.
+      throw new RuntimeException(e);
+    }
+  }
+
   public static <I, X> HashMap<X, Set<I>> invert_map(HashMap<I, Set<X>> map) {
     HashMap<X, Set<I>> inverted = new HashMap<X, Set<I>>();
     for (I i : map.keySet()) {
@@ -835,6 +865,78 @@ class SeqFingerPrint {
 
 }
 
+/**
+ * Computes the same relation as SeqFingerPrint.inferReln, but as a sort-merge join whose memory use does not grow
+ * with the number of entries.  Every (fingerprint, id) pair from both sides is sorted by fingerprint, spilling to disk
+ * as needed; ids from opposite sides that share a fingerprint are paired up, and the pairs are sorted once more to
+ * drop those found through more than one shared fingerprint.
+ */
+class SeqFingerPrintJoin implements Closeable {
+  private static final byte LEFT = 0, RIGHT = 1;
+
+  private final ExternalKeyGrouper byFingerPrint;
+  private final ExternalKeyGrouper byPair;
+
+  /**
+   * @param scratchDir Where to write sorted runs, or null for the system temp directory.
+   * @param maxBufferedBytes Roughly how much memory to use before spilling to disk.
+   */
+  SeqFingerPrintJoin(File scratchDir, long maxBufferedBytes) {
+    // Both sorts' buffers can be live at the same time, so each gets half the budget.
+    long sortBudget = Math.max(maxBufferedBytes / 2, 1L);
+    this.byFingerPrint = new ExternalKeyGrouper(scratchDir, sortBudget);
+    this.byPair = new ExternalKeyGrouper(scratchDir, sortBudget);
+  }
+
+  public void addLeft(long id, Set<SeqFingerPrint> fingerPrints) throws IOException {
+    add(LEFT, id, fingerPrints);
+  }
+
+  public void addRight(long id, Set<SeqFingerPrint> fingerPrints) throws IOException {
+    add(RIGHT, id, fingerPrints);
+  }
+
+  private void add(byte side, long id, Set<SeqFingerPrint> fingerPrints) throws IOException {
+    byte[] taggedId = ByteBuffer.allocate(1 + Long.BYTES).put(side).putLong(id).array();
+    for (SeqFingerPrint fp : fingerPrints) {
+      byte[] key = fp.toSortKey();
+      if (key != null) {
+        this.byFingerPrint.add(key, taggedId);
+      }
+    }
+  }
+
+  /**
+   * Hands each distinct (left id, right id) pair that shares at least one fingerprint to the consumer, ordered by
+   * left id and then right id (for non-negative ids).  Should be called once, after all entries have been added.
+   */
+  public void forEachMatch(BiConsumer<Long, Long> consumer) throws IOException {
+    this.byFingerPrint.forEachGroup((fingerPrint, taggedIds) -> {
+      List<Long> left = new ArrayList<>(), right = new ArrayList<>();
+      for (byte[] taggedId : taggedIds) {
+        ByteBuffer buffer = ByteBuffer.wrap(taggedId);
+        (buffer.get() == LEFT ? left : right).add(buffer.getLong());
+      }
+      for (Long l : left) {
+        for (Long r : right) {
+          this.byPair.add(ByteBuffer.allocate(2 * Long.BYTES).putLong(l).putLong(r).array(), new byte[0]);
+        }
+      }
+    });
+
+    this.byPair.forEachGroup((pair, ignored) -> {
+      ByteBuffer buffer = ByteBuffer.wrap(pair);
+      consumer.accept(buffer.getLong(), buffer.getLong());
+    });
+  }
+
+  @Override
+  public void close() {
+    this.byFingerPrint.close();
+    this.byPair.close();
+  }
+}
+
 
 /*
 --- output of:
@@ -0,0 +1,132 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer.bing;
+
+import act.server.BingCacheMongoDB;
+import com.act.utils.CLIUtil;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Exports the Mongo Bing cache to a local snapshot, so that names can be ranked offline (see the local cache options
+ * of BingSearcher and BingSearchRanker).  Snapshots are either a flat file of JSON documents or a RocksDB directory.
+ */
+public class BingCacheSnapshot {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(BingCacheSnapshot.class);
+
+  public static final String OPTION_OUTPUT_PATH = "o";
+  public static final String OPTION_ROCKSDB = "r";
+  public static final String OPTION_CACHE_HOST = "H";
+  public static final String OPTION_CACHE_PORT = "p";
+  public static final String OPTION_CACHE_DB_NAME = "d";
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "This class exports the contents of the Bing Search cache to a local snapshot file or RocksDB directory,",
+      "which can be used in place of the cache for cache-only Bing annotation."
+  }, " ");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_OUTPUT_PATH)
+        .argName("path")
+        .desc("Where to write the snapshot")
+        .hasArg()
+        .required()
+        .longOpt("output")
+    );
+    add(Option.builder(OPTION_ROCKSDB)
+        .desc("Write the snapshot as a RocksDB directory rather than a flat file; use this for large caches")
+        .longOpt("rocksdb")
+    );
+    add(Option.builder(OPTION_CACHE_HOST)
+        .argName("hostname")
+        .desc(String.format("Host of the Bing cache (default: %s)", BingSearchResults.BING_CACHE_HOST))
+        .hasArg()
+        .longOpt("cache-host")
+    );
+    add(Option.builder(OPTION_CACHE_PORT)
+        .argName("port")
+        .desc(String.format("Port of the Bing cache (default: %d)", BingSearchResults.BING_CACHE_MONGO_PORT))
+        .hasArg()
+        .longOpt("cache-port")
+    );
+    add(Option.builder(OPTION_CACHE_DB_NAME)
+        .argName("name")
+        .desc(String.format("Database of the Bing cache (default: %s)", BingSearchResults.BING_CACHE_MONGO_DATABASE))
+        .hasArg()
+        .longOpt("cache-db")
+    );
+    add(Option.builder("h")
+        .argName("help")
+        .desc("Prints this help message")
+        .longOpt("help")
+    );
+  }};
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(BingCacheSnapshot.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    File output = new File(cl.getOptionValue(OPTION_OUTPUT_PATH));
+    if (output.exists()) {
+      cliUtil.failWithMessage("Output path %s already exists", output.getAbsolutePath());
+    }
+
+    BingCacheMongoDB bingCacheMongoDB = new BingCacheMongoDB(
+        cl.getOptionValue(OPTION_CACHE_HOST, BingSearchResults.BING_CACHE_HOST),
+        Integer.parseInt(cl.getOptionValue(OPTION_CACHE_PORT,
+            String.valueOf(BingSearchResults.BING_CACHE_MONGO_PORT))),
+        cl.getOptionValue(OPTION_CACHE_DB_NAME, BingSearchResults.BING_CACHE_MONGO_DATABASE)
+    );
+
+    Iterator<NameSearchResults> allResults = bingCacheMongoDB.getAllNameSearchResults();
+    long count = cl.hasOption(OPTION_ROCKSDB) ?
+        RocksDBBingSearchCache.write(output, allResults) :
+        FlatFileBingSearchCache.write(output, allResults);
+    LOGGER.info("Wrote %d cached Bing Search results to %s", count, output.getAbsolutePath());
+  }
+
+  /**
+   * Open a snapshot written by this class, picking the format by whether the path is a directory.
+   * @param path A snapshot file or RocksDB directory.
+   * @return A cache serving the snapshot's results.
+   * @throws IOException
+   * @throws RocksDBException
+   */
+  public static BingSearchCache openLocalCache(File path) throws IOException, RocksDBException {
+    if (!path.exists()) {
+      throw new IOException(String.format("Bing cache snapshot at %s does not exist", path.getAbsolutePath()));
+    }
+    return path.isDirectory() ? RocksDBBingSearchCache.open(path) : FlatFileBingSearchCache.open(path);
+  }
+}
@@ -0,0 +1,52 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer.bing;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A read-only view of cached Bing Search results, keyed by lower case name.  The Mongo cache implements it, as do local
+ * snapshots of that cache (see BingCacheSnapshot), so that cache-only runs can happen without access to either Mongo
+ * or the Bing Search API.
+ */
+public interface BingSearchCache {
+
+  /**
+   * Look up the cached results for many names at once.
+   * @param formattedNames Lower case names to look up.
+   * @return A map from name to cached results, with no entries for names that are not cached.
+   */
+  Map<String, NameSearchResults> getNameSearchResults(Collection<String> formattedNames);
+
+  /**
+   * Look up the cached results for a single name.
+   * @param formattedName Lower case name to look up.
+   * @return The cached results, or null if this name is not cached.
+   */
+  default NameSearchResults getNameSearchResult(String formattedName) {
+    return getNameSearchResults(Collections.singletonList(formattedName)).get(formattedName);
+  }
+}
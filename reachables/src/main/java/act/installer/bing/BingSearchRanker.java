@@ -91,6 +91,8 @@ public class BingSearchRanker {
   public static final String OPTION_INCLUDE_CHEBI_APPLICATIONS = "c";
   public static final String OPTION_INCLUDE_WIKIPEDIA_URL = "w";
   public static final String OPTION_INCLUDE_USAGE_EXPLORER_URL = "u";
+  public static final String OPTION_CACHE_ONLY = "k";
+  public static final String OPTION_LOCAL_CACHE = "l";
 
   // Other static variables
   public static final Integer DEFAULT_COUNT = 0;
@@ -150,6 +152,20 @@ public class BingSearchRanker {
         .longOpt("include_usage")
         .type(boolean.class)
     );
+    add(Option.builder(OPTION_CACHE_ONLY)
+        .argName("CACHE_ONLY")
+        .desc("Whether to only use cached Bing Search results, looked up in batches, without querying the Bing API.")
+        .longOpt("cache_only")
+        .type(boolean.class)
+    );
+    add(Option.builder(OPTION_LOCAL_CACHE)
+        .argName("LOCAL_CACHE")
+        .desc("Path to a local snapshot of the Bing cache (see BingCacheSnapshot) to use instead of the Mongo cache. " +
+            "Implies cache_only.")
+        .hasArg()
+        .longOpt("local_cache")
+        .type(String.class)
+    );
     add(Option.builder("h")
         .argName("help")
         .desc("Prints this help message")
@@ -196,8 +212,29 @@ public class BingSearchRanker {
                           Boolean includeWikipediaUrl,
                           Boolean includeUsageExplorerUrl,
                           Boolean forceUpdate) {
+    this(includeChebiApplications, includeWikipediaUrl, includeUsageExplorerUrl, forceUpdate, false);
+  }
+
+  public BingSearchRanker(Boolean includeChebiApplications,
+                          Boolean includeWikipediaUrl,
+                          Boolean includeUsageExplorerUrl,
+                          Boolean forceUpdate,
+                          Boolean cacheOnly) {
+    this(includeChebiApplications, includeWikipediaUrl, includeUsageExplorerUrl, forceUpdate, cacheOnly,
+        new BingSearchResults(true));
+  }
+
+  /**
+   * @param bingSearchResults Where Bing Search results come from, e.g. a local snapshot of the cache.
+   */
+  public BingSearchRanker(Boolean includeChebiApplications,
+                          Boolean includeWikipediaUrl,
+                          Boolean includeUsageExplorerUrl,
+                          Boolean forceUpdate,
+                          Boolean cacheOnly,
+                          BingSearchResults bingSearchResults) {
     this.mongoDB = new MongoDB(DEFAULT_HOST, DEFAULT_PORT, DEFAULT_INSTALLER_DATABASE);
-    this.bingSearcher = new BingSearcher(this.mongoDB, forceUpdate, false);
+    this.bingSearcher = new BingSearcher(this.mongoDB, forceUpdate, cacheOnly, bingSearchResults);
     this.includeChebiApplications = includeChebiApplications;
     this.includeWikipediaUrl = includeWikipediaUrl;
     this.includeUsageExplorerUrl = includeUsageExplorerUrl;
@@ -246,11 +283,16 @@ public class BingSearchRanker {
     LOGGER.info("Found %d molecules in the input corpus", inchis.size());
 
     // Update the Bing Search results in the Installer database
+    BingSearchResults bingSearchResults = cl.hasOption(OPTION_LOCAL_CACHE) ?
+        new BingSearchResults(BingCacheSnapshot.openLocalCache(new File(cl.getOptionValue(OPTION_LOCAL_CACHE)))) :
+        new BingSearchResults(true);
     BingSearchRanker bingSearchRanker = new BingSearchRanker(
         cl.hasOption(OPTION_INCLUDE_CHEBI_APPLICATIONS),
         cl.hasOption(OPTION_INCLUDE_WIKIPEDIA_URL),
         cl.hasOption(OPTION_INCLUDE_USAGE_EXPLORER_URL),
-        cl.hasOption(OPTION_FORCE_UPDATE));
+        cl.hasOption(OPTION_FORCE_UPDATE),
+        cl.hasOption(OPTION_CACHE_ONLY) || cl.hasOption(OPTION_LOCAL_CACHE),
+        bingSearchResults);
     LOGGER.info("Updating the Bing Search results in the Installer database");
     bingSearchRanker.addBingSearchResults(inchis);
     LOGGER.info("Done updating the Bing Search results");
@@ -49,7 +49,11 @@ import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -58,6 +62,7 @@ import java.util.Set;
  * - caching its results in a Mongo database
  * - returning searched or cached results
  * - finding the best name for a molecule
+ * In cache-only mode, results can also come from a local snapshot of the cache instead of the Mongo database.
  */
 
 public class BingSearchResults {
@@ -73,9 +78,9 @@ public class BingSearchResults {
   
   // The centralized location for caching Bing Search queries.
   // TODO: make this changeable without a code change (with CLI maybe?)
-  private static final String BING_CACHE_HOST = "localhost";
-  private static final int BING_CACHE_MONGO_PORT = 27777;
-  private static final String BING_CACHE_MONGO_DATABASE = "bingsearch";
+  public static final String BING_CACHE_HOST = "localhost";
+  public static final int BING_CACHE_MONGO_PORT = 27777;
+  public static final String BING_CACHE_MONGO_DATABASE = "bingsearch";
 
 
   private static final String BING_API_HOST = "api.cognitive.microsoft.com";
@@ -84,6 +89,8 @@ public class BingSearchResults {
   private static ObjectMapper mapper = new ObjectMapper();
 
   private BingCacheMongoDB bingCacheMongoDB;
+  // Where cache-only lookups are served from: the Mongo cache itself, or a local snapshot of it.
+  private BingSearchCache cache;
   private BasicHttpClientConnectionManager basicConnManager;
   private String accountKey;
   private boolean cacheOnly;
@@ -95,11 +102,24 @@ public class BingSearchResults {
   public BingSearchResults(boolean cacheOnly) {
     this.cacheOnly = cacheOnly;
     this.bingCacheMongoDB = new BingCacheMongoDB(BING_CACHE_HOST, BING_CACHE_MONGO_PORT, BING_CACHE_MONGO_DATABASE);
+    this.cache = this.bingCacheMongoDB;
+  }
+
+  /**
+   * Serve all results from a local cache, without connecting to either the Mongo cache or the Bing Search API.  The
+   * resulting object is always cache-only: the getAndCache* methods, which write to the Mongo cache, throw
+   * IllegalStateException.
+   * @param localCache A snapshot of the Bing cache; see BingCacheSnapshot.
+   */
+  public BingSearchResults(BingSearchCache localCache) {
+    this.cacheOnly = true;
+    this.cache = localCache;
   }
 
   public BingSearchResults(String accountKeyFilepath) {
     this.cacheOnly = false;
     this.bingCacheMongoDB = new BingCacheMongoDB(BING_CACHE_HOST, BING_CACHE_MONGO_PORT, BING_CACHE_MONGO_DATABASE);
+    this.cache = this.bingCacheMongoDB;
     this.basicConnManager = new BasicHttpClientConnectionManager();
     try {
       this.accountKey = getAccountKey(accountKeyFilepath);
@@ -269,6 +289,19 @@ public class BingSearchResults {
     return results;
   }
 
+  /**
+   * @return True if this object only reads from a local snapshot of the cache, and so can only do cache-only lookups.
+   */
+  public boolean usesLocalCache() {
+    return bingCacheMongoDB == null;
+  }
+
+  private void requireMongoCache() {
+    if (usesLocalCache()) {
+      throw new IllegalStateException("Results backed by a local cache snapshot can only be looked up cache-only");
+    }
+  }
+
   /** This key function caches in a MongoDB collection and returns a set of SearchResults.
    * If present, the results are returned from the cache. If not, the results are queried and returned after updating
    * the cache.
@@ -277,6 +310,7 @@ public class BingSearchResults {
    * @throws IOException
    */
   public Set<SearchResult> getAndCacheTopSearchResults(String name) throws IOException {
+    requireMongoCache();
 
     String formattedName = name.toLowerCase();
     BasicDBObject nameSearchResultDBObject = bingCacheMongoDB.getNameSearchResultDBObjectFromName(formattedName);
@@ -331,37 +365,38 @@ public class BingSearchResults {
   }
 
   public Set<SearchResult> getTopSearchResultsFromCache(String name) {
-    Set<SearchResult> searchResults = new HashSet<>();
-    String formattedName = name.toLowerCase();
-    BasicDBObject nameSearchResultDBObject = bingCacheMongoDB.getNameSearchResultDBObjectFromName(formattedName);
-    if (nameSearchResultDBObject == null) {
-      return searchResults;
-    }
-    BasicDBList topSearchResultsList = (BasicDBList) nameSearchResultDBObject.get("topSearchResults");
-    if (topSearchResultsList == null) {
-      return searchResults;
-    }
-    for (Object topSearchResult : topSearchResultsList) {
-      SearchResult searchResult = new SearchResult();
-      BasicDBObject topSearchResultDBObject = (BasicDBObject) topSearchResult;
-      searchResult.populateFromBasicDBObject(topSearchResultDBObject);
-      searchResults.add(searchResult);
-    }
-    return searchResults;
+    return getTopSearchResultsFromCache(cache.getNameSearchResult(name.toLowerCase()));
   }
 
   public Long getTotalCountSearchResultsFromCache(String name) {
-    String formattedName = name.toLowerCase();
-    BasicDBObject nameSearchResultDBObject = bingCacheMongoDB.getNameSearchResultDBObjectFromName(formattedName);
-    Long totalCountSearchResults;
-    if (nameSearchResultDBObject == null) {
-      return -1L;
+    return getTotalCountSearchResultsFromCache(cache.getNameSearchResult(name.toLowerCase()));
+  }
+
+  /**
+   * Fetch the cached results for many names at once.
+   * @param names The names to look up.  Will be normalized to lower case.
+   * @return A map from lower case name to cached results, with no entries for names missing from the cache.
+   */
+  public Map<String, NameSearchResults> getNameSearchResultsFromCache(Collection<String> names) {
+    Set<String> formattedNames = new HashSet<>(names.size());
+    for (String name : names) {
+      formattedNames.add(name.toLowerCase());
     }
-    totalCountSearchResults = (Long) nameSearchResultDBObject.get("totalCountSearchResults");
-    if (totalCountSearchResults == null) {
+    return cache.getNameSearchResults(formattedNames);
+  }
+
+  public static Set<SearchResult> getTopSearchResultsFromCache(NameSearchResults cachedResults) {
+    if (cachedResults == null || cachedResults.getTopSearchResults() == null) {
+      return new HashSet<>();
+    }
+    return cachedResults.getTopSearchResults();
+  }
+
+  public static Long getTotalCountSearchResultsFromCache(NameSearchResults cachedResults) {
+    if (cachedResults == null) {
       return -1L;
     }
-    return totalCountSearchResults;
+    return cachedResults.getTotalCountSearchResults();
   }
 
   /** This key function caches in a MongoDB collection and returns the total count of Bing search results.
@@ -372,6 +407,7 @@ public class BingSearchResults {
    * @throws IOException
    */
   public Long getAndCacheTotalCountSearchResults(String name) throws IOException {
+    requireMongoCache();
 
     String formattedName = name.toLowerCase();
     BasicDBObject nameSearchResultDBObject = bingCacheMongoDB.getNameSearchResultDBObjectFromName(formattedName);
@@ -421,6 +457,10 @@ public class BingSearchResults {
     return totalCountSearchResults;
   }
 
+  private interface CountLookup {
+    Long getTotalCountSearchResults(String name) throws IOException;
+  }
+
   /** Heuristic to find the best name for a given InChI, based on the total number of search results
    * @param namesOfMolecule (NamesOfMolecule) Java object containing Brenda, MetaCyc, ChEBI and DrugBank names for a given
    *                      InChI.
@@ -428,8 +468,38 @@ public class BingSearchResults {
    * @throws IOException
    */
   public String findBestMoleculeName(NamesOfMolecule namesOfMolecule) throws IOException {
-    Long maxCount = -1L;
-    String bestName = "";
+    return findBestMoleculeName(namesOfMolecule, getCandidateNames(namesOfMolecule),
+        name -> (cacheOnly) ? getTotalCountSearchResultsFromCache(name) : getAndCacheTotalCountSearchResults(name));
+  }
+
+  /** Same heuristic as findBestMoleculeName, but reads search hit counts from previously fetched cache results.
+   * @param namesOfMolecule Java object containing the names for a given InChI.
+   * @param candidateNames The result of getCandidateNames for that molecule.
+   * @param cachedResults Cached results for (at least) all candidate names, keyed by lower case name.
+   * @return the name with the highest total number of search results, called Best Name
+   */
+  public String findBestMoleculeName(NamesOfMolecule namesOfMolecule, List<String> candidateNames,
+                                     Map<String, NameSearchResults> cachedResults) {
+    try {
+      return findBestMoleculeName(namesOfMolecule, candidateNames,
+          name -> getTotalCountSearchResultsFromCache(cachedResults.get(name.toLowerCase())));
+    } catch (IOException e) {
+      // Lookups in a map do not do any I/O.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** The names that findBestMoleculeName needs search hit counts for: none if the molecule has a Wikipedia name,
+   * which is always preferred, and otherwise all of its names except its formula and very short names.
+   * @param namesOfMolecule Java object containing the names for a given InChI.
+   * @return the candidate names, in the order they are considered
+   */
+  public List<String> getCandidateNames(NamesOfMolecule namesOfMolecule) {
+    List<String> candidateNames = new ArrayList<>();
+    if (namesOfMolecule.getWikipediaName() != null) {
+      return candidateNames;
+    }
+
     String inchi = namesOfMolecule.getInchi();
     String[] splittedInchi = inchi.split("/");
     String formulaFromInchi = null;
@@ -439,19 +509,30 @@ public class BingSearchResults {
 
     LOGGER.debug("Formula %s extracted from %s", formulaFromInchi, inchi);
 
+    Set<String> names = namesOfMolecule.getAllNames();
+    names.remove(formulaFromInchi);
+    for (String name : names) {
+      // Ignore name if <= 4 characters
+      if (name.length() <= 4) {
+        continue;
+      }
+      candidateNames.add(name);
+    }
+    return candidateNames;
+  }
+
+  private String findBestMoleculeName(NamesOfMolecule namesOfMolecule, List<String> candidateNames,
+                                      CountLookup countLookup) throws IOException {
+    Long maxCount = -1L;
+    String bestName = "";
+
     String wikipediaName = namesOfMolecule.getWikipediaName();
     if (wikipediaName != null) {
       bestName = wikipediaName;
     } else {
-      Set<String> names = namesOfMolecule.getAllNames();
-      names.remove(formulaFromInchi);
-      for (String name : names) {
-        // Ignore name if <= 4 characters
-        if (name.length() <= 4) {
-          continue;
-        }
+      for (String name : candidateNames) {
         LOGGER.debug("Getting search hits for %s", name);
-        Long count = (cacheOnly) ? getTotalCountSearchResultsFromCache(name) : getAndCacheTotalCountSearchResults(name);
+        Long count = countLookup.getTotalCountSearchResults(name);
         // Ignore name if there was a previous better candidate
         if (count <= maxCount) {
           continue;
@@ -23,11 +23,15 @@
 
 package act.installer.bing;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -39,6 +43,7 @@ import org.apache.logging.log4j.Logger;
 import com.mongodb.BasicDBObject;
 
 import act.server.MongoDB;
+import act.shared.helpers.P;
 
 /**
  * This class contains the main logic for installing Bing Search results in the Installer DB
@@ -56,11 +61,15 @@ public class BingSearcher {
   public static final String OPTION_DB_PORT = "p";
   public static final String OPTION_DB_HOST = "h";
   public static final String OPTION_CACHE_ONLY = "c";
+  public static final String OPTION_LOCAL_CACHE = "l";
 
   public static final String DEFAULT_HOST = "localhost";
   public static final String DEFAULT_PORT = "27017";
   public static final String DEFAULT_DATABASE = "actv01";
 
+  // How many InChIs to annotate per round of batched queries in cache-only mode.
+  public static final int CACHE_BATCH_SIZE = 1000;
+
   public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
     add(Option.builder(OPTION_DB_NAME)
         .argName("db name")
@@ -89,6 +98,13 @@ public class BingSearcher {
         .longOpt("cache-only")
         .type(String.class)
     );
+    add(Option.builder(OPTION_LOCAL_CACHE)
+        .argName("path")
+        .desc("Read Bing Search results from a local snapshot of the cache (a file or a RocksDB directory, " +
+            "see BingCacheSnapshot) instead of the Mongo cache. Implies cache-only.")
+        .hasArg()
+        .longOpt("local-cache")
+    );
   }};
 
   private MongoDB db;
@@ -97,7 +113,7 @@ public class BingSearcher {
   private boolean forceUpdate;
   private boolean cacheOnly;
 
-  public static void main(String args[]) {
+  public static void main(String args[]) throws Exception {
 
     CLIUtil cliUtil = new CLIUtil(BingSearcher.class, HELP_MESSAGE, OPTION_BUILDERS);
     CommandLine cl = cliUtil.parseCommandLine(args);
@@ -106,7 +122,13 @@ public class BingSearcher {
         Integer.parseInt(cl.getOptionValue(OPTION_DB_PORT, DEFAULT_PORT)),
         cl.getOptionValue(OPTION_DB_NAME, DEFAULT_DATABASE)
     );
-    BingSearcher bingSearcher = new BingSearcher(db, true, cl.hasOption(OPTION_CACHE_ONLY));
+    BingSearcher bingSearcher;
+    if (cl.hasOption(OPTION_LOCAL_CACHE)) {
+      BingSearchCache localCache = BingCacheSnapshot.openLocalCache(new File(cl.getOptionValue(OPTION_LOCAL_CACHE)));
+      bingSearcher = new BingSearcher(db, true, true, new BingSearchResults(localCache));
+    } else {
+      bingSearcher = new BingSearcher(db, true, cl.hasOption(OPTION_CACHE_ONLY));
+    }
     bingSearcher.addBingSearchResultsForEntireDatabase();
   }
 
@@ -115,10 +137,17 @@ public class BingSearcher {
   }
 
   public BingSearcher(MongoDB db, boolean forceUpdate, boolean cacheOnly) {
+    this(db, forceUpdate, cacheOnly, new BingSearchResults(true));
+  }
+
+  public BingSearcher(MongoDB db, boolean forceUpdate, boolean cacheOnly, BingSearchResults bingSearchResults) {
+    if (!cacheOnly && bingSearchResults.usesLocalCache()) {
+      throw new IllegalArgumentException("Bing search results from a local cache snapshot require cache-only mode");
+    }
     this.db = db;
     this.forceUpdate = forceUpdate;
     this.cacheOnly = cacheOnly;
-    this.bingSearchResults = new BingSearchResults(true);
+    this.bingSearchResults = bingSearchResults;
     // Get the usage terms
     LOGGER.debug("Getting usage terms corpus.");
     UsageTermsCorpus usageTermsCorpus = new UsageTermsCorpus(USAGE_TERMS_FILENAME);
@@ -169,6 +198,14 @@ public class BingSearcher {
       totalCountSearchResults = bingSearchResults.getAndCacheTotalCountSearchResults(bestName);
       topSearchResults = bingSearchResults.getAndCacheTopSearchResults(bestName);
     }
+
+    // Annotate the chemical with Bing Search Results
+    BasicDBObject doc = createBingMetadataDoc(bestName, totalCountSearchResults, topSearchResults);
+    db.updateChemicalWithBingSearchResults(inchi, bestName, doc);
+  }
+
+  private BasicDBObject createBingMetadataDoc(String bestName, Long totalCountSearchResults,
+                                              Set<SearchResult> topSearchResults) {
     NameSearchResults nameSearchResults = new NameSearchResults(bestName);
     nameSearchResults.setTotalCountSearchResults(totalCountSearchResults);
     nameSearchResults.setTopSearchResults(topSearchResults);
@@ -183,14 +220,16 @@ public class BingSearcher {
       }
     }
 
-    // Annotate the chemical with Bing Search Results
-    BasicDBObject doc = db.createBingMetadataDoc(moleculeUsageTerms, totalCountSearchResults, bestName);
-    db.updateChemicalWithBingSearchResults(inchi, bestName, doc);
+    return db.createBingMetadataDoc(moleculeUsageTerms, totalCountSearchResults, bestName);
   }
 
   public void addBingSearchResultsForInchiSet(Set<String> inchis) {
     Set<String> filteredInchis = inchis.stream().filter(inchi -> !inchi.contains("FAKE")).collect(Collectors.toSet());
     LOGGER.info("Annotating %d chemicals with Bing Search results and usage terms.", filteredInchis.size());
+    if (cacheOnly) {
+      addBingSearchResultsFromCacheForInchiSet(filteredInchis);
+      return;
+    }
     int counter = 0;
     for (String inchi : filteredInchis) {
       if (!forceUpdate && db.hasBingSearchResultsFromInchi(inchi)) {
@@ -207,4 +246,68 @@ public class BingSearcher {
       }
     }
   }
+
+  /**
+   * Cache-only version of addBingSearchResultsForInchiSet, which works through the InChIs in batches.  Each batch
+   * costs a constant number of queries: one to skip already annotated chemicals, one for the molecules' names and one
+   * for the cached results of every name that could be picked as a best name.  Best names and usage terms are then
+   * computed in parallel, and the chemicals updated one by one.
+   * @param inchis The InChIs to annotate, without fake ones.
+   */
+  private void addBingSearchResultsFromCacheForInchiSet(Set<String> inchis) {
+    List<String> inchiList = new ArrayList<>(inchis);
+    int counter = 0;
+    for (int start = 0; start < inchiList.size(); start += CACHE_BATCH_SIZE) {
+      List<String> batch = inchiList.subList(start, Math.min(start + CACHE_BATCH_SIZE, inchiList.size()));
+      counter += addBingSearchResultsFromCacheForBatch(batch);
+      LOGGER.info("Added Bing Search results for %d chemicals (total %d)", counter, inchiList.size());
+    }
+  }
+
+  private int addBingSearchResultsFromCacheForBatch(List<String> inchis) {
+    Set<String> alreadyAnnotated =
+        forceUpdate ? Collections.emptySet() : db.getInchisWithBingSearchResults(inchis);
+    Map<String, NamesOfMolecule> namesByInchi = db.fetchNamesFromInchis(inchis);
+
+    // Pair each molecule with the names its best name will be picked from, and gather all of them (plus any Wikipedia
+    // names, which are picked outright) so that their cached results can be fetched in one go.
+    List<P<NamesOfMolecule, List<String>>> molecules = new ArrayList<>(inchis.size());
+    Set<String> namesToFetch = new HashSet<>();
+    for (String inchi : inchis) {
+      if (alreadyAnnotated.contains(inchi)) {
+        LOGGER.debug("Existing Bing search results found for %s. Skipping.", inchi);
+        continue;
+      }
+      NamesOfMolecule namesOfMolecule = namesByInchi.get(inchi);
+      if (namesOfMolecule == null) {
+        LOGGER.debug("Molecule corresponding to %s was not found in the database. Skipping.", inchi);
+        continue;
+      }
+      List<String> candidateNames = bingSearchResults.getCandidateNames(namesOfMolecule);
+      namesToFetch.addAll(candidateNames);
+      if (namesOfMolecule.getWikipediaName() != null) {
+        namesToFetch.add(namesOfMolecule.getWikipediaName());
+      }
+      molecules.add(new P<>(namesOfMolecule, candidateNames));
+    }
+    Map<String, NameSearchResults> cachedResults = bingSearchResults.getNameSearchResultsFromCache(namesToFetch);
+
+    List<P<String, P<String, BasicDBObject>>> annotations = molecules.parallelStream().map(molecule -> {
+      NamesOfMolecule namesOfMolecule = molecule.fst();
+      String bestName = bingSearchResults.findBestMoleculeName(namesOfMolecule, molecule.snd(), cachedResults);
+      if (bestName.equals("")) {
+        return null;
+      }
+      NameSearchResults cached = cachedResults.get(bestName.toLowerCase());
+      BasicDBObject doc = createBingMetadataDoc(bestName,
+          BingSearchResults.getTotalCountSearchResultsFromCache(cached),
+          BingSearchResults.getTopSearchResultsFromCache(cached));
+      return new P<>(namesOfMolecule.getInchi(), new P<>(bestName, doc));
+    }).filter(Objects::nonNull).collect(Collectors.toList());
+
+    for (P<String, P<String, BasicDBObject>> annotation : annotations) {
+      db.updateChemicalWithBingSearchResults(annotation.fst(), annotation.snd().fst(), annotation.snd().snd());
+    }
+    return annotations.size();
+  }
 }
@@ -0,0 +1,106 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer.bing;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A Bing cache snapshot stored as a flat file with one JSON document per line, loaded entirely into memory.  Best
+ * suited to snapshots restricted to the names of a particular corpus; for the whole cache use RocksDBBingSearchCache.
+ */
+public class FlatFileBingSearchCache implements BingSearchCache {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(FlatFileBingSearchCache.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private Map<String, NameSearchResults> nameSearchResults;
+
+  private FlatFileBingSearchCache(Map<String, NameSearchResults> nameSearchResults) {
+    this.nameSearchResults = nameSearchResults;
+  }
+
+  public static FlatFileBingSearchCache open(File file) throws IOException {
+    Map<String, NameSearchResults> nameSearchResults = new HashMap<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        NameSearchResults results = NameSearchResults.fromJsonNode(MAPPER.readTree(line));
+        nameSearchResults.put(results.getName(), results);
+      }
+    }
+    LOGGER.info("Loaded %d cached Bing Search results from %s", nameSearchResults.size(), file.getAbsolutePath());
+    return new FlatFileBingSearchCache(nameSearchResults);
+  }
+
+  /**
+   * Write a snapshot that open() can read.
+   * @param file The file to write to.  Will be overwritten.
+   * @param nameSearchResults The results to store.
+   * @return The number of results written.
+   * @throws IOException
+   */
+  public static long write(File file, Iterator<NameSearchResults> nameSearchResults) throws IOException {
+    long count = 0L;
+    try (BufferedWriter writer = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+      while (nameSearchResults.hasNext()) {
+        writer.write(MAPPER.writeValueAsString(nameSearchResults.next().toJsonNode()));
+        writer.newLine();
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public Map<String, NameSearchResults> getNameSearchResults(Collection<String> formattedNames) {
+    Map<String, NameSearchResults> found = new HashMap<>();
+    for (String name : formattedNames) {
+      NameSearchResults results = nameSearchResults.get(name);
+      if (results != null) {
+        found.put(name, results);
+      }
+    }
+    return found;
+  }
+}
@@ -23,9 +23,19 @@
 
 package act.installer.bing;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+
+import java.util.HashSet;
 import java.util.Set;
 
 public class NameSearchResults {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
   private String name;
   private Long totalCountSearchResults = -1L;
   private Set<SearchResult> topSearchResults = null;
@@ -57,4 +67,70 @@ public class NameSearchResults {
   public void setTopSearchResults(Set<SearchResult> topSearchResults) {
     this.topSearchResults = topSearchResults;
   }
+
+  /**
+   * Reads a document from the Bing cache collection.  Fields that are absent from the document keep their defaults,
+   * which is how the cache signals that they have not been fetched yet.
+   * @param o A document with a name and, optionally, totalCountSearchResults and topSearchResults.
+   * @return The corresponding NameSearchResults
+   */
+  public static NameSearchResults fromBasicDBObject(BasicDBObject o) {
+    NameSearchResults nameSearchResults = new NameSearchResults((String) o.get("name"));
+    Long totalCountSearchResults = (Long) o.get("totalCountSearchResults");
+    if (totalCountSearchResults != null) {
+      nameSearchResults.setTotalCountSearchResults(totalCountSearchResults);
+    }
+    BasicDBList topSearchResultsList = (BasicDBList) o.get("topSearchResults");
+    if (topSearchResultsList != null) {
+      Set<SearchResult> topSearchResults = new HashSet<>();
+      for (Object topSearchResult : topSearchResultsList) {
+        SearchResult searchResult = new SearchResult();
+        searchResult.populateFromBasicDBObject((BasicDBObject) topSearchResult);
+        topSearchResults.add(searchResult);
+      }
+      nameSearchResults.setTopSearchResults(topSearchResults);
+    }
+    return nameSearchResults;
+  }
+
+  /**
+   * Serializes these results in the same shape as a Bing cache document, for local cache snapshots.
+   * @return A JSON object that fromJsonNode can read back.
+   */
+  public JsonNode toJsonNode() {
+    ObjectNode node = MAPPER.createObjectNode();
+    node.put("name", name);
+    if (totalCountSearchResults >= 0) {
+      node.put("totalCountSearchResults", totalCountSearchResults);
+    }
+    if (topSearchResults != null) {
+      ArrayNode topSearchResultsNode = node.putArray("topSearchResults");
+      for (SearchResult topSearchResult : topSearchResults) {
+        topSearchResultsNode.addObject()
+            .put("title", topSearchResult.getTitle())
+            .put("description", topSearchResult.getDescription())
+            .put("url", topSearchResult.getUrl());
+      }
+    }
+    return node;
+  }
+
+  public static NameSearchResults fromJsonNode(JsonNode node) {
+    NameSearchResults nameSearchResults = new NameSearchResults(node.path("name").textValue());
+    if (node.has("totalCountSearchResults")) {
+      nameSearchResults.setTotalCountSearchResults(node.get("totalCountSearchResults").asLong());
+    }
+    if (node.has("topSearchResults")) {
+      Set<SearchResult> topSearchResults = new HashSet<>();
+      for (JsonNode topSearchResult : node.get("topSearchResults")) {
+        SearchResult searchResult = new SearchResult();
+        searchResult.setTitle(topSearchResult.path("title").textValue());
+        searchResult.setDescription(topSearchResult.path("description").textValue());
+        searchResult.setUrl(topSearchResult.path("url").textValue());
+        topSearchResults.add(searchResult);
+      }
+      nameSearchResults.setTopSearchResults(topSearchResults);
+    }
+    return nameSearchResults;
+  }
 }
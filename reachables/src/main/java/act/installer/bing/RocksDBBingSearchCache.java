@@ -0,0 +1,140 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer.bing;
+
+import com.act.utils.rocksdb.ColumnFamilyEnumeration;
+import com.act.utils.rocksdb.DBUtil;
+import com.act.utils.rocksdb.RocksDBAndHandles;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A Bing cache snapshot stored in RocksDB, keyed by lower case name, for snapshots too large to hold in memory.
+ */
+public class RocksDBBingSearchCache implements BingSearchCache, AutoCloseable {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(RocksDBBingSearchCache.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final int WRITE_BATCH_SIZE = 10000;
+
+  enum ColumnFamilies implements ColumnFamilyEnumeration<ColumnFamilies> {
+    // Maps lower case name (as UTF-8 bytes) to its NameSearchResults as JSON.
+    NAME_TO_RESULTS("name_to_results"),
+    ;
+
+    private static final Map<String, ColumnFamilies> reverseNameMap =
+        new HashMap<String, ColumnFamilies>() {{
+          for (ColumnFamilies cf : ColumnFamilies.values()) {
+            put(cf.getName(), cf);
+          }
+        }};
+
+    private String name;
+
+    ColumnFamilies(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public ColumnFamilies getFamilyByName(String name) {
+      return reverseNameMap.get(name);
+    }
+  }
+
+  private RocksDBAndHandles<ColumnFamilies> dbAndHandles;
+
+  private RocksDBBingSearchCache(RocksDBAndHandles<ColumnFamilies> dbAndHandles) {
+    this.dbAndHandles = dbAndHandles;
+  }
+
+  public static RocksDBBingSearchCache open(File path) throws RocksDBException {
+    LOGGER.info("Opening Bing cache snapshot at %s", path.getAbsolutePath());
+    return new RocksDBBingSearchCache(DBUtil.openExistingRocksDB(path, ColumnFamilies.values()));
+  }
+
+  /**
+   * Write a snapshot that open() can read.
+   * @param path The directory in which to create the snapshot.  Must not already exist.
+   * @param nameSearchResults The results to store.
+   * @return The number of results written.
+   * @throws RocksDBException
+   * @throws IOException
+   */
+  public static long write(File path, Iterator<NameSearchResults> nameSearchResults)
+      throws RocksDBException, IOException {
+    long count = 0L;
+    RocksDBAndHandles<ColumnFamilies> dbAndHandles = DBUtil.createNewRocksDB(path, ColumnFamilies.values());
+    try {
+      RocksDBAndHandles.RocksDBWriteBatch<ColumnFamilies> batch = dbAndHandles.makeWriteBatch();
+      while (nameSearchResults.hasNext()) {
+        NameSearchResults results = nameSearchResults.next();
+        batch.put(ColumnFamilies.NAME_TO_RESULTS, results.getName().getBytes(StandardCharsets.UTF_8),
+            MAPPER.writeValueAsBytes(results.toJsonNode()));
+        if (++count % WRITE_BATCH_SIZE == 0) {
+          batch.write();
+          batch = dbAndHandles.makeWriteBatch();
+        }
+      }
+      batch.write();
+      dbAndHandles.flush(true);
+    } finally {
+      dbAndHandles.close();
+    }
+    return count;
+  }
+
+  @Override
+  public Map<String, NameSearchResults> getNameSearchResults(Collection<String> formattedNames) {
+    Map<String, NameSearchResults> found = new HashMap<>();
+    try {
+      for (String name : formattedNames) {
+        byte[] bytes = dbAndHandles.get(ColumnFamilies.NAME_TO_RESULTS, name.getBytes(StandardCharsets.UTF_8));
+        if (bytes != null) {
+          found.put(name, NameSearchResults.fromJsonNode(MAPPER.readTree(bytes)));
+        }
+      }
+    } catch (RocksDBException | IOException e) {
+      throw new RuntimeException("Unable to read from Bing cache snapshot", e);
+    }
+    return found;
+  }
+
+  @Override
+  public void close() {
+    dbAndHandles.close();
+  }
+}
@@ -44,10 +44,8 @@ import org.rocksdb.DBOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -451,21 +449,21 @@ public class BrendaSQL {
    * @param rocksDB The DB to access.
    * @param cfh A handle to the appropriate column family.
    * @param key The key for which to search.
+   * @param instance An instance of the type stored in the column family, used to decode the stored values.
    * @param <T> The type of object to use when deserializing the list of values for the specified column family and key.
    * @return A list of objects from the DB corresponding to the specified column family and key.
    * @throws IOException
    * @throws ClassNotFoundException
    * @throws RocksDBException
    */
-  public <T> List<T> getRocksDBEntry(RocksDB rocksDB, ColumnFamilyHandle cfh, byte[] key)
+  public <T extends FromBrendaDB<T>> List<T> getRocksDBEntry(RocksDB rocksDB, ColumnFamilyHandle cfh, byte[] key,
+                                                            T instance)
       throws IOException, ClassNotFoundException, RocksDBException {
     byte[] bytes = rocksDB.get(cfh, key);
     if (bytes == null) {
       return new ArrayList<>(0);
     }
-    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
-    List<T> vals = (List<T>) ois.readObject();
-    return vals;
+    return SupportingEntryCodec.decodeList(bytes, instance);
   }
 
   private List<Pair<Seq.AccDB, SequenceEntry>> getSequenceInfo(
@@ -551,80 +549,93 @@ public class BrendaSQL {
     /* Rather than querying the BRENDA DB for these supporting entries, we fetch them from an on-disk index. */
     {
       List<BrendaSupportingEntries.KMValue> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.KMValue.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.KMValue.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.KMValue.INSTANCE);
       addKMValues(protein, vals);
     }
 
     {
       List<BrendaSupportingEntries.Cloned> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.Cloned.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.Cloned.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.Cloned.INSTANCE);
       addClonedValues(protein, vals);
     }
 
     {
       List<BrendaSupportingEntries.PosttranslationalModification> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.PosttranslationalModification.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.PosttranslationalModification.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.PosttranslationalModification.INSTANCE);
       addPosttranslationalModificationValues(protein, vals);
     }
 
     {
       List<BrendaSupportingEntries.KCatKMValue> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.KCatKMValue.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.KCatKMValue.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.KCatKMValue.INSTANCE);
       addKCatKMValues(protein, vals);
     }
 
 
     {
       List<BrendaSupportingEntries.SpecificActivity> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.SpecificActivity.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.SpecificActivity.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.SpecificActivity.INSTANCE);
       addSpecificActivity(protein, vals);
     }
 
     {
       List<BrendaSupportingEntries.Subunits> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.Subunits.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.Subunits.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.Subunits.INSTANCE);
       addSubunits(protein, vals);
     }
 
     {
       List<BrendaSupportingEntries.Expression> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.Expression.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.Expression.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.Expression.INSTANCE);
       addExpressions(protein, vals);
     }
 
     {
       List<BrendaSupportingEntries.Localization> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.Localization.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.Localization.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.Localization.INSTANCE);
       addLocalizations(protein, vals);
     }
 
     {
       List<BrendaSupportingEntries.ActivatingCompound> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.ActivatingCompound.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.ActivatingCompound.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.ActivatingCompound.INSTANCE);
       addActivatingCompounds(protein, vals);
     }
 
     {
       List<BrendaSupportingEntries.Inhibitors> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.Inhibitors.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.Inhibitors.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.Inhibitors.INSTANCE);
       addInhibitors(protein, vals);
     }
 
     {
       List<BrendaSupportingEntries.Cofactor> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.Cofactor.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.Cofactor.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.Cofactor.INSTANCE);
       addCofactors(protein, vals);
     }
 
     {
       List<BrendaSupportingEntries.GeneralInformation> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.GeneralInformation.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.GeneralInformation.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.GeneralInformation.INSTANCE);
       addGeneralInformation(protein, vals);
     }
 
     {
       List<BrendaSupportingEntries.OrganismCommentary> vals = getRocksDBEntry(rocksDB,
-          columnFamilyHandleMap.get(BrendaSupportingEntries.OrganismCommentary.COLUMN_FAMILY_NAME), supportingEntryKey);
+          columnFamilyHandleMap.get(BrendaSupportingEntries.OrganismCommentary.COLUMN_FAMILY_NAME), supportingEntryKey,
+          BrendaSupportingEntries.OrganismCommentary.INSTANCE);
       addOrganismCommentary(protein, vals);
     }
 
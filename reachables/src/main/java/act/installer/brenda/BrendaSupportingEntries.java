@@ -23,6 +23,7 @@
 
 package act.installer.brenda;
 
+import com.act.utils.ExternalKeyGrouper;
 import org.apache.commons.lang3.StringUtils;
 import org.rocksdb.ColumnFamilyDescriptor;
 import org.rocksdb.ColumnFamilyHandle;
@@ -30,20 +31,19 @@ import org.rocksdb.FlushOptions;
 import org.rocksdb.Options;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.nio.charset.Charset;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -422,6 +422,19 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableString(out, posttranslationalModification);
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public PosttranslationalModification readFields(DataInput in) throws IOException {
+      return new PosttranslationalModification(
+          SupportingEntryCodec.readNullableString(in),
+          SupportingEntryCodec.readNullableString(in));
+    }
   }
 
   public static class Cloned implements FromBrendaDB<Cloned> {
@@ -494,6 +507,16 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public Cloned readFields(DataInput in) throws IOException {
+      return new Cloned(SupportingEntryCodec.readNullableString(in));
+    }
   }
 
   // Classes representing data linked to the Substrates_Products and Natural_Substrates_Products tables.
@@ -564,6 +587,19 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableDouble(out, kmValue);
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public KMValue readFields(DataInput in) throws IOException {
+      return new KMValue(
+          SupportingEntryCodec.readNullableDouble(in),
+          SupportingEntryCodec.readNullableString(in));
+    }
   }
 
   public static class SpecificActivity implements FromBrendaDB<SpecificActivity> {
@@ -633,6 +669,19 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableDouble(out, specificActivity);
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public SpecificActivity readFields(DataInput in) throws IOException {
+      return new SpecificActivity(
+          SupportingEntryCodec.readNullableDouble(in),
+          SupportingEntryCodec.readNullableString(in));
+    }
   }
 
   public static class OrganismCommentary implements FromBrendaDB<OrganismCommentary> {
@@ -696,6 +745,16 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public OrganismCommentary readFields(DataInput in) throws IOException {
+      return new OrganismCommentary(SupportingEntryCodec.readNullableString(in));
+    }
   }
 
   public static class GeneralInformation implements FromBrendaDB<GeneralInformation> {
@@ -767,6 +826,19 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableString(out, generalInformation);
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public GeneralInformation readFields(DataInput in) throws IOException {
+      return new GeneralInformation(
+          SupportingEntryCodec.readNullableString(in),
+          SupportingEntryCodec.readNullableString(in));
+    }
   }
 
   public static class Cofactor implements FromBrendaDB<Cofactor> {
@@ -836,6 +908,19 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableString(out, cofactor);
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public Cofactor readFields(DataInput in) throws IOException {
+      return new Cofactor(
+          SupportingEntryCodec.readNullableString(in),
+          SupportingEntryCodec.readNullableString(in));
+    }
   }
 
   public static class Inhibitors implements FromBrendaDB<Inhibitors> {
@@ -905,6 +990,19 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableString(out, inhibitors);
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public Inhibitors readFields(DataInput in) throws IOException {
+      return new Inhibitors(
+          SupportingEntryCodec.readNullableString(in),
+          SupportingEntryCodec.readNullableString(in));
+    }
   }
 
   public static class ActivatingCompound implements FromBrendaDB<ActivatingCompound> {
@@ -974,6 +1072,19 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableString(out, activatingCompound);
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public ActivatingCompound readFields(DataInput in) throws IOException {
+      return new ActivatingCompound(
+          SupportingEntryCodec.readNullableString(in),
+          SupportingEntryCodec.readNullableString(in));
+    }
   }
 
   public static class KCatKMValue implements FromBrendaDB<KCatKMValue> {
@@ -1049,6 +1160,21 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableDouble(out, kcatKMValue);
+      SupportingEntryCodec.writeNullableString(out, substrate);
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public KCatKMValue readFields(DataInput in) throws IOException {
+      return new KCatKMValue(
+          SupportingEntryCodec.readNullableDouble(in),
+          SupportingEntryCodec.readNullableString(in),
+          SupportingEntryCodec.readNullableString(in));
+    }
   }
 
   public static class Expression implements FromBrendaDB<Expression> {
@@ -1118,6 +1244,19 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableString(out, expression);
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public Expression readFields(DataInput in) throws IOException {
+      return new Expression(
+          SupportingEntryCodec.readNullableString(in),
+          SupportingEntryCodec.readNullableString(in));
+    }
   }
 
   public static class Subunits implements FromBrendaDB<Subunits> {
@@ -1187,6 +1326,19 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableString(out, subunits);
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public Subunits readFields(DataInput in) throws IOException {
+      return new Subunits(
+          SupportingEntryCodec.readNullableString(in),
+          SupportingEntryCodec.readNullableString(in));
+    }
   }
 
   public static class Localization implements FromBrendaDB<Localization> {
@@ -1256,6 +1408,19 @@ public class BrendaSupportingEntries {
     public String getColumnFamilyName() {
       return COLUMN_FAMILY_NAME;
     }
+
+    @Override
+    public void writeFields(DataOutput out) throws IOException {
+      SupportingEntryCodec.writeNullableString(out, localization);
+      SupportingEntryCodec.writeNullableString(out, commentary);
+    }
+
+    @Override
+    public Localization readFields(DataInput in) throws IOException {
+      return new Localization(
+          SupportingEntryCodec.readNullableString(in),
+          SupportingEntryCodec.readNullableString(in));
+    }
   }
 
 
@@ -1264,9 +1429,15 @@ public class BrendaSupportingEntries {
    */
 
   public static class IndexWriter<T extends FromBrendaDB<T>> {
+    private static final int KEYS_PER_WRITE_BATCH = 10000;
+
     protected ColumnFamilyHandle columnFamilyHandle;
     protected RocksDB db;
     protected T instance;
+    protected ExternalKeyGrouper grouper;
+
+    private long rowsAdded = 0L;
+    private long keysWritten = 0L;
 
     /**
      * Construct an index writer for a particular FromBrendaDB class.
@@ -1275,72 +1446,107 @@ public class BrendaSupportingEntries {
      * @param instance An instance of the class that is to be written.  Used for serialization/deserialization.
      */
     public IndexWriter(ColumnFamilyHandle columnFamilyHandle, RocksDB db, T instance) {
+      this(columnFamilyHandle, db, instance, null, ExternalKeyGrouper.DEFAULT_MAX_BUFFERED_BYTES);
+    }
+
+    /**
+     * Construct an index writer with an explicit memory budget for grouping entries by key.
+     * @param columnFamilyHandle A handle to the column family where this class's data should be written.
+     * @param db A db to which to write data.
+     * @param instance An instance of the class that is to be written.  Used for serialization/deserialization.
+     * @param scratchDir A directory for sorted runs if the entries outgrow memory, or null for the system default.
+     * @param maxBufferedBytes Roughly how much memory to use for entries before spilling them to disk.
+     */
+    public IndexWriter(ColumnFamilyHandle columnFamilyHandle, RocksDB db, T instance,
+                       File scratchDir, long maxBufferedBytes) {
       this.columnFamilyHandle = columnFamilyHandle;
       this.db = db;
       this.instance = instance;
+      this.grouper = new ExternalKeyGrouper(scratchDir, maxBufferedBytes);
     }
 
     /**
-     * Write a K/V pair to the index.
-     * @param key The key to write.
-     * @param val The object to add to a Serializable-serialized list of values.
+     * Add one BRENDA row to the index.  Multiple keys can exist for a given object thanks to BRENDA's nested
+     * literature references.  Nothing is written to the DB until finish() is called.
+     * @param ecNumber The row's EC number.
+     * @param literatureList The row's (possibly nested) list of literature references.
+     * @param organism The row's organism name.
+     * @param val The object to store under each of the row's keys.
      * @throws IOException
-     * @throws ClassNotFoundException
-     * @throws RocksDBException
      */
-    private void addObjectToIndex(byte[] key, T val) throws IOException, ClassNotFoundException, RocksDBException {
-      StringBuffer buffer = new StringBuffer();
-      List<T> storedObjects = null;
-      if (db.keyMayExist(columnFamilyHandle, key, buffer)) {
-        byte[] existingVal = db.get(columnFamilyHandle, key);
-        if (existingVal != null) {
-          ObjectInputStream oi = new ObjectInputStream(new ByteArrayInputStream(existingVal));
-          storedObjects = (ArrayList<T>) oi.readObject(); // Note: assumes all values are lists.
-        } else {
-          storedObjects = new ArrayList<>(1);
-        }
-      } else {
-        storedObjects = new ArrayList<>(1);
-      }
-
-      storedObjects.add(val);
-
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
-      ObjectOutputStream oo = new ObjectOutputStream(bos);
-      oo.writeObject(storedObjects);
-      oo.flush();
-
-      try {
-        db.put(columnFamilyHandle, key, bos.toByteArray());
-      } catch (RocksDBException e) {
-        // TODO: do better;
-        throw new IOException(e);
+    public void addRow(String ecNumber, String literatureList, String organism, T val) throws IOException {
+      // Every key for this row shares the same encoded bytes.
+      byte[] encoded = SupportingEntryCodec.encodeEntry(val);
+      for (String literatureId : idsFieldToArray(literatureList)) {
+        grouper.add(makeKey(ecNumber, literatureId, organism), encoded);
       }
-      oo.close();
-      bos.close();
+      rowsAdded++;
     }
 
     /**
-     * Make a list of keys + an object for the next result set row.  Multiple keys can exist for a given object
-     * thanks to BRENDA's nested literature references.
+     * Make a list of keys + an object for the next result set row and add them to the index.
      * @param resultSet The result set from which to read a row.
      * @throws IOException
-     * @throws ClassNotFoundException
-     * @throws RocksDBException
      * @throws SQLException
      */
-    private void createKeysAndWrite(ResultSet resultSet)
-        throws IOException, ClassNotFoundException, RocksDBException, SQLException {
+    private void createKeysAndAdd(ResultSet resultSet) throws IOException, SQLException {
       String ecNumber = resultSet.getString(instance.getECNumberFieldForAllQuery());
       String literatureList = resultSet.getString(instance.getLiteratureFieldForAllQuery());
       String organism = resultSet.getString(instance.getOrganismFieldForAllQuery());
 
-      T val = instance.fromResultSet(resultSet);
-      List<String> literatureIds = Arrays.asList(idsFieldToArray(literatureList));
-      for (String literatureId : literatureIds) {
-        byte[] key = makeKey(ecNumber, literatureId, organism);
-        addObjectToIndex(key, val);
+      addRow(ecNumber, literatureList, organism, instance.fromResultSet(resultSet));
+    }
+
+    /**
+     * Group all added rows by key and write each key's value list to the DB exactly once, in key order.  Keys should
+     * not already exist in the column family, as any existing value will be replaced.
+     * @return The number of distinct keys written.
+     * @throws IOException
+     * @throws RocksDBException
+     */
+    public long finish() throws IOException, RocksDBException {
+      WriteOptions writeOptions = new WriteOptions();
+      WriteBatch batch = new WriteBatch();
+      try {
+        // RocksDBExceptions can't escape the consumer, so they're wrapped here and unwrapped below.
+        grouper.forEachGroup((key, values) -> {
+          batch.put(columnFamilyHandle, key, SupportingEntryCodec.encodeList(values));
+          keysWritten++;
+          if (batch.count() >= KEYS_PER_WRITE_BATCH) {
+            writeBatch(writeOptions, batch);
+          }
+        });
+        if (batch.count() > 0) {
+          writeBatch(writeOptions, batch);
+        }
+      } catch (IOException e) {
+        if (e.getCause() instanceof RocksDBException) {
+          throw (RocksDBException) e.getCause();
+        }
+        throw e;
+      } finally {
+        grouper.close();
+        batch.dispose();
+        writeOptions.dispose();
+      }
+      return keysWritten;
+    }
+
+    private void writeBatch(WriteOptions writeOptions, WriteBatch batch) throws IOException {
+      try {
+        db.write(writeOptions, batch);
+      } catch (RocksDBException e) {
+        throw new IOException(e);
       }
+      batch.clear();
+    }
+
+    public long getRowsAdded() {
+      return rowsAdded;
+    }
+
+    public int getSpilledRunCount() {
+      return grouper.getSpilledRunCount();
     }
 
     /**
@@ -1371,12 +1577,15 @@ public class BrendaSupportingEntries {
 
       int processed = 0;
       while (results.next()) {
-        createKeysAndWrite(results);
+        createKeysAndAdd(results);
         processed++;
         if (processed % 10000 == 0) {
           System.out.println("  processed " + processed + " entries");
         }
       }
+
+      long keys = finish();
+      System.out.println("  wrote " + keys + " keys");
     }
   }
 
@@ -1416,8 +1625,8 @@ public class BrendaSupportingEntries {
    * of `column families` (i.e. per-table namespaces).  Each FromBrendaDB instance
    *
    * All index rows are keyed on EC number, literature reference (individually, lists are split during construction),
-   * and organism names.   Values are serialized (via Serializable) lists of FromBrendaDB objects; each column family
-   * contains one type of object.
+   * and organism names.   Values are lists of FromBrendaDB objects encoded with SupportingEntryCodec; each column
+   * family contains one type of object.  Rows are grouped by key before writing, so each key is written exactly once.
    *
    * Creating this data on an in-office MBP with a BRENDA MySQL instance running in EC2 takes just a couple of minutes.
    * Looking up supporting data locally vs. running MySQL queries for every data type * every reaction results in a
@@ -23,6 +23,9 @@
 
 package act.installer.brenda;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -92,4 +95,19 @@ public interface FromBrendaDB<T extends FromBrendaDB> extends Serializable {
    * @return a string representing the `column family` (name space) for this class in an on-disk index.
    */
   String getColumnFamilyName();
+
+  /**
+   * Write this object's fields in the compact binary form used by the on-disk index (see SupportingEntryCodec).
+   * @param out The output to which to write.
+   * @throws IOException
+   */
+  void writeFields(DataOutput out) throws IOException;
+
+  /**
+   * Read an object written by writeFields.  Called on an empty instance, like fromResultSet.
+   * @param in The input from which to read.
+   * @return A new instance of type T with the fields read from the input.
+   * @throws IOException
+   */
+  T readFields(DataInput in) throws IOException;
 }
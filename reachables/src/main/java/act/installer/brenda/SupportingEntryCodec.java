@@ -0,0 +1,189 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer.brenda;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes the values stored in the on-disk BRENDA index.
+ *
+ * Each value is the list of all FromBrendaDB entries for one (EC number, literature reference, organism) key, written
+ * as a format byte, a varint element count, and then each element as a varint length followed by that element's
+ * fields (see FromBrendaDB.writeFields).  Strings are length-prefixed UTF-8 and nullable fields carry a presence
+ * marker, so values are a fraction of the size of the Java-serialized lists the index used to contain.
+ *
+ * Indexes built before this format existed hold Java-serialized ArrayLists; those are recognized by the serialization
+ * stream magic and still decoded, so an old index doesn't need to be rebuilt.
+ */
+public class SupportingEntryCodec {
+  public static final byte FORMAT_VERSION = 1;
+
+  // The first two bytes of any ObjectOutputStream, which the legacy index values were written with.
+  private static final byte JAVA_SERIALIZATION_MAGIC_0 = (byte) 0xAC;
+  private static final byte JAVA_SERIALIZATION_MAGIC_1 = (byte) 0xED;
+
+  private static final int NULL_LENGTH = -1;
+
+  private SupportingEntryCodec() {}
+
+  /**
+   * Encode a single entry's fields.  The result is one element of a value produced by encodeList.
+   * @param val The entry to encode.
+   * @return The entry's fields in binary form.
+   * @throws IOException
+   */
+  public static byte[] encodeEntry(FromBrendaDB<?> val) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    val.writeFields(out);
+    out.flush();
+    return bos.toByteArray();
+  }
+
+  /**
+   * Combine a list of entries already encoded with encodeEntry into a single index value.
+   * @param encodedEntries The encoded entries, in the order they should be decoded.
+   * @return A value suitable for writing into the index.
+   * @throws IOException
+   */
+  public static byte[] encodeList(List<byte[]> encodedEntries) throws IOException {
+    int size = 1 + 5;
+    for (byte[] entry : encodedEntries) {
+      size += 5 + entry.length;
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(size);
+    DataOutputStream out = new DataOutputStream(bos);
+    out.writeByte(FORMAT_VERSION);
+    writeVarInt(out, encodedEntries.size());
+    for (byte[] entry : encodedEntries) {
+      writeVarInt(out, entry.length);
+      out.write(entry);
+    }
+    out.flush();
+    return bos.toByteArray();
+  }
+
+  /**
+   * Decode an index value into a list of entries.  Accepts both the current format and legacy Java-serialized lists.
+   * @param bytes The value read from the index.
+   * @param instance An instance of the class stored in the value's column family.
+   * @param <T> The type of the stored entries.
+   * @return The entries in the order they were written.
+   * @throws IOException
+   * @throws ClassNotFoundException
+   */
+  public static <T extends FromBrendaDB<T>> List<T> decodeList(byte[] bytes, T instance)
+      throws IOException, ClassNotFoundException {
+    if (isLegacyValue(bytes)) {
+      ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+      return (List<T>) ois.readObject();
+    }
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    byte version = in.readByte();
+    if (version != FORMAT_VERSION) {
+      throw new IOException(String.format("Unrecognized BRENDA index value format %d", version));
+    }
+    int count = readVarInt(in);
+    List<T> vals = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      // The element length lets readers skip entries; here we can just read the fields in place.
+      readVarInt(in);
+      vals.add(instance.readFields(in));
+    }
+    return vals;
+  }
+
+  static boolean isLegacyValue(byte[] bytes) {
+    return bytes.length >= 2 && bytes[0] == JAVA_SERIALIZATION_MAGIC_0 && bytes[1] == JAVA_SERIALIZATION_MAGIC_1;
+  }
+
+  public static void writeNullableString(DataOutput out, String s) throws IOException {
+    if (s == null) {
+      writeVarInt(out, NULL_LENGTH + 1);
+      return;
+    }
+    // DataOutput.writeUTF is limited to 64k and uses modified UTF-8, so we write the raw bytes ourselves.
+    byte[] bytes = s.getBytes(BrendaSupportingEntries.UTF8);
+    writeVarInt(out, bytes.length + 1);
+    out.write(bytes);
+  }
+
+  public static String readNullableString(DataInput in) throws IOException {
+    int length = readVarInt(in) - 1;
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, BrendaSupportingEntries.UTF8);
+  }
+
+  public static void writeNullableDouble(DataOutput out, Double d) throws IOException {
+    out.writeBoolean(d != null);
+    if (d != null) {
+      out.writeDouble(d);
+    }
+  }
+
+  public static Double readNullableDouble(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readDouble() : null;
+  }
+
+  /**
+   * Write a non-negative int using seven bits per byte, so the short strings that make up most BRENDA fields only
+   * spend one byte on their length.
+   */
+  static void writeVarInt(DataOutput out, int value) throws IOException {
+    if (value < 0) {
+      throw new IllegalArgumentException(String.format("Cannot write negative varint %d", value));
+    }
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint in BRENDA index value");
+  }
+}
@@ -23,8 +23,10 @@
 
 package act.installer.metacyc;
 
+import act.server.ChemicalBulkWriter;
 import act.server.MongoDB;
 import act.shared.Chemical;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -32,18 +34,32 @@ import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class MetaCyc {
   public static final String METACYC_COMPOUND_FILE_NAME = "compounds.dat";
 
-  // map from location of biopax L3 file to the corresponding parsed organism model
+  // Parsing is CPU bound, but each parsed model can take a few hundred MB, so keep both of these modest.
+  public static final int DEFAULT_PARSER_THREADS = 4;
+  public static final int DEFAULT_MAX_BUFFERED_MODELS = 6;
+
+  // map from location of biopax L3 file to the corresponding parsed organism model, in the order files were processed
   HashMap<String, OrganismComposition> organismModels;
   String sourceDir;
   private List<String> owlFiles;
@@ -61,7 +77,7 @@ public class MetaCyc {
   }
 
   public MetaCyc(String dirWithL3Files, List<String> owlFiles){
-    this.organismModels = new HashMap<String, OrganismComposition>();
+    this.organismModels = new LinkedHashMap<String, OrganismComposition>();
     this.sourceDir = dirWithL3Files;
     this.owlFiles = owlFiles;
 
@@ -105,30 +121,95 @@ public class MetaCyc {
   // process only the source file whose names are passed
   public void process(List<String> files) {
     for (String file : files) {
-      final File INPUT_FILE = new File(file);
+      this.organismModels.put(file, parseFile(file));
+    }
+  }
 
-      System.out.format("Processing biopax file %s\n", INPUT_FILE.getAbsolutePath());
-      HashMap<String, String> uniqueKeyToInChIMap = generateUniqueKeyToInChIMapping(INPUT_FILE);
+  /**
+   * Parses files on a pool of threads and hands each parsed model to the consumer on the calling thread, in the order
+   * of the file list.  Parsing runs ahead of the consumer by at most maxBufferedModels files, which bounds how many
+   * models are in memory at once.  Parsed models are not retained by this object.
+   *
+   * @param files The OWL files to parse.
+   * @param parserThreads The number of files to parse concurrently.
+   * @param maxBufferedModels The maximum number of parsed or in-progress models not yet consumed.
+   * @param consumer Receives each file name and its model, in file order.
+   */
+  public void processInOrder(List<String> files, int parserThreads, int maxBufferedModels,
+                             BiConsumer<String, OrganismComposition> consumer) {
+    processInOrder(files, parserThreads, maxBufferedModels, this::parseFile, consumer);
+  }
+
+  /**
+   * The ordering and buffering logic of processInOrder, with the parse step supplied by the caller.
+   *
+   * @param parser Produces the model for a file; runs on the parser threads.
+   */
+  static <T> void processInOrder(List<String> files, int parserThreads, int maxBufferedModels,
+                                 Function<String, T> parser, BiConsumer<String, T> consumer) {
+    if (maxBufferedModels < 1) {
+      throw new IllegalArgumentException("Must allow at least one buffered model");
+    }
 
-      System.out.println("Processing: " + INPUT_FILE.getAbsolutePath());
-      if (file.endsWith("leishcyc/biopax-level3.owl")) {
-        System.out.println("Friendly reminder: Did you patch this leishcyc file with the " +
-                "diff in src/main/resources/leishcyc.biopax-level3.owl.diff to take care of " +
-                "the bad data in the original? If you are running over the plain downloaded file, " +
-                "then this will crash.");
+    ExecutorService parsers = Executors.newFixedThreadPool(parserThreads);
+    Deque<Pair<String, Future<T>>> pending = new ArrayDeque<>(maxBufferedModels);
+    Iterator<String> filesToParse = files.iterator();
+    try {
+      while (filesToParse.hasNext() || !pending.isEmpty()) {
+        while (filesToParse.hasNext() && pending.size() < maxBufferedModels) {
+          String file = filesToParse.next();
+          pending.addLast(Pair.of(file, parsers.submit(() -> parser.apply(file))));
+        }
+
+        Pair<String, Future<T>> next = pending.removeFirst();
+        consumer.accept(next.getLeft(), next.getRight().get());
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while parsing biopax files", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Error while parsing biopax files", e.getCause());
+    } finally {
+      parsers.shutdownNow();
+    }
+  }
+
+  /**
+   * Parses and installs files with a single ordered writer: equivalent to process(files) followed by sendToDB(db),
+   * and assigns the same ids, but parses files in parallel and only keeps a bounded number of models in memory.
+   */
+  public void processAndSendToDB(List<String> files, MongoDB db, int parserThreads, int maxBufferedModels) {
+    try (ChemicalBulkWriter chemicalWriter = db.getChemicalBulkWriter(ChemicalBulkWriter.DEFAULT_BATCH_SIZE)) {
+      processInOrder(files, parserThreads, maxBufferedModels,
+          (file, model) -> writeOrganism(db, chemicalWriter, file, model));
+    }
+  }
 
-      try (FileInputStream f = new FileInputStream(INPUT_FILE)) {
-        // Construct the organism and read the owl file.
-        OrganismComposition o = new OrganismComposition(uniqueKeyToInChIMap);
+  private OrganismComposition parseFile(String file) {
+    final File INPUT_FILE = new File(file);
 
-        new BioPaxFile(o).initFrom(f);
-        this.organismModels.put(file, o);
+    System.out.format("Processing biopax file %s\n", INPUT_FILE.getAbsolutePath());
+    HashMap<String, String> uniqueKeyToInChIMap = generateUniqueKeyToInChIMapping(INPUT_FILE);
 
-      } catch(IOException e) {
-        System.err.println("Error while handling file : " + INPUT_FILE.getAbsolutePath() + ". Aborting.");
-        System.exit(-1);
-      }
+    System.out.println("Processing: " + INPUT_FILE.getAbsolutePath());
+    if (file.endsWith("leishcyc/biopax-level3.owl")) {
+      System.out.println("Friendly reminder: Did you patch this leishcyc file with the " +
+              "diff in src/main/resources/leishcyc.biopax-level3.owl.diff to take care of " +
+              "the bad data in the original? If you are running over the plain downloaded file, " +
+              "then this will crash.");
+    }
+
+    try (FileInputStream f = new FileInputStream(INPUT_FILE)) {
+      // Construct the organism and read the owl file.
+      OrganismComposition o = new OrganismComposition(uniqueKeyToInChIMap);
+
+      new BioPaxFile(o).initFrom(f);
+      return o;
+
+    } catch(IOException e) {
+      System.err.println("Error while handling file : " + INPUT_FILE.getAbsolutePath() + ". Aborting.");
+      System.exit(-1);
+      return null; // Unreachable, but the compiler doesn't know that.
     }
   }
 
@@ -396,11 +477,17 @@ public class MetaCyc {
   }
 
   public void sendToDB(MongoDB db) {
-    Chemical.REFS originDB = Chemical.REFS.METACYC;
-    for (String oid : this.organismModels.keySet()) {
-      OrganismCompositionMongoWriter owriter = new OrganismCompositionMongoWriter(db, this.organismModels.get(oid), oid, originDB);
-      owriter.write();
+    // One chemical writer is shared by all organisms so that the DB's InChI -> id map is only loaded once.
+    try (ChemicalBulkWriter chemicalWriter = db.getChemicalBulkWriter(ChemicalBulkWriter.DEFAULT_BATCH_SIZE)) {
+      for (String oid : this.organismModels.keySet()) {
+        writeOrganism(db, chemicalWriter, oid, this.organismModels.get(oid));
+      }
     }
   }
-}
 
+  private void writeOrganism(MongoDB db, ChemicalBulkWriter chemicalWriter, String oid, OrganismComposition model) {
+    OrganismCompositionMongoWriter owriter =
+        new OrganismCompositionMongoWriter(db, chemicalWriter, model, oid, Chemical.REFS.METACYC);
+    owriter.write();
+  }
+}
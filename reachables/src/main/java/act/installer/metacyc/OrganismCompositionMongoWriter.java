@@ -38,6 +38,7 @@ import act.installer.metacyc.references.Relationship;
 import act.installer.metacyc.references.Unification;
 import act.installer.sequence.MetacycEntry;
 import act.installer.sequence.SequenceEntry;
+import act.server.ChemicalBulkWriter;
 import act.server.MongoDB;
 import act.shared.Chemical;
 import act.shared.ConsistentInChI;
@@ -72,6 +73,7 @@ import java.util.regex.Pattern;
 
 public class OrganismCompositionMongoWriter {
   MongoDB db;
+  ChemicalBulkWriter chemicalWriter;
   OrganismComposition src;
   Chemical.REFS originDB;
   String originDBSubID;
@@ -108,9 +110,11 @@ public class OrganismCompositionMongoWriter {
   int ignoredMoleculesWithMultipleStructures = 0;
   int totalSmallMolecules = 0;
 
-  OrganismCompositionMongoWriter(MongoDB db, OrganismComposition o, String origin, Chemical.REFS originDB) {
+  OrganismCompositionMongoWriter(MongoDB db, ChemicalBulkWriter chemicalWriter, OrganismComposition o, String origin,
+                                 Chemical.REFS originDB) {
     System.out.println("Writing DB: " + origin);
     this.db = db;
+    this.chemicalWriter = chemicalWriter;
     this.src = o;
     this.originDB = originDB;
     this.originDBSubID = origin;
@@ -216,6 +220,8 @@ public class OrganismCompositionMongoWriter {
        * substrates/products entries, so it's important to get them right (and for the mapping to be complete). */
       rdfID2MongoID.put(cic.c.getID().getLocal(), dbId);
     }
+    // Make sure all of this organism's chemicals are in the DB before any reactions refer to them.
+    chemicalWriter.flush();
 
     /* It appears that Catalysis objects can appear outside of BiochemicalPathwaySteps in biopax files.  Record which
      * catalyses we've installed from BiochemicalPathwaySteps so that we can ensure full coverage without duplicating
@@ -302,20 +308,21 @@ public class OrganismCompositionMongoWriter {
     if (structure == null) {
       return null;
     }
-    // Do an indexed query to determine whether the chemical already exists in the DB.
-    Long dbId = db.getExistingDBIdForInChI(structure.inchi);
+    // Check the writer's in-memory InChI -> id map to determine whether the chemical already exists in the DB.
+    Long dbId = chemicalWriter.getIdForInChI(structure.inchi);
     if (dbId == null) { // InChI doesn't appear in DB.
-      // DB does not contain chemical as yet, create and install.
-      // TODO: if needed, we can optimize this by querying the DB count on construction and incrementing locally.
+      // DB does not contain chemical as yet, create and queue it for installation under a locally allocated id.
       Chemical dbChem = new Chemical(-1l);
       dbChem.setInchi(structure.inchi); // we compute our own InchiKey under setInchi (well, now only InChI!)
       dbChem.setSmiles(structure.smiles);
       // Be sure to create the initial set of references in the initial object write to avoid another query.
       dbChem = addReferences(dbChem, c, metas, originDB);
-      Long installid = db.getNextAvailableChemicalDBid();
-      db.submitToActChemicalDB(dbChem, installid);
-      dbId = installid;
+      dbId = chemicalWriter.submit(dbChem);
     } else { // We found the chemical in our DB already, so add on Metacyc xref data.
+      // The xref update below runs against the DB, so the chemical's document has to be written first.
+      if (chemicalWriter.isPending(dbId)) {
+        chemicalWriter.flush();
+      }
       /* If the chemical already exists, just add the xref id and metadata entries.  Mongo will do the heavy lifting
        * for us, so this should hopefully be fast. */
       String id = c.getID().getLocal();
@@ -23,6 +23,7 @@
 
 package act.installer.pubchem;
 
+import act.server.ChemicalBulkWriter;
 import act.server.MongoDB;
 import act.shared.Chemical;
 import org.apache.commons.cli.CommandLine;
@@ -221,14 +222,6 @@ public class PubchemParser {
     }
   }
 
-  /**
-   * This function writes a chemical record to the DB.
-   * @param chemical Chemical to be written to the DB.
-   */
-  private void writeChemicalToDB(Chemical chemical) {
-    Long id = db.getNextAvailableChemicalDBid();
-    db.submitToActChemicalDB(chemical, id);
-  }
 
   /**
    * Extracts compound features from a sub-document/sub-tree containing one PC-Compound element.  Nodes that contain
@@ -393,11 +386,19 @@ public class PubchemParser {
    */
   public void openCompressedXMLFileAndWriteChemicals(File file)
       throws XMLStreamException, JaxenException, IOException {
+    try (ChemicalBulkWriter chemicalWriter = db.getChemicalBulkWriter(ChemicalBulkWriter.DEFAULT_BATCH_SIZE)) {
+      openCompressedXMLFileAndWriteChemicals(file, chemicalWriter);
+    }
+  }
+
+  private void openCompressedXMLFileAndWriteChemicals(File file, ChemicalBulkWriter chemicalWriter)
+      throws XMLStreamException, JaxenException, IOException {
     XMLEventReader eventReader = xmlInputFactory.createXMLEventReader(
         new GZIPInputStream(new FileInputStream(file), GZIP_BUFFER_SIZE));
     Chemical result;
     while ((result = extractNextChemicalFromXMLStream(eventReader)) != null) {
-      writeChemicalToDB(result);
+      // The writer creates or merges as necessary, and writes to the DB in batches.
+      chemicalWriter.submit(result);
     }
   }
 
@@ -408,11 +409,14 @@ public class PubchemParser {
    */
   private void run(List<File> filesToProcess) throws XMLStreamException, JaxenException, IOException {
     int counter = 1;
-    for (File file : filesToProcess) {
-      LOGGER.info("Processing file %d of %d", counter, filesToProcess.size());
-      LOGGER.info("File name is %s", file.getPath());
-      openCompressedXMLFileAndWriteChemicals(file);
-      counter++;
+    // Share one writer across files so that the DB's InChI -> id map is only loaded once.
+    try (ChemicalBulkWriter chemicalWriter = db.getChemicalBulkWriter(ChemicalBulkWriter.DEFAULT_BATCH_SIZE)) {
+      for (File file : filesToProcess) {
+        LOGGER.info("Processing file %d of %d", counter, filesToProcess.size());
+        LOGGER.info("File name is %s", file.getPath());
+        openCompressedXMLFileAndWriteChemicals(file, chemicalWriter);
+        counter++;
+      }
     }
   }
 
@@ -23,20 +23,26 @@
 
 package act.server;
 
+import act.installer.bing.BingSearchCache;
 import act.installer.bing.NameSearchResults;
 import act.installer.bing.SearchResult;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoException;
 
 import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 
-public class BingCacheMongoDB {
+public class BingCacheMongoDB implements BingSearchCache {
   private DBCollection dbBingCache; // the Bing Search collection is located in a separate database
   private String hostname;
   private int port;
@@ -103,6 +109,55 @@ public class BingCacheMongoDB {
     return (BasicDBObject) dbBingCache.findOne(whereQuery, allFields);
   }
 
+  /**
+   * Fetch the cache documents for many names with a single query, rather than one findOne per name.
+   * @param formattedNames Lower case names to look up.
+   * @return A map from name to cached results, with no entries for names that are not cached.
+   */
+  @Override
+  public Map<String, NameSearchResults> getNameSearchResults(Collection<String> formattedNames) {
+    Map<String, NameSearchResults> found = new HashMap<>(formattedNames.size());
+    if (formattedNames.isEmpty()) {
+      return found;
+    }
+    BasicDBList nameList = new BasicDBList();
+    nameList.addAll(formattedNames);
+    BasicDBObject whereQuery = new BasicDBObject("name", new BasicDBObject("$in", nameList));
+    DBCursor cursor = dbBingCache.find(whereQuery, new BasicDBObject());
+    try {
+      while (cursor.hasNext()) {
+        NameSearchResults nameSearchResults = NameSearchResults.fromBasicDBObject((BasicDBObject) cursor.next());
+        found.put(nameSearchResults.getName(), nameSearchResults);
+      }
+    } finally {
+      cursor.close();
+    }
+    return found;
+  }
+
+  /**
+   * Iterate over every document in the cache, e.g. to take a local snapshot of it.
+   * @return An iterator over the cached results for every name.
+   */
+  public Iterator<NameSearchResults> getAllNameSearchResults() {
+    final DBCursor cursor = dbBingCache.find(new BasicDBObject(), new BasicDBObject());
+
+    return new Iterator<NameSearchResults>() {
+      @Override
+      public boolean hasNext() {
+        boolean hasNext = cursor.hasNext();
+        if (!hasNext)
+          cursor.close();
+        return hasNext;
+      }
+
+      @Override
+      public NameSearchResults next() {
+        return NameSearchResults.fromBasicDBObject((BasicDBObject) cursor.next());
+      }
+    };
+  }
+
   public void cacheNameSearchResult(NameSearchResults nameSearchResults) {
     BasicDBObject nameSearchResultDBObject  = new BasicDBObject();
     nameSearchResultDBObject.put("name", nameSearchResults.getName());
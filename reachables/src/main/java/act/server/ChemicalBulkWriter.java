@@ -0,0 +1,219 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.server;
+
+import act.shared.Chemical;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Installs chemicals in batches, as a faster replacement for calling getNextAvailableChemicalDBid and
+ * submitToActChemicalDB once per chemical.
+ *
+ * The InChI -> id mapping of the chemicals collection is read once on construction, so new chemicals can be recognized
+ * and given ids without querying the DB.  Duplicates within a batch are merged in memory, and each batch is written
+ * with a single unordered bulk operation.  The resulting documents match what the per-chemical calls would have
+ * produced, though chemicals only become visible to other readers once their batch is flushed.
+ *
+ * Ids are allocated from a local counter, so while a writer is open it must be the only thing adding chemicals to
+ * the DB.  Instances are not thread safe.
+ */
+public class ChemicalBulkWriter implements AutoCloseable {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(ChemicalBulkWriter.class);
+
+  public static final int DEFAULT_BATCH_SIZE = 10000;
+
+  private final MongoDB db;
+  private final DBCollection dbChemicals;
+  private final int batchSize;
+
+  private final Map<String, Long> inchiToId = new HashMap<>();
+  private long nextId;
+
+  // Chemicals that are not in the DB yet, keyed by their newly allocated ids.
+  private final Map<Long, Chemical> pendingInserts = new LinkedHashMap<>();
+  // Chemicals to merge into documents that are already in the DB, in submission order, keyed by document id.
+  private final Map<Long, List<Chemical>> pendingMerges = new LinkedHashMap<>();
+  private int pendingMergeCount = 0;
+
+  private long insertedCount = 0;
+  private long mergedCount = 0;
+
+  ChemicalBulkWriter(MongoDB db, DBCollection dbChemicals, int batchSize) {
+    this.db = db;
+    this.dbChemicals = dbChemicals;
+    this.batchSize = batchSize;
+
+    // Only fetch the fields we need: even for tens of millions of chemicals this map fits comfortably in memory.
+    long maxId = -1L;
+    DBCursor cursor = dbChemicals.find(new BasicDBObject(), new BasicDBObject("InChI", true));
+    try {
+      while (cursor.hasNext()) {
+        DBObject o = cursor.next();
+        long id = ((Number) o.get("_id")).longValue();
+        String inchi = (String) o.get("InChI");
+        if (inchi != null && !inchiToId.containsKey(inchi)) {
+          inchiToId.put(inchi, id);
+        }
+        maxId = Math.max(maxId, id);
+      }
+    } finally {
+      cursor.close();
+    }
+
+    // Ids are normally dense, in which case this equals the collection count that getNextAvailableChemicalDBid uses.
+    this.nextId = maxId + 1;
+    LOGGER.info("Loaded %d InChIs from the chemicals collection; next chemical id is %d", inchiToId.size(), nextId);
+  }
+
+  /**
+   * Looks up the id of a chemical, whether it is already in the DB or still waiting to be flushed.
+   *
+   * @param inchi The InChI of the chemical.
+   * @return The chemical's id, or null if it has not been seen.
+   */
+  public Long getIdForInChI(String inchi) {
+    return inchiToId.get(inchi);
+  }
+
+  /**
+   * @return True if the chemical with this id has changes that have not yet been written to the DB.
+   */
+  public boolean isPending(Long id) {
+    return pendingInserts.containsKey(id) || pendingMerges.containsKey(id);
+  }
+
+  /**
+   * Inserts or merges a chemical, like submitToActChemicalDB with a freshly allocated id.
+   *
+   * @param c The chemical to install.
+   * @return The id of the chemical's document, which is new if its InChI has not been seen before.
+   */
+  public long submit(Chemical c) {
+    String inchi = c.getInChI();
+    Long id = inchi == null ? null : inchiToId.get(inchi);
+
+    if (id == null) {
+      // Chemicals without InChIs can't be matched up, so like submitToActChemicalDB we always install them anew.
+      id = nextId++;
+      if (inchi != null) {
+        inchiToId.put(inchi, id);
+      }
+      pendingInserts.put(id, c);
+    } else if (pendingInserts.containsKey(id)) {
+      pendingInserts.put(id, merge(c, pendingInserts.get(id)));
+    } else {
+      List<Chemical> merges = pendingMerges.get(id);
+      if (merges == null) {
+        merges = new ArrayList<>(1);
+        pendingMerges.put(id, merges);
+      }
+      merges.add(c);
+      pendingMergeCount++;
+    }
+
+    if (pendingInserts.size() + pendingMergeCount >= batchSize) {
+      flush();
+    }
+    return id;
+  }
+
+  /**
+   * Writes all pending chemicals to the DB.
+   */
+  public void flush() {
+    if (pendingInserts.isEmpty() && pendingMerges.isEmpty()) {
+      return;
+    }
+
+    BulkWriteOperation bulk = dbChemicals.initializeUnorderedBulkOperation();
+    for (Map.Entry<Long, Chemical> entry : pendingInserts.entrySet()) {
+      bulk.insert(MongoDB.createChemicalDoc(entry.getValue(), entry.getKey()));
+    }
+
+    if (!pendingMerges.isEmpty()) {
+      // Fetch every document we need to merge into with one query, rather than one per chemical.
+      DBCursor cursor = dbChemicals.find(
+          new BasicDBObject("_id", new BasicDBObject("$in", new ArrayList<>(pendingMerges.keySet()))));
+      try {
+        while (cursor.hasNext()) {
+          Chemical existing = db.convertDBObjectToChemical(cursor.next());
+          Chemical merged = existing;
+          // Apply merges in submission order, as a sequence of submitToActChemicalDB calls would.
+          for (Chemical c : pendingMerges.get(existing.getUuid())) {
+            merged = merge(c, merged);
+          }
+          bulk.find(new BasicDBObject("_id", existing.getUuid())).
+              replaceOne(MongoDB.createChemicalDoc(merged, existing.getUuid()));
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+
+    bulk.execute();
+    LOGGER.debug("Flushed %d new and %d merged chemicals", pendingInserts.size(), pendingMerges.size());
+
+    insertedCount += pendingInserts.size();
+    mergedCount += pendingMergeCount;
+    pendingInserts.clear();
+    pendingMerges.clear();
+    pendingMergeCount = 0;
+  }
+
+  public long getInsertedCount() {
+    return insertedCount;
+  }
+
+  public long getMergedCount() {
+    return mergedCount;
+  }
+
+  @Override
+  public void close() {
+    flush();
+    LOGGER.info("Installed %d new chemicals and merged %d into existing entries", insertedCount, mergedCount);
+  }
+
+  private Chemical merge(Chemical c, Chemical old) {
+    Chemical merged = c.createNewByMerge(old);
+    if (merged == null) {
+      // Same recovery as MongoDB.mergeIntoDB: inconsistent values on unmergeable fields, so keep the old entry.
+      LOGGER.warn("Conflicting values when merging chemical %s into %s; keeping the old entry", c, old);
+      return old;
+    }
+    return merged;
+  }
+}
@@ -45,6 +45,7 @@ import com.ggasoftware.indigo.IndigoObject;
 import com.mongodb.AggregationOutput;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
 import com.mongodb.Bytes;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
@@ -66,6 +67,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -447,6 +449,16 @@ public class MongoDB {
     return this.dbChemicals.count();
   }
 
+  /**
+   * Opens a writer that installs chemicals in bulk.  Prefer this over getNextAvailableChemicalDBid and
+   * submitToActChemicalDB when installing many chemicals, but don't mix the two while the writer is open.
+   * @param batchSize The number of chemicals to accumulate before writing to the DB.
+   * @return A writer that must be closed to flush its final batch.
+   */
+  public ChemicalBulkWriter getChemicalBulkWriter(int batchSize) {
+    return new ChemicalBulkWriter(this, this.dbChemicals, batchSize);
+  }
+
   public Long getNextAvailableCofactorDBid() {
     // TODO: do something more robust than this hack.
     return this.dbCofactors.count();
@@ -670,6 +682,29 @@ public class MongoDB {
     this.dbChemicals.update(query, updateDerivedDataContainerWithMatchedRos);
   }
 
+  /**
+   * Writes the RO binning results of many chemicals in a single unordered bulk operation.  Each chemical ends up in the
+   * same state as after a call to updateChemicalWithRoBinningInformation, namely with a derived_data container that
+   * only holds the matched ROs.
+   * @param idToMatchedROs A map from chemical id to the ids of the ROs it matched.
+   */
+  public void updateChemicalsWithRoBinningInformation(Map<Long, List<Integer>> idToMatchedROs) {
+    if (idToMatchedROs.isEmpty()) {
+      return;
+    }
+
+    BulkWriteOperation bulk = this.dbChemicals.initializeUnorderedBulkOperation();
+    for (Map.Entry<Long, List<Integer>> entry : idToMatchedROs.entrySet()) {
+      BasicDBList listOfRos = new BasicDBList();
+      listOfRos.addAll(entry.getValue());
+
+      BasicDBObject derivedData = new BasicDBObject("matched_ros", listOfRos);
+      bulk.find(new BasicDBObject("_id", entry.getKey())).
+          updateOne(new BasicDBObject("$set", new BasicDBObject("derived_data", derivedData)));
+    }
+    bulk.execute();
+  }
+
   public void updateChemicalWithBrenda(Chemical c, String brendaName) {
     long id = alreadyEntered(c);
 
@@ -1598,6 +1633,66 @@ public class MongoDB {
     return convertDBObjectToChemicalFromActData("_id", cuuid);
   }
 
+  // Keeps each batched id query well under Mongo's 16MB document limit.
+  private static final int CHEMICAL_ID_QUERY_BATCH_SIZE = 10000;
+
+  /**
+   * Fetches just the unique vendor counts and the price-bearing (SIGMA and DRUGBANK) xrefs of many chemicals, with one
+   * query per batch of ids rather than one per chemical.  The returned Chemicals have only those fields set, which read
+   * exactly as they would on a fully loaded Chemical.
+   * @param uuids The ids of the chemicals to fetch.
+   * @return A map from id to partial Chemical, with no entries for ids that are not in the DB.
+   */
+  public Map<Long, Chemical> getChemicalVendorsAndPricesFromChemicalUUIDs(Collection<Long> uuids) {
+    Map<Long, Chemical> results = new HashMap<>(uuids.size());
+    List<Long> batch = new ArrayList<>(CHEMICAL_ID_QUERY_BATCH_SIZE);
+    for (Long uuid : uuids) {
+      batch.add(uuid);
+      if (batch.size() == CHEMICAL_ID_QUERY_BATCH_SIZE) {
+        fetchChemicalVendorsAndPrices(batch, results);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      fetchChemicalVendorsAndPrices(batch, results);
+    }
+    return results;
+  }
+
+  private void fetchChemicalVendorsAndPrices(List<Long> uuids, Map<Long, Chemical> results) {
+    BasicDBList idList = new BasicDBList();
+    idList.addAll(uuids);
+    BasicDBObject query = new BasicDBObject("_id", new BasicDBObject("$in", idList));
+    BasicDBObject fields = new BasicDBObject();
+    fields.put("num_vendors", true);
+    fields.put("xref.SIGMA", true);
+    fields.put("xref.DRUGBANK", true);
+
+    DBCursor cursor = this.dbChemicals.find(query, fields);
+    try {
+      while (cursor.hasNext()) {
+        DBObject o = cursor.next();
+        Long uuid = ((Number) o.get("_id")).longValue();
+        Chemical c = new Chemical(uuid);
+        c.setChemSpiderNumUniqueVendors((Integer) o.get("num_vendors"));
+        DBObject xrefs = (DBObject) o.get("xref");
+        // Mirrors convertDBObjectToChemical, which also skips xrefs it can't convert.
+        try {
+          if (xrefs != null) {
+            for (String typ : xrefs.keySet()) {
+              c.putRef(Chemical.REFS.valueOf(typ), MongoDBToJSON.conv((DBObject) xrefs.get(typ)));
+            }
+          }
+        } catch (Exception e) {
+
+        }
+        results.put(uuid, c);
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
   public Chemical getChemicalFromCanonName(String chemName) {
     return convertDBObjectToChemicalFromActData("canonical", chemName);
   }
@@ -3249,6 +3344,60 @@ public class MongoDB {
     return (c != null);
   }
 
+  /**
+   * Batched version of fetchNamesFromInchi: fetches the names of many molecules with a single query.
+   * @param inchis The InChIs to look up.
+   * @return A map from InChI to names, with no entries for InChIs that are not in the DB.
+   */
+  public Map<String, NamesOfMolecule> fetchNamesFromInchis(Collection<String> inchis) {
+    BasicDBList inchiList = new BasicDBList();
+    inchiList.addAll(inchis);
+    BasicDBObject whereQuery = new BasicDBObject("InChI", new BasicDBObject("$in", inchiList));
+    BasicDBObject fields = new BasicDBObject();
+    fields.put("InChI", true);
+    fields.put("names.brenda", true);
+    fields.put("xref.CHEBI.metadata.Synonym", true);
+    fields.put("xref.DRUGBANK.metadata", true);
+    fields.put("xref.METACYC.meta", true);
+    fields.put("xref.WIKIPEDIA.metadata.article", true);
+
+    Map<String, NamesOfMolecule> namesByInchi = new HashMap<>(inchis.size());
+    DBCursor cursor = dbChemicals.find(whereQuery, fields);
+    try {
+      while (cursor.hasNext()) {
+        NamesOfMolecule moleculeNames = getNamesFromBasicDBObject((BasicDBObject) cursor.next());
+        namesByInchi.put(moleculeNames.getInchi(), moleculeNames);
+      }
+    } finally {
+      cursor.close();
+    }
+    return namesByInchi;
+  }
+
+  /**
+   * Batched version of hasBingSearchResultsFromInchi.
+   * @param inchis The InChIs to check.
+   * @return The subset of those InChIs whose chemicals already have Bing Search results.
+   */
+  public Set<String> getInchisWithBingSearchResults(Collection<String> inchis) {
+    BasicDBList inchiList = new BasicDBList();
+    inchiList.addAll(inchis);
+    BasicDBObject whereQuery = new BasicDBObject("InChI", new BasicDBObject("$in", inchiList));
+    whereQuery.put("xref.BING", new BasicDBObject("$exists", true));
+    BasicDBObject fields = new BasicDBObject("InChI", true);
+
+    Set<String> withResults = new HashSet<>();
+    DBCursor cursor = dbChemicals.find(whereQuery, fields);
+    try {
+      while (cursor.hasNext()) {
+        withResults.add((String) cursor.next().get("InChI"));
+      }
+    } finally {
+      cursor.close();
+    }
+    return withResults;
+  }
+
 
   /**
    * The following methods are related to ChEBI cross-references installation in the Installer DB.
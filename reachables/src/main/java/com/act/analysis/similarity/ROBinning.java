@@ -59,12 +59,22 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ROBinning {
   private static final Logger LOGGER = LogManager.getFormatterLogger(ROBinning.class);
   private static final int SUBSTRATE_SIDE_OF_REACTION = 0;
 
   public static final String OPTION_DB = "d";
+  public static final String OPTION_THREADS = "t";
+  public static final String OPTION_BATCH_SIZE = "b";
+
+  private static final int DEFAULT_BATCH_SIZE = 10000;
 
   public static final String HELP_MESSAGE = StringUtils.join(new String[] {
       "This class does substructure matching of every chemical against the RO corpus and adds the matching substrates of",
@@ -82,6 +92,20 @@ public class ROBinning {
         .hasArg().required()
         .longOpt("db-name")
     );
+    add(Option.builder(OPTION_THREADS)
+        .argName("threads")
+        .desc("Run in batch mode with this many worker threads: candidate RO substrates are screened with " +
+            "substructure fingerprints, searches run in parallel and DB updates are written in bulk")
+        .hasArg()
+        .longOpt("threads")
+    );
+    add(Option.builder(OPTION_BATCH_SIZE)
+        .argName("batch-size")
+        .desc(String.format("The number of chemicals to process and write per batch in batch mode (default %d)",
+            DEFAULT_BATCH_SIZE))
+        .hasArg()
+        .longOpt("batch-size")
+    );
     // Everybody needs a little help from their friends.
     add(Option.builder("h")
         .argName("help")
@@ -99,6 +123,28 @@ public class ROBinning {
   private ErosCorpus erosCorpus;
   private NoSQLAPI api;
   private Map<String, Pair<MolSearch, Set<Integer>>> smileToSearchQuery = new HashMap<>();
+  private Map<String, SubstructureFingerprint> smileToFingerprint = new HashMap<>();
+
+  // MolSearch objects are stateful, so each batch mode worker gets its own copy of every substrate query.
+  private ThreadLocal<Map<String, MolSearch>> threadLocalSearchers =
+      new ThreadLocal<Map<String, MolSearch>>() {
+    @Override
+    protected Map<String, MolSearch> initialValue() {
+      Map<String, MolSearch> searchers = new HashMap<>(smileToSearchQuery.size());
+      for (Map.Entry<String, Pair<MolSearch, Set<Integer>>> entry : smileToSearchQuery.entrySet()) {
+        MolSearch template = entry.getValue().getLeft();
+        MolSearch ms = new MolSearch();
+        ms.setSearchOptions(template.getSearchOptions());
+        ms.setQuery(template.getQuery().cloneMolecule());
+        searchers.put(entry.getKey(), ms);
+      }
+      return searchers;
+    }
+  };
+
+  // Batch mode statistics.
+  private AtomicLong candidateSearchCount = new AtomicLong(0);
+  private AtomicLong screenedOutSearchCount = new AtomicLong(0);
 
   public static void main(String[] args) throws Exception {
     Options opts = new Options();
@@ -130,7 +176,14 @@ public class ROBinning {
 
     ROBinning roBinning = new ROBinning(erosCorpus, api);
     roBinning.init();
-    roBinning.processChemicals();
+    if (cl.hasOption(OPTION_THREADS)) {
+      int threads = Integer.parseInt(cl.getOptionValue(OPTION_THREADS));
+      int batchSize = cl.hasOption(OPTION_BATCH_SIZE) ?
+          Integer.parseInt(cl.getOptionValue(OPTION_BATCH_SIZE)) : DEFAULT_BATCH_SIZE;
+      roBinning.processChemicalsInBatches(threads, batchSize);
+    } else {
+      roBinning.processChemicals();
+    }
   }
 
   public ROBinning(ErosCorpus loadedCorpus, NoSQLAPI noSQLAPI) {
@@ -148,9 +201,11 @@ public class ROBinning {
           searchOptions.setStereoModel(SearchConstants.STEREO_MODEL_LOCAL);
           searchOptions.setStereoSearchType(SearchConstants.STEREO_EXACT);
 
+          Molecule query = new MolHandler(substrateSmile, true).getMolecule();
           MolSearch ms = new MolSearch();
           ms.setSearchOptions(searchOptions);
-          ms.setQuery(new MolHandler(substrateSmile, true).getMolecule());
+          ms.setQuery(query);
+          smileToFingerprint.put(substrateSmile, SubstructureFingerprint.fromMolecule(query));
 
           Set<Integer> newRoList = new HashSet<>();
           molSearchListPair = Pair.of(ms, newRoList);
@@ -204,6 +259,51 @@ public class ROBinning {
     return result;
   }
 
+  /**
+   * Same as rosThatMatchTargetMolecule, but skips any substrate whose fingerprint rules out a match and runs the
+   * remaining searches with this thread's own MolSearch objects.  Safe to call from multiple threads at once.
+   */
+  private List<Integer> rosThatMatchTargetMoleculeWithScreen(Molecule target) throws SearchException {
+    SubstructureFingerprint targetFingerprint = SubstructureFingerprint.fromMolecule(target);
+    Map<String, MolSearch> searchers = threadLocalSearchers.get();
+
+    Set<Integer> matchedResults = new HashSet<>();
+    // Only searches that reach the fingerprint check count towards the screen-out rate.
+    long screened = 0;
+    long screenedOut = 0;
+    for (Map.Entry<String, Pair<MolSearch, Set<Integer>>> entry : smileToSearchQuery.entrySet()) {
+      Set<Integer> ros = entry.getValue().getRight();
+      // No need to search if every RO this substrate belongs to has already matched.
+      if (matchedResults.containsAll(ros)) {
+        continue;
+      }
+
+      screened++;
+      if (!smileToFingerprint.get(entry.getKey()).mayBeSubstructureOf(targetFingerprint)) {
+        screenedOut++;
+        continue;
+      }
+
+      MolSearch searcher = searchers.get(entry.getKey());
+      searcher.setTarget(target);
+      int[][] hits = searcher.findAll();
+      if (hits != null) {
+        for (int i = 0; i < hits.length; i++) {
+          if (hits[i].length > 0) {
+            matchedResults.addAll(ros);
+            break;
+          }
+        }
+      }
+    }
+    candidateSearchCount.addAndGet(screened);
+    screenedOutSearchCount.addAndGet(screenedOut);
+
+    List<Integer> result = new ArrayList<>(matchedResults);
+    Collections.sort(result);
+    return result;
+  }
+
   protected void processChemicals() throws IOException, ReactionException, SearchException {
     Iterator<Chemical> chemicals = api.readChemsFromInKnowledgeGraph();
     while (chemicals.hasNext()) {
@@ -215,6 +315,78 @@ public class ROBinning {
     }
   }
 
+  /**
+   * Bins every chemical in the DB like processChemicals, but pre-screens RO substrates with substructure fingerprints,
+   * runs the remaining searches on a pool of worker threads and writes the results back to the DB in bulk.
+   * @param threads The number of worker threads to use.
+   * @param batchSize The number of chemicals to read, process and write at a time.
+   */
+  protected void processChemicalsInBatches(int threads, int batchSize)
+      throws InterruptedException, ExecutionException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      Iterator<Chemical> chemicals = api.readChemsFromInKnowledgeGraph();
+      long startTime = System.currentTimeMillis();
+      long processedChemicals = 0;
+
+      while (chemicals.hasNext()) {
+        List<Chemical> batch = new ArrayList<>(batchSize);
+        while (chemicals.hasNext() && batch.size() < batchSize) {
+          batch.add(chemicals.next());
+        }
+
+        List<Future<List<Integer>>> futures = new ArrayList<>(batch.size());
+        for (Chemical chem : batch) {
+          final String inchi = chem.getInChI();
+          futures.add(executor.submit(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() throws Exception {
+              return processChemicalWithScreen(inchi);
+            }
+          }));
+        }
+
+        Map<Long, List<Integer>> updates = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+          List<Integer> matchedRos = futures.get(i).get();
+          if (matchedRos != null && matchedRos.size() > 0) {
+            updates.put(batch.get(i).getUuid(), matchedRos);
+          }
+        }
+        api.getWriteDB().updateChemicalsWithRoBinningInformation(updates);
+
+        processedChemicals += batch.size();
+        logBatchProgress(processedChemicals, startTime);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void logBatchProgress(long processedChemicals, long startTime) {
+    double elapsedSeconds = Math.max(System.currentTimeMillis() - startTime, 1) / 1000.0;
+    long candidates = candidateSearchCount.get();
+    double screenOutRate = candidates == 0 ? 0.0 : 100.0 * screenedOutSearchCount.get() / candidates;
+    LOGGER.info("Processed %d chemicals (%.1f chemicals/sec), fingerprints screened out %.1f%% of %d candidate searches",
+        processedChemicals, processedChemicals / elapsedSeconds, screenOutRate, candidates);
+  }
+
+  /**
+   * The batch mode equivalent of processChemical(String): returns the same ROs, but is safe to call concurrently.
+   */
+  public List<Integer> processChemicalWithScreen(String inchi) throws SearchException {
+    Molecule molecule;
+    try {
+      molecule = MolImporter.importMol(inchi, "inchi");
+    } catch (Exception e) {
+      LOGGER.error(e.getMessage());
+      return null;
+    }
+    Cleaner.clean(molecule, 2);
+    molecule.aromatize(MoleculeGraph.AROM_BASIC);
+    return rosThatMatchTargetMoleculeWithScreen(molecule);
+  }
+
   public List<Integer> processChemical(String inchi) throws SearchException {
     Molecule molecule;
     try {
@@ -27,14 +27,7 @@ import chemaxon.calculations.clean.Cleaner;
 import chemaxon.formats.MolFormatException;
 import chemaxon.formats.MolImporter;
 import chemaxon.license.LicenseManager;
-import chemaxon.marvin.alignment.AlignmentException;
-import chemaxon.marvin.alignment.AlignmentMolecule;
-import chemaxon.marvin.alignment.AlignmentMoleculeFactory;
-import chemaxon.marvin.alignment.AlignmentProperties;
-import chemaxon.marvin.alignment.PairwiseAlignment;
-import chemaxon.marvin.alignment.PairwiseSimilarity3D;
 import chemaxon.struc.Molecule;
-import com.act.utils.TSVWriter;
 import com.act.lcms.db.io.LoadPlateCompositionIntoDB;
 import com.act.utils.TSVParser;
 import org.apache.commons.cli.CommandLine;
@@ -61,6 +54,9 @@ public class SimilarityAnalysis {
   public static final String OPTION_TARGET_FILE = "i";
   public static final String OPTION_QUERY_INCHI = "q";
   public static final String OPTION_TARGET_INCHI = "t";
+  public static final String OPTION_THREADS = "n";
+  public static final String OPTION_FINGERPRINT_THRESHOLD = "f";
+  public static final String OPTION_SYMMETRIC_OUTPUT_FILE = "s";
 
   public static final String HELP_MESSAGE = StringUtils.join(new String[]{
       "This (now defunct) similarity analysis computes the alignment and 3D similarity between one or more pairs of ",
@@ -113,6 +109,29 @@ public class SimilarityAnalysis {
         .hasArg()
         .longOpt("target")
     );
+    add(Option.builder(OPTION_THREADS)
+        .argName("threads")
+        .desc("The number of threads to use for alignment (default: the number of available processors)")
+        .hasArg()
+        .longOpt("threads")
+    );
+    add(Option.builder(OPTION_FINGERPRINT_THRESHOLD)
+        .argName("threshold")
+        .desc("Skip 3D alignment for pairs whose fingerprint Tanimoto similarity is below this value; " +
+            "their scores are left blank (pairs that fail to align are marked '" +
+            SimilarityEngine.FAILED_PAIR_VALUE + "' instead)")
+        .hasArg()
+        .longOpt("fingerprint-threshold")
+    );
+    add(Option.builder(OPTION_SYMMETRIC_OUTPUT_FILE)
+        .argName("output file")
+        .desc("An optional output TSV in which to write the symmetric computation, aligning each target as the " +
+            "query against each query as the target, with one row per query and one set of columns per target.  " +
+            "Alignment is not symmetric, so every pair is aligned a second time: this doubles the cost of 3D " +
+            "alignment, which dominates the run time")
+        .hasArg()
+        .longOpt("symmetric-output-file")
+    );
   }};
 
   public static Molecule findLargestFragment(Molecule[] fragments) {
@@ -127,22 +146,10 @@ public class SimilarityAnalysis {
     return largest;
   }
 
-  public static Map<String, String> doubleMapToStringMap(Map<String, Double> m) {
-    Map<String, String> r = new HashMap<>(m.size());
-    for (Map.Entry<String, Double> entry : m.entrySet()) {
-      r.put(entry.getKey(), String.format("%.6f", entry.getValue()));
-    }
-    return r;
-  }
-
   public static class SimilarityOperator {
-    public static final AlignmentMoleculeFactory ALIGNMENT_MOLECULE_FACTORY = new AlignmentMoleculeFactory();
-
     private String name;
     private String inchi;
     private Molecule queryFragment;
-    private PairwiseAlignment alignment;
-    private PairwiseSimilarity3D similarity3D;
 
     private String alignmentScoreHeader;
     private String alignmentTMHeader;
@@ -159,25 +166,14 @@ public class SimilarityAnalysis {
       sim3DTMHeader = String.format("%s sim-3d tanimoto", name);
     }
 
-    public void init() throws AlignmentException, MolFormatException {
+    /**
+     * Computes the query's 3D fragment.  The alignment objects themselves are built per worker by SimilarityEngine,
+     * as ChemAxon's aligners are not thread safe.
+     */
+    public void init() throws MolFormatException {
       Molecule queryMol = MolImporter.importMol(inchi);
       Cleaner.clean(queryMol, 3);
       queryFragment = findLargestFragment(queryMol.convertToFrags());
-      AlignmentMolecule am = ALIGNMENT_MOLECULE_FACTORY.create(
-          queryFragment, AlignmentProperties.DegreeOfFreedomType.TRANSLATE_ROTATE);
-      alignment = new PairwiseAlignment();
-      alignment.setQuery(am);
-      similarity3D = new PairwiseSimilarity3D();
-      similarity3D.setQuery(queryFragment);
-    }
-
-    public Map<String, Double> calculateSimilarity(AlignmentMolecule targetFragment) throws AlignmentException {
-      Map<String, Double> results = new HashMap<>();
-      results.put(alignmentScoreHeader, alignment.similarity(targetFragment));
-      results.put(alignmentTMHeader, alignment.getShapeTanimoto());
-      results.put(sim3DScoreHeader, similarity3D.similarity(targetFragment));
-      results.put(sim3DTMHeader, similarity3D.getShapeTanimoto());
-      return results;
     }
 
     public List<String> getResultFields() {
@@ -197,8 +193,7 @@ public class SimilarityAnalysis {
     }
   }
 
-  public static SimilarityOperator makeSimilarityOperators(String name, String inchi)
-      throws AlignmentException, MolFormatException {
+  public static SimilarityOperator makeSimilarityOperators(String name, String inchi) {
     return new SimilarityOperator(name, inchi);
   }
 
@@ -278,32 +273,21 @@ public class SimilarityAnalysis {
       System.exit(1);
     }
 
-    AlignmentMoleculeFactory alignmentMoleculeFactory = new AlignmentMoleculeFactory();
+    int threads = cl.hasOption(OPTION_THREADS) ?
+        Integer.parseInt(cl.getOptionValue(OPTION_THREADS)) : Runtime.getRuntime().availableProcessors();
+    Double fingerprintThreshold = cl.hasOption(OPTION_FINGERPRINT_THRESHOLD) ?
+        Double.valueOf(cl.getOptionValue(OPTION_FINGERPRINT_THRESHOLD)) : null;
 
-    // TODO: add symmetric computations for target as query and each query as target.
-    TSVWriter<String, String> writer = new TSVWriter<>(header);
-    writer.open(new File(cl.getOptionValue(OPTION_OUTPUT_FILE)));
-    try {
-      for (Map<String, String> row : targetChemicals) {
-        Molecule targetMol = MolImporter.importMol(row.get("inchi"));
-        Cleaner.clean(targetMol, 3); // This will assign 3D atom coordinates to the MolAtoms in targetMol.
-        Molecule targetFragment = findLargestFragment(targetMol.convertToFrags());
-        AlignmentMolecule am = alignmentMoleculeFactory.create(
-            targetFragment, AlignmentProperties.DegreeOfFreedomType.TRANSLATE_ROTATE_FLEXIBLE);
-        Map<String, String> outputRow = new HashMap<>(row);
-        System.out.format("Processing target %s\n", row.get("name"));
-        for (SimilarityOperator so : querySimilarityOperators) {
-          System.out.format("  running query %s\n", so.getName());
-          Map<String, Double> results = so.calculateSimilarity(am);
-          outputRow.putAll(doubleMapToStringMap(results));
-        }
-        writer.append(outputRow);
-        writer.flush();
-      }
-    } finally {
-      if (writer != null) {
-        writer.close();
-      }
+    System.out.format("Computing similarity of %d targets against %d queries on %d threads\n",
+        targetChemicals.size(), querySimilarityOperators.size(), threads);
+    SimilarityEngine engine = new SimilarityEngine(querySimilarityOperators, targetChemicals, fingerprintThreshold,
+        cl.hasOption(OPTION_SYMMETRIC_OUTPUT_FILE), threads);
+    engine.run();
+
+    engine.writeResults(new File(cl.getOptionValue(OPTION_OUTPUT_FILE)), header);
+    if (cl.hasOption(OPTION_SYMMETRIC_OUTPUT_FILE)) {
+      // Each query as a target and each target as a query.
+      engine.writeReverseResults(new File(cl.getOptionValue(OPTION_SYMMETRIC_OUTPUT_FILE)));
     }
     System.out.format("Done\n");
   }
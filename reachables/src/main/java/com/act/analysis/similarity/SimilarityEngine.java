@@ -0,0 +1,425 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+
+package com.act.analysis.similarity;
+
+import chemaxon.calculations.clean.Cleaner;
+import chemaxon.descriptors.CFParameters;
+import chemaxon.descriptors.ChemicalFingerprint;
+import chemaxon.formats.MolImporter;
+import chemaxon.marvin.alignment.AlignmentException;
+import chemaxon.marvin.alignment.AlignmentMolecule;
+import chemaxon.marvin.alignment.AlignmentMoleculeFactory;
+import chemaxon.marvin.alignment.AlignmentProperties;
+import chemaxon.marvin.alignment.PairwiseAlignment;
+import chemaxon.marvin.alignment.PairwiseSimilarity3D;
+import chemaxon.struc.Molecule;
+import com.act.utils.TSVWriter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes the similarity of every (target, query) pair at once, rather than one target at a time like
+ * SimilarityAnalysis used to.
+ *
+ * Every query and target fragment, alignment molecule and fingerprint is computed exactly once: queries up front, and
+ * targets by whichever worker aligns them.  The target set is split across a fork-join pool, where each worker thread
+ * owns its own PairwiseAlignment and PairwiseSimilarity3D objects for every query (ChemAxon's aligners hold per-query
+ * state and are not thread safe).
+ *
+ * An optional fingerprint Tanimoto threshold lets us skip the (very expensive) 3D alignment for pairs that are
+ * obviously dissimilar; the scores for skipped pairs are left blank in the output, while pairs that could not be
+ * aligned are marked with FAILED_PAIR_VALUE.
+ *
+ * Alignment is not symmetric: the query is aligned rigidly (TRANSLATE_ROTATE) and the target flexibly
+ * (TRANSLATE_ROTATE_FLEXIBLE).  If asked to, the engine also computes the reverse orientation of every pair, with each
+ * target as the rigid query and each query as the flexible target.  Fragments, fingerprints and the fingerprint screen
+ * are shared between the two orientations, but the alignments themselves can't be: computing the reverse orientation
+ * doubles the number of 3D alignments, and so roughly doubles the run time.
+ */
+public class SimilarityEngine {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(SimilarityEngine.class);
+
+  // Fields per (target, query) pair, in the same order as SimilarityOperator.getResultFields.
+  private static final int ALIGNMENT_SCORE = 0;
+  private static final int ALIGNMENT_TANIMOTO = 1;
+  private static final int SIM_3D_SCORE = 2;
+  private static final int SIM_3D_TANIMOTO = 3;
+  private static final int RESULT_FIELD_COUNT = 4;
+
+  // Written in place of scores for pairs that failed to align, so that they can't be mistaken for skipped pairs.
+  public static final String FAILED_PAIR_VALUE = "failed";
+  public static final String SKIPPED_PAIR_VALUE = "";
+  static final double[] FAILED_SCORES = new double[RESULT_FIELD_COUNT];
+
+  // Split the target list until each task has at most this many targets to align.
+  private static final int TARGETS_PER_TASK = 4;
+
+  // The same fingerprint settings as MoleculeConversions, which are documented there.
+  private static final CFParameters FINGERPRINT_PARAMETERS = new CFParameters();
+  static {
+    FINGERPRINT_PARAMETERS.setLength(1024);
+    FINGERPRINT_PARAMETERS.setBondCount(8);
+    FINGERPRINT_PARAMETERS.setBitCount(2);
+  }
+
+  private final List<SimilarityAnalysis.SimilarityOperator> queries;
+  private final List<Map<String, String>> targets;
+  private final Double fingerprintThreshold;
+  private final boolean computeReverse;
+  private final ForkJoinPool pool;
+
+  private long[][] queryFingerprints;
+  private long[][] targetFingerprints;
+  // Indexed by [target][query][field]; a null [target][query] entry means the pair was skipped, and FAILED_SCORES
+  // that it could not be aligned.  reverseResults holds the target-as-query orientation, if computed.
+  private double[][][] results;
+  private double[][][] reverseResults;
+
+  private AtomicLong alignedPairs = new AtomicLong(0);
+  private AtomicLong skippedPairs = new AtomicLong(0);
+  private AtomicLong failedPairs = new AtomicLong(0);
+
+  private ThreadLocal<WorkerState> threadLocalState = new ThreadLocal<WorkerState>() {
+    @Override
+    protected WorkerState initialValue() {
+      return new WorkerState();
+    }
+  };
+
+  /**
+   * @param queries Initialized similarity operators.
+   * @param targets Target rows, which must contain an inchi field.
+   * @param fingerprintThreshold If not null, pairs whose fingerprint Tanimoto similarity is below this are not aligned.
+   * @param computeReverse If true, also align every pair with the target as the query, for writeReverseResults.
+   * @param threads The number of worker threads to use.
+   */
+  public SimilarityEngine(List<SimilarityAnalysis.SimilarityOperator> queries, List<Map<String, String>> targets,
+                          Double fingerprintThreshold, boolean computeReverse, int threads) {
+    this.queries = queries;
+    this.targets = targets;
+    this.fingerprintThreshold = fingerprintThreshold;
+    this.computeReverse = computeReverse;
+    this.pool = new ForkJoinPool(threads);
+  }
+
+  /**
+   * Precomputes all alignment molecules and fingerprints, then computes every pair's similarity.
+   */
+  public void run() {
+    try {
+      queryFingerprints = new long[queries.size()][];
+      for (int i = 0; i < queries.size(); i++) {
+        queryFingerprints[i] = fingerprint(queries.get(i).getQueryFragment());
+      }
+
+      targetFingerprints = new long[targets.size()][];
+      results = new double[targets.size()][][];
+      reverseResults = computeReverse ? new double[targets.size()][][] : null;
+
+      long startTime = System.currentTimeMillis();
+      pool.invoke(new TargetRangeTask(0, targets.size()));
+      // With computeReverse, each pair is aligned (and may fail) once in each orientation.
+      LOGGER.info("Made %d alignments, skipped %d pairs below the fingerprint threshold and had %d alignments fail " +
+              "in %d ms", alignedPairs.get(), skippedPairs.get(), failedPairs.get(),
+          System.currentTimeMillis() - startTime);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Writes one row per target, with each query's scores as columns.  This is the layout SimilarityAnalysis has always
+   * produced.
+   */
+  public void writeResults(File outputFile, List<String> header) throws IOException {
+    TSVWriter<String, String> writer = new TSVWriter<>(header);
+    writer.open(outputFile);
+    try {
+      for (int t = 0; t < targets.size(); t++) {
+        Map<String, String> outputRow = new HashMap<>(targets.get(t));
+        for (int q = 0; q < queries.size(); q++) {
+          putScores(outputRow, queries.get(q).getResultFields(), results[t][q]);
+        }
+        writer.append(outputRow);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Writes the reverse orientation of every pair: one row per query, with the scores of each target aligned against it
+   * as the query.  Requires the engine to have been constructed with computeReverse.
+   */
+  public void writeReverseResults(File outputFile) throws IOException {
+    if (reverseResults == null) {
+      throw new IllegalStateException("Reverse alignments were not computed; construct the engine with computeReverse");
+    }
+
+    List<List<String>> targetFields = new ArrayList<>(targets.size());
+    List<String> header = new ArrayList<>();
+    header.add("name");
+    header.add("id");
+    header.add("inchi");
+    for (Map<String, String> target : targets) {
+      List<String> fields = new SimilarityAnalysis.SimilarityOperator(
+          String.format("%s (%s)", target.get("name"), target.get("id")), target.get("inchi")).getResultFields();
+      targetFields.add(fields);
+      header.addAll(fields);
+    }
+
+    TSVWriter<String, String> writer = new TSVWriter<>(header);
+    writer.open(outputFile);
+    try {
+      for (int q = 0; q < queries.size(); q++) {
+        Map<String, String> outputRow = new HashMap<>();
+        outputRow.put("name", queries.get(q).getName());
+        outputRow.put("id", null);
+        outputRow.put("inchi", queries.get(q).getInchi());
+        for (int t = 0; t < targets.size(); t++) {
+          putScores(outputRow, targetFields.get(t), reverseResults[t][q]);
+        }
+        writer.append(outputRow);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private void putScores(Map<String, String> outputRow, List<String> fields, double[] scores) {
+    List<String> values = formatScores(scores);
+    for (int f = 0; f < RESULT_FIELD_COUNT; f++) {
+      outputRow.put(fields.get(f), values.get(f));
+    }
+  }
+
+  static List<String> formatScores(double[] scores) {
+    List<String> values = new ArrayList<>(RESULT_FIELD_COUNT);
+    for (int f = 0; f < RESULT_FIELD_COUNT; f++) {
+      if (scores == null) {
+        values.add(SKIPPED_PAIR_VALUE);
+      } else if (scores == FAILED_SCORES) {
+        values.add(FAILED_PAIR_VALUE);
+      } else {
+        values.add(String.format("%.6f", scores[f]));
+      }
+    }
+    return values;
+  }
+
+  private void processTarget(int t) {
+    Map<String, String> row = targets.get(t);
+    double[][] targetResults = new double[queries.size()][];
+    results[t] = targetResults;
+    double[][] targetReverseResults = computeReverse ? new double[queries.size()][] : null;
+    if (computeReverse) {
+      reverseResults[t] = targetReverseResults;
+    }
+
+    WorkerState state = threadLocalState.get();
+    AlignmentMolecule targetAlignmentMolecule;
+    QueryAligner reverseAligner = null;
+    try {
+      Molecule targetMol = MolImporter.importMol(row.get("inchi"));
+      Cleaner.clean(targetMol, 3); // This will assign 3D atom coordinates to the MolAtoms in targetMol.
+      Molecule targetFragment = SimilarityAnalysis.findLargestFragment(targetMol.convertToFrags());
+      targetFingerprints[t] = fingerprint(targetFragment);
+      targetAlignmentMolecule = state.factory.create(
+          targetFragment.cloneMolecule(), AlignmentProperties.DegreeOfFreedomType.TRANSLATE_ROTATE_FLEXIBLE);
+      if (computeReverse) {
+        reverseAligner = new QueryAligner(targetFragment, state.factory);
+      }
+    } catch (Exception e) {
+      LOGGER.error("Unable to prepare target %s, marking all of its pairs as failed: %s",
+          row.get("name"), e.getMessage());
+      Arrays.fill(targetResults, FAILED_SCORES);
+      if (computeReverse) {
+        Arrays.fill(targetReverseResults, FAILED_SCORES);
+      }
+      failedPairs.addAndGet(computeReverse ? 2L * queries.size() : queries.size());
+      return;
+    }
+
+    for (int q = 0; q < queries.size(); q++) {
+      if (!passesFingerprintScreen(fingerprintThreshold, queryFingerprints[q], targetFingerprints[t])) {
+        skippedPairs.incrementAndGet();
+        continue;
+      }
+
+      try {
+        targetResults[q] = state.aligners[q].align(targetAlignmentMolecule);
+        alignedPairs.incrementAndGet();
+      } catch (AlignmentException e) {
+        LOGGER.error("Unable to align target %s with query %s: %s",
+            row.get("name"), queries.get(q).getName(), e.getMessage());
+        targetResults[q] = FAILED_SCORES;
+        failedPairs.incrementAndGet();
+      }
+
+      if (computeReverse) {
+        try {
+          targetReverseResults[q] = reverseAligner.align(state.getFlexibleQuery(q));
+          alignedPairs.incrementAndGet();
+        } catch (AlignmentException e) {
+          LOGGER.error("Unable to align query %s with target %s as the query: %s",
+              queries.get(q).getName(), row.get("name"), e.getMessage());
+          targetReverseResults[q] = FAILED_SCORES;
+          failedPairs.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return True if a pair should be aligned: always when there is no threshold, and otherwise only when the pair's
+   * fingerprint Tanimoto similarity is at least the threshold.
+   */
+  static boolean passesFingerprintScreen(Double threshold, long[] queryFingerprint, long[] targetFingerprint) {
+    return threshold == null || tanimoto(queryFingerprint, targetFingerprint) >= threshold;
+  }
+
+  private static long[] fingerprint(Molecule molecule) {
+    ChemicalFingerprint fingerprint = new ChemicalFingerprint(FINGERPRINT_PARAMETERS);
+    // Chemaxon's fingerprint generation has shown concurrency issues, see MoleculeConversions.
+    synchronized (FINGERPRINT_PARAMETERS) {
+      fingerprint.generate(molecule);
+    }
+
+    return packBits(fingerprint.toFloatArray());
+  }
+
+  /**
+   * Packs a fingerprint's bits, as returned by ChemicalFingerprint.toFloatArray, into 64-bit words.
+   */
+  static long[] packBits(float[] bits) {
+    long[] words = new long[(bits.length + Long.SIZE - 1) / Long.SIZE];
+    for (int i = 0; i < bits.length; i++) {
+      if (bits[i] != 0.0f) {
+        words[i / Long.SIZE] |= 1L << (i % Long.SIZE);
+      }
+    }
+    return words;
+  }
+
+  static double tanimoto(long[] a, long[] b) {
+    int intersection = 0;
+    int union = 0;
+    for (int i = 0; i < a.length; i++) {
+      intersection += Long.bitCount(a[i] & b[i]);
+      union += Long.bitCount(a[i] | b[i]);
+    }
+    // Two empty fingerprints carry no evidence of dissimilarity, so never filter them out.
+    return union == 0 ? 1.0 : (double) intersection / (double) union;
+  }
+
+  /**
+   * The alignment objects owned by one worker thread.  Nothing here is shared between threads: ChemAxon's alignment
+   * molecule factory and aligners are not thread safe.
+   */
+  private class WorkerState {
+    private final AlignmentMoleculeFactory factory = new AlignmentMoleculeFactory();
+    private final QueryAligner[] aligners = new QueryAligner[queries.size()];
+    // Only built when computing reverse alignments, where the queries are the flexible side.
+    private final AlignmentMolecule[] flexibleQueries = new AlignmentMolecule[queries.size()];
+
+    WorkerState() {
+      for (int i = 0; i < queries.size(); i++) {
+        try {
+          aligners[i] = new QueryAligner(queries.get(i).getQueryFragment(), factory);
+        } catch (AlignmentException e) {
+          throw new RuntimeException(
+              String.format("Unable to build aligner for query %s", queries.get(i).getName()), e);
+        }
+      }
+    }
+
+    AlignmentMolecule getFlexibleQuery(int q) throws AlignmentException {
+      if (flexibleQueries[q] == null) {
+        flexibleQueries[q] = factory.create(queries.get(q).getQueryFragment().cloneMolecule(),
+            AlignmentProperties.DegreeOfFreedomType.TRANSLATE_ROTATE_FLEXIBLE);
+      }
+      return flexibleQueries[q];
+    }
+  }
+
+  /**
+   * One thread's copy of the alignment objects for a single rigid query.
+   */
+  private static class QueryAligner {
+    private PairwiseAlignment alignment;
+    private PairwiseSimilarity3D similarity3D;
+
+    QueryAligner(Molecule queryFragment, AlignmentMoleculeFactory factory) throws AlignmentException {
+      Molecule fragment = queryFragment.cloneMolecule();
+      AlignmentMolecule am = factory.create(fragment, AlignmentProperties.DegreeOfFreedomType.TRANSLATE_ROTATE);
+      alignment = new PairwiseAlignment();
+      alignment.setQuery(am);
+      similarity3D = new PairwiseSimilarity3D();
+      similarity3D.setQuery(fragment);
+    }
+
+    double[] align(AlignmentMolecule target) throws AlignmentException {
+      double[] scores = new double[RESULT_FIELD_COUNT];
+      scores[ALIGNMENT_SCORE] = alignment.similarity(target);
+      scores[ALIGNMENT_TANIMOTO] = alignment.getShapeTanimoto();
+      scores[SIM_3D_SCORE] = similarity3D.similarity(target);
+      scores[SIM_3D_TANIMOTO] = similarity3D.getShapeTanimoto();
+      return scores;
+    }
+  }
+
+  private class TargetRangeTask extends RecursiveAction {
+    private final int start;
+    private final int end;
+
+    TargetRangeTask(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= TARGETS_PER_TASK) {
+        for (int t = start; t < end; t++) {
+          processTarget(t);
+        }
+      } else {
+        int middle = (start + end) >>> 1;
+        invokeAll(new TargetRangeTask(start, middle), new TargetRangeTask(middle, end));
+      }
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+
+package com.act.analysis.similarity;
+
+import chemaxon.struc.MolAtom;
+import chemaxon.struc.MolBond;
+import chemaxon.struc.Molecule;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A cheap, count-based fingerprint used to rule out substructure matches before running a full MolSearch.
+ *
+ * The fingerprint counts heavy atoms by element and bonds by the pair of elements they connect.  If a query is a
+ * substructure of a target, every query atom and bond maps to a distinct target atom and bond of the same kind, so the
+ * target must have at least as many of each feature as the query.  Query atoms that are not a single concrete element
+ * (lists, wildcards, R-groups) and hydrogens (which are usually implicit in our targets) are left out of the count,
+ * which keeps the screen conservative: it can only ever discard pairs that could not have matched.
+ */
+public class SubstructureFingerprint {
+  private static final int MIN_COUNTED_ATOMIC_NUMBER = 2;
+  private static final int MAX_COUNTED_ATOMIC_NUMBER = 118;
+  // Bond features are offset so that they can never collide with atom features.
+  private static final int BOND_FEATURE_OFFSET = 1000;
+  private static final int BOND_FEATURE_MULTIPLIER = 200;
+
+  // Parallel arrays, sorted by feature, so that containment checks are a single linear merge.
+  private final int[] features;
+  private final int[] counts;
+
+  private SubstructureFingerprint(int[] features, int[] counts) {
+    this.features = features;
+    this.counts = counts;
+  }
+
+  public static SubstructureFingerprint fromMolecule(Molecule molecule) {
+    Map<Integer, Integer> featureCounts = new TreeMap<>();
+
+    for (int i = 0; i < molecule.getAtomCount(); i++) {
+      int atno = molecule.getAtom(i).getAtno();
+      if (isCounted(atno)) {
+        increment(featureCounts, atno);
+      }
+    }
+
+    for (int i = 0; i < molecule.getBondCount(); i++) {
+      MolBond bond = molecule.getBond(i);
+      MolAtom atom1 = bond.getAtom1();
+      MolAtom atom2 = bond.getAtom2();
+      if (isCounted(atom1.getAtno()) && isCounted(atom2.getAtno())) {
+        int low = Math.min(atom1.getAtno(), atom2.getAtno());
+        int high = Math.max(atom1.getAtno(), atom2.getAtno());
+        increment(featureCounts, BOND_FEATURE_OFFSET + low * BOND_FEATURE_MULTIPLIER + high);
+      }
+    }
+
+    int[] features = new int[featureCounts.size()];
+    int[] counts = new int[featureCounts.size()];
+    int i = 0;
+    for (Map.Entry<Integer, Integer> entry : featureCounts.entrySet()) {
+      features[i] = entry.getKey();
+      counts[i] = entry.getValue();
+      i++;
+    }
+    return new SubstructureFingerprint(features, counts);
+  }
+
+  /**
+   * Checks whether a molecule with this fingerprint could possibly be a substructure of the target.
+   * @param target The fingerprint of the molecule being searched.
+   * @return False if a match is impossible, true if a full search is still required.
+   */
+  public boolean mayBeSubstructureOf(SubstructureFingerprint target) {
+    int j = 0;
+    for (int i = 0; i < features.length; i++) {
+      while (j < target.features.length && target.features[j] < features[i]) {
+        j++;
+      }
+      if (j == target.features.length || target.features[j] != features[i] || target.counts[j] < counts[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isCounted(int atno) {
+    return atno >= MIN_COUNTED_ATOMIC_NUMBER && atno <= MAX_COUNTED_ATOMIC_NUMBER;
+  }
+
+  private static void increment(Map<Integer, Integer> featureCounts, int feature) {
+    Integer count = featureCounts.get(feature);
+    featureCounts.put(feature, count == null ? 1 : count + 1);
+  }
+}
@@ -63,6 +63,9 @@ public class BiointerpretationDriver {
   public static final String OPTION_SINGLE_OPERATION = "o";
   public static final String OPTION_SINGLE_READ_DB = "r";
   public static final String OPTION_SINGLE_WRITE_DB = "w";
+  public static final String OPTION_DESALTING_MEMO = "m";
+  public static final String OPTION_MERGE_SPILL_DIRECTORY = "s";
+  public static final String OPTION_MERGE_MEMORY_BUDGET = "b";
 
   private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
@@ -105,6 +108,27 @@ public class BiointerpretationDriver {
         .hasArg()
         .longOpt("write")
     );
+    add(Option.builder(OPTION_DESALTING_MEMO)
+        .argName("directory")
+        .desc("An on-disk memo of desalting results to reuse and extend, so reruns only desalt unseen InChIs")
+        .hasArg()
+        .longOpt("desalting-memo")
+    );
+    add(Option.builder(OPTION_MERGE_SPILL_DIRECTORY)
+        .argName("directory")
+        .desc("Group reactions for MERGE_REACTIONS in sorted runs spilled to this directory rather than in memory, " +
+            "for read DBs with too many reactions to group on the heap")
+        .hasArg()
+        .longOpt("merge-spill-directory")
+    );
+    add(Option.builder(OPTION_MERGE_MEMORY_BUDGET)
+        .argName("megabytes")
+        .desc(String.format("Roughly how much memory MERGE_REACTIONS may use to group reactions before spilling to " +
+            "disk; also enables spilling, to the system temp directory if no spill directory is given " +
+            "(default with a spill directory: %d)", ReactionMerger.DEFAULT_SPILL_MAX_BUFFERED_BYTES >> 20))
+        .hasArg()
+        .longOpt("merge-memory-mb")
+    );
     add(Option.builder("h")
         .argName("help")
         .desc("Prints this help message")
@@ -138,6 +162,29 @@ public class BiointerpretationDriver {
       return;
     }
 
+    File desaltingMemo =
+        cl.hasOption(OPTION_DESALTING_MEMO) ? new File(cl.getOptionValue(OPTION_DESALTING_MEMO)) : null;
+    File mergeSpillDirectory = cl.hasOption(OPTION_MERGE_SPILL_DIRECTORY) ?
+        new File(cl.getOptionValue(OPTION_MERGE_SPILL_DIRECTORY)) : null;
+    // A null budget keeps the merger's default in-memory grouping.
+    Long mergeMemoryBudget = null;
+    if (cl.hasOption(OPTION_MERGE_MEMORY_BUDGET)) {
+      mergeMemoryBudget = Long.parseLong(cl.getOptionValue(OPTION_MERGE_MEMORY_BUDGET)) << 20;
+    } else if (mergeSpillDirectory != null) {
+      mergeMemoryBudget = ReactionMerger.DEFAULT_SPILL_MAX_BUFFERED_BYTES;
+    }
+    if (mergeSpillDirectory != null && !mergeSpillDirectory.isDirectory()) {
+      String msg = String.format("Merge spill directory %s is not a directory", mergeSpillDirectory.getAbsolutePath());
+      LOGGER.error(msg);
+      throw new RuntimeException(msg);
+    }
+    if (mergeMemoryBudget != null && mergeMemoryBudget <= 0) {
+      String msg = String.format("Merge memory budget must be positive, got %s MB",
+          cl.getOptionValue(OPTION_MERGE_MEMORY_BUDGET));
+      LOGGER.error(msg);
+      throw new RuntimeException(msg);
+    }
+
     if (cl.hasOption(OPTION_CONFIGURATION_FILE)) {
       List<BiointerpretationStep> steps;
       File configFile = new File(cl.getOptionValue(OPTION_CONFIGURATION_FILE));
@@ -171,7 +218,7 @@ public class BiointerpretationDriver {
       if ("y".equalsIgnoreCase(readLine) || "yes".equalsIgnoreCase(readLine)) {
         LOGGER.info("Biointerpretation plan confirmed, commencing");
         for (BiointerpretationStep step : steps) {
-          performOperation(step, true);
+          performOperation(step, true, desaltingMemo, mergeSpillDirectory, mergeMemoryBudget);
         }
         LOGGER.info("Biointerpretation plan completed");
       } else {
@@ -194,7 +241,8 @@ public class BiointerpretationDriver {
       String readDB = crashIfInvalidDBName(cl.getOptionValue(OPTION_SINGLE_READ_DB));
       String writeDB = crashIfInvalidDBName(cl.getOptionValue(OPTION_SINGLE_WRITE_DB));
 
-      performOperation(new BiointerpretationStep(operation, readDB, writeDB), false);
+      performOperation(new BiointerpretationStep(operation, readDB, writeDB), false,
+          desaltingMemo, mergeSpillDirectory, mergeMemoryBudget);
     } else {
       String msg = "Must specify either a config file or a single operation to perform.";
       LOGGER.error(msg);
@@ -214,6 +262,22 @@ public class BiointerpretationDriver {
 
   public static void performOperation(BiointerpretationStep step, boolean forceDrop)
       throws IOException, LicenseProcessingException, ReactionException {
+    performOperation(step, forceDrop, null);
+  }
+
+  public static void performOperation(BiointerpretationStep step, boolean forceDrop, File desaltingMemo)
+      throws IOException, LicenseProcessingException, ReactionException {
+    performOperation(step, forceDrop, desaltingMemo, null, null);
+  }
+
+  /**
+   * @param mergeSpillDirectory Where MERGE_REACTIONS should spill sorted runs, or null for the system temp directory.
+   * @param mergeMemoryBudget The bytes MERGE_REACTIONS may use to group reactions before spilling to disk, or null to
+   *                          group reactions in memory.
+   */
+  public static void performOperation(BiointerpretationStep step, boolean forceDrop, File desaltingMemo,
+                                      File mergeSpillDirectory, Long mergeMemoryBudget)
+      throws IOException, LicenseProcessingException, ReactionException {
     // Drop the write DB and create a NoSQLAPI object that can be used by any step.
     NoSQLAPI.dropDB(step.writeDBName, forceDrop);
     // Note that this constructor call initializes the write DB collections and indices, so it must happen after dropDB.
@@ -222,14 +286,16 @@ public class BiointerpretationDriver {
     switch (step.getOperation()) {
       case MERGE_REACTIONS:
         LOGGER.info("Reaction merger starting (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
-        ReactionMerger reactionMerger = new ReactionMerger(noSQLAPI);
+        ReactionMerger reactionMerger = mergeMemoryBudget == null ? new ReactionMerger(noSQLAPI) :
+            new ReactionMerger(noSQLAPI, mergeSpillDirectory, mergeMemoryBudget);
         reactionMerger.init();
         reactionMerger.run();
         LOGGER.info("Reaction merger complete (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
         break;
       case DESALT:
         LOGGER.info("Desalter starting (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
-        ReactionDesalter reactionDesalter = new ReactionDesalter(noSQLAPI);
+        ReactionDesalter reactionDesalter =
+            new ReactionDesalter(noSQLAPI, ReactionDesalter.DEFAULT_THREADS, desaltingMemo);
         reactionDesalter.init();
         reactionDesalter.run();
         LOGGER.info("Reaction merger complete (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
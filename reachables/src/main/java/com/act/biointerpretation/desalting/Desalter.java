@@ -33,6 +33,7 @@ import chemaxon.reaction.Reactor;
 import chemaxon.struc.Molecule;
 import chemaxon.struc.PeriodicSystem;
 import com.act.biointerpretation.Utils.ReactionProjector;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -312,6 +313,19 @@ public class Desalter {
     initReactors(null);
   }
 
+  /**
+   * Identifies the set of desalting ROs this desalter applies, so that stored desalting results can be invalidated
+   * when the ROs change.  Must be called after initReactors.
+   * @return A hex digest of the RO reaction strings.
+   */
+  public String getCorpusFingerprint() {
+    StringBuilder builder = new StringBuilder();
+    for (DesaltingRO ro : corpus.getRos()) {
+      builder.append(ro.getReaction()).append('\n');
+    }
+    return DigestUtils.sha256Hex(builder.toString());
+  }
+
   private static List<Molecule> resolveMixtureOfAtomicComponents(Molecule molecule) {
     List<Molecule> fragments = Arrays.asList(molecule.convertToFrags());
 
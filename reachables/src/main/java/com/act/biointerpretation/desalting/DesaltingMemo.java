@@ -0,0 +1,172 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.desalting;
+
+import com.act.utils.rocksdb.ColumnFamilyEnumeration;
+import com.act.utils.rocksdb.DBUtil;
+import com.act.utils.rocksdb.RocksDBAndHandles;
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An on-disk map of InChI -> DesaltingResult, so that desalting a new snapshot of a DB only has to run the desalter
+ * on InChIs it has never seen.  The memo records a fingerprint of the desalting ROs it was built with and is discarded
+ * if those ROs change, since its results would no longer match what the desalter produces.  Failed results are never
+ * stored: a failure may be transient (a missing ChemAxon license, say), and memoizing it would make it permanent.
+ */
+public class DesaltingMemo implements AutoCloseable {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(DesaltingMemo.class);
+
+  private static final byte[] FINGERPRINT_KEY = "desalting_ro_fingerprint".getBytes(StandardCharsets.UTF_8);
+
+  enum ColumnFamilies implements ColumnFamilyEnumeration<ColumnFamilies> {
+    // Maps InChI (as UTF-8 bytes) to a serialized DesaltingResult.
+    INCHI_TO_RESULT("inchi_to_result"),
+    // Holds the fingerprint of the RO corpus used to produce the results.
+    METADATA("metadata"),
+    ;
+
+    private static final Map<String, ColumnFamilies> reverseNameMap =
+        new HashMap<String, ColumnFamilies>() {{
+          for (ColumnFamilies cf : ColumnFamilies.values()) {
+            put(cf.getName(), cf);
+          }
+        }};
+
+    private String name;
+
+    ColumnFamilies(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public ColumnFamilies getFamilyByName(String name) {
+      return reverseNameMap.get(name);
+    }
+  }
+
+  private RocksDBAndHandles<ColumnFamilies> dbAndHandles;
+  private long hits = 0L;
+  private long misses = 0L;
+
+  private DesaltingMemo(RocksDBAndHandles<ColumnFamilies> dbAndHandles) {
+    this.dbAndHandles = dbAndHandles;
+  }
+
+  /**
+   * Open (or create) a memo for a particular set of desalting ROs.
+   * @param path The directory in which the memo lives.
+   * @param roFingerprint The fingerprint of the desalter's ROs; see Desalter.getCorpusFingerprint.
+   * @return A memo whose contents are valid for the specified ROs.
+   * @throws RocksDBException
+   * @throws IOException
+   */
+  public static DesaltingMemo open(File path, String roFingerprint) throws RocksDBException, IOException {
+    byte[] fingerprint = roFingerprint.getBytes(StandardCharsets.UTF_8);
+    if (path.exists()) {
+      RocksDBAndHandles<ColumnFamilies> existing =
+          DBUtil.openExistingRocksDB(path, ColumnFamilies.values());
+      byte[] storedFingerprint = existing.get(ColumnFamilies.METADATA, FINGERPRINT_KEY);
+      if (storedFingerprint != null && roFingerprint.equals(new String(storedFingerprint, StandardCharsets.UTF_8))) {
+        LOGGER.info("Reusing desalting memo at %s", path.getAbsolutePath());
+        return new DesaltingMemo(existing);
+      }
+      existing.close();
+      LOGGER.warn("Desalting ROs have changed since the memo at %s was built, discarding it", path.getAbsolutePath());
+      FileUtils.deleteDirectory(path);
+    }
+
+    LOGGER.info("Creating new desalting memo at %s", path.getAbsolutePath());
+    RocksDBAndHandles<ColumnFamilies> created = DBUtil.createNewRocksDB(path, ColumnFamilies.values());
+    created.put(ColumnFamilies.METADATA, FINGERPRINT_KEY, fingerprint);
+    return new DesaltingMemo(created);
+  }
+
+  /**
+   * Look up a previously stored result.
+   * @param inchi The InChI that was desalted.
+   * @return The stored result, or null if this InChI hasn't been successfully desalted with these ROs.
+   * @throws RocksDBException
+   * @throws IOException
+   */
+  public DesaltingResult get(String inchi) throws RocksDBException, IOException {
+    byte[] bytes = dbAndHandles.get(ColumnFamilies.INCHI_TO_RESULT, inchi.getBytes(StandardCharsets.UTF_8));
+    if (bytes == null) {
+      misses++;
+      return null;
+    }
+    DesaltingResult result = DesaltingResult.fromBytes(bytes);
+    if (result.isFailure()) {
+      // Memos written before failures were excluded may still hold some; retry those InChIs.
+      misses++;
+      return null;
+    }
+    hits++;
+    return result;
+  }
+
+  /**
+   * Store a batch of results in a single write.  Failed results are skipped so they'll be retried on the next run.
+   * @param results A map of InChI -> result.
+   * @throws RocksDBException
+   * @throws IOException
+   */
+  public void putAll(Map<String, DesaltingResult> results) throws RocksDBException, IOException {
+    RocksDBAndHandles.RocksDBWriteBatch<ColumnFamilies> batch = dbAndHandles.makeWriteBatch();
+    for (Map.Entry<String, DesaltingResult> entry : results.entrySet()) {
+      if (entry.getValue().isFailure()) {
+        continue;
+      }
+      batch.put(ColumnFamilies.INCHI_TO_RESULT,
+          entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue().toBytes());
+    }
+    batch.write();
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  @Override
+  public void close() throws RocksDBException {
+    dbAndHandles.flush(true);
+    dbAndHandles.close();
+  }
+}
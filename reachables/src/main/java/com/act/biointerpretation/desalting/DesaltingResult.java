@@ -0,0 +1,121 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.desalting;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of desalting one InChI: either its desalted fragments with their counts (in the order Desalter produced
+ * them), or the message of the exception desalting raised.  Results can be serialized for storage in a DesaltingMemo.
+ */
+public class DesaltingResult {
+  private static final byte STATUS_DESALTED = 0;
+  private static final byte STATUS_FAILED = 1;
+
+  private final Map<String, Integer> fragments;
+  private final String errorMessage;
+
+  private DesaltingResult(Map<String, Integer> fragments, String errorMessage) {
+    this.fragments = fragments;
+    this.errorMessage = errorMessage;
+  }
+
+  public static DesaltingResult desalted(Map<String, Integer> fragments) {
+    return new DesaltingResult(Collections.unmodifiableMap(new LinkedHashMap<>(fragments)), null);
+  }
+
+  public static DesaltingResult failed(String errorMessage) {
+    return new DesaltingResult(null, errorMessage == null ? "" : errorMessage);
+  }
+
+  public boolean isFailure() {
+    return fragments == null;
+  }
+
+  public Map<String, Integer> getFragments() {
+    return fragments;
+  }
+
+  public String getErrorMessage() {
+    return errorMessage;
+  }
+
+  public byte[] toBytes() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bos)) {
+      if (isFailure()) {
+        out.writeByte(STATUS_FAILED);
+        writeString(out, errorMessage);
+      } else {
+        out.writeByte(STATUS_DESALTED);
+        out.writeInt(fragments.size());
+        for (Map.Entry<String, Integer> entry : fragments.entrySet()) {
+          writeString(out, entry.getKey());
+          out.writeInt(entry.getValue());
+        }
+      }
+    }
+    return bos.toByteArray();
+  }
+
+  public static DesaltingResult fromBytes(byte[] bytes) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    byte status = in.readByte();
+    switch (status) {
+      case STATUS_FAILED:
+        return failed(readString(in));
+      case STATUS_DESALTED:
+        int count = in.readInt();
+        Map<String, Integer> fragments = new LinkedHashMap<>(count);
+        for (int i = 0; i < count; i++) {
+          String inchi = readString(in);
+          fragments.put(inchi, in.readInt());
+        }
+        return desalted(fragments);
+      default:
+        throw new IOException(String.format("Unrecognized desalting result status %d", status));
+    }
+  }
+
+  // InChIs for large molecules can exceed DataOutput.writeUTF's 64k limit, so strings are written as raw UTF-8.
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
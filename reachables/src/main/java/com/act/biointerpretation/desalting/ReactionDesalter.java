@@ -35,7 +35,9 @@ import com.act.biointerpretation.Utils.ReactionProjector;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.rocksdb.RocksDBException;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -45,6 +47,9 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 import static com.act.biointerpretation.Utils.ReactionComponent.PRODUCT;
 import static com.act.biointerpretation.Utils.ReactionComponent.SUBSTRATE;
@@ -62,6 +67,10 @@ public class ReactionDesalter extends BiointerpretationProcessor {
 
   private static final String FAKE = "FAKE";
 
+  public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+  // Chemicals are read and written in batches this size; only the desalting in between runs in parallel.
+  public static final int DEFAULT_BATCH_SIZE = 10000;
+
   // Don't use the superclass's maps, as we might convert one chemical into many.
   private Map<Long, List<Long>> oldChemicalIdToNewChemicalIds = new HashMap<>();
   private Map<String, Long> inchiToNewId = new HashMap<>();
@@ -69,19 +78,42 @@ public class ReactionDesalter extends BiointerpretationProcessor {
   private Desalter desalter;
   private int desalterFailuresCounter = 0;
 
+  private int threads;
+  private File memoPath;
+  private DesaltingMemo memo = null;
+
   @Override
   public String getName() {
     return PROCESSOR_NAME;
   }
 
   public ReactionDesalter(NoSQLAPI inputApi) {
+    this(inputApi, DEFAULT_THREADS, null);
+  }
+
+  /**
+   * Construct a desalter with explicit parallelism and, optionally, a memo of results that persists across runs.
+   * @param inputApi The API to use for reading and writing chemicals and reactions.
+   * @param threads The number of threads to desalt chemicals with.  Each gets its own Desalter and Reactors.
+   * @param memoPath A directory for an on-disk memo of desalting results, or null to not keep one.
+   */
+  public ReactionDesalter(NoSQLAPI inputApi, int threads, File memoPath) {
     super(inputApi);
+    this.threads = threads;
+    this.memoPath = memoPath;
   }
 
   @Override
   public void init() throws IOException, ReactionException, LicenseProcessingException {
     desalter = new Desalter(new ReactionProjector());
     desalter.initReactors();
+    if (memoPath != null) {
+      try {
+        memo = DesaltingMemo.open(memoPath, desalter.getCorpusFingerprint());
+      } catch (RocksDBException e) {
+        throw new IOException("Unable to open desalting memo", e);
+      }
+    }
     markInitialized();
   }
 
@@ -95,7 +127,11 @@ public class ReactionDesalter extends BiointerpretationProcessor {
     LOGGER.debug("Starting Reaction Desalter");
     long startTime = new Date().getTime();
 
-    desaltAllChemicals();
+    try {
+      desaltAllChemicals();
+    } finally {
+      closeMemo();
+    }
     desaltAllReactions();
 
     long endTime = new Date().getTime();
@@ -104,11 +140,134 @@ public class ReactionDesalter extends BiointerpretationProcessor {
 
   public void desaltAllChemicals() throws IOException, LicenseProcessingException, ReactionException {
     Iterator<Chemical> chemicals = getNoSQLAPI().readChemsFromInKnowledgeGraph();
-    while (chemicals.hasNext()) {
-      Chemical chem = chemicals.next();
-      desaltChemical(chem); // Ignore results, as the cached mapping will be used for reaction desalting.
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    // ChemAxon's Reactors and our projector's caches aren't thread safe, so each worker gets its own Desalter.
+    ThreadLocal<Desalter> workerDesalters = ThreadLocal.withInitial(ReactionDesalter::makeWorkerDesalter);
+    try {
+      List<Chemical> batch = new ArrayList<>(DEFAULT_BATCH_SIZE);
+      while (chemicals.hasNext()) {
+        batch.add(chemicals.next());
+        if (batch.size() >= DEFAULT_BATCH_SIZE) {
+          desaltChemicalBatch(batch, pool, workerDesalters);
+          batch.clear();
+        }
+      }
+      if (!batch.isEmpty()) {
+        desaltChemicalBatch(batch, pool, workerDesalters);
+      }
+    } finally {
+      pool.shutdown();
     }
     LOGGER.info("Encountered %d failures while desalting all molecules", desalterFailuresCounter);
+    if (memo != null) {
+      LOGGER.info("Desalting memo hits: %d, misses: %d", memo.getHits(), memo.getMisses());
+    }
+  }
+
+  private void closeMemo() throws IOException {
+    if (memo != null) {
+      try {
+        memo.close();
+      } catch (RocksDBException e) {
+        throw new IOException("Unable to close desalting memo", e);
+      } finally {
+        memo = null;
+      }
+    }
+  }
+
+  private static Desalter makeWorkerDesalter() {
+    try {
+      Desalter workerDesalter = new Desalter(new ReactionProjector());
+      workerDesalter.initReactors();
+      return workerDesalter;
+    } catch (IOException | LicenseProcessingException | ReactionException e) {
+      throw new RuntimeException("Unable to initialize desalter for worker thread", e);
+    }
+  }
+
+  /**
+   * Desalt a batch of chemicals.  Only InChIs that aren't in the memo are handed to the desalter, which runs them in
+   * parallel; results are then written in the batch's original order, so chemical ids are assigned exactly as a serial
+   * pass would assign them.
+   */
+  private void desaltChemicalBatch(List<Chemical> batch, ForkJoinPool pool, ThreadLocal<Desalter> workerDesalters)
+      throws IOException, ReactionException {
+    Map<String, DesaltingResult> results = new HashMap<>(batch.size());
+    LinkedHashSet<String> inchisToDesalt = new LinkedHashSet<>();
+    for (Chemical chemical : batch) {
+      String inchi = chemical.getInChI();
+      if (inchi.contains(FAKE) || results.containsKey(inchi) || inchisToDesalt.contains(inchi)) {
+        continue;
+      }
+      DesaltingResult memoized = lookUpMemo(inchi);
+      if (memoized != null) {
+        results.put(inchi, memoized);
+      } else {
+        inchisToDesalt.add(inchi);
+      }
+    }
+
+    Map<String, DesaltingResult> freshResults =
+        desaltInParallel(new ArrayList<>(inchisToDesalt), pool, workerDesalters);
+    results.putAll(freshResults);
+    if (memo != null && !freshResults.isEmpty()) {
+      try {
+        memo.putAll(freshResults);
+      } catch (RocksDBException e) {
+        throw new IOException("Unable to write to desalting memo", e);
+      }
+    }
+
+    for (Chemical chemical : batch) {
+      // Ignore results, as the cached mapping will be used for reaction desalting.
+      desaltChemical(chemical, results.get(chemical.getInChI()));
+    }
+  }
+
+  private DesaltingResult lookUpMemo(String inchi) throws IOException {
+    if (memo == null) {
+      return null;
+    }
+    try {
+      return memo.get(inchi);
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to read from desalting memo", e);
+    }
+  }
+
+  private Map<String, DesaltingResult> desaltInParallel(
+      List<String> inchis, ForkJoinPool pool, ThreadLocal<Desalter> workerDesalters) {
+    if (inchis.isEmpty()) {
+      return Collections.emptyMap();
+    }
+
+    List<DesaltingResult> desalted;
+    try {
+      desalted = pool.submit(() -> inchis.parallelStream().
+          map(inchi -> desaltInchi(workerDesalters.get(), inchi)).
+          collect(Collectors.toList())
+      ).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while desalting chemicals.", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Desalting worker failed.", e.getCause());
+    }
+
+    Map<String, DesaltingResult> results = new HashMap<>(inchis.size());
+    for (int i = 0; i < inchis.size(); i++) {
+      results.put(inchis.get(i), desalted.get(i));
+    }
+    return results;
+  }
+
+  private static DesaltingResult desaltInchi(Desalter workerDesalter, String inchi) {
+    try {
+      return DesaltingResult.desalted(workerDesalter.desaltInchi(inchi));
+    } catch (Exception e) {
+      return DesaltingResult.failed(e.getMessage());
+    }
   }
 
   public void desaltAllReactions() throws IOException, LicenseProcessingException, ReactionException {
@@ -257,9 +416,10 @@ public class ReactionDesalter extends BiointerpretationProcessor {
    * chemicals from the old DB to the new.  If the chemicals cannot be desalted, we just migrate the chemical unaltered.
    *
    * @param chemical A chemical to desalt.
+   * @param result The result of desalting the chemical's InChI, or null if it's a FAKE InChI.
    * @return A list of output ids of desalted chemicals
    */
-  private List<Long> desaltChemical(Chemical chemical) throws IOException, ReactionException {
+  private List<Long> desaltChemical(Chemical chemical, DesaltingResult result) throws IOException, ReactionException {
     Long originalId = chemical.getUuid();
 
     // If the chemical's ID maps to a single pre-seen entry, use its existing old id
@@ -280,12 +440,10 @@ public class ReactionDesalter extends BiointerpretationProcessor {
       return singletonId;
     }
 
-    Map<String, Integer> cleanedInchis = null;
-    try {
-      cleanedInchis = desalter.desaltInchi(inchi);
-    } catch (Exception e) {
+    if (result.isFailure()) {
       // TODO: probably should handle this error differently, currently just letting pass unaltered
-      LOGGER.error(String.format("Exception caught when desalting chemical %d: %s", originalId, e.getMessage()));
+      LOGGER.error(String.format("Exception caught when desalting chemical %d: %s", originalId,
+          result.getErrorMessage()));
       desalterFailuresCounter++;
       long newId = getNoSQLAPI().writeToOutKnowlegeGraph(chemical); //Write to the db
       List<Long> singletonId = Collections.singletonList(newId);
@@ -297,7 +455,7 @@ public class ReactionDesalter extends BiointerpretationProcessor {
 
     List<Long> newIds = new ArrayList<>();
     // For each cleaned chemical, put in DB or update ID
-    for (Map.Entry<String, Integer> pair : cleanedInchis.entrySet()) {
+    for (Map.Entry<String, Integer> pair : result.getFragments().entrySet()) {
       String cleanInchi = pair.getKey();
       // If the cleaned inchi is already in DB, use existing ID, and hash the id
       long newId;
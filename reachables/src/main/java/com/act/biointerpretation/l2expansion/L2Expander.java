@@ -27,13 +27,11 @@ import chemaxon.reaction.ReactionException;
 import com.act.biointerpretation.sars.NoSar;
 import com.act.biointerpretation.sars.Sar;
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.List;
@@ -66,7 +64,8 @@ public abstract class L2Expander implements Serializable {
   }
 
   /**
-   * Get predictions for this expander, logging progress to the specified output stream.
+   * Get predictions for this expander, logging progress to the specified output stream.  Progress is written as an
+   * NDJSON corpus, one prediction per line, so an interrupted run still leaves behind a readable partial corpus.
    *
    * @param maybeOutputStream A stream to which to write incremental results.
    * @return A corpus of L2 predicitions using the specified generator.
@@ -74,10 +73,67 @@ public abstract class L2Expander implements Serializable {
   public L2PredictionCorpus getPredictions(Optional<OutputStream> maybeOutputStream) {
     L2PredictionCorpus result = new L2PredictionCorpus();
 
-    Optional<OutputStreamWriter> maybeWriter = maybeOutputStream.map(OutputStreamWriter::new);
+    Optional<L2PredictionCorpusWriter> maybeWriter = Optional.empty();
+    if (maybeOutputStream.isPresent()) {
+      try {
+        maybeWriter = Optional.of(
+            new L2PredictionCorpusWriter(maybeOutputStream.get(), L2PredictionCorpusWriter.Format.NDJSON));
+      } catch (IOException e) {
+        LOGGER.error("Unable to write progress, continuing without it: %s", e.getMessage());
+      }
+    }
+
+    final Optional<L2PredictionCorpusWriter> progressWriter = maybeWriter;
+    try {
+      generatePredictions(results -> {
+        if (progressWriter.isPresent()) {
+          try {
+            progressWriter.get().writeAll(results);
+            progressWriter.get().flush(); // Flush to ensure the user can actually see the progress output.
+          } catch (IOException e) {
+            LOGGER.error("Caught exception when writing progress, skipping: %s", e.getMessage());
+          }
+        }
+        result.addAll(results);
+      });
+
+      if (progressWriter.isPresent()) {
+        // Leaves the caller's stream open.
+        progressWriter.get().close();
+      }
+    } catch (IOException e) {
+      // Only the progress writer can throw here, and its errors are not fatal to the expansion.
+      LOGGER.error("Caught exception when finishing progress output: %s", e.getMessage());
+    }
+
+    return result;
+  }
+
+  /**
+   * Streams predictions for this expander to a sink as they are generated, without accumulating them.  This is the
+   * only way to run expansions whose results do not fit in memory.
+   *
+   * @param sink The destination of each prediction, typically an L2PredictionCorpusWriter.
+   * @return The number of predictions produced.
+   * @throws IOException If the sink fails.
+   */
+  public long writePredictions(L2PredictionSink sink) throws IOException {
+    long[] count = {0L};
+    generatePredictions(results -> {
+      for (L2Prediction prediction : results) {
+        sink.accept(prediction);
+      }
+      count[0] += results.size();
+    });
+    return count[0];
+  }
 
-    ObjectMapper objectMapper = new ObjectMapper();
+  @FunctionalInterface
+  private interface SeedResultHandler {
+    void accept(List<L2Prediction> results) throws IOException;
+  }
 
+  private void generatePredictions(SeedResultHandler handler) throws IOException {
     int counter = 0;
     for (PredictionSeed seed : getPredictionSeeds()) {
       if (counter % 1000 == 0) {
@@ -86,31 +142,19 @@ public abstract class L2Expander implements Serializable {
       counter++;
 
       // Apply reactor to substrate if possible
+      List<L2Prediction> results;
       try {
-        List<L2Prediction> results = generator.getPredictions(seed);
-        if (maybeWriter.isPresent()) {
-          try {
-            /* Write results as string to ensure the object mapper doesn't close the stream we give it.  See
-             * https://fasterxml.github.io/jackson-databind/javadoc/2.6/com/fasterxml/jackson/databind/ObjectMapper.html#writeValue-java.io.OutputStream-java.lang.Object-
-             * for a confusing explanation of why we worry about this. */
-            String resultJson = objectMapper.writeValueAsString(results);
-            maybeWriter.get().write(resultJson);
-            maybeWriter.get().write("\n");
-            maybeWriter.get().flush(); // Flush to ensure the user can actually see the progress output.
-          } catch (Exception e) {
-            LOGGER.error("Caught exception when writing progress, skipping: %s", e.getMessage());
-          }
-        }
-        result.addAll(results);
+        results = generator.getPredictions(seed);
         // If there is an error on a certain RO, metabolite pair, we should log the error, but the expansion may
         // produce some valid results, so no error is thrown.
       } catch (ReactionException e) {
         LOGGER.error("ReactionException on getPredictions. %s", e.getMessage());
+        continue;
       } catch (IOException e) {
         LOGGER.error("IOException during prediction generation. %s", e.getMessage());
+        continue;
       }
+      handler.accept(results);
     }
-
-    return result;
   }
 }
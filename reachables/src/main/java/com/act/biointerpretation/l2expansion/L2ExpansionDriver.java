@@ -47,8 +47,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Runs L2 Expansion
@@ -66,6 +68,7 @@ public class L2ExpansionDriver {
   private static final String OPTION_SAR_CORPUS = "s";
   private static final String OPTION_OUTPUT_PATH = "o";
   private static final String OPTION_PROGRESS_PATH = "p";
+  private static final String OPTION_STREAM_OUTPUT = "n";
   private static final String OPTION_DB = "db";
   private static final String OPTION_EXPANSION_TYPE = "t";
   private static final String OPTION_ADDITIONAL_CHEMICALS = "p";
@@ -133,6 +136,12 @@ public class L2ExpansionDriver {
         .hasArg()
         .longOpt("progress-file-path")
     );
+    add(Option.builder(OPTION_STREAM_OUTPUT)
+        .desc("Write the output corpus as newline-delimited JSON while the expansion runs, instead of collecting " +
+            "every prediction in memory first.  Use this for expansions whose results do not fit in the heap.  " +
+            "The progress file is not needed in this mode, as the output itself is written incrementally.")
+        .longOpt("stream-output")
+    );
     add(Option.builder(OPTION_DB)
         .argName("db name")
         .desc("The name of the mongo DB to use.")
@@ -242,6 +251,24 @@ public class L2ExpansionDriver {
     PredictionGenerator generator = new AllPredictionsGenerator(new ReactionProjector());
 
     L2Expander expander = buildExpander(cl, inchiCorpus, generator);
+
+    if (cl.hasOption(OPTION_STREAM_OUTPUT)) {
+      // Only the distinct product inchis are kept in memory; the predictions go straight to disk.
+      Set<String> productInchis = new HashSet<>();
+      long predictionCount;
+      try (L2PredictionCorpusWriter writer =
+               new L2PredictionCorpusWriter(outputFile, L2PredictionCorpusWriter.Format.NDJSON)) {
+        predictionCount = expander.writePredictions(prediction -> {
+          writer.write(prediction);
+          productInchis.addAll(prediction.getProductInchis());
+        });
+      }
+      LOGGER.info("Done with L2 expansion. Streamed %d predictions to file.", predictionCount);
+      new L2InchiCorpus(productInchis).writeToFile(inchiOutputFile);
+      LOGGER.info("L2ExpansionDriver complete!");
+      return;
+    }
+
     L2PredictionCorpus predictionCorpus = expander.getPredictions(maybeProgressStream);
 
     LOGGER.info("Done with L2 expansion. Produced %d predictions.", predictionCorpus.getCorpus().size());
@@ -37,6 +37,7 @@ import org.apache.logging.log4j.Logger;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -55,12 +56,14 @@ public class L2FilteringDriver {
   private static final String OPTION_LOOKUP_TYPES = "L";
   private static final String OPTION_SPLIT_BY_RO = "s";
   private static final String OPTION_FILTER_SUBSTRATES = "S";
+  private static final String OPTION_THREADS = "t";
   private static final String OPTION_HELP = "h";
 
   private static final String APPLY_FILTER_POSITIVE = "1";
   private static final String APPLY_FILTER_NEGATED = "0";
   private static final String LOOKUP_REACTIONS = "r";
   private static final String LOOKUP_CHEMICALS = "c";
+  private static final String DEFAULT_THREADS = "1";
 
   public static final String HELP_MESSAGE =
       "This class is used to filter an L2PredictionCorpus. An initial corpus is read in from file, processed based on" +
@@ -124,6 +127,12 @@ public class L2FilteringDriver {
             "to preserve only predictions with substrates among that list.")
         .hasArg()
         .longOpt("filter-substrates"));
+    add(Option.builder(OPTION_THREADS)
+        .argName("threads")
+        .desc("The number of threads on which to run lookups and filters, defaults to " + DEFAULT_THREADS + ".  " +
+            "Output order matches input order regardless.")
+        .hasArg()
+        .longOpt("threads"));
     add(Option.builder(OPTION_HELP)
         .argName("help")
         .desc("Prints this help message.")
@@ -184,55 +193,78 @@ public class L2FilteringDriver {
       System.exit(1);
     }
 
-    LOGGER.info("Reading corpus from file.");
-    L2PredictionCorpus predictionCorpus = L2PredictionCorpus.readPredictionsFromJsonFile(corpusFile);
-    LOGGER.info("Read in corpus with %d predictions.", predictionCorpus.getCorpus().size());
-    LOGGER.info("Corpus has %d distinct substrates.", predictionCorpus.getUniqueSubstrateInchis().size());
+    Integer threads = Integer.parseInt(cl.getOptionValue(OPTION_THREADS, DEFAULT_THREADS));
 
-    if (cl.hasOption(OPTION_FILTER_SUBSTRATES)) {
-      LOGGER.info("Filtering by substrates.");
-      File substratesFile = new File(cl.getOptionValue(OPTION_FILTER_SUBSTRATES));
-      L2InchiCorpus inchis = new L2InchiCorpus();
-      inchis.loadCorpus(substratesFile);
-      Set<String> inchiSet = new HashSet<String>();
-      inchiSet.addAll(inchis.getInchiList());
+    // The corpus is streamed rather than loaded, and the output keeps the layout of the input.
+    try (L2PredictionCorpusReader reader = L2PredictionCorpusReader.open(corpusFile)) {
+      LOGGER.info("Streaming %s corpus from file.", reader.getFormat());
 
-      predictionCorpus = predictionCorpus.applyFilter(
-          prediction -> inchiSet.containsAll(prediction.getSubstrateInchis()));
+      if (cl.hasOption(OPTION_FILTER_SUBSTRATES)) {
+        LOGGER.info("Filtering by substrates.");
+        File substratesFile = new File(cl.getOptionValue(OPTION_FILTER_SUBSTRATES));
+        L2InchiCorpus inchis = new L2InchiCorpus();
+        inchis.loadCorpus(substratesFile);
+        Set<String> inchiSet = new HashSet<String>();
+        inchiSet.addAll(inchis.getInchiList());
 
-      predictionCorpus.writePredictionsToJsonFile(outputFile);
-      LOGGER.info("Done writing filtered corpus to file.");
-      return;
-    }
+        L2PredictionPipeline pipeline = new L2PredictionPipeline()
+            .filter(prediction -> inchiSet.containsAll(prediction.getSubstrateInchis()));
 
-    if (cl.hasOption(OPTION_SPLIT_BY_RO)) {
-      LOGGER.info("Splitting corpus into distinct corpuses for each ro.");
-      Map<String, L2PredictionCorpus> corpusMap = predictionCorpus.splitCorpus(prediction -> prediction.getProjectorName());
+        try (L2PredictionCorpusWriter writer = new L2PredictionCorpusWriter(outputFile, reader.getFormat())) {
+          pipeline.runInParallel(reader, writer, threads, L2PredictionPipeline.DEFAULT_BATCH_SIZE);
+          LOGGER.info("Done writing filtered corpus of %d predictions to file.", writer.getCount());
+        }
+        return;
+      }
 
-      for (Map.Entry<String, L2PredictionCorpus> entry : corpusMap.entrySet()) {
-        String fileName = cl.getOptionValue(OPTION_OUTPUT_PATH) + "." + entry.getKey();
-        File oneOutputFile = new File(fileName);
-        entry.getValue().writePredictionsToJsonFile(oneOutputFile);
+      if (cl.hasOption(OPTION_SPLIT_BY_RO)) {
+        LOGGER.info("Splitting corpus into distinct corpuses for each ro.");
+        splitByRo(reader, cl.getOptionValue(OPTION_OUTPUT_PATH));
+        LOGGER.info("Done writing split corpuses to file.");
+        return;
       }
-      LOGGER.info("Done writing split corpuses to file.");
-      return;
-    }
 
-    predictionCorpus = runDbLookups(cl, predictionCorpus, opts);
+      L2PredictionPipeline pipeline = new L2PredictionPipeline();
+      addDbLookups(cl, pipeline, opts);
 
-    LOGGER.info("Applying filters.");
-    predictionCorpus = applyFilter(predictionCorpus, ALL_CHEMICALS_IN_DB, cl, OPTION_CHEMICAL_FILTER);
-    predictionCorpus = applyFilter(predictionCorpus, REACTION_MATCHES_DB, cl, OPTION_REACTION_FILTER);
-    LOGGER.info("Filtered corpus has %d predictions.", predictionCorpus.getCorpus().size());
+      addFilter(pipeline, ALL_CHEMICALS_IN_DB, cl, OPTION_CHEMICAL_FILTER);
+      addFilter(pipeline, REACTION_MATCHES_DB, cl, OPTION_REACTION_FILTER);
 
-    LOGGER.info("Printing final corpus.");
-    predictionCorpus.writePredictionsToJsonFile(outputFile);
+      LOGGER.info("Applying lookups and filters, and printing final corpus.");
+      try (L2PredictionCorpusWriter writer = new L2PredictionCorpusWriter(outputFile, reader.getFormat())) {
+        pipeline.runInParallel(reader, writer, threads, L2PredictionPipeline.DEFAULT_BATCH_SIZE);
+        LOGGER.info("Filtered corpus has %d predictions.", writer.getCount());
+      }
+    }
 
     LOGGER.info("L2FilteringDriver complete!.");
   }
 
-  private static L2PredictionCorpus runDbLookups(CommandLine cl, L2PredictionCorpus predictionCorpus, Options opts)
-      throws IOException {
+  /**
+   * Writes each RO's predictions to its own file, named after the output path with the RO appended.  A writer is kept
+   * open per RO so that the input only has to be read once.
+   */
+  private static void splitByRo(L2PredictionCorpusReader reader, String outputPath) throws IOException {
+    Map<String, L2PredictionCorpusWriter> writers = new HashMap<>();
+    try {
+      while (reader.hasNext()) {
+        L2Prediction prediction = reader.next();
+        L2PredictionCorpusWriter writer = writers.get(prediction.getProjectorName());
+        if (writer == null) {
+          File oneOutputFile = new File(outputPath + "." + prediction.getProjectorName());
+          writer = new L2PredictionCorpusWriter(oneOutputFile, reader.getFormat());
+          writers.put(prediction.getProjectorName(), writer);
+        }
+        writer.write(prediction);
+      }
+    } finally {
+      for (L2PredictionCorpusWriter writer : writers.values()) {
+        writer.close();
+      }
+    }
+  }
+
+  private static void addDbLookups(CommandLine cl, L2PredictionPipeline pipeline, Options opts) {
 
     if (cl.hasOption(OPTION_DB_LOOKUP)) {
 
@@ -254,18 +286,17 @@ public class L2FilteringDriver {
 
         if (lookupSet.contains(LOOKUP_CHEMICALS)) {
           LOGGER.info("Looking up chemicals in DB.");
-          predictionCorpus = predictionCorpus.applyTransformation(new ChemicalsTransformer(mongoDB));
+          pipeline.transform(new ChemicalsTransformer(mongoDB));
         }
         if (lookupSet.contains(LOOKUP_REACTIONS)) {
           LOGGER.info("Looking up reactions in DB.");
-          predictionCorpus = predictionCorpus.applyTransformation(new ReactionsTransformer(mongoDB));
+          pipeline.transform(new ReactionsTransformer(mongoDB));
         }
 
       } else {
         LOGGER.warn("Mongo DB instantiated but lookup option not selected.");
       }
     }
-    return predictionCorpus;
   }
 
   private static void checkFilterOptionIsValid(String filterOption, CommandLine cl) {
@@ -281,16 +312,16 @@ public class L2FilteringDriver {
     }
   }
 
-  private static L2PredictionCorpus applyFilter(L2PredictionCorpus corpus,
-                                                Predicate<L2Prediction> filter,
-                                                CommandLine cl,
-                                                String filterOption) throws IOException {
+  private static void addFilter(L2PredictionPipeline pipeline,
+                                Predicate<L2Prediction> filter,
+                                CommandLine cl,
+                                String filterOption) {
     if (cl.hasOption(filterOption)) {
       if (cl.getOptionValue(filterOption).equals(APPLY_FILTER_NEGATED)) {
-        return corpus.applyFilter(filter.negate());
+        pipeline.filter(filter.negate());
+      } else {
+        pipeline.filter(filter);
       }
-      return corpus.applyFilter(filter);
     }
-    return corpus;
   }
 }
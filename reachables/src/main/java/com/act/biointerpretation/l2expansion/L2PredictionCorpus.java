@@ -33,6 +33,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -77,14 +78,22 @@ public class L2PredictionCorpus implements Serializable {
   }
 
   /**
-   * Read a prediction corpus from file, and populate its prediction map.
+   * Read a prediction corpus from file, and populate its prediction map.  Both the single document written by
+   * writePredictionsToJsonFile and the newline-delimited layout of L2PredictionCorpusWriter are accepted.
+   * Consumers that only need one prediction at a time should use L2PredictionCorpusReader directly instead.
    *
    * @param corpusFile The file to read.
    * @return The L2PredictionCorpus.
    * @throws IOException
    */
   public static L2PredictionCorpus readPredictionsFromJsonFile(File corpusFile) throws IOException {
-    return L2PredictionCorpus.OBJECT_MAPPER.readValue(corpusFile, L2PredictionCorpus.class).populateIdToPredictionMap();
+    L2PredictionCorpus corpus = new L2PredictionCorpus();
+    try (L2PredictionCorpusReader reader = L2PredictionCorpusReader.open(corpusFile)) {
+      reader.forEachRemaining(corpus::addPrediction);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return corpus.populateIdToPredictionMap();
   }
 
   /**
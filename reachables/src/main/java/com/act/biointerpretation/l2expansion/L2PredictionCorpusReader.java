@@ -0,0 +1,181 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.l2expansion;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads predictions from a corpus file one at a time, so that corpora larger than the heap can be filtered,
+ * transformed or summarized.  Accepts both layouts written by L2PredictionCorpusWriter; files are sniffed to
+ * tell which one they use.
+ *
+ * I/O errors that happen while iterating are rethrown as UncheckedIOExceptions, since Iterator cannot throw
+ * checked exceptions.
+ */
+public class L2PredictionCorpusReader implements Iterator<L2Prediction>, Closeable {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final L2PredictionCorpusWriter.Format format;
+  private final JsonParser parser;
+  private L2Prediction next = null;
+  private boolean exhausted = false;
+
+  private L2PredictionCorpusReader(JsonParser parser, L2PredictionCorpusWriter.Format format) throws IOException {
+    this.parser = parser;
+    this.format = format;
+    if (format == L2PredictionCorpusWriter.Format.LEGACY_JSON) {
+      skipToCorpusArray();
+    }
+  }
+
+  /**
+   * Reads newline-delimited predictions from a stream.  The stream is closed when the reader is.
+   *
+   * @param inputStream The stream to read.
+   * @throws IOException
+   */
+  public L2PredictionCorpusReader(InputStream inputStream) throws IOException {
+    this(OBJECT_MAPPER.getFactory().createParser(inputStream), L2PredictionCorpusWriter.Format.NDJSON);
+  }
+
+  /**
+   * Opens a corpus file in either layout.
+   *
+   * @param corpusFile The file to read.
+   * @return A reader positioned before the first prediction.
+   * @throws IOException
+   */
+  public static L2PredictionCorpusReader open(File corpusFile) throws IOException {
+    L2PredictionCorpusWriter.Format format = detectFormat(corpusFile);
+    return new L2PredictionCorpusReader(OBJECT_MAPPER.getFactory().createParser(corpusFile), format);
+  }
+
+  /**
+   * Determines the layout of a corpus file by looking at its first field: legacy documents start with the
+   * corpus array, whereas NDJSON files start with the fields of a prediction.
+   *
+   * @param corpusFile The file to inspect.
+   * @return The file's layout.  Empty files are treated as empty NDJSON corpora.
+   * @throws IOException If the file does not look like a corpus at all.
+   */
+  public static L2PredictionCorpusWriter.Format detectFormat(File corpusFile) throws IOException {
+    try (JsonParser sniffer = OBJECT_MAPPER.getFactory().createParser(corpusFile)) {
+      JsonToken token = sniffer.nextToken();
+      if (token == null) {
+        return L2PredictionCorpusWriter.Format.NDJSON;
+      }
+      if (token != JsonToken.START_OBJECT) {
+        throw new IOException(String.format("File %s does not contain a prediction corpus.", corpusFile));
+      }
+      token = sniffer.nextToken();
+      if (token == JsonToken.FIELD_NAME && L2PredictionCorpusWriter.CORPUS_FIELD.equals(sniffer.getCurrentName())) {
+        return L2PredictionCorpusWriter.Format.LEGACY_JSON;
+      }
+      return L2PredictionCorpusWriter.Format.NDJSON;
+    }
+  }
+
+  public L2PredictionCorpusWriter.Format getFormat() {
+    return format;
+  }
+
+  private void skipToCorpusArray() throws IOException {
+    parser.nextToken(); // START_OBJECT
+    parser.nextToken(); // FIELD_NAME "corpus"
+    JsonToken token = parser.nextToken();
+    if (token == JsonToken.VALUE_NULL) {
+      exhausted = true;
+    } else if (token != JsonToken.START_ARRAY) {
+      throw new IOException("Expected the corpus field to hold an array of predictions.");
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next != null) {
+      return true;
+    }
+    if (exhausted) {
+      return false;
+    }
+
+    try {
+      // In both layouts each prediction is an object; anything else (end of array or of input) ends the corpus.
+      if (parser.nextToken() == JsonToken.START_OBJECT) {
+        next = OBJECT_MAPPER.readValue(parser, L2Prediction.class);
+        return true;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    exhausted = true;
+    return false;
+  }
+
+  @Override
+  public L2Prediction next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    L2Prediction result = next;
+    next = null;
+    return result;
+  }
+
+  /**
+   * Exposes the remaining predictions as a sequential stream.  Closing the stream closes this reader.
+   */
+  public Stream<L2Prediction> stream() {
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .onClose(() -> {
+          try {
+            close();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  @Override
+  public void close() throws IOException {
+    parser.close();
+  }
+}
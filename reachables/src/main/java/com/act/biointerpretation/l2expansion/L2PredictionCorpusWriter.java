@@ -0,0 +1,162 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.l2expansion;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes predictions to a corpus file one at a time, so that a corpus never needs to be held in memory to be saved.
+ *
+ * Two layouts are supported:
+ * NDJSON writes one prediction per line, which lets partially written files be read and lets other tools split
+ * the corpus on line boundaries.
+ * LEGACY_JSON writes the single {"corpus": [...]} document produced by L2PredictionCorpus.writePredictionsToJsonFile,
+ * for consumers that have not been moved to the streaming reader.
+ * Both layouts can be read back by L2PredictionCorpusReader.
+ */
+public class L2PredictionCorpusWriter implements L2PredictionSink, Closeable {
+
+  public enum Format {
+    NDJSON,
+    LEGACY_JSON,
+  }
+
+  static final String CORPUS_FIELD = "corpus";
+
+  // Flushing after every value would defeat buffering when writing millions of predictions.
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+      .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+  private final Format format;
+  private final OutputStream outputStream;
+  private final JsonGenerator generator;
+  private final boolean ownsStream;
+  private long count = 0;
+  private boolean closed = false;
+
+  /**
+   * Creates a writer over a file, which is created or truncated.
+   *
+   * @param outputFile The file to write.
+   * @param format The layout in which to write predictions.
+   * @throws IOException
+   */
+  public L2PredictionCorpusWriter(File outputFile, Format format) throws IOException {
+    this(new BufferedOutputStream(new FileOutputStream(outputFile)), format, true);
+  }
+
+  /**
+   * Creates a writer over a stream that the caller owns.  Closing the writer finishes the corpus and flushes
+   * the stream, but does not close it.
+   *
+   * @param outputStream The stream to write.
+   * @param format The layout in which to write predictions.
+   * @throws IOException
+   */
+  public L2PredictionCorpusWriter(OutputStream outputStream, Format format) throws IOException {
+    this(outputStream, format, false);
+  }
+
+  private L2PredictionCorpusWriter(OutputStream outputStream, Format format, boolean ownsStream) throws IOException {
+    this.format = format;
+    this.outputStream = outputStream;
+    this.ownsStream = ownsStream;
+    this.generator = OBJECT_MAPPER.getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+    this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    // We place our own newlines between NDJSON records, so Jackson must not add its default separator.
+    this.generator.setRootValueSeparator(null);
+
+    if (format == Format.LEGACY_JSON) {
+      generator.writeStartObject();
+      generator.writeFieldName(CORPUS_FIELD);
+      generator.writeStartArray();
+    }
+  }
+
+  public Format getFormat() {
+    return format;
+  }
+
+  /**
+   * @return The number of predictions written so far.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public void accept(L2Prediction prediction) throws IOException {
+    write(prediction);
+  }
+
+  public void write(L2Prediction prediction) throws IOException {
+    OBJECT_MAPPER.writeValue(generator, prediction);
+    if (format == Format.NDJSON) {
+      generator.writeRaw('\n');
+    }
+    count++;
+  }
+
+  public void writeAll(Iterable<L2Prediction> predictions) throws IOException {
+    for (L2Prediction prediction : predictions) {
+      write(prediction);
+    }
+  }
+
+  /**
+   * Pushes everything written so far to the underlying stream.  For NDJSON output this leaves a readable corpus on
+   * disk; legacy output is only readable once the writer is closed.
+   */
+  public void flush() throws IOException {
+    generator.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    if (format == Format.LEGACY_JSON) {
+      generator.writeEndArray();
+      generator.writeEndObject();
+    }
+    generator.flush();
+    generator.close();
+    if (ownsStream) {
+      outputStream.close();
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.l2expansion;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * A chain of filters and transformations that is applied to predictions as they stream from a reader to a sink.
+ * Unlike L2PredictionCorpus.applyFilter and applyTransformation, no stage ever sees more than one prediction at a
+ * time, so memory use does not grow with the size of the corpus.
+ *
+ * Stages run in the order they were added.  Since streamed predictions are freshly deserialized, stages may modify
+ * them in place.
+ */
+public class L2PredictionPipeline {
+
+  public static final int DEFAULT_BATCH_SIZE = 10000;
+
+  private final List<Function<L2Prediction, Optional<L2Prediction>>> stages = new ArrayList<>();
+
+  public L2PredictionPipeline filter(Predicate<L2Prediction> filter) {
+    stages.add(prediction -> filter.test(prediction) ? Optional.of(prediction) : Optional.empty());
+    return this;
+  }
+
+  public L2PredictionPipeline transform(Function<L2Prediction, L2Prediction> transformation) {
+    stages.add(prediction -> Optional.of(transformation.apply(prediction)));
+    return this;
+  }
+
+  /**
+   * Runs every stage on one prediction.
+   *
+   * @param prediction The prediction to process.
+   * @return The processed prediction, or empty if some filter rejected it.
+   */
+  public Optional<L2Prediction> apply(L2Prediction prediction) {
+    Optional<L2Prediction> result = Optional.of(prediction);
+    for (Function<L2Prediction, Optional<L2Prediction>> stage : stages) {
+      result = stage.apply(result.get());
+      if (!result.isPresent()) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Pushes every prediction from the input through the pipeline on the calling thread.
+   *
+   * @param input The predictions to process.
+   * @param output Where to send the predictions that pass every filter.
+   * @return The number of predictions sent to the output.
+   * @throws IOException
+   */
+  public long run(Iterator<L2Prediction> input, L2PredictionSink output) throws IOException {
+    long written = 0;
+    while (input.hasNext()) {
+      Optional<L2Prediction> result = apply(input.next());
+      if (result.isPresent()) {
+        output.accept(result.get());
+        written++;
+      }
+    }
+    return written;
+  }
+
+  /**
+   * Pushes every prediction from the input through the pipeline, running the stages on a pool of threads.  Input is
+   * read in batches of at most batchSize predictions, so memory use stays bounded, and results are sent to the
+   * output from the calling thread in input order.  Stages must therefore be safe to call concurrently.
+   *
+   * @param input The predictions to process.
+   * @param output Where to send the predictions that pass every filter.
+   * @param threads The number of worker threads.
+   * @param batchSize The number of predictions held in memory at once.
+   * @return The number of predictions sent to the output.
+   * @throws IOException
+   */
+  public long runInParallel(Iterator<L2Prediction> input, L2PredictionSink output, int threads, int batchSize)
+      throws IOException {
+    if (threads <= 1) {
+      return run(input, output);
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    long written = 0;
+    try {
+      List<L2Prediction> batch = new ArrayList<>(batchSize);
+      while (input.hasNext()) {
+        batch.clear();
+        while (input.hasNext() && batch.size() < batchSize) {
+          batch.add(input.next());
+        }
+
+        // Parallel streams run inside the pool that submitted them, which bounds the number of workers.
+        final List<L2Prediction> toProcess = batch;
+        List<Optional<L2Prediction>> results =
+            pool.submit(() -> toProcess.parallelStream().map(this::apply).collect(Collectors.toList())).get();
+
+        for (Optional<L2Prediction> result : results) {
+          if (result.isPresent()) {
+            output.accept(result.get());
+            written++;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while processing predictions.", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("A pipeline stage failed.", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+    return written;
+  }
+}
@@ -27,12 +27,20 @@ import act.server.NoSQLAPI;
 import act.shared.Reaction;
 import act.shared.helpers.P;
 import com.act.biointerpretation.BiointerpretationProcessor;
+import com.act.utils.ExternalKeyGrouper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.biopax.paxtools.model.level3.ConversionDirectionType;
 import org.biopax.paxtools.model.level3.StepDirection;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -43,6 +51,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 
 /**
  * This creates Dr. Know from Lucille.  Dr. Know is the database in which all Reactions
@@ -52,6 +63,16 @@ public class ReactionMerger extends BiointerpretationProcessor {
   private static final Logger LOGGER = LogManager.getFormatterLogger(ReactionMerger.class);
   private static final String PROCESSOR_NAME = "Reaction Merger";
 
+  // Used only to tell encoded-null apart from an empty string in merge keys.
+  private static final byte NULL_MARKER = 0;
+  private static final byte PRESENT_MARKER = 1;
+
+  // The grouping memory budget used when spilling to disk is requested without one.
+  public static final long DEFAULT_SPILL_MAX_BUFFERED_BYTES = 512L * 1024L * 1024L;
+
+  private File spillDirectory = null;
+  private Long spillMaxBufferedBytes = null;
+
   @Override
   public String getName() {
     return PROCESSOR_NAME;
@@ -61,6 +82,19 @@ public class ReactionMerger extends BiointerpretationProcessor {
     super(noSQLAPI);
   }
 
+  /**
+   * Construct a merger that groups reactions using sorted runs on disk rather than an in-heap hash map.  Use this
+   * when the source DB has too many reactions for hashReactions' map to fit in memory.
+   * @param noSQLAPI The API to use for reading and writing reactions.
+   * @param spillDirectory Where to write sorted runs, or null for the system temp directory.
+   * @param maxBufferedBytes Roughly how much memory to use for grouping before spilling to disk.
+   */
+  public ReactionMerger(NoSQLAPI noSQLAPI, File spillDirectory, long maxBufferedBytes) {
+    super(noSQLAPI);
+    this.spillDirectory = spillDirectory;
+    this.spillMaxBufferedBytes = maxBufferedBytes;
+  }
+
   @Override
   public void init() {
     // Do nothing for this class, as there's no initialization necessary.
@@ -68,12 +102,18 @@ public class ReactionMerger extends BiointerpretationProcessor {
   }
 
   @Override
-  public void processReactions() {
+  public void processReactions() throws IOException {
     LOGGER.info("Reading all reactions");
     Iterator<Reaction> rxns = getNoSQLAPI().readRxnsFromInKnowledgeGraph();
-    Map<SubstratesProducts, PriorityQueue<Long>> reactionGroups = hashReactions(rxns);
-    LOGGER.info("Found %d reaction groups, merging", reactionGroups.size());
-    mergeAllReactions(reactionGroups);
+    if (spillMaxBufferedBytes != null) {
+      LOGGER.info("Grouping reactions on disk, buffering at most %d bytes in memory", spillMaxBufferedBytes);
+      long groups = forEachReactionGroup(rxns, spillDirectory, spillMaxBufferedBytes, this::mergeReactionGroup);
+      LOGGER.info("Merged %d reaction groups", groups);
+    } else {
+      Map<SubstratesProducts, PriorityQueue<Long>> reactionGroups = hashReactions(rxns);
+      LOGGER.info("Found %d reaction groups, merging", reactionGroups.size());
+      mergeAllReactions(reactionGroups);
+    }
     LOGGER.info("Done merging reactions");
   }
 
@@ -81,7 +121,7 @@ public class ReactionMerger extends BiointerpretationProcessor {
     HashMap<SubstratesProducts, PriorityQueue<Long>> reactionGroups = new HashMap<>();
 
     // Add the next available reaction to the map of substrates+products -> ids.
-    // TODO: spill this map to disk if the map gets too large.
+    // See forEachReactionGroup for a version of this that spills to disk if the map would get too large.
     while (reactionIterator.hasNext()) {
       Reaction rxn = reactionIterator.next();
       SubstratesProducts sp = new SubstratesProducts(rxn);
@@ -100,6 +140,82 @@ public class ReactionMerger extends BiointerpretationProcessor {
     return reactionGroups;
   }
 
+  /**
+   * A bounded-memory equivalent of hashReactions followed by the group ordering in mergeAllReactions.  Reactions are
+   * grouped by sorting their canonical merge keys (see SubstratesProducts.toMergeKey), spilling sorted runs to disk
+   * as needed; the groups are then sorted again by their minimum id so they come out in the same order the in-memory
+   * path merges them.
+   * @param reactionIterator The reactions to group.
+   * @param spillDirectory Where to write sorted runs, or null for the system temp directory.
+   * @param maxBufferedBytes Roughly how much memory to use before spilling to disk.
+   * @param groupConsumer Receives the ids of each group, in ascending order, with groups ordered by minimum id.
+   * @return The number of groups found.
+   * @throws IOException
+   */
+  protected static long forEachReactionGroup(Iterator<Reaction> reactionIterator, File spillDirectory,
+                                             long maxBufferedBytes, Consumer<List<Long>> groupConsumer)
+      throws IOException {
+    // The two passes' buffers can be live at the same time, so each gets half the budget.
+    long passBudget = Math.max(maxBufferedBytes / 2, 1L);
+    long[] groupCount = {0L};
+    try (ExternalKeyGrouper byMergeKey = new ExternalKeyGrouper(spillDirectory, passBudget);
+         ExternalKeyGrouper byMinId = new ExternalKeyGrouper(spillDirectory, passBudget)) {
+      while (reactionIterator.hasNext()) {
+        Reaction rxn = reactionIterator.next();
+        byMergeKey.add(new SubstratesProducts(rxn).toMergeKey(), encodeIds(new long[]{rxn.getUUID()}));
+      }
+
+      byMergeKey.forEachGroup((mergeKey, encodedIds) -> {
+        long[] ids = new long[encodedIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+          ids[i] = ByteBuffer.wrap(encodedIds.get(i)).getLong();
+        }
+        Arrays.sort(ids);
+        // Ids are non-negative, so their big-endian bytes sort the same way the ids do.
+        byMinId.add(encodeIds(new long[]{ids[0]}), encodeIds(ids));
+      });
+
+      byMinId.forEachGroup((minId, encodedGroups) -> {
+        // Each reaction belongs to exactly one group, so every min id key has exactly one value.
+        ByteBuffer buffer = ByteBuffer.wrap(encodedGroups.get(0));
+        List<Long> ids = new ArrayList<>(buffer.remaining() / Long.BYTES);
+        while (buffer.hasRemaining()) {
+          ids.add(buffer.getLong());
+        }
+        groupConsumer.accept(ids);
+        groupCount[0]++;
+      });
+    }
+    return groupCount[0];
+  }
+
+  private static byte[] encodeIds(long[] ids) {
+    ByteBuffer buffer = ByteBuffer.allocate(ids.length * Long.BYTES);
+    for (long id : ids) {
+      buffer.putLong(id);
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Produce the merge groups in the order mergeAllReactions processes them: each group's ids ascending, and groups
+   * ordered by their minimum id.
+   * @param reactionGroups The groups found by hashReactions.
+   * @return The ordered groups of reaction ids.
+   */
+  protected static List<List<Long>> orderReactionGroups(Map<SubstratesProducts, PriorityQueue<Long>> reactionGroups) {
+    /* Maintain stability by constructing the ordered set of minimum group reaction ids so that we can iterate
+     * over reactions in the same order they occur in the source DB.  Stability makes life easier in a number of ways
+     * (easier testing, deterministic output, general sanity) so we go to the trouble here. */
+    TreeMap<Long, List<Long>> minGroupIdsToGroups = new TreeMap<>();
+    for (PriorityQueue<Long> group : reactionGroups.values()) {
+      List<Long> ids = new ArrayList<>(group);
+      Collections.sort(ids);
+      minGroupIdsToGroups.put(ids.get(0), ids);
+    }
+    return new ArrayList<>(minGroupIdsToGroups.values());
+  }
+
   public static class SubstratesProducts {
     // TODO: also consider ec-umber, coefficients, and other reaction attributes.
     Set<Long> substrates = null, products = null,
@@ -166,6 +282,65 @@ public class ReactionMerger extends BiointerpretationProcessor {
       result = 31 * result + (pathwayStepDirection != null ? pathwayStepDirection.hashCode() : 0);
       return result;
     }
+
+    /**
+     * Serialize every field that equals() compares into a canonical byte string: two instances produce the same bytes
+     * exactly when they are equal.  Sets and maps are written in sorted order so that hash iteration order is
+     * irrelevant.
+     * @return The merge key for this reaction.
+     */
+    public byte[] toMergeKey() {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bos);
+      try {
+        writeIds(out, substrates);
+        writeIds(out, products);
+        writeIds(out, substrateCofactors);
+        writeIds(out, productCofactors);
+        writeIds(out, coenzymes);
+        writeCoefficients(out, substrateCoefficients);
+        writeCoefficients(out, productCoefficients);
+        writeNullableString(out, ecnum);
+        writeNullableString(out, conversionDirectionType == null ? null : conversionDirectionType.name());
+        writeNullableString(out, pathwayStepDirection == null ? null : pathwayStepDirection.name());
+        out.flush();
+      } catch (IOException e) {
+        // Writes to a ByteArrayOutputStream don't fail, so this shouldn't ever happen.
+        throw new UncheckedIOException(e);
+      }
+      return bos.toByteArray();
+    }
+
+    private static void writeIds(DataOutputStream out, Set<Long> ids) throws IOException {
+      out.writeInt(ids.size());
+      for (Long id : new TreeSet<>(ids)) {
+        out.writeLong(id);
+      }
+    }
+
+    private static void writeCoefficients(DataOutputStream out, Map<Long, Integer> coefficients) throws IOException {
+      out.writeInt(coefficients.size());
+      for (Map.Entry<Long, Integer> entry : new TreeMap<>(coefficients).entrySet()) {
+        out.writeLong(entry.getKey());
+        if (entry.getValue() == null) {
+          out.writeByte(NULL_MARKER);
+        } else {
+          out.writeByte(PRESENT_MARKER);
+          out.writeInt(entry.getValue());
+        }
+      }
+    }
+
+    private static void writeNullableString(DataOutputStream out, String s) throws IOException {
+      if (s == null) {
+        out.writeByte(NULL_MARKER);
+        return;
+      }
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.writeByte(PRESENT_MARKER);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
   }
 
   private Reaction mergeReactions(List<Reaction> reactions) {
@@ -221,26 +396,18 @@ public class ReactionMerger extends BiointerpretationProcessor {
   }
 
   protected void mergeAllReactions(Map<SubstratesProducts, PriorityQueue<Long>> reactionGroups) {
-    /* Maintain stability by constructing the ordered set of minimum group reaction ids so that we can iterate
-     * over reactions in the same order they occur in the source DB.  Stability makes life easier in a number of ways
-     * (easier testing, deterministic output, general sanity) so we go to the trouble here. */
-    final HashMap<Long, PriorityQueue<Long>> minGroupIdsToGroups = new HashMap<>(reactionGroups.size());
-    for (Map.Entry<SubstratesProducts, PriorityQueue<Long>> entry : reactionGroups.entrySet()) {
-      minGroupIdsToGroups.put(entry.getValue().peek(), entry.getValue());
+    for (List<Long> groupIds : orderReactionGroups(reactionGroups)) {
+      mergeReactionGroup(groupIds);
     }
+  }
 
-    List<Long> orderedIds = Arrays.asList(minGroupIdsToGroups.keySet().toArray(new Long[minGroupIdsToGroups.size()]));
-    Collections.sort(orderedIds);
-
-    for (Long nextId : orderedIds) {
-      PriorityQueue<Long> groupIds = minGroupIdsToGroups.get(nextId);
-      List<Reaction> reactions = new ArrayList<>(groupIds.size());
-      for (Long id : groupIds) {
-        // Since we've only installed reaction IDs based on instances we've seen, this should be safe.
-        reactions.add(getNoSQLAPI().readReactionFromInKnowledgeGraph(id));
-      }
-
-      mergeReactions(reactions);
+  private void mergeReactionGroup(List<Long> groupIds) {
+    List<Reaction> reactions = new ArrayList<>(groupIds.size());
+    for (Long id : groupIds) {
+      // Since we've only installed reaction IDs based on instances we've seen, this should be safe.
+      reactions.add(getNoSQLAPI().readReactionFromInKnowledgeGraph(id));
     }
+
+    mergeReactions(reactions);
   }
 }
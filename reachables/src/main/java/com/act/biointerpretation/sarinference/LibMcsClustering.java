@@ -30,6 +30,7 @@ import chemaxon.struc.Molecule;
 import com.act.biointerpretation.l2expansion.L2FilteringDriver;
 import com.act.biointerpretation.l2expansion.L2Prediction;
 import com.act.biointerpretation.l2expansion.L2PredictionCorpus;
+import com.act.biointerpretation.l2expansion.L2PredictionCorpusReader;
 import com.act.jobs.FileChecker;
 import com.act.jobs.JavaRunnable;
 import com.act.lcms.db.io.report.IonAnalysisInterchangeModel;
@@ -48,6 +49,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -187,10 +189,12 @@ public class LibMcsClustering {
         FileChecker.verifyInputFile(predictionCorpusInput);
         FileChecker.verifyAndCreateOutputFile(sarTreeNodesOutput);
 
-        // Build input corpus and substrate list
-        L2PredictionCorpus inputCorpus = L2PredictionCorpus.readPredictionsFromJsonFile(predictionCorpusInput);
         // Get list of molecules, tagged by PredictionId so we can track back to the corresponding predictions later on.
-        Collection<Molecule> molecules = importMoleculesWithPredictionIds(inputCorpus);
+        // Only the substrates are needed, so the corpus is streamed rather than loaded.
+        Collection<Molecule> molecules;
+        try (L2PredictionCorpusReader reader = L2PredictionCorpusReader.open(predictionCorpusInput)) {
+          molecules = importMoleculesWithPredictionIds(reader);
+        }
 
         // Run substrate clustering
         SarTree sarTree = new SarTree();
@@ -219,15 +223,16 @@ public class LibMcsClustering {
        * it hard to track LCMS hit sand misses between the output molecules of LibraryMCS and the initial inchis fed
        * into LibraryMCS.
        *
-       * @param inputCorpus The prediction corpus.
+       * @param predictions The predictions of the corpus.
        * @return A list of molecules, tagged with a property objects which contains the corresponding list of
        * prediction ids..
        * @throws MolFormatException If a molecule cannot be imported from an inchi.
        */
-      private Collection<Molecule> importMoleculesWithPredictionIds(L2PredictionCorpus inputCorpus)
+      private Collection<Molecule> importMoleculesWithPredictionIds(Iterator<L2Prediction> predictions)
           throws MolFormatException {
         Map<String, Molecule> inchiToMoleculeMap = new HashMap<>();
-        for (L2Prediction prediction : inputCorpus.getCorpus()) {
+        while (predictions.hasNext()) {
+          L2Prediction prediction = predictions.next();
           for (String substrateInchi : prediction.getSubstrateInchis()) { // For now this should only be one substrate
             if (!inchiToMoleculeMap.containsKey(substrateInchi)) {
               Molecule mol = importMoleculeWithPredictionId(substrateInchi, prediction.getId());
@@ -25,7 +25,8 @@ package com.act.biointerpretation.sarinference;
 
 import com.act.biointerpretation.l2expansion.L2FilteringDriver;
 import com.act.biointerpretation.l2expansion.L2Prediction;
-import com.act.biointerpretation.l2expansion.L2PredictionCorpus;
+import com.act.biointerpretation.l2expansion.L2PredictionCorpusReader;
+import com.act.biointerpretation.l2expansion.L2PredictionCorpusWriter;
 import com.act.jobs.FileChecker;
 import com.act.jobs.JavaRunnable;
 import com.act.lcms.db.io.report.IonAnalysisInterchangeModel;
@@ -41,13 +42,18 @@ import org.apache.commons.cli.ParseException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class ProductScorer {
 
@@ -59,6 +65,10 @@ public class ProductScorer {
     OBJECT_MAPPER.enable(SerializationFeature.INDENT_OUTPUT);
   }
 
+  // Scratch records are never read by people, so they are written compactly.
+  private static final ObjectMapper SPILL_MAPPER = new ObjectMapper();
+  private static final int INITIAL_SPILL_CAPACITY = 1 << 16;
+
   private static final String OPTION_PREDICTION_CORPUS = "c";
   private static final String OPTION_LCMS_RESULTS = "p";
   private static final String OPTION_SCORED_SARS = "s";
@@ -164,50 +174,79 @@ public class ProductScorer {
         nodeList.loadFromFile(scoredSars);
         BestSarFinder sarFinder = new BestSarFinder(nodeList);
 
-        // Build prediction corpus
-        L2PredictionCorpus predictions = L2PredictionCorpus.readPredictionsFromJsonFile(predictionCorpus);
-
         // Build LCMS results
         IonAnalysisInterchangeModel lcmsResults = new IonAnalysisInterchangeModel();
         lcmsResults.loadResultsFromFile(lcmsFile);
 
         /**
-         * Build map from predictions to their scores based on SAR
+         * Score predictions as they stream in from the corpus.
          * For each prediction, we add on auxiliary info about its SARs and score to its projector name.
+         * Annotated predictions are spilled to a scratch file, so that the sort below only needs to hold a score and a
+         * file offset per prediction in memory, rather than the whole corpus.
          * TODO: build data structure to store a scored prediction, instead of hijacking the projector name.
          */
-        Map<L2Prediction, Double> predictionToScoreMap = new HashMap<>();
         LOGGER.info("Scoring predictions.");
-        for (L2Prediction prediction : predictions.getCorpus()) {
-          String nameAppendage = lcmsResults.getLcmsDataForPrediction(prediction).toString(); // Always tack LCMS result onto name
-
-          Optional<SarTreeNode> maybeBestSar = sarFinder.apply(prediction);
-
-          if (maybeBestSar.isPresent()) {
-            // If a SAR was matched, add info about it to the projector name, and put its score into the map
-            SarTreeNode bestSar = maybeBestSar.get();
-            nameAppendage += ":" +
-                bestSar.getHierarchyId() + ":" +
-                bestSar.getRankingScore();
-            prediction.setProjectorName(prediction.getProjectorName() + nameAppendage);
-            predictionToScoreMap.put(prediction, bestSar.getRankingScore());
-          } else {
-            // If no SAR is found, append "NO_SAR" to the prediction, and give it a ranking score of 0
-            nameAppendage += "NO_SAR";
-            prediction.setProjectorName(prediction.getProjectorName() + nameAppendage);
-            predictionToScoreMap.put(prediction, 0D);
+        File scratchFile = File.createTempFile("scored-predictions", ".json");
+        scratchFile.deleteOnExit();
+        L2PredictionCorpusWriter.Format format;
+        double[] scores = new double[INITIAL_SPILL_CAPACITY];
+        long[] offsets = new long[INITIAL_SPILL_CAPACITY + 1];
+        int count = 0;
+        try (L2PredictionCorpusReader reader = L2PredictionCorpusReader.open(predictionCorpus);
+             OutputStream scratch = new BufferedOutputStream(new FileOutputStream(scratchFile))) {
+          format = reader.getFormat();
+          while (reader.hasNext()) {
+            L2Prediction prediction = reader.next();
+            String nameAppendage = lcmsResults.getLcmsDataForPrediction(prediction).toString(); // Always tack LCMS result onto name
+
+            Optional<SarTreeNode> maybeBestSar = sarFinder.apply(prediction);
+
+            Double score;
+            if (maybeBestSar.isPresent()) {
+              // If a SAR was matched, add info about it to the projector name, and use its score
+              SarTreeNode bestSar = maybeBestSar.get();
+              nameAppendage += ":" +
+                  bestSar.getHierarchyId() + ":" +
+                  bestSar.getRankingScore();
+              prediction.setProjectorName(prediction.getProjectorName() + nameAppendage);
+              score = bestSar.getRankingScore();
+            } else {
+              // If no SAR is found, append "NO_SAR" to the prediction, and give it a ranking score of 0
+              nameAppendage += "NO_SAR";
+              prediction.setProjectorName(prediction.getProjectorName() + nameAppendage);
+              score = 0D;
+            }
+
+            if (count == scores.length) {
+              scores = Arrays.copyOf(scores, count * 2);
+              offsets = Arrays.copyOf(offsets, count * 2 + 1);
+            }
+            byte[] serialized = SPILL_MAPPER.writeValueAsBytes(prediction);
+            scratch.write(serialized);
+            scores[count] = score;
+            offsets[count + 1] = offsets[count] + serialized.length;
+            count++;
           }
         }
 
         LOGGER.info("Sorting predictions in decreasing order of best associated SAR rank.");
-        List<L2Prediction> predictionList = new ArrayList<>(predictionToScoreMap.keySet());
-        predictionList.sort((a, b) -> -Double.compare(
-            predictionToScoreMap.get(a),
-            predictionToScoreMap.get(b)));
-
-        // Wrap results in a corpus and write to file.
-        L2PredictionCorpus finalCorpus = new L2PredictionCorpus(predictionList);
-        finalCorpus.writePredictionsToJsonFile(outputFile);
+        final double[] finalScores = scores;
+        List<Integer> order = IntStream.range(0, count).boxed()
+            .sorted((a, b) -> -Double.compare(finalScores[a], finalScores[b]))
+            .collect(Collectors.toList());
+
+        // Write results in sorted order, in the same layout as the input corpus.
+        try (RandomAccessFile scratch = new RandomAccessFile(scratchFile, "r");
+             L2PredictionCorpusWriter writer = new L2PredictionCorpusWriter(outputFile, format)) {
+          for (Integer index : order) {
+            byte[] serialized = new byte[(int) (offsets[index + 1] - offsets[index])];
+            scratch.seek(offsets[index]);
+            scratch.readFully(serialized);
+            writer.write(SPILL_MAPPER.readValue(serialized, L2Prediction.class));
+          }
+        } finally {
+          scratchFile.delete();
+        }
         LOGGER.info("Complete!.");
       }
 
@@ -43,19 +43,19 @@ import java.util.regex.Pattern;
  * http://www.sisweb.com/referenc/tools/exactmass.htm).
  */
 public class MassCalculator {
-  private static final Indigo indigo = new Indigo();
-  private static final IndigoInchi iinchi = new IndigoInchi(indigo);;
+  // Indigo sessions aren't thread safe, so give each thread its own to allow masses to be computed in parallel.
+  private static final ThreadLocal<IndigoInchi> IINCHI = ThreadLocal.withInitial(() -> new IndigoInchi(new Indigo()));
 
 
   public static Pair<Double, Integer> calculateMassAndCharge(String inchi) {
-    IndigoObject mol = iinchi.loadMolecule(inchi);
+    IndigoObject mol = IINCHI.get().loadMolecule(inchi);
     Double mass = calculateMass(mol);
     Integer charge = calculateCharge(mol);
     return Pair.of(mass, charge);
   }
 
   public static Integer calculateCharge(String inchi) {
-    return calculateCharge(iinchi.loadMolecule(inchi));
+    return calculateCharge(IINCHI.get().loadMolecule(inchi));
   }
 
   public static Integer calculateCharge(IndigoObject mol) {
@@ -155,7 +155,7 @@ public class MassCalculator {
   }});
 
   public static Double calculateMass(String inchi) {
-    return calculateMass(iinchi.loadMolecule(inchi));
+    return calculateMass(IINCHI.get().loadMolecule(inchi));
   }
 
   private static final Pattern MOL_COUNT_PATTERN = Pattern.compile("^([A-Za-z]+)(\\d+)?$");
@@ -32,6 +32,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -58,65 +59,87 @@ public class WaveformAnalysis {
   private static final String NEW_LINE_SEPARATOR = "\n";
 
   /**
-   * This function sums up over a series of intensity/time values.
-   * @param list A list of intensity/time points.
-   * @return A point of summed intensities with the time set to the start of the list.
+   * A trace stored as parallel time and intensity arrays.  The analysis kernels below run over these rather than lists
+   * of XZ objects, which avoids boxing every point; the List&lt;XZ&gt; methods are thin adapters around the kernels.
    */
-  private static XZ sumIntensityAndTimeList(List<XZ> list) {
-    // We use the first value's time as a period over which the intensities are summed over. This is a conscious
-    // choice to standardize the summation analysis. The trade offs are that the final output will
-    // not have an accurate time period and will always underestimate the actual time, but since
-    // the time period over which it is the summed is small (< 1 second), the underestimation is within comfortable
-    // bounds.
-    Double time = list.get(START_INDEX).getTime();
-    Double intensitySum = 0.0;
-    for (XZ point : list) {
-      intensitySum += point.getIntensity();
-    }
-
-    return new XZ(time, intensitySum);
+  public static class Waveform {
+    private final double[] times;
+    private final double[] intensities;
+
+    public Waveform(double[] times, double[] intensities) {
+      if (times.length != intensities.length) {
+        throw new IllegalArgumentException(String.format(
+            "Time and intensity arrays must be the same length: %d vs. %d", times.length, intensities.length));
+      }
+      this.times = times;
+      this.intensities = intensities;
+    }
+
+    public static Waveform fromXZs(List<XZ> points) {
+      double[] times = new double[points.size()];
+      double[] intensities = new double[points.size()];
+      int i = 0;
+      for (XZ point : points) {
+        times[i] = point.getTime();
+        intensities[i] = point.getIntensity();
+        i++;
+      }
+      return new Waveform(times, intensities);
+    }
+
+    public List<XZ> toXZs() {
+      List<XZ> points = new ArrayList<>(times.length);
+      for (int i = 0; i < times.length; i++) {
+        points.add(new XZ(times[i], intensities[i]));
+      }
+      return points;
+    }
+
+    public int size() {
+      return times.length;
+    }
+
+    // Note: these return the backing arrays, which callers must not modify.
+    public double[] getTimes() {
+      return times;
+    }
+
+    public double[] getIntensities() {
+      return intensities;
+    }
   }
 
   /**
    * This function calculates the root mean squared of a collection of intensity/time graphs. It does this by finding
    * the root mean squared across every time period of the list of intensity/time graphs.
-   * @param graphs A list of intensity/time graphs
-   * @return A list of rms values.
+   * @param waveforms A list of intensity/time graphs
+   * @return A waveform of rms values.
    */
-  private static List<XZ> rmsOfIntensityTimeGraphs(List<List<XZ>> graphs) {
+  public static Waveform rmsOfWaveforms(List<Waveform> waveforms) {
     // Since the input graphs could be of different lengths, we need to find the smallest list as the representative
     // size to do the analysis or else we will get null pointer exceptions. Doing this is OK from an analysis perspective
     // since size differences only manifest at the end of the LCMS readings (ie. timings are the same at the start but
     // get truncated at the end) and there are <10 point difference between the graphs based on inspection.
     // TODO: Alert the user if there are huge size differences between the graph size.
-    int representativeSize = graphs.get(START_INDEX).size();
-    for (List<XZ> graph : graphs) {
-      representativeSize = Math.min(representativeSize, graph.size());
+    int representativeSize = waveforms.get(START_INDEX).size();
+    for (Waveform waveform : waveforms) {
+      representativeSize = Math.min(representativeSize, waveform.size());
     }
 
-    int representativeGraph = START_INDEX;
-
-    for (int index = 0; index < graphs.size(); index++) {
-      if (graphs.get(index).size() < representativeGraph) {
-        representativeSize = graphs.get(index).size();
-        representativeGraph = index;
-      }
-    }
+    // The representative times are those of the first graph, whose timings match the others' over the shared prefix.
+    double[] representativeTimes = waveforms.get(START_INDEX).times;
 
-    List<XZ> rmsList = new ArrayList<>(representativeSize);
+    double[] rmsTimes = new double[representativeSize];
+    double[] rmsValues = new double[representativeSize];
     for (int i = 0; i < representativeSize; i++) {
-
-      // The representationTime is set to the time of the graph with the shortest length at the index i.
-      Double representativeTime = graphs.get(representativeGraph).get(i).getTime();
-      Double intensitySquaredSum = 0.0;
+      double intensitySquaredSum = 0.0;
 
       // RMS is sqrt(sum(X^2)/len)
-      for (int j = 0; j < graphs.size(); j++) {
-        List<XZ> chart = graphs.get(j);
-        intensitySquaredSum += Math.pow(chart.get(i).getIntensity(), 2);
+      for (Waveform waveform : waveforms) {
+        intensitySquaredSum += Math.pow(waveform.intensities[i], 2);
       }
 
-      Double rms = Math.pow(intensitySquaredSum / graphs.size(), 0.5);
+      double rms = Math.pow(intensitySquaredSum / waveforms.size(), 0.5);
 
       // We make sure the RMS is atleast one as our floor for the number of ions that hit the detector, so that we
       // do not get an amplification of the SNR based on extremely low noise conditions which exist in some of the
@@ -125,10 +148,90 @@ public class WaveformAnalysis {
         rms = DEFAULT_LOWEST_RMS_VALUE;
       }
 
-      rmsList.add(i, new XZ(representativeTime, rms));
+      rmsTimes[i] = representativeTimes[i];
+      rmsValues[i] = rms;
+    }
+
+    return new Waveform(rmsTimes, rmsValues);
+  }
+
+  /**
+   * For each query time, finds the first reference point whose time falls strictly within a window around it.
+   * References are usually sorted by time, in which case the queries are visited in time order and matched with a
+   * single forward pass over the references; otherwise this falls back to scanning the references for every query.
+   * Both ways give identical results.
+   * @param queryTimes The times to look up, in any order.
+   * @param referenceTimes The times of the reference points.
+   * @param windowHalfWidth The half-width of the window around each query time.
+   * @return For each query, the index of its matching reference point or -1 if no reference point is in its window.
+   */
+  public static int[] alignTimesToReference(double[] queryTimes, double[] referenceTimes, double windowHalfWidth) {
+    if (!isSortedAscending(referenceTimes)) {
+      return alignTimesToReferenceByScan(queryTimes, referenceTimes, windowHalfWidth);
+    }
+
+    int[] matches = new int[queryTimes.length];
+    int reference = 0;
+    for (int query : indicesSortedBy(queryTimes, false)) {
+      double time = queryTimes[query];
+      // The first reference after the window start only moves forward as the query times increase.
+      while (reference < referenceTimes.length && !(referenceTimes[reference] > time - windowHalfWidth)) {
+        reference++;
+      }
+      matches[query] = reference < referenceTimes.length && referenceTimes[reference] < time + windowHalfWidth ?
+          reference : -1;
+    }
+    return matches;
+  }
+
+  // Package private for testing: the quadratic scan that alignTimesToReference falls back on for unsorted references.
+  static int[] alignTimesToReferenceByScan(double[] queryTimes, double[] referenceTimes, double windowHalfWidth) {
+    int[] matches = new int[queryTimes.length];
+    for (int query = 0; query < queryTimes.length; query++) {
+      double time = queryTimes[query];
+      matches[query] = -1;
+      for (int reference = 0; reference < referenceTimes.length; reference++) {
+        if (referenceTimes[reference] > time - windowHalfWidth &&
+            referenceTimes[reference] < time + windowHalfWidth) {
+          matches[query] = reference;
+          break;
+        }
+      }
+    }
+    return matches;
+  }
+
+  // Note that NaNs fail this check, as they don't compare as greater or equal to anything.
+  private static boolean isSortedAscending(double[] values) {
+    for (int i = 1; i < values.length; i++) {
+      if (!(values[i - 1] <= values[i])) {
+        return false;
+      }
     }
+    return true;
+  }
 
-    return rmsList;
+  /**
+   * Stably sorts the indices of an array by the values at those indices, using Double.compare's ordering.
+   * @param values The values to sort by.
+   * @param descending Whether to sort from largest to smallest value.
+   * @return The indices of values in sorted order.
+   */
+  private static int[] indicesSortedBy(double[] values, boolean descending) {
+    Integer[] indices = new Integer[values.length];
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = i;
+    }
+    // Arrays.sort over objects is stable, so equal values keep their original order.
+    Arrays.sort(indices, descending ?
+        (a, b) -> Double.compare(values[b], values[a]) :
+        (a, b) -> Double.compare(values[a], values[b]));
+
+    int[] result = new int[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      result[i] = indices[i];
+    }
+    return result;
   }
 
   /**
@@ -174,33 +277,61 @@ public class WaveformAnalysis {
    */
   public static Pair<List<XZ>, Map<Double, Double>> compressIntensityAndTimeGraphsAndFindMaxIntensityInEveryTimeWindow(
       List<XZ> intensityAndTime, int compressionMagnitude) {
-    ArrayList<XZ> compressedResult = new ArrayList<>();
+    Pair<Waveform, double[]> compressedAndMaxes = compressTrace(intensityAndTime, compressionMagnitude);
+    Waveform compressed = compressedAndMaxes.getLeft();
+    double[] maxIntensities = compressedAndMaxes.getRight();
+
     Map<Double, Double> timeToIntensity = new HashMap<>();
+    for (int i = 0; i < compressed.size(); i++) {
+      timeToIntensity.put(compressed.times[i], maxIntensities[i]);
+    }
+
+    return Pair.of(compressed.toXZs(), timeToIntensity);
+  }
 
+  private static Pair<Waveform, double[]> compressTrace(List<XZ> intensityAndTime, int compressionMagnitude) {
     if (intensityAndTime == null) {
       System.out.println("intensity time is null");
       System.exit(1);
     }
 
-    for (int i = 0; i < intensityAndTime.size() / compressionMagnitude; i++) {
+    return compressWaveformAndFindMaxIntensityInEveryTimeWindow(Waveform.fromXZs(intensityAndTime),
+        compressionMagnitude);
+  }
+
+  /**
+   * This function compresses a waveform by summing the intensities over consecutive windows of points.  Each window
+   * takes the time of its first point, which underestimates the window's actual time; since the windows are small
+   * (< 1 second), the underestimation is within comfortable bounds.  Trailing points that don't fill a whole window
+   * are dropped.
+   * @param waveform The intensity/time data to compress.
+   * @param compressionMagnitude The number of points per window.
+   * @return A pair of the compressed waveform and the max intensity of any single point in each of its windows.
+   */
+  public static Pair<Waveform, double[]> compressWaveformAndFindMaxIntensityInEveryTimeWindow(
+      Waveform waveform, int compressionMagnitude) {
+    int windows = waveform.size() / compressionMagnitude;
+    double[] windowTimes = new double[Math.max(windows, 0)];
+    double[] windowSums = new double[windowTimes.length];
+    double[] windowMaxes = new double[windowTimes.length];
+
+    for (int i = 0; i < windows; i++) {
       int startIndex = i * compressionMagnitude;
-      int endIndex = startIndex + compressionMagnitude;
-      List<XZ> subListSum = intensityAndTime.subList(startIndex,
-          endIndex > intensityAndTime.size() ? intensityAndTime.size() : endIndex);
+      int endIndex = Math.min(startIndex + compressionMagnitude, waveform.size());
 
-      Double maxIntensity = 0.0;
-      for (XZ xz : subListSum) {
-        maxIntensity = Math.max(maxIntensity, xz.getIntensity());
+      double intensitySum = 0.0;
+      double maxIntensity = 0.0;
+      for (int j = startIndex; j < endIndex; j++) {
+        intensitySum += waveform.intensities[j];
+        maxIntensity = Math.max(maxIntensity, waveform.intensities[j]);
       }
 
-      // Make sure that the size of the sublist has atleast one element in it.
-      if (subListSum.size() > 0) {
-        compressedResult.add(sumIntensityAndTimeList(subListSum));
-        timeToIntensity.put(subListSum.get(START_INDEX).getTime(), maxIntensity);
-      }
+      windowTimes[i] = waveform.times[startIndex];
+      windowSums[i] = intensitySum;
+      windowMaxes[i] = maxIntensity;
     }
 
-    return Pair.of(compressedResult, timeToIntensity);
+    return Pair.of(new Waveform(windowTimes, windowSums), windowMaxes);
   }
 
   public static Map<String, Pair<XZ, Double>> performSNRAnalysisAndReturnMetlinIonsRankOrderedBySNRForWells(
@@ -217,62 +348,55 @@ public class WaveformAnalysis {
       // Compress the input intensity time graph to solve sparse data issues (multiple retention times where intensity
       // is zero). However, we make sure to preserve what the maximum intensity was in that time window in the function
       // called below.
-      Pair<List<XZ>, Map<Double, Double>> positiveXZValuesAndMaxIntensity =
-          compressIntensityAndTimeGraphsAndFindMaxIntensityInEveryTimeWindow(
-              ionToIntensityDataPos.getMetlinIonsOfChemical(
-                  AnalysisHelper.constructChemicalAndScanTypeName(chemicalName,
-                      ScanData.KIND.POS_SAMPLE)).get(chemicalName), COMPRESSION_CONSTANT);
+      Pair<Waveform, double[]> positiveWindowsAndMaxIntensity = compressTrace(
+          ionToIntensityDataPos.getMetlinIonsOfChemical(
+              AnalysisHelper.constructChemicalAndScanTypeName(chemicalName,
+                  ScanData.KIND.POS_SAMPLE)).get(chemicalName), COMPRESSION_CONSTANT);
 
-      List<XZ> positiveIntensityTimeValues = positiveXZValuesAndMaxIntensity.getLeft();
-      Map<Double, Double> positiveTimeToMaxPeak = positiveXZValuesAndMaxIntensity.getRight();
+      Waveform positiveWindows = positiveWindowsAndMaxIntensity.getLeft();
+      double[] positiveWindowMaxPeaks = positiveWindowsAndMaxIntensity.getRight();
 
       // Next, we detect peaks within the compressed data.
-      List<XZ> positiveIntensityTime = detectPeaksInIntensityTimeWaveform(positiveIntensityTimeValues, PEAK_DETECTION_THRESHOLD);
+      int[] positivePeaks = detectPeakIndicesInWaveform(positiveWindows, PEAK_DETECTION_THRESHOLD);
 
       // Get the compressed results for the negative control data.
-      List<List<XZ>> negativeIntensityTimes = new ArrayList<>();
+      List<Waveform> negativeWindows = new ArrayList<>();
       for (ChemicalToMapOfMetlinIonsToIntensityTimeValues neg : ionToIntensityDataNegList) {
-        List<XZ> negativeIntensityTimeValues = compressIntensityAndTimeGraphsAndFindMaxIntensityInEveryTimeWindow(
+        negativeWindows.add(compressTrace(
             neg.getMetlinIonsOfChemical(AnalysisHelper.constructChemicalAndScanTypeName(chemicalName,
-                ScanData.KIND.NEG_CONTROL)).get(chemicalName), COMPRESSION_CONSTANT).getLeft();
-
-        negativeIntensityTimes.add(negativeIntensityTimeValues);
+                ScanData.KIND.NEG_CONTROL)).get(chemicalName), COMPRESSION_CONSTANT).getLeft());
       }
 
       // Get the RMS of the negative intensity times
-      List<XZ> rmsOfNegativeValues = rmsOfIntensityTimeGraphs(negativeIntensityTimes);
-
-      Double maxSNR = 0.0;
-      Double maxTime = 0.0;
-      Double peakIntensity = 0.0;
+      Waveform rmsOfNegativeValues = rmsOfWaveforms(negativeWindows);
 
       // For each of the peaks detected in the positive control, find the spectral intensity values from the negative
       // controls and calculate SNR based on that.
-      for (XZ positivePosition : positiveIntensityTime) {
+      double[] peakTimes = valuesAt(positiveWindows.times, positivePeaks);
+      int[] negativeControlPositions =
+          alignTimesToReference(peakTimes, rmsOfNegativeValues.times, POSITION_TIME_WINDOW_IN_SECONDS);
 
-        Double time = positivePosition.getTime();
+      Double maxSNR = 0.0;
+      Double maxTime = 0.0;
+      Double peakIntensity = 0.0;
 
-        XZ negativeControlPosition = null;
-        for (XZ position : rmsOfNegativeValues) {
-          if (position.getTime() > time - POSITION_TIME_WINDOW_IN_SECONDS &&
-              position.getTime() < time + POSITION_TIME_WINDOW_IN_SECONDS) {
-            negativeControlPosition = position;
-            break;
-          }
-        }
+      for (int i = 0; i < positivePeaks.length; i++) {
+        int peak = positivePeaks[i];
+        int negativeControlPosition = negativeControlPositions[i];
 
-        Double snr;
-        if (negativeControlPosition == null) {
+        double snr;
+        if (negativeControlPosition < 0) {
           LOGGER.error("There is no intensity value at this time range for the negative control, which is not expected");
           snr = 0.0;
         } else {
-          snr = Math.pow(positivePosition.getIntensity() / negativeControlPosition.getIntensity(), 2);
+          snr = Math.pow(positiveWindows.intensities[peak] / rmsOfNegativeValues.intensities[negativeControlPosition],
+              2);
         }
 
         if (snr > maxSNR) {
           maxSNR = snr;
-          maxTime = time;
-          peakIntensity = positiveTimeToMaxPeak.get(positivePosition.getTime());
+          maxTime = peakTimes[i];
+          peakIntensity = positiveWindowMaxPeaks[peak];
         }
       }
 
@@ -302,20 +426,19 @@ public class WaveformAnalysis {
 
       // We first compress the ion spectra by 5 seconds (this number was gotten from trial and error on labelled
       // spectra). Then, we do feature detection of peaks in the compressed data.
-      List<XZ> standardIntensityTime = detectPeaksInIntensityTimeWaveform(
-          compressIntensityAndTimeGraphsAndFindMaxIntensityInEveryTimeWindow(
-              ionToIntensityData.getMetlinIonsOfChemical(standardChemical).get(ion), COMPRESSION_CONSTANT).getLeft(),
-          PEAK_DETECTION_THRESHOLD);
+      Waveform standardWindows = compressTrace(
+          ionToIntensityData.getMetlinIonsOfChemical(standardChemical).get(ion), COMPRESSION_CONSTANT).getLeft();
+      int[] standardPeaks = detectPeakIndicesInWaveform(standardWindows, PEAK_DETECTION_THRESHOLD);
 
-      List<List<XZ>> negativeIntensityTimes = new ArrayList<>();
+      List<Waveform> negativeWindows = new ArrayList<>();
       for (String chemical : ionToIntensityData.getIonList()) {
         if (!chemical.equals(standardChemical)) {
-          negativeIntensityTimes.add(compressIntensityAndTimeGraphsAndFindMaxIntensityInEveryTimeWindow(
+          negativeWindows.add(compressTrace(
               ionToIntensityData.getMetlinIonsOfChemical(chemical).get(ion), COMPRESSION_CONSTANT).getLeft());
         }
       }
 
-      List<XZ> rmsOfNegativeValues = rmsOfIntensityTimeGraphs(negativeIntensityTimes);
+      Waveform rmsOfNegativeValues = rmsOfWaveforms(negativeWindows);
 
       List<Double> listOfTimeWindows = new ArrayList<>();
       if (restrictedTimeWindows != null && restrictedTimeWindows.get(ion) != null) {
@@ -336,20 +459,21 @@ public class WaveformAnalysis {
 
       // For each of the peaks detected in the positive control, find the spectral intensity values from the negative
       // controls and calculate SNR based on that.
-      for (XZ positivePosition : standardIntensityTime) {
+      double[] peakTimes = valuesAt(standardWindows.times, standardPeaks);
+      int[] negativeControlPositions =
+          alignTimesToReference(peakTimes, rmsOfNegativeValues.times, POSITION_TIME_WINDOW_IN_SECONDS);
 
-        Double time = positivePosition.getTime();
+      for (int i = 0; i < standardPeaks.length; i++) {
+        double time = peakTimes[i];
 
-        XZ negativeControlPosition = null;
-        for (XZ position : rmsOfNegativeValues) {
-          if (position.getTime() > time - POSITION_TIME_WINDOW_IN_SECONDS &&
-              position.getTime() < time + POSITION_TIME_WINDOW_IN_SECONDS) {
-            negativeControlPosition = position;
-            break;
-          }
+        if (negativeControlPositions[i] < 0) {
+          throw new RuntimeException(String.format(
+              "No negative control intensity for ion %s within %.1fs of time %.3f", ion,
+              POSITION_TIME_WINDOW_IN_SECONDS, time));
         }
 
-        Double snr = Math.pow(positivePosition.getIntensity() / negativeControlPosition.getIntensity(), 2);
+        double negativeIntensity = rmsOfNegativeValues.intensities[negativeControlPositions[i]];
+        double snr = Math.pow(standardWindows.intensities[standardPeaks[i]] / negativeIntensity, 2);
 
         // If the given time point overlaps with one of the restricted time windows, we can update the snr calculations.
         for (Double restrictedTimeWindow : listOfTimeWindows) {
@@ -408,8 +532,6 @@ public class WaveformAnalysis {
 
   /**
    * This function checks if there are overlaps between two intensity and time charts (peak values) in the time domain.
-   * The algorithm itself run O(n^2), but this is OK since the inputs are peak values, which on maximum are in the order
-   * of 2 magnitudes (ie count < 100).
    * @param intensityAndTimeA A list of XZ values.
    * @param intensityAndTimeB A list of XZ values.
    * @param thresholdTime This parameter is used to isolate by how much time difference between the peaks is deemed
@@ -419,10 +541,43 @@ public class WaveformAnalysis {
   public static boolean doPeaksOverlap(List<XZ> intensityAndTimeA,
                                        List<XZ> intensityAndTimeB,
                                        Double thresholdTime) {
-    for (XZ point : intensityAndTimeB) {
-      Double time = point.getTime();
-      for (XZ referencePoint : intensityAndTimeA) {
-        Double referenceTime = referencePoint.getTime();
+    return doPeaksOverlap(Waveform.fromXZs(intensityAndTimeA).times, Waveform.fromXZs(intensityAndTimeB).times,
+        thresholdTime);
+  }
+
+  /**
+   * Checks whether any time in B falls strictly within thresholdTime of any time in A.  Rather than comparing every
+   * pair of times, this sorts both sets and walks them together, which takes O((n + m) log(n + m)) time.
+   * @param timesA The times of the reference peaks.
+   * @param timesB The times of the peaks to check against the reference.
+   * @param thresholdTime The largest time difference between peaks that counts as an overlap.
+   * @return True if there is an overlap in peaks between the two sets of times.
+   */
+  public static boolean doPeaksOverlap(double[] timesA, double[] timesB, double thresholdTime) {
+    double[] sortedA = Arrays.copyOf(timesA, timesA.length);
+    double[] sortedB = Arrays.copyOf(timesB, timesB.length);
+    Arrays.sort(sortedA);
+    Arrays.sort(sortedB);
+
+    /* For a time t, the reference times satisfying t < a + threshold are a suffix of sortedA, and those satisfying
+     * t > a - threshold are a prefix.  The suffix only shrinks as t grows, so we track its start with one pointer and
+     * check whether its first (smallest) element also satisfies the prefix condition. */
+    int reference = 0;
+    for (double time : sortedB) {
+      while (reference < sortedA.length && !(time < sortedA[reference] + thresholdTime)) {
+        reference++;
+      }
+      if (reference < sortedA.length && time > sortedA[reference] - thresholdTime) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Package private for testing: the original quadratic overlap check.
+  static boolean doPeaksOverlapByScan(double[] timesA, double[] timesB, double thresholdTime) {
+    for (double time : timesB) {
+      for (double referenceTime : timesA) {
         if ((time > referenceTime - thresholdTime) && (time < referenceTime + thresholdTime)) {
           return true;
         }
@@ -443,25 +598,37 @@ public class WaveformAnalysis {
   public static List<XZ> detectPeaksInIntensityTimeWaveform(
       List<XZ> intensityAndTimeValues,
       Double threshold) {
-    Double minIntensity = Double.MAX_VALUE;
-    Double maxIntensity = -Double.MAX_VALUE;
-    Double maxTime = 0.0;
-    Double delta = threshold;
-    ArrayList<XZ> result = new ArrayList<>();
+    Waveform waveform = Waveform.fromXZs(intensityAndTimeValues);
+    int[] peaks = detectPeakIndicesInWaveform(waveform, threshold);
+
+    List<XZ> result = new ArrayList<>(peaks.length);
+    for (int peak : peaks) {
+      result.add(new XZ(waveform.times[peak], waveform.intensities[peak]));
+    }
+    return result;
+  }
+
+  /**
+   * Finds peaks using the same algorithm as detectPeaksInIntensityTimeWaveform.
+   * @param waveform The intensity/time values to search.
+   * @param threshold This threshold is used to detect peaks and valleys.
+   * @return The indices of the peaks in the waveform, in descending order of intensity.
+   */
+  public static int[] detectPeakIndicesInWaveform(Waveform waveform, double threshold) {
+    double maxIntensity = -Double.MAX_VALUE;
+    int maxIndex = -1;
+    double delta = threshold;
+    int[] peaks = new int[waveform.size()];
+    int peakCount = 0;
 
     boolean expectingPeak = true;
 
-    for (XZ val : intensityAndTimeValues) {
-      Double intensity = val.getIntensity();
-      Double time = val.getTime();
+    for (int i = 0; i < waveform.size(); i++) {
+      double intensity = waveform.intensities[i];
 
       if (intensity > maxIntensity) {
         maxIntensity = intensity;
-        maxTime = time;
-      }
-
-      if (intensity < minIntensity) {
-        minIntensity = intensity;
+        maxIndex = i;
       }
 
       if (expectingPeak) {
@@ -469,12 +636,7 @@ public class WaveformAnalysis {
         // Since the current intensity has dropped by a reasonable amount, the last recorded maxIntensity
         // was a peak. So record that data.
         if (intensity < maxIntensity - delta) {
-          result.add(new XZ(maxTime, maxIntensity));
-
-          // The minIntensity is updated because all the previous minIntensity was on the left side of
-          // the recently recorded peak, hence irrelevant. The current intensity is therefore the lowest
-          // intensity value right after the peak.
-          minIntensity = intensity;
+          peaks[peakCount++] = maxIndex;
 
           // Since we just added a new peak to the result set, a valley should follow. Therefore, do not
           // look for another peak now.
@@ -482,9 +644,9 @@ public class WaveformAnalysis {
         }
       } else {
         if (intensity > maxIntensity - delta) {
-          // Reset maxIntensity and maxTime once valley has been found.
+          // Reset maxIntensity and maxIndex once valley has been found.
           maxIntensity = intensity;
-          maxTime = time;
+          maxIndex = i;
 
           // Since we just detected a valley, we now should expect a peak.
           expectingPeak = true;
@@ -492,14 +654,21 @@ public class WaveformAnalysis {
       }
     }
 
-    // Sort in descending order of intensity
-    Collections.sort(result, new Comparator<XZ>() {
-      @Override
-      public int compare(XZ o1, XZ o2) {
-        return o2.getIntensity().compareTo(o1.getIntensity());
-      }
-    });
+    // Sort in descending order of intensity, keeping peaks of equal intensity in time order.
+    int[] peakIndices = Arrays.copyOf(peaks, peakCount);
+    int[] order = indicesSortedBy(valuesAt(waveform.intensities, peakIndices), true);
+    int[] result = new int[peakCount];
+    for (int i = 0; i < peakCount; i++) {
+      result[i] = peakIndices[order[i]];
+    }
+    return result;
+  }
 
+  private static double[] valuesAt(double[] values, int[] indices) {
+    double[] result = new double[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      result[i] = values[indices[i]];
+    }
     return result;
   }
 
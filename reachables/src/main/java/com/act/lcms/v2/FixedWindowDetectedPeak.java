@@ -67,11 +67,19 @@ public class FixedWindowDetectedPeak implements DetectedPeak {
     return mz;
   }
 
+  public Double getMzWindow() {
+    return mzWindow;
+  }
+
   @Override
   public Double getRetentionTime() {
     return retentionTime;
   }
 
+  public Double getRetentionTimeWindow() {
+    return retentionTimeWindow;
+  }
+
   @Override
   public Double getIntensity() {
     return intensity;
@@ -24,15 +24,26 @@
 package com.act.lcms.v2;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+/**
+ * A PeakSpectrum backed by a list of peaks.
+ *
+ * The m/z and retention time queries are answered from a sorted index of the peaks (See PeakIndex), which is built the
+ * first time it is needed and rebuilt whenever the number of peaks changes.  Every query still applies the same
+ * test to each candidate peak that a full scan would, and returns its matches in list order, so results are identical
+ * to filtering the whole list.
+ */
 public class LcmsPeakSpectrum implements PeakSpectrum {
 
   List<DetectedPeak> peaks;
 
+  private PeakIndex peakIndex;
+
   public LcmsPeakSpectrum(List<DetectedPeak> peaks) {
     this.peaks = peaks;
   }
@@ -61,17 +72,36 @@ public class LcmsPeakSpectrum implements PeakSpectrum {
 
   @Override
   public List<DetectedPeak> getPeaksByMZ(Double mz, Double confidenceLevel) {
-    return getPeaks(peak -> peak.matchesMz(mz, confidenceLevel));
+    Predicate<DetectedPeak> filter = peak -> peak.matchesMz(mz, confidenceLevel);
+    PeakIndex index = getIndex();
+    // Peaks with an unknown matching window could match any m/z, so we have to test them all.
+    if (Double.isNaN(index.maxMzHalfWindow)) {
+      return getPeaks(filter);
+    }
+    double mzRadius = index.maxMzHalfWindow + pad(mz, index.maxMzHalfWindow);
+    return index.query(mz - mzRadius, mz + mzRadius, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+        position -> filter.test(peaks.get(position)));
   }
 
   @Override
   public List<DetectedPeak> getPeaksByTime(Double time, Double timeTolerance) {
-    return getPeaks(peak -> Math.abs(peak.getRetentionTime() - time) <= timeTolerance);
+    PeakIndex index = getIndex();
+    double timeRadius = timeTolerance + pad(time, timeTolerance);
+    return index.query(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, time - timeRadius, time + timeRadius,
+        position -> Math.abs(index.times[position] - time) <= timeTolerance);
   }
 
   @Override
   public List<DetectedPeak> getPeaksByMzTime(Double time, Double mz, Double confidenceLevel) {
-    return getPeaks(peak -> peak.matchesMzTime(mz, time, confidenceLevel));
+    Predicate<DetectedPeak> filter = peak -> peak.matchesMzTime(mz, time, confidenceLevel);
+    PeakIndex index = getIndex();
+    if (Double.isNaN(index.maxMzHalfWindow) || Double.isNaN(index.maxTimeHalfWindow)) {
+      return getPeaks(filter);
+    }
+    double mzRadius = index.maxMzHalfWindow + pad(mz, index.maxMzHalfWindow);
+    double timeRadius = index.maxTimeHalfWindow + pad(time, index.maxTimeHalfWindow);
+    return index.query(mz - mzRadius, mz + mzRadius, time - timeRadius, time + timeRadius,
+        position -> filter.test(peaks.get(position)));
   }
 
   @Override
@@ -81,8 +111,56 @@ public class LcmsPeakSpectrum implements PeakSpectrum {
 
   @Override
   public List<DetectedPeak> getNeighborhoodPeaks(Double mass, Double massTolerance, Double time, Double timeTolerance) {
-    return getPeaks(peak -> Math.abs(peak.getRetentionTime() - time) < timeTolerance &&
-        Math.abs(peak.getMz() - mass) < massTolerance);
+    PeakIndex index = getIndex();
+    double mzRadius = massTolerance + pad(mass, massTolerance);
+    double timeRadius = timeTolerance + pad(time, timeTolerance);
+    return index.query(mass - mzRadius, mass + mzRadius, time - timeRadius, time + timeRadius,
+        position -> index.isNeighbor(position, mass, massTolerance, time, timeTolerance));
+  }
+
+  /**
+   * Finds all neighborhoods in one sweep over the peaks in m/z order.  The targets are visited in m/z order too, so
+   * the window of peaks within the m/z tolerance only ever moves forward, and only the peaks inside it are tested.
+   */
+  @Override
+  public List<List<DetectedPeak>> neighborhoodsOf(List<DetectedPeak> targetPeaks,
+                                                  Double mzTolerance, Double timeTolerance) {
+    PeakIndex index = getIndex();
+
+    double[] targetMzs = new double[targetPeaks.size()];
+    double[] targetTimes = new double[targetPeaks.size()];
+    double maxAbsTargetMz = 0.0;
+    for (int i = 0; i < targetMzs.length; i++) {
+      targetMzs[i] = targetPeaks.get(i).getMz();
+      targetTimes[i] = targetPeaks.get(i).getRetentionTime();
+      if (!Double.isNaN(targetMzs[i])) {
+        maxAbsTargetMz = Math.max(maxAbsTargetMz, Math.abs(targetMzs[i]));
+      }
+    }
+    // A single pad for all targets keeps both ends of the window moving forward.
+    double mzRadius = mzTolerance + pad(maxAbsTargetMz, mzTolerance);
+
+    List<List<DetectedPeak>> neighborhoods = new ArrayList<>(targetPeaks.size());
+    for (int i = 0; i < targetMzs.length; i++) {
+      neighborhoods.add(null);
+    }
+
+    int windowStart = 0;
+    int windowEnd = 0;
+    for (int target : sortByKey(targetMzs)) {
+      double mass = targetMzs[target];
+      double time = targetTimes[target];
+      while (windowStart < index.size && index.sortedMzs[windowStart] < mass - mzRadius) {
+        windowStart++;
+      }
+      windowEnd = Math.max(windowEnd, windowStart);
+      while (windowEnd < index.size && index.sortedMzs[windowEnd] <= mass + mzRadius) {
+        windowEnd++;
+      }
+      neighborhoods.set(target, index.collect(index.mzOrder, windowStart, windowEnd,
+          position -> index.isNeighbor(position, mass, mzTolerance, time, timeTolerance)));
+    }
+    return neighborhoods;
   }
 
   @Override
@@ -94,4 +172,184 @@ public class LcmsPeakSpectrum implements PeakSpectrum {
   public List<DetectedPeak> getPeaks(String scanFileId) {
     return getPeaks(peak -> peak.getSourceScanFileId().equals(scanFileId));
   }
+
+  /**
+   * Returns the index of the current peaks.  Peaks added through addPeak (Or directly to the list) are picked up by a
+   * rebuild, but peaks must not be replaced or modified in place once the spectrum has been queried.
+   */
+  private synchronized PeakIndex getIndex() {
+    if (peakIndex == null || peakIndex.size != peaks.size()) {
+      peakIndex = new PeakIndex(peaks);
+    }
+    return peakIndex;
+  }
+
+  /**
+   * Widens a search range just enough to cover the rounding in tests like `Math.abs(peakMz - mz) < tolerance`, so
+   * that binary searching for `mz - tolerance` and `mz + tolerance` never excludes a peak that the test would accept.
+   */
+  private static double pad(double center, double radius) {
+    return 4 * Math.ulp(Math.abs(center) + Math.abs(radius));
+  }
+
+  /**
+   * Returns the positions 0 to keys.length - 1 ordered by their key, keeping ties in position order.  This is a plain
+   * merge sort over primitive arrays, which avoids boxing every position for a comparator based sort.
+   */
+  static int[] sortByKey(double[] keys) {
+    int[] order = new int[keys.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    int[] buffer = new int[keys.length];
+    for (int width = 1; width < order.length; width *= 2) {
+      for (int start = 0; start < order.length - width; start += 2 * width) {
+        int middle = start + width;
+        int end = Math.min(start + 2 * width, order.length);
+        int left = start;
+        int right = middle;
+        int out = start;
+        while (left < middle && right < end) {
+          buffer[out++] = Double.compare(keys[order[right]], keys[order[left]]) < 0 ? order[right++] : order[left++];
+        }
+        while (left < middle) {
+          buffer[out++] = order[left++];
+        }
+        while (right < end) {
+          buffer[out++] = order[right++];
+        }
+        System.arraycopy(buffer, start, order, start, end - start);
+      }
+    }
+    return order;
+  }
+
+  private interface PositionFilter {
+    boolean test(int position);
+  }
+
+  /**
+   * The peaks' m/z values and retention times copied into primitive arrays, along with the peaks' positions sorted by
+   * each.  A range query binary searches both sorted orders and scans whichever range holds fewer peaks.
+   */
+  static class PeakIndex {
+    final List<DetectedPeak> peaks;
+    final int size;
+    // m/z and retention time of the peak at each position in the list, or NaN if unknown.
+    final double[] mzs;
+    final double[] times;
+    final int[] mzOrder;
+    final double[] sortedMzs;
+    final int[] timeOrder;
+    final double[] sortedTimes;
+    // The widest match windows of any peak, or NaN if some peak is not a FixedWindowDetectedPeak (Subclasses
+    // included, since they may match differently).
+    final double maxMzHalfWindow;
+    final double maxTimeHalfWindow;
+
+    PeakIndex(List<DetectedPeak> peaks) {
+      this.peaks = peaks;
+      this.size = peaks.size();
+      this.mzs = new double[size];
+      this.times = new double[size];
+      double mzHalfWindow = 0.0;
+      double timeHalfWindow = 0.0;
+      for (int i = 0; i < size; i++) {
+        DetectedPeak peak = peaks.get(i);
+        mzs[i] = valueOrNaN(peak.getMz());
+        times[i] = valueOrNaN(peak.getRetentionTime());
+        if (peak.getClass() == FixedWindowDetectedPeak.class) {
+          FixedWindowDetectedPeak fixedWindowPeak = (FixedWindowDetectedPeak) peak;
+          // Math.max propagates NaN, so a single unknown window disables the window based searches.
+          mzHalfWindow = Math.max(mzHalfWindow, valueOrNaN(fixedWindowPeak.getMzWindow()) / 2);
+          timeHalfWindow = Math.max(timeHalfWindow, valueOrNaN(fixedWindowPeak.getRetentionTimeWindow()) / 2);
+        } else {
+          mzHalfWindow = Double.NaN;
+          timeHalfWindow = Double.NaN;
+        }
+      }
+      this.maxMzHalfWindow = mzHalfWindow;
+      this.maxTimeHalfWindow = timeHalfWindow;
+
+      this.mzOrder = sortByKey(mzs);
+      this.sortedMzs = new double[size];
+      this.timeOrder = sortByKey(times);
+      this.sortedTimes = new double[size];
+      for (int i = 0; i < size; i++) {
+        sortedMzs[i] = mzs[mzOrder[i]];
+        sortedTimes[i] = times[timeOrder[i]];
+      }
+    }
+
+    boolean isNeighbor(int position, double mz, double mzTolerance, double time, double timeTolerance) {
+      return Math.abs(times[position] - time) < timeTolerance && Math.abs(mzs[position] - mz) < mzTolerance;
+    }
+
+    /**
+     * Returns the peaks that pass the filter, among those whose m/z and retention time both fall in the given closed
+     * ranges.  The filter must reject every peak outside those ranges.
+     */
+    List<DetectedPeak> query(double mzLow, double mzHigh, double timeLow, double timeHigh, PositionFilter filter) {
+      int mzStart = firstAtLeast(sortedMzs, mzLow);
+      int mzEnd = firstGreaterThan(sortedMzs, mzHigh);
+      int timeStart = firstAtLeast(sortedTimes, timeLow);
+      int timeEnd = firstGreaterThan(sortedTimes, timeHigh);
+      return mzEnd - mzStart <= timeEnd - timeStart ?
+          collect(mzOrder, mzStart, mzEnd, filter) :
+          collect(timeOrder, timeStart, timeEnd, filter);
+    }
+
+    /**
+     * Returns the peaks at order[start] to order[end - 1] that pass the filter, in list order.
+     */
+    List<DetectedPeak> collect(int[] order, int start, int end, PositionFilter filter) {
+      int[] matches = new int[Math.max(end - start, 0)];
+      int matchCount = 0;
+      for (int i = start; i < end; i++) {
+        if (filter.test(order[i])) {
+          matches[matchCount++] = order[i];
+        }
+      }
+      Arrays.sort(matches, 0, matchCount);
+
+      List<DetectedPeak> result = new ArrayList<>(matchCount);
+      for (int i = 0; i < matchCount; i++) {
+        result.add(peaks.get(matches[i]));
+      }
+      return result;
+    }
+
+    private static double valueOrNaN(Double value) {
+      return value == null ? Double.NaN : value;
+    }
+
+    // Both searches treat NaN as greater than every number, which is where sortByKey puts it.
+    private static int firstAtLeast(double[] sorted, double value) {
+      int low = 0;
+      int high = sorted.length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (Double.compare(sorted[middle], value) < 0) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    private static int firstGreaterThan(double[] sorted, double value) {
+      int low = 0;
+      int high = sorted.length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (Double.compare(sorted[middle], value) <= 0) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+  }
 }
@@ -56,6 +56,8 @@ public class MZCollisionCounter {
   private static final String OPTION_COUNT_WINDOW_INTERSECTIONS = "w";
   private static final String OPTION_WINDOW_HALFWIDTH = "s";
   private static final String OPTION_ONLY_CONSIDER_IONS = "n";
+  private static final String OPTION_MASS_MEMO_FILE = "m";
+  private static final String OPTION_MASS_THREADS = "t";
   private static final Double DEFAULT_WINDOW_TOLERANCE = 0.01;
 
   private static final String HELP_MESSAGE = StringUtils.join(new String[]{
@@ -95,6 +97,19 @@ public class MZCollisionCounter {
         .valueSeparator(',')
         .longOpt("only-ions")
     );
+    add(Option.builder(OPTION_MASS_MEMO_FILE)
+        .argName("memo-file")
+        .desc("A file of InChI masses to reuse across runs; created if missing, and extended with any new masses")
+        .hasArg()
+        .longOpt("mass-memo-file")
+    );
+    add(Option.builder(OPTION_MASS_THREADS)
+        .argName("threads")
+        .desc(String.format("The number of threads to compute masses with, default is %d",
+            MassChargeCalculator.DEFAULT_MASS_THREADS))
+        .hasArg()
+        .longOpt("mass-threads")
+    );
   }};
 
   public static void main(String[] args) throws Exception {
@@ -131,7 +146,11 @@ public class MZCollisionCounter {
     try {
       LOGGER.info("Loaded %d sources in total from input file", sources.size());
 
-      MassChargeCalculator.MassChargeMap mzMap = MassChargeCalculator.makeMassChargeMap(sources, considerIons);
+      File massMemoFile = cl.hasOption(OPTION_MASS_MEMO_FILE) ? new File(cl.getOptionValue(OPTION_MASS_MEMO_FILE)) : null;
+      int massThreads = cl.hasOption(OPTION_MASS_THREADS) ?
+          Integer.parseInt(cl.getOptionValue(OPTION_MASS_THREADS)) : MassChargeCalculator.DEFAULT_MASS_THREADS;
+      MassChargeCalculator.MassChargeMap mzMap =
+          MassChargeCalculator.makeMassChargeMap(sources, considerIons, massMemoFile, massThreads);
 
       if (!cl.hasOption(OPTION_COUNT_WINDOW_INTERSECTIONS)) {
         // Do an exact analysis of the m/z collisions if windowing is not specified.
@@ -173,7 +192,7 @@ public class MZCollisionCounter {
          * cases where the MS sensor doesn't report structures at exactly the m/z we predict, we employ this weaker
          * definition of intersection to give a slightly pessimistic view of what confusions might be possible. */
         // Compute windows for every m/z.  We don't care about the original mz values since we just want the count.
-        List<Double> mzs = mzMap.ionMZsSorted();
+        double[] sortedMZs = mzMap.ionMZsSortedArray();
 
         final Double windowHalfWidth;
         if (cl.hasOption(OPTION_WINDOW_HALFWIDTH)) {
@@ -183,49 +202,20 @@ public class MZCollisionCounter {
           windowHalfWidth = DEFAULT_WINDOW_TOLERANCE;
         }
 
-        /* Window = (lower bound, upper bound), counter of represented m/z's that collide with this window, and number
-         * of representative structures (which will be used in counting collisions). */
-        LinkedList<CollisionWindow> allWindows = new LinkedList<CollisionWindow>() {{
-          for (Double mz : mzs) {
-            // CPU for memory trade-off: don't re-compute the window bounds over and over and over and over and over.
-            try {
-              add(new CollisionWindow(mz, windowHalfWidth, mzMap.ionMZToMZSources(mz).size()));
-            } catch (NoSuchElementException e) {
-              LOGGER.error("Caught no such element exception for mz %f: %s", mz, e.getMessage());
-              throw e;
-            }
-          }
-        }};
-
-        // Sweep line time!  The window ranges are the interesting points.  We just accumulate overlap counts as we go.
-        LinkedList<CollisionWindow> workingSet = new LinkedList<>();
-        List<CollisionWindow> finished = new LinkedList<>();
-
-        while (allWindows.size() > 0) {
-          CollisionWindow thisWindow = allWindows.pop();
-          // Remove any windows from the working set that don't overlap with the next window.
-          while (workingSet.size() > 0 && workingSet.peekFirst().getMaxMZ() < thisWindow.getMinMZ()) {
-            finished.add(workingSet.pop());
-          }
-
-          for (CollisionWindow w : workingSet) {
-            /* Add the size of the new overlapping window's structure count to each of the windows in the working set,
-             * which represents the number of possible confused structures that fall within the overlapping region.
-             * We exclude the window itself as it should already have counted the colliding structures it represents. */
-            w.getAccumulator().add(thisWindow.getStructureCount());
-
-            /* Reciprocally, add the structure counts of all windows with which the current window overlaps to it. */
-            thisWindow.getAccumulator().add(w.getStructureCount());
+        int[] structureCounts = new int[sortedMZs.length];
+        for (int i = 0; i < sortedMZs.length; i++) {
+          Double mz = sortedMZs[i];
+          try {
+            structureCounts[i] = mzMap.ionMZToMZSources(mz).size();
+          } catch (NoSuchElementException e) {
+            LOGGER.error("Caught no such element exception for mz %f: %s", mz, e.getMessage());
+            throw e;
           }
-
-          // Now that accumulation is complete, we can safely add the current window.
-          workingSet.add(thisWindow);
         }
 
-        // All the interesting events are done, so drop the remaining windows into the finished set.
-        finished.addAll(workingSet);
+        long[] collisionCounts = countWindowCollisions(sortedMZs, structureCounts, windowHalfWidth);
 
-        Map<Long, Long> collisionHistogram = histogram(finished.stream().map(w -> w.getAccumulator().longValue()));
+        Map<Long, Long> collisionHistogram = histogram(Arrays.stream(collisionCounts).boxed());
         List<Long> sortedCollisions = new ArrayList<>(collisionHistogram.keySet());
         Collections.sort(sortedCollisions);
         for (Long collision : sortedCollisions) {
@@ -242,6 +232,104 @@ public class MZCollisionCounter {
     }
   }
 
+  /**
+   * Computes, for each m/z's window, the number of structures represented by all windows that overlap it (itself
+   * included).  Both window bounds are sorted along with the m/z's, so the windows overlapping any given window form a
+   * contiguous run around it: a prefix sum over structure counts plus two binary searches per window give its count.
+   * @param sortedMZs Ion m/z values in ascending order.
+   * @param structureCounts The number of structures that have each m/z as an ion.
+   * @param windowHalfWidth The half-width of the window around each m/z.
+   * @return The collision count for each m/z, in the same order.
+   */
+  static long[] countWindowCollisions(double[] sortedMZs, int[] structureCounts, double windowHalfWidth) {
+    int n = sortedMZs.length;
+    double[] mins = new double[n];
+    double[] maxes = new double[n];
+    long[] structureCountPrefixSums = new long[n + 1];
+    for (int i = 0; i < n; i++) {
+      mins[i] = sortedMZs[i] - windowHalfWidth;
+      maxes[i] = sortedMZs[i] + windowHalfWidth;
+      structureCountPrefixSums[i + 1] = structureCountPrefixSums[i] + structureCounts[i];
+    }
+
+    long[] collisionCounts = new long[n];
+    for (int i = 0; i < n; i++) {
+      // A window below this one overlaps it iff its max reaches this window's min...
+      int firstOverlapping = firstIndexAtLeast(maxes, mins[i]);
+      // ...and a window above overlaps iff its min is no greater than this window's max.
+      int endOverlapping = firstIndexGreaterThan(mins, maxes[i]);
+      collisionCounts[i] = structureCountPrefixSums[endOverlapping] - structureCountPrefixSums[firstOverlapping];
+    }
+    return collisionCounts;
+  }
+
+  private static int firstIndexAtLeast(double[] sorted, double val) {
+    int lo = 0, hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] < val) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  private static int firstIndexGreaterThan(double[] sorted, double val) {
+    int lo = 0, hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] <= val) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * The original sweep line implementation of countWindowCollisions, which is O(n*k) for k overlapping windows and so
+   * crawls over dense m/z regions.  Kept as a reference for tests and benchmarks.
+   */
+  static long[] countWindowCollisionsBySweep(double[] sortedMZs, int[] structureCounts, double windowHalfWidth) {
+    /* Window = (lower bound, upper bound), counter of represented m/z's that collide with this window, and number
+     * of representative structures (which will be used in counting collisions). */
+    List<CollisionWindow> windowsInOrder = new ArrayList<>(sortedMZs.length);
+    for (int i = 0; i < sortedMZs.length; i++) {
+      // CPU for memory trade-off: don't re-compute the window bounds over and over and over and over and over.
+      windowsInOrder.add(new CollisionWindow(sortedMZs[i], windowHalfWidth, structureCounts[i]));
+    }
+    LinkedList<CollisionWindow> allWindows = new LinkedList<>(windowsInOrder);
+
+    // Sweep line time!  The window ranges are the interesting points.  We just accumulate overlap counts as we go.
+    LinkedList<CollisionWindow> workingSet = new LinkedList<>();
+
+    while (allWindows.size() > 0) {
+      CollisionWindow thisWindow = allWindows.pop();
+      // Remove any windows from the working set that don't overlap with the next window.
+      while (workingSet.size() > 0 && workingSet.peekFirst().getMaxMZ() < thisWindow.getMinMZ()) {
+        workingSet.pop();
+      }
+
+      for (CollisionWindow w : workingSet) {
+        /* Add the size of the new overlapping window's structure count to each of the windows in the working set,
+         * which represents the number of possible confused structures that fall within the overlapping region.
+         * We exclude the window itself as it should already have counted the colliding structures it represents. */
+        w.getAccumulator().add(thisWindow.getStructureCount());
+
+        /* Reciprocally, add the structure counts of all windows with which the current window overlaps to it. */
+        thisWindow.getAccumulator().add(w.getStructureCount());
+      }
+
+      // Now that accumulation is complete, we can safely add the current window.
+      workingSet.add(thisWindow);
+    }
+
+    return windowsInOrder.stream().mapToLong(w -> w.getAccumulator().longValue()).toArray();
+  }
+
   private static class CollisionWindow {
     Double min;
     Double max;
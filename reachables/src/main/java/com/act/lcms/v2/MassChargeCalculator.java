@@ -38,21 +38,37 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class MassChargeCalculator {
   private static final Logger LOGGER = LogManager.getFormatterLogger(MassChargeCalculator.class);
 
+  // Mass computation is dominated by InChI parsing, so use a few threads but leave some cores for everybody else.
+  public static final int DEFAULT_MASS_THREADS = Math.min(8, Runtime.getRuntime().availableProcessors());
+
   /**
    * An MZSource is a handle to the result of ionic mass/charge computation.  Once m/z computation has been completed
    * for a given set of mass sources (like InChIs, arbitrary numeric values, and the results of the very convenient
@@ -214,15 +230,24 @@ public class MassChargeCalculator {
    * of those sources.
    */
   public static class MassChargeMap implements Serializable {
-    private static final long serialVersionUID = -332580987490663497L;
+    private static final long serialVersionUID = 4305178207465620153L;
 
     // Tracks the monoisotopic mass for a given source, which can then be used to find collisions in the reverse map.
     Map<MZSource, Double> monoisotopicMasses;
     // Maps each monoisotopic mass to any colliding sources.
     Map<Double, List<MZSource>> reverseMonoisotopicMasses = new HashMap<>();
 
-    // For a given ionic mass, it is a <ION_TYPE> for mass <MONOISOTOPIC MASS>, e.g., M+H for
-    Map<Double, List<Pair<String, Double>>> reverseIonicMasses = new HashMap<>();
+    /* For a given ionic mass, it is a <ION_TYPE> for mass <MONOISOTOPIC MASS>, e.g., M+H for some mass.  Stored as
+     * sorted primitive arrays rather than a map of boxed doubles, which would take several times the memory:
+     *   ionMZs:            the unique ion m/z values, in ascending order
+     *   ionEntryOffsets:   the ion entries for ionMZs[i] are at [ionEntryOffsets[i], ionEntryOffsets[i + 1])
+     *   ionNames:          the ion type of each entry
+     *   ionMonoMasses:     the monoisotopic mass of each entry
+     * Entries for the same m/z keep the order in which their sources were loaded. */
+    double[] ionMZs = new double[0];
+    int[] ionEntryOffsets = new int[]{0};
+    String[] ionNames = new String[0];
+    double[] ionMonoMasses = new double[0];
 
     // Package-private again.
     MassChargeMap() {
@@ -233,11 +258,24 @@ public class MassChargeCalculator {
     }
 
     public List<Pair<String, Double>> ionMZtoMonoMassAndIonName(Double mz) {
-      return Collections.unmodifiableList(reverseIonicMasses.get(mz));
+      return Collections.unmodifiableList(reverseIonicMassesFor(mz));
+    }
+
+    // Returns null for unknown m/z's, just like the map this replaced.
+    private List<Pair<String, Double>> reverseIonicMassesFor(Double mz) {
+      int index = Arrays.binarySearch(ionMZs, mz);
+      if (index < 0) {
+        return null;
+      }
+      List<Pair<String, Double>> results = new ArrayList<>(ionEntryOffsets[index + 1] - ionEntryOffsets[index]);
+      for (int i = ionEntryOffsets[index]; i < ionEntryOffsets[index + 1]; i++) {
+        results.add(Pair.of(ionNames[i], ionMonoMasses[i]));
+      }
+      return results;
     }
 
     public Set<MZSource> ionMZToMZSources(Double mz) {
-      List<Pair<String, Double>> reverseIons = reverseIonicMasses.get(mz);
+      List<Pair<String, Double>> reverseIons = reverseIonicMassesFor(mz);
       if (reverseIons == null) {
         return Collections.emptySet();
       }
@@ -261,17 +299,21 @@ public class MassChargeCalculator {
     }
 
     public Iterable<Double> ionMZIter() {
-      return () -> reverseIonicMasses.keySet().iterator();
+      return () -> Arrays.stream(ionMZs).iterator();
     }
 
     // Package private--this one can eat a whole lot of memory, so we prefer the streaming approaches.
     List<Double> ionMZsSorted() {
-      List<Double> results = new ArrayList<>(reverseIonicMasses.keySet());
-      Collections.sort(results);
-      // The keySet has already unique'd all the values, so all we need to do is sort 'em and return 'em.
+      // The m/z array is already unique and sorted, so all we need to do is box 'em and return 'em.
+      List<Double> results = Arrays.stream(ionMZs).boxed().collect(Collectors.toList());
       return Collections.unmodifiableList(results); // Make the list unmodifiable for safety's sake (we own the masses).
     }
 
+    // Package private: the ion m/z values in ascending order, without boxing.  Callers must not modify the array.
+    double[] ionMZsSortedArray() {
+      return ionMZs;
+    }
+
     // Package private again.
     void loadSourcesAndMasses(List<Pair<MZSource, Double>> sourcesAndMasses, Set<String> onlyConsiderIons)
         throws IOException {
@@ -280,6 +322,8 @@ public class MassChargeCalculator {
       LOGGER.info("Converting %d m/z sources into ionic masses and resolving collisions", sourcesAndMasses.size());
       int sourceCounter = 0;
       int ionCounter = 0;
+      // Collect (ion m/z, ion name, mono mass) entries in load order; these get sorted into the arrays at the end.
+      List<Pair<Double, Pair<String, Double>>> ionEntries = new ArrayList<>();
       for (Pair<MZSource, Double> sourceAndMass : sourcesAndMasses) {
         MZSource source = sourceAndMass.getLeft();
         Double monoMass = sourceAndMass.getRight();
@@ -312,16 +356,39 @@ public class MassChargeCalculator {
         }
 
         for (Map.Entry<String, Double> ion : ions.entrySet()) {
-          List<Pair<String, Double>> reverseMapping = reverseIonicMasses.get(ion.getValue());
-          if (reverseMapping == null) {
-            reverseMapping = new ArrayList<>(1); // Assume few collisions.
-            reverseIonicMasses.put(ion.getValue(), reverseMapping);
-          }
-          reverseMapping.add(Pair.of(ion.getKey(), monoMass));
+          ionEntries.add(Pair.of(ion.getValue(), Pair.of(ion.getKey(), monoMass)));
           ionCounter++;
         }
       }
       LOGGER.info("Done resolving %d sources, found %d ion m/z's in total", sourceCounter, ionCounter);
+
+      loadIonEntries(ionEntries);
+    }
+
+    private void loadIonEntries(List<Pair<Double, Pair<String, Double>>> ionEntries) {
+      // List.sort is stable, so entries that share an m/z stay in load order.
+      ionEntries.sort(Comparator.comparing(Pair::getLeft));
+
+      ionNames = new String[ionEntries.size()];
+      ionMonoMasses = new double[ionEntries.size()];
+      double[] uniqueMZs = new double[ionEntries.size()];
+      int[] offsets = new int[ionEntries.size() + 1];
+      int uniqueCount = 0;
+      for (int i = 0; i < ionEntries.size(); i++) {
+        Pair<Double, Pair<String, Double>> entry = ionEntries.get(i);
+        // Compare as Doubles, which is how the map that these arrays replaced distinguished its keys.
+        if (uniqueCount == 0 || !entry.getLeft().equals(uniqueMZs[uniqueCount - 1])) {
+          uniqueMZs[uniqueCount] = entry.getLeft();
+          offsets[uniqueCount] = i;
+          uniqueCount++;
+        }
+        ionNames[i] = entry.getRight().getLeft();
+        ionMonoMasses[i] = entry.getRight().getRight();
+      }
+      offsets[uniqueCount] = ionEntries.size();
+
+      ionMZs = Arrays.copyOf(uniqueMZs, uniqueCount);
+      ionEntryOffsets = Arrays.copyOf(offsets, uniqueCount + 1);
     }
 
     /**
@@ -331,7 +398,7 @@ public class MassChargeCalculator {
      *         Returns an empty list if no matching sources are found.
      */
     public List<Pair<MZSource, String>> mapIonMZToSources(Double ionicMassCharge) {
-      List<Pair<String, Double>> reverseMapping = reverseIonicMasses.get(ionicMassCharge);
+      List<Pair<String, Double>> reverseMapping = reverseIonicMassesFor(ionicMassCharge);
       if (reverseMapping == null) {
         return Collections.emptyList();
       }
@@ -355,30 +422,76 @@ public class MassChargeCalculator {
 
   public static MassChargeMap makeMassChargeMap(List<MZSource> mzSources, Set<String> onlyConsiderIons)
       throws IOException {
+    return makeMassChargeMap(mzSources, onlyConsiderIons, null, DEFAULT_MASS_THREADS);
+  }
+
+  /**
+   * Builds a MassChargeMap, computing source masses in parallel.
+   * @param mzSources The sources whose ions to map.
+   * @param onlyConsiderIons The ions to compute; all ions are computed if empty.
+   * @param massMemoFile An optional file of InChI masses from earlier runs, which is read before and updated after
+   *                     computing masses.  May be null.
+   * @param threads The number of threads to compute masses with.
+   * @return A map of the sources' ion m/z's, identical to what a serial computation would produce.
+   */
+  public static MassChargeMap makeMassChargeMap(List<MZSource> mzSources, Set<String> onlyConsiderIons,
+                                                File massMemoFile, int threads)
+      throws IOException {
     MassChargeMap map = new MassChargeMap();
+    InchiMassMemo memo = massMemoFile == null ? null : InchiMassMemo.load(massMemoFile);
+
     /* Map over the sources, extracting or computing the mass as we go to encapsulate any unsafe behavior outside the
-     * MassChargeMap constructor. */
-    List<Pair<MZSource, Double>> sourcesAndMasses = new ArrayList<>();
-    for (MZSource source : mzSources) {
-      try {
-        sourcesAndMasses.add(Pair.of(source, computeMass(source)));
-      } catch (Exception e) {
-        LOGGER.error("MZSource %d threw an error during mass calculation, skipping", source.getId());
+     * MassChargeMap constructor.  The ordered parallel stream keeps sources in input order, which the map relies on. */
+    List<Double> masses;
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      masses = pool.submit(() -> mzSources.parallelStream().map(source -> {
+        try {
+          return computeMass(source, memo);
+        } catch (Exception e) {
+          LOGGER.error("MZSource %d threw an error during mass calculation, skipping", source.getId());
+          return null;
+        }
+      }).collect(Collectors.toList())).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+
+    List<Pair<MZSource, Double>> sourcesAndMasses = new ArrayList<>(mzSources.size());
+    for (int i = 0; i < mzSources.size(); i++) {
+      if (masses.get(i) != null) {
+        sourcesAndMasses.add(Pair.of(mzSources.get(i), masses.get(i)));
       }
     }
     LOGGER.info("Consumed %d mzSources, sourcesAndMasses has %d entries", mzSources.size(), sourcesAndMasses.size());
+
+    if (memo != null) {
+      memo.save();
+    }
+
     map.loadSourcesAndMasses(sourcesAndMasses, onlyConsiderIons);
     return map;
   }
 
   protected static Double computeMass(MZSource mzSource) {
+    return computeMass(mzSource, null);
+  }
+
+  private static Double computeMass(MZSource mzSource, InchiMassMemo memo) {
     Double mass;
     String msg;
     switch (mzSource.getKind()) {
       case INCHI:
         Pair<Double, Integer> massAndCharge;
         try {
-          massAndCharge = MassCalculator.calculateMassAndCharge(mzSource.getInchi());
+          massAndCharge = memo == null ?
+              MassCalculator.calculateMassAndCharge(mzSource.getInchi()) :
+              memo.getOrCalculate(mzSource.getInchi());
         } catch (Exception e) {
           LOGGER.error("Calculating mass for molecule %s failed: %s", mzSource.getInchi(), e.getMessage());
           throw e;
@@ -410,4 +523,65 @@ public class MassChargeCalculator {
     }
     return mass;
   }
+
+  /**
+   * A persistent InChI -> (mass, charge) memo, stored as a TSV so that repeated runs over the same sources skip
+   * InChI parsing.  Masses are written with Double.toString, which round-trips exactly, so memoized masses are
+   * identical to freshly computed ones.  New entries are appended by save(); existing ones are never rewritten.
+   */
+  static class InchiMassMemo {
+    private File file;
+    private Map<String, Pair<Double, Integer>> massesAndCharges = new ConcurrentHashMap<>();
+    private Map<String, Pair<Double, Integer>> newMassesAndCharges = new ConcurrentHashMap<>();
+
+    private InchiMassMemo(File file) {
+      this.file = file;
+    }
+
+    static InchiMassMemo load(File file) throws IOException {
+      InchiMassMemo memo = new InchiMassMemo(file);
+      if (file.exists()) {
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            String[] fields = line.split("\t");
+            if (fields.length != 3) {
+              LOGGER.warn("Skipping malformed line in mass memo file %s: %s", file.getAbsolutePath(), line);
+              continue;
+            }
+            memo.massesAndCharges.put(fields[0], Pair.of(Double.valueOf(fields[1]), Integer.valueOf(fields[2])));
+          }
+        }
+      }
+      LOGGER.info("Loaded %d memoized masses from %s", memo.massesAndCharges.size(), file.getAbsolutePath());
+      return memo;
+    }
+
+    Pair<Double, Integer> getOrCalculate(String inchi) {
+      Pair<Double, Integer> massAndCharge = massesAndCharges.get(inchi);
+      if (massAndCharge == null) {
+        massAndCharge = MassCalculator.calculateMassAndCharge(inchi);
+        massesAndCharges.put(inchi, massAndCharge);
+        newMassesAndCharges.put(inchi, massAndCharge);
+      }
+      return massAndCharge;
+    }
+
+    void save() throws IOException {
+      if (newMassesAndCharges.isEmpty()) {
+        return;
+      }
+      try (BufferedWriter writer = new BufferedWriter(
+          new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
+        for (Map.Entry<String, Pair<Double, Integer>> entry : newMassesAndCharges.entrySet()) {
+          writer.write(String.format("%s\t%s\t%d", entry.getKey(),
+              Double.toString(entry.getValue().getLeft()), entry.getValue().getRight()));
+          writer.newLine();
+        }
+      }
+      LOGGER.info("Added %d masses to memo file %s", newMassesAndCharges.size(), file.getAbsolutePath());
+      newMassesAndCharges.clear();
+    }
+  }
 }
@@ -26,6 +26,7 @@ package com.act.lcms.v2;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * Interface representing a collection of detected peaks.
@@ -62,6 +63,19 @@ public interface PeakSpectrum {
   List<DetectedPeak> getNeighborhoodPeaks(DetectedPeak targetPeak, Double mzTolerance, Double timeTolerance);
   List<DetectedPeak> getNeighborhoodPeaks(Double mz, Double mzTolerance, Double time, Double timeTolerance);
 
+  /**
+   * Retrieve the neighborhood of each of a list of target peaks, as getNeighborhoodPeaks would for each of them.
+   * Implementations may answer all targets together, which is much faster than one query per target.
+   * @param targetPeaks the peaks whose neighborhoods to find
+   * @return one list of neighborhood peaks per target peak, in the same order as the targets
+   */
+  default List<List<DetectedPeak>> neighborhoodsOf(List<DetectedPeak> targetPeaks,
+                                                   Double mzTolerance, Double timeTolerance) {
+    return targetPeaks.stream()
+        .map(peak -> getNeighborhoodPeaks(peak, mzTolerance, timeTolerance))
+        .collect(Collectors.toList());
+  }
+
   /**
    * Partition the spectrum by scan file id.
    * @return a mapping between scan files and their corresponding detected peaks.
@@ -23,11 +23,10 @@
 
 package com.act.lcms.v2;
 
-import com.act.lcms.XZ;
 import com.act.lcms.db.analysis.WaveformAnalysis;
-import com.act.lcms.db.model.MS1ScanForWellAndMassCharge;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -45,10 +44,14 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
 
 public class TraceIndexAnalyzer {
   private static final Logger LOGGER = LogManager.getFormatterLogger(TraceIndexAnalyzer.class);
@@ -56,10 +59,20 @@ public class TraceIndexAnalyzer {
 
   private static final String OPTION_INDEX_PATH = "x";
   private static final String OPTION_OUTPUT_PATH = "o";
+  private static final String OPTION_THREADS = "t";
+  private static final String OPTION_JSON_LINES = "l";
+
+  // Traces are read and analyzed in batches of this many targets, which bounds memory use regardless of index size.
+  private static final int BATCH_SIZE = 1000;
+  private static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+  /* Each worker widens float traces into its own reusable intensity buffer, so the only per-trace allocations are the
+   * compressed windows, which are a fraction of the trace's size. */
+  private static final ThreadLocal<double[]> INTENSITY_BUFFERS = ThreadLocal.withInitial(() -> new double[0]);
 
   public static final String HELP_MESSAGE = StringUtils.join(new String[]{
       "This class consumes windowed traces from an LCMS scan files, searching each window for peaks and writing the ",
-      "results of its analysis in a large JSON document."
+      "results of its analysis in a large JSON document (or as one JSON object per line)."
   }, "");
 
   public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
@@ -75,6 +88,16 @@ public class TraceIndexAnalyzer {
         .hasArg().required()
         .longOpt("output")
     );
+    add(Option.builder(OPTION_THREADS)
+        .argName("threads")
+        .desc(String.format("The number of threads to call peaks with, default is %d", DEFAULT_THREADS))
+        .hasArg()
+        .longOpt("threads")
+    );
+    add(Option.builder(OPTION_JSON_LINES)
+        .desc("Write one JSON result per line instead of a single JSON array")
+        .longOpt("json-lines")
+    );
     add(Option.builder("h")
         .argName("help")
         .desc("Prints this help message")
@@ -162,51 +185,129 @@ public class TraceIndexAnalyzer {
 
     LOGGER.info("Starting analysis");
 
+    int threads = cl.hasOption(OPTION_THREADS) ?
+        Integer.parseInt(cl.getOptionValue(OPTION_THREADS)) : DEFAULT_THREADS;
+
     TraceIndexAnalyzer analyzer = new TraceIndexAnalyzer();
     analyzer.runExtraction(
         rocksDBFile,
-        new File(cl.getOptionValue(OPTION_OUTPUT_PATH))
+        new File(cl.getOptionValue(OPTION_OUTPUT_PATH)),
+        threads,
+        cl.hasOption(OPTION_JSON_LINES)
     );
 
     LOGGER.info("Done");
   }
 
-  private void runExtraction(File rocksDBFile, File outputFile)
+  private void runExtraction(File rocksDBFile, File outputFile, int threads, boolean jsonLines)
       throws RocksDBException, IOException {
-    List<AnalysisResult> results = new ArrayList<>();
-
-    // Extract each target's trace, computing and saving stats as we go.  This should fit in memory no problem.
-    Iterator<Pair<Double, List<XZ>>> traceIterator = new TraceIndexExtractor().getIteratorOverTraces(rocksDBFile);
-    while (traceIterator.hasNext()) {
-      Pair<Double, List<XZ>> targetAndTrace = traceIterator.next();
-
-      String label = String.format("%.6f", targetAndTrace.getLeft());
-
-      // Note: here we cheat by knowing how the MS1 class is going to use this incredibly complex container.
-      MS1ScanForWellAndMassCharge scanForWell = new MS1ScanForWellAndMassCharge();
-      scanForWell.setMetlinIons(Collections.singletonList(label));
-      scanForWell.getIonsToSpectra().put(label, targetAndTrace.getRight());
-
-      Pair<List<XZ>, Map<Double, Double>> timeWindowsAndMaxes =
-          WaveformAnalysis.compressIntensityAndTimeGraphsAndFindMaxIntensityInEveryTimeWindow(
-              targetAndTrace.getRight(), WaveformAnalysis.COMPRESSION_CONSTANT);
-      List<XZ> calledPeaks = WaveformAnalysis.detectPeaksInIntensityTimeWaveform(
-          timeWindowsAndMaxes.getLeft(), WaveformAnalysis.PEAK_DETECTION_THRESHOLD); // Same as waveform analysis.
-
-      for (XZ calledPeak : calledPeaks) {
-        AnalysisResult result = new AnalysisResult(
-            targetAndTrace.getLeft(),
-            timeWindowsAndMaxes.getRight().get(calledPeak.getTime()),
-            calledPeak.getTime()
-        );
-
-        results.add(result);
+    TraceIndexExtractor.ScanTraces scanTraces = new TraceIndexExtractor().getScanTraces(rocksDBFile, null);
+    double[] times = scanTraces.getTimes();
+    // Legacy indexes' double precision traces are analyzed as they are, so their peak calls are not perturbed.
+    if (scanTraces.isLegacy()) {
+      analyzeTraces(scanTraces.getLegacyTraces(), (targetMZ, trace) -> analyzeTrace(targetMZ, trace, times),
+          outputFile, threads, jsonLines);
+    } else {
+      analyzeTraces(scanTraces.getTraces(), (targetMZ, trace) -> analyzeTrace(targetMZ, trace, times),
+          outputFile, threads, jsonLines);
+    }
+  }
+
+  private <T> void analyzeTraces(Iterator<Pair<Double, T>> traceIterator,
+                                 BiFunction<Double, T, List<AnalysisResult>> analyzer,
+                                 File outputFile, int threads, boolean jsonLines) throws IOException {
+    /* Analyze one batch of traces on the pool while reading the next one and writing out the results of the previous
+     * one.  The ordered parallel stream keeps each batch's results in target order, so the output is in m/z order just
+     * like the index; no more than two batches of traces are ever held in memory. */
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    int traceCount = 0;
+    long resultCount = 0L;
+    try (FileOutputStream fos = new FileOutputStream(outputFile);
+         SequenceWriter resultWriter = jsonLines ?
+             OBJECT_MAPPER.writer().withRootValueSeparator(System.lineSeparator()).writeValues(fos) :
+             OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValuesAsArray(fos)) {
+      List<Pair<Double, T>> batch = readBatch(traceIterator);
+      ForkJoinTask<List<List<AnalysisResult>>> pending = null;
+      while (!batch.isEmpty() || pending != null) {
+        ForkJoinTask<List<List<AnalysisResult>>> submitted = null;
+        if (!batch.isEmpty()) {
+          final List<Pair<Double, T>> toAnalyze = batch;
+          submitted = pool.submit(() -> toAnalyze.parallelStream()
+              .map(targetAndTrace -> analyzer.apply(targetAndTrace.getLeft(), targetAndTrace.getRight()))
+              .collect(Collectors.toList()));
+          traceCount += batch.size();
+        }
+
+        if (pending != null) {
+          for (List<AnalysisResult> results : pending.get()) {
+            for (AnalysisResult result : results) {
+              resultWriter.write(result);
+              resultCount++;
+            }
+          }
+          LOGGER.info("Wrote %d results so far", resultCount);
+        }
+
+        pending = submitted;
+        batch = readBatch(traceIterator);
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdown();
     }
 
-    LOGGER.info("Writing window stats to JSON file");
-    try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-      OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(fos, results);
+    LOGGER.info("Analyzed %d traces, found %d peaks in total", traceCount, resultCount);
+  }
+
+  private static <T> List<Pair<Double, T>> readBatch(Iterator<Pair<Double, T>> traceIterator) {
+    List<Pair<Double, T>> batch = new ArrayList<>(BATCH_SIZE);
+    while (batch.size() < BATCH_SIZE && traceIterator.hasNext()) {
+      batch.add(traceIterator.next());
+    }
+    return batch;
+  }
+
+  // Package private for testing.
+  static List<AnalysisResult> analyzeTrace(Double targetMZ, float[] trace, double[] times) {
+    // Traces should always be as long as the time points, but be robust to mismatches like the trace readers are.
+    int length = Math.min(trace.length, times.length);
+    double[] intensities = INTENSITY_BUFFERS.get();
+    if (intensities.length != length) {
+      intensities = new double[length];
+      INTENSITY_BUFFERS.set(intensities);
+    }
+    for (int i = 0; i < length; i++) {
+      intensities[i] = trace[i];
+    }
+    return analyzeWaveform(targetMZ, intensities, times);
+  }
+
+  // Package private for testing.  Legacy traces are already doubles, so they are only copied if they need truncating.
+  static List<AnalysisResult> analyzeTrace(Double targetMZ, double[] trace, double[] times) {
+    int length = Math.min(trace.length, times.length);
+    return analyzeWaveform(targetMZ, length == trace.length ? trace : Arrays.copyOf(trace, length), times);
+  }
+
+  private static List<AnalysisResult> analyzeWaveform(Double targetMZ, double[] intensities, double[] times) {
+    int length = intensities.length;
+    double[] traceTimes = length == times.length ? times : Arrays.copyOf(times, length);
+
+    Pair<WaveformAnalysis.Waveform, double[]> windowsAndMaxes =
+        WaveformAnalysis.compressWaveformAndFindMaxIntensityInEveryTimeWindow(
+            new WaveformAnalysis.Waveform(traceTimes, intensities), WaveformAnalysis.COMPRESSION_CONSTANT);
+    double[] windowTimes = windowsAndMaxes.getLeft().getTimes();
+    double[] windowMaxes = windowsAndMaxes.getRight();
+    int[] calledPeaks = WaveformAnalysis.detectPeakIndicesInWaveform(
+        windowsAndMaxes.getLeft(), WaveformAnalysis.PEAK_DETECTION_THRESHOLD); // Same as waveform analysis.
+
+    List<AnalysisResult> results = new ArrayList<>(calledPeaks.length);
+    for (int calledPeak : calledPeaks) {
+      results.add(new AnalysisResult(targetMZ, windowMaxes[calledPeak], windowTimes[calledPeak]));
     }
+    return results;
   }
 }
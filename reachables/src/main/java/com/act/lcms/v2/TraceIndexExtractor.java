@@ -66,9 +66,11 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class TraceIndexExtractor {
   private static final Logger LOGGER = LogManager.getFormatterLogger(TraceIndexExtractor.class);
@@ -80,12 +82,30 @@ public class TraceIndexExtractor {
    * maintain this one copy in the index and reconstruct the XZ pairs as we read trace intensity arrays. */
   private static final byte[] TIMEPOINTS_KEY = "timepoints".getBytes(UTF8);
 
+  /* Indexes written before format versioning (which we call version 0) hold a single scan: Java-serialized target
+   * m/z -> MZWindow objects, Java-serialized window ids -> traces of doubles, and the time points under TIMEPOINTS_KEY.
+   *
+   * Version 1 indexes can hold many scans, and use fixed width big-endian keys and values throughout:
+   *   TARGET_TO_WINDOW: target m/z (double) -> window id (int); keys sort in m/z order since m/z values are positive
+   *   ID_TO_TRACE:      scan id (int) + window id (int) -> trace intensities (floats, one per time point)
+   *   TIMEPOINTS:       scan id (int) -> time points (doubles)
+   *                     FORMAT_VERSION_KEY -> format version (int)
+   *                     SCAN_FILES_KEY -> absolute paths of the scan files, newline separated, in scan id order
+   * The version and scan list keys are longer than an int, so they can't collide with the per-scan time point keys.
+   * Window and scan ids are assigned in order of addition, which is what makes appending to an index cheap. */
+  private static final byte[] FORMAT_VERSION_KEY = "format_version".getBytes(UTF8);
+  private static final byte[] SCAN_FILES_KEY = "scan_files".getBytes(UTF8);
+  private static final String SCAN_FILES_SEPARATOR = "\n";
+  public static final int LEGACY_FORMAT_VERSION = 0;
+  public static final int CURRENT_FORMAT_VERSION = 1;
+
   private static final Double WINDOW_WIDTH_FROM_CENTER = MS1.MS1_MZ_TOLERANCE_DEFAULT;
 
   // TODO: make this take a plate barcode and well coordinates instead of a scan file.
   public static final String OPTION_INDEX_PATH = "x";
   public static final String OPTION_SCAN_FILE = "i";
   public static final String OPTION_TARGET_MASSES = "m";
+  public static final String OPTION_APPEND = "a";
 
   public static final String HELP_MESSAGE = StringUtils.join(new String[]{
       "This class extracts traces from an LCMS scan files for a list of target m/z values, ",
@@ -95,14 +115,15 @@ public class TraceIndexExtractor {
   public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
     add(Option.builder(OPTION_INDEX_PATH)
         .argName("index path")
-        .desc("A path to the directory where the on-disk index will be stored; must not already exist")
+        .desc("A path to the directory where the on-disk index will be stored; must not already exist unless " +
+            "appending")
         .hasArg().required()
         .longOpt("index")
     );
     add(Option.builder(OPTION_SCAN_FILE)
         .argName("scan file")
-        .desc("A path to the LCMS NetCDF scan file to read")
-        .hasArg().required()
+        .desc("Paths to the LCMS NetCDF scan files to read, comma separated")
+        .hasArgs().valueSeparator(',').required()
         .longOpt("input")
     );
     add(Option.builder(OPTION_TARGET_MASSES)
@@ -111,6 +132,10 @@ public class TraceIndexExtractor {
         .hasArg().required()
         .longOpt("target-masses")
     );
+    add(Option.builder(OPTION_APPEND)
+        .desc("Add to an existing index: only scan files and target masses not already in the index are extracted")
+        .longOpt("append")
+    );
     add(Option.builder("h")
         .argName("help")
         .desc("Prints this help message")
@@ -189,15 +214,24 @@ public class TraceIndexExtractor {
       throw new RuntimeException(msg);
     }
 
-    File inputFile = new File(cl.getOptionValue(OPTION_SCAN_FILE));
-    if (!inputFile.exists()) {
-      System.err.format("Cannot find input scan file at %s\n", inputFile.getAbsolutePath());
-      HELP_FORMATTER.printHelp(TraceIndexExtractor.class.getCanonicalName(), HELP_MESSAGE, opts, null, true);
-      System.exit(1);
+    List<File> inputFiles = new ArrayList<>();
+    for (String inputPath : cl.getOptionValues(OPTION_SCAN_FILE)) {
+      File inputFile = new File(inputPath);
+      if (!inputFile.exists()) {
+        System.err.format("Cannot find input scan file at %s\n", inputFile.getAbsolutePath());
+        HELP_FORMATTER.printHelp(TraceIndexExtractor.class.getCanonicalName(), HELP_MESSAGE, opts, null, true);
+        System.exit(1);
+      }
+      inputFiles.add(inputFile);
     }
 
+    boolean append = cl.hasOption(OPTION_APPEND);
     File rocksDBFile = new File(cl.getOptionValue(OPTION_INDEX_PATH));
-    if (rocksDBFile.exists()) {
+    if (append && !rocksDBFile.exists()) {
+      System.err.format("Index file at %s does not exist, so it can't be appended to\n", rocksDBFile.getAbsolutePath());
+      HELP_FORMATTER.printHelp(TraceIndexExtractor.class.getCanonicalName(), HELP_MESSAGE, opts, null, true);
+      System.exit(1);
+    } else if (!append && rocksDBFile.exists()) {
       System.err.format("Index file at %s already exists--remove and retry\n", rocksDBFile.getAbsolutePath());
       HELP_FORMATTER.printHelp(TraceIndexExtractor.class.getCanonicalName(), HELP_MESSAGE, opts, null, true);
       System.exit(1);
@@ -212,33 +246,96 @@ public class TraceIndexExtractor {
     }
 
     TraceIndexExtractor extractor = new TraceIndexExtractor();
-    extractor.processScan(targetMZs, inputFile, rocksDBFile);
+    extractor.processScans(targetMZs, inputFiles, rocksDBFile, append);
   }
 
   public void processScan(List<Double> targetMZs, File scanFile, File rocksDBFile)
       throws RocksDBException, ParserConfigurationException, XMLStreamException, IOException {
-    LOGGER.info("Accessing scan file at %s", scanFile.getAbsolutePath());
-    LCMSNetCDFParser parser = new LCMSNetCDFParser();
-    Iterator<LCMSSpectrum> spectrumIterator = parser.getIterator(scanFile.getAbsolutePath());
+    processScans(targetMZs, Collections.singletonList(scanFile), rocksDBFile, false);
+  }
 
+  /**
+   * Extract traces for some target m/z values from some scan files into an index.
+   *
+   * When appending, only the work the index is missing is done: scans already in the index are re-read only if there
+   * are new targets, and then only to extract those targets' traces; new scans get traces for every target in the
+   * index.  Appending to a legacy (single scan, version 0) index is not supported.
+   *
+   * @param targetMZs The m/z values to extract traces for.
+   * @param scanFiles The LCMS NetCDF scan files to read.
+   * @param rocksDBFile The index to write.
+   * @param append Whether to add to an existing index rather than create a new one.
+   */
+  public void processScans(List<Double> targetMZs, List<File> scanFiles, File rocksDBFile, boolean append)
+      throws RocksDBException, ParserConfigurationException, XMLStreamException, IOException {
     LOGGER.info("Opening index at %s", rocksDBFile.getAbsolutePath());
     RocksDB.loadLibrary();
     RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles = null;
 
     try {
-      // TODO: add to existing DB instead of complaining if the DB already exists.  That'll enable one index per scan.
-      dbAndHandles = DBUtil.createNewRocksDB(rocksDBFile, COLUMN_FAMILIES.values());
+      List<String> scanPaths;
+      List<Double> targetsByWindowId;
+      if (append) {
+        dbAndHandles = DBUtil.openExistingRocksDB(rocksDBFile, COLUMN_FAMILIES.values());
+        int formatVersion = readFormatVersion(dbAndHandles);
+        if (formatVersion != CURRENT_FORMAT_VERSION) {
+          throw new RuntimeException(String.format(
+              "Can't append to index at %s with format version %d (expected %d); extract to a new index instead",
+              rocksDBFile.getAbsolutePath(), formatVersion, CURRENT_FORMAT_VERSION));
+        }
+        scanPaths = readScanPaths(dbAndHandles);
+        targetsByWindowId = readTargetsByWindowId(dbAndHandles);
+        LOGGER.info("Found %d scans and %d targets in existing index", scanPaths.size(), targetsByWindowId.size());
+      } else {
+        dbAndHandles = DBUtil.createNewRocksDB(rocksDBFile, COLUMN_FAMILIES.values());
+        scanPaths = new ArrayList<>();
+        targetsByWindowId = new ArrayList<>();
+      }
+
+      // Targets are identified by their exact m/z value, which is also how the legacy index keyed its windows.
+      Set<Double> newTargetSet = new LinkedHashSet<>(targetMZs);
+      newTargetSet.removeAll(targetsByWindowId);
+      List<Double> newTargets = new ArrayList<>(newTargetSet);
+      List<Integer> newWindowIds = new ArrayList<>(newTargets.size());
+      for (int i = 0; i < newTargets.size(); i++) {
+        newWindowIds.add(targetsByWindowId.size() + i);
+      }
+
+      Set<String> newScanPathSet = new LinkedHashSet<>();
+      for (File scanFile : scanFiles) {
+        newScanPathSet.add(scanFile.getAbsolutePath());
+      }
+      newScanPathSet.removeAll(scanPaths);
+
+      LOGGER.info("Indexing %d new targets and %d new scans", newTargets.size(), newScanPathSet.size());
 
       // TODO: split targetMZs into batches of ~100k and extract incrementally to allow huge input sets.
 
-      LOGGER.info("Extracting traces");
-      IndexedTraces windowsTimesAndTraces = runSweepLine(targetMZs, spectrumIterator);
+      // Scans that are already in the index only need traces for the new targets.
+      if (!newTargets.isEmpty()) {
+        for (int scanId = 0; scanId < scanPaths.size(); scanId++) {
+          extractAndWriteTraces(dbAndHandles, scanId, new File(scanPaths.get(scanId)), newTargets, newWindowIds);
+        }
+      }
 
-      LOGGER.info("Writing search targets to on-disk index");
-      writeWindowsToDB(dbAndHandles, windowsTimesAndTraces.getWindows());
+      targetsByWindowId.addAll(newTargets);
+      List<Integer> allWindowIds = new ArrayList<>(targetsByWindowId.size());
+      for (int i = 0; i < targetsByWindowId.size(); i++) {
+        allWindowIds.add(i);
+      }
+      for (String scanPath : newScanPathSet) {
+        extractAndWriteTraces(dbAndHandles, scanPaths.size(), new File(scanPath), targetsByWindowId, allWindowIds);
+        scanPaths.add(scanPath);
+      }
 
-      LOGGER.info("Writing trace data to on-disk index");
-      writeTracesToDB(dbAndHandles, windowsTimesAndTraces.getTimes(), windowsTimesAndTraces.getAllTraces());
+      /* The windows and scan list are written last: until they are, the new traces are unreachable, so an extraction
+       * that dies halfway leaves the index as it was (plus some garbage traces that the next append will overwrite). */
+      LOGGER.info("Writing search targets to on-disk index");
+      writeWindowsToDB(dbAndHandles, newTargets, newWindowIds);
+      dbAndHandles.put(COLUMN_FAMILIES.TIMEPOINTS, SCAN_FILES_KEY,
+          StringUtils.join(scanPaths, SCAN_FILES_SEPARATOR).getBytes(UTF8));
+      dbAndHandles.put(COLUMN_FAMILIES.TIMEPOINTS, FORMAT_VERSION_KEY, encodeInt(CURRENT_FORMAT_VERSION));
+      dbAndHandles.getDb().flush(new FlushOptions());
     } finally {
       if (dbAndHandles != null) {
         dbAndHandles.getDb().close();
@@ -248,6 +345,25 @@ public class TraceIndexExtractor {
     LOGGER.info("Done");
   }
 
+  private void extractAndWriteTraces(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles, int scanId, File scanFile,
+                                     List<Double> targetMZs, List<Integer> windowIds)
+      throws RocksDBException, ParserConfigurationException, XMLStreamException, IOException {
+    if (!scanFile.exists()) {
+      throw new IOException(String.format("Cannot find scan file at %s", scanFile.getAbsolutePath()));
+    }
+
+    LOGGER.info("Accessing scan file at %s (scan id %d)", scanFile.getAbsolutePath(), scanId);
+    LCMSNetCDFParser parser = new LCMSNetCDFParser();
+    Iterator<LCMSSpectrum> spectrumIterator = parser.getIterator(scanFile.getAbsolutePath());
+
+    LOGGER.info("Extracting %d traces", targetMZs.size());
+    IndexedTraces windowsTimesAndTraces = runSweepLine(targetMZs, spectrumIterator);
+
+    LOGGER.info("Writing trace data to on-disk index");
+    writeTracesToDB(dbAndHandles, scanId, windowIds,
+        windowsTimesAndTraces.getTimes(), windowsTimesAndTraces.getAllTraces());
+  }
+
   // Make this public so it can be de/serialized
   public static class MZWindow implements Serializable {
     private static final long serialVersionUID = -3326765598920871504L;
@@ -443,28 +559,31 @@ public class TraceIndexExtractor {
     return new IndexedTraces(windows, times, allTraces);
   }
 
-  private void writeWindowsToDB(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles, List<MZWindow> windows)
-      throws RocksDBException, IOException {
-    for (MZWindow window : windows) {
-      byte[] keyBytes = serializeObject(window.getTargetMZ());
-      byte[] valBytes = serializeObject(window);
-
-      dbAndHandles.put(COLUMN_FAMILIES.TARGET_TO_WINDOW, keyBytes, valBytes);
+  private void writeWindowsToDB(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles,
+                                List<Double> targetMZs, List<Integer> windowIds) throws RocksDBException {
+    for (int i = 0; i < targetMZs.size(); i++) {
+      dbAndHandles.put(COLUMN_FAMILIES.TARGET_TO_WINDOW, encodeDouble(targetMZs.get(i)), encodeInt(windowIds.get(i)));
     }
 
     dbAndHandles.getDb().flush(new FlushOptions());
     LOGGER.info("Done writing window data to index");
   }
 
+  /**
+   * Write one scan's traces.
+   * @param windowIds The window id of each trace; allTraces.get(i) is stored under windowIds.get(i).
+   */
   private void writeTracesToDB(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles,
+                               int scanId,
+                               List<Integer> windowIds,
                                List<Double> times,
                                List<List<Double>> allTraces) throws RocksDBException, IOException {
 
     LOGGER.info("Writing timepoints to on-disk index (%d points)", times.size());
-    dbAndHandles.put(COLUMN_FAMILIES.TIMEPOINTS, TIMEPOINTS_KEY, serializeDoubleList(times));
+    dbAndHandles.put(COLUMN_FAMILIES.TIMEPOINTS, encodeInt(scanId), serializeDoubleList(times));
     for (int i = 0; i < allTraces.size(); i++) {
-      byte[] keyBytes = serializeObject(i);
-      byte[] valBytes = serializeDoubleList(allTraces.get(i));
+      byte[] keyBytes = encodeTraceKey(scanId, windowIds.get(i));
+      byte[] valBytes = encodeFloatTrace(allTraces.get(i));
       dbAndHandles.put(COLUMN_FAMILIES.ID_TO_TRACE, keyBytes, valBytes);
       if (i % 1000 == 0) {
         LOGGER.info("Finished writing %d traces", i);
@@ -478,9 +597,280 @@ public class TraceIndexExtractor {
     LOGGER.info("Done writing trace data to index");
   }
 
+  /**
+   * Iterate over the traces of an index's only scan, which is all a legacy index can hold.
+   * @param index The index to read.
+   * @return An iterator over (target m/z, trace) pairs.
+   */
   public Iterator<Pair<Double, List<XZ>>> getIteratorOverTraces(File index)
       throws IOException, RocksDBException {
     RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles = DBUtil.openExistingRocksDB(index, COLUMN_FAMILIES.values());
+    if (readFormatVersion(dbAndHandles) == LEGACY_FORMAT_VERSION) {
+      return getIteratorOverLegacyTraces(dbAndHandles);
+    }
+    return getIteratorOverScanTraces(dbAndHandles, findScanId(dbAndHandles, index, null));
+  }
+
+  /**
+   * Iterate over the traces of one scan in an index.
+   * @param index The index to read.
+   * @param scanFile The scan file whose traces to read; must have been added to the index.
+   * @return An iterator over (target m/z, trace) pairs, in m/z order.
+   */
+  public Iterator<Pair<Double, List<XZ>>> getIteratorOverTraces(File index, File scanFile)
+      throws IOException, RocksDBException {
+    RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles = DBUtil.openExistingRocksDB(index, COLUMN_FAMILIES.values());
+    if (readFormatVersion(dbAndHandles) == LEGACY_FORMAT_VERSION) {
+      // Legacy indexes don't record which scan they were built from, so trust the caller.
+      return getIteratorOverLegacyTraces(dbAndHandles);
+    }
+    return getIteratorOverScanTraces(dbAndHandles, findScanId(dbAndHandles, index, scanFile));
+  }
+
+  /**
+   * The traces of one scan without any boxing: the time points that all of the scan's traces share, and an iterator
+   * over (target m/z, intensities) pairs in m/z order.  Reading traces this way is much cheaper than building lists of
+   * XZ objects, which matters for indexes with millions of targets.  Current indexes store float traces, which are
+   * handed out as-is so that readers can widen them into their own buffers; legacy indexes store doubles, which are
+   * handed out separately so that they keep their full precision.  Exactly one of the two iterators is available.
+   */
+  public static class ScanTraces {
+    private final double[] times;
+    private final Iterator<Pair<Double, float[]>> traces;
+    private final Iterator<Pair<Double, double[]>> legacyTraces;
+
+    private ScanTraces(double[] times, Iterator<Pair<Double, float[]>> traces,
+                       Iterator<Pair<Double, double[]>> legacyTraces) {
+      this.times = times;
+      this.traces = traces;
+      this.legacyTraces = legacyTraces;
+    }
+
+    static ScanTraces ofFloatTraces(double[] times, Iterator<Pair<Double, float[]>> traces) {
+      return new ScanTraces(times, traces, null);
+    }
+
+    static ScanTraces ofLegacyTraces(double[] times, Iterator<Pair<Double, double[]>> legacyTraces) {
+      return new ScanTraces(times, null, legacyTraces);
+    }
+
+    // Note: this is shared with every reader of the scan, and must not be modified.
+    public double[] getTimes() {
+      return times;
+    }
+
+    public boolean isLegacy() {
+      return legacyTraces != null;
+    }
+
+    public Iterator<Pair<Double, float[]>> getTraces() {
+      if (traces == null) {
+        throw new IllegalStateException("Legacy index traces must be read with getLegacyTraces");
+      }
+      return traces;
+    }
+
+    public Iterator<Pair<Double, double[]>> getLegacyTraces() {
+      if (legacyTraces == null) {
+        throw new IllegalStateException("Only legacy indexes have double precision traces");
+      }
+      return legacyTraces;
+    }
+  }
+
+  /**
+   * Read one scan's traces as primitive arrays.  Legacy indexes store double precision traces, which are read without
+   * any loss of precision; check ScanTraces.isLegacy to see which kind of traces the index holds.
+   * @param index The index to read.
+   * @param scanFile The scan file whose traces to read, or null to read the index's only scan.
+   * @return The scan's time points and traces.
+   */
+  public ScanTraces getScanTraces(File index, File scanFile) throws IOException, RocksDBException {
+    RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles = DBUtil.openExistingRocksDB(index, COLUMN_FAMILIES.values());
+    if (readFormatVersion(dbAndHandles) == LEGACY_FORMAT_VERSION) {
+      return getLegacyScanTraces(dbAndHandles);
+    }
+    int scanId = findScanId(dbAndHandles, index, scanFile);
+    double[] times = readTimes(dbAndHandles, scanId);
+    return ScanTraces.ofFloatTraces(times, getIteratorOverFloatTraces(dbAndHandles, scanId, times.length));
+  }
+
+  private static int findScanId(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles, File index, File scanFile)
+      throws RocksDBException {
+    List<String> scanPaths = readScanPaths(dbAndHandles);
+    if (scanFile == null) {
+      if (scanPaths.size() != 1) {
+        String msg = String.format("Index at %s holds %d scans, so one must be picked to read traces from",
+            index.getAbsolutePath(), scanPaths.size());
+        LOGGER.error(msg);
+        throw new RuntimeException(msg);
+      }
+      return 0;
+    }
+
+    int scanId = scanPaths.indexOf(scanFile.getAbsolutePath());
+    if (scanId < 0) {
+      String msg = String.format("Scan file %s is not in index at %s",
+          scanFile.getAbsolutePath(), index.getAbsolutePath());
+      LOGGER.error(msg);
+      throw new RuntimeException(msg);
+    }
+    return scanId;
+  }
+
+  /**
+   * Lists the scan files in an index, in the order they were added.  Legacy indexes don't record their scan file, and
+   * yield an empty list.
+   */
+  public List<String> getScanFiles(File index) throws IOException, RocksDBException {
+    RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles = DBUtil.openExistingRocksDB(index, COLUMN_FAMILIES.values());
+    try {
+      return readScanPaths(dbAndHandles);
+    } finally {
+      dbAndHandles.getDb().close();
+    }
+  }
+
+  private Iterator<Pair<Double, List<XZ>>> getIteratorOverScanTraces(
+      RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles, int scanId) throws RocksDBException, IOException {
+    final double[] times = readTimes(dbAndHandles, scanId);
+    final Iterator<Pair<Double, float[]>> floatTraces = getIteratorOverFloatTraces(dbAndHandles, scanId, times.length);
+
+    return new Iterator<Pair<Double, List<XZ>>>() {
+      @Override
+      public boolean hasNext() {
+        return floatTraces.hasNext();
+      }
+
+      @Override
+      public Pair<Double, List<XZ>> next() {
+        Pair<Double, float[]> targetAndTrace = floatTraces.next();
+        float[] trace = targetAndTrace.getRight();
+
+        List<XZ> xzs = new ArrayList<>(times.length);
+        for (int i = 0; i < trace.length && i < times.length; i++) {
+          xzs.add(new XZ(times[i], (double) trace[i]));
+        }
+        return Pair.of(targetAndTrace.getLeft(), xzs);
+      }
+    };
+  }
+
+  private static double[] readTimes(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles, int scanId)
+      throws RocksDBException, IOException {
+    byte[] timeBytes = dbAndHandles.get(COLUMN_FAMILIES.TIMEPOINTS, encodeInt(scanId));
+    if (timeBytes == null) {
+      throw new RuntimeException(String.format("Got null byte array back for times of scan %d", scanId));
+    }
+    return deserializeDoubleList(timeBytes).stream().mapToDouble(Double::doubleValue).toArray();
+  }
+
+  private static Iterator<Pair<Double, float[]>> getIteratorOverFloatTraces(
+      RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles, int scanId, int timeCount) throws RocksDBException {
+    final RocksDBAndHandles.RocksDBIterator rangesIterator = dbAndHandles.newIterator(COLUMN_FAMILIES.TARGET_TO_WINDOW);
+    rangesIterator.reset();
+
+    return new Iterator<Pair<Double, float[]>>() {
+      @Override
+      public boolean hasNext() {
+        return rangesIterator.isValid();
+      }
+
+      @Override
+      public Pair<Double, float[]> next() {
+        Double targetMZ = decodeDouble(rangesIterator.key());
+        int windowId = decodeInt(rangesIterator.value());
+
+        float[] trace;
+        try {
+          byte[] traceBytes = dbAndHandles.get(COLUMN_FAMILIES.ID_TO_TRACE, encodeTraceKey(scanId, windowId));
+          if (traceBytes == null) {
+            String msg = String.format("Got null byte array back for trace key %d/%d (target: %.6f)",
+                scanId, windowId, targetMZ);
+            LOGGER.error(msg);
+            throw new RuntimeException(msg);
+          }
+          trace = decodeFloatTrace(traceBytes);
+        } catch (RocksDBException e) {
+          LOGGER.error("Caught RocksDBException when trying to extract trace %d/%d (%.6f): %s",
+              scanId, windowId, targetMZ, e.getMessage());
+          throw new RuntimeException(e);
+        }
+
+        if (trace.length != timeCount) {
+          LOGGER.error("Found mismatching trace and times size (%d vs. %d), continuing anyway",
+              trace.length, timeCount);
+        }
+
+        rangesIterator.next();
+        return Pair.of(targetMZ, trace);
+      }
+    };
+  }
+
+  private ScanTraces getLegacyScanTraces(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles)
+      throws IOException, RocksDBException {
+    byte[] timeBytes = dbAndHandles.get(COLUMN_FAMILIES.TIMEPOINTS, TIMEPOINTS_KEY);
+    final double[] times = deserializeDoubleList(timeBytes).stream().mapToDouble(Double::doubleValue).toArray();
+    final Iterator<Pair<Double, List<XZ>>> xzTraces = getIteratorOverLegacyTraces(dbAndHandles);
+
+    // Legacy indexes are rare enough now that we just unbox their traces rather than decode them separately.
+    Iterator<Pair<Double, double[]>> traces = new Iterator<Pair<Double, double[]>>() {
+      @Override
+      public boolean hasNext() {
+        return xzTraces.hasNext();
+      }
+
+      @Override
+      public Pair<Double, double[]> next() {
+        Pair<Double, List<XZ>> targetAndTrace = xzTraces.next();
+        List<XZ> xzs = targetAndTrace.getRight();
+        double[] trace = new double[xzs.size()];
+        for (int i = 0; i < trace.length; i++) {
+          trace[i] = xzs.get(i).getIntensity();
+        }
+        return Pair.of(targetAndTrace.getLeft(), trace);
+      }
+    };
+    return ScanTraces.ofLegacyTraces(times, traces);
+  }
+
+  private static int readFormatVersion(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles) throws RocksDBException {
+    byte[] versionBytes = dbAndHandles.get(COLUMN_FAMILIES.TIMEPOINTS, FORMAT_VERSION_KEY);
+    return versionBytes == null ? LEGACY_FORMAT_VERSION : decodeInt(versionBytes);
+  }
+
+  private static List<String> readScanPaths(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles) throws RocksDBException {
+    byte[] scanPathBytes = dbAndHandles.get(COLUMN_FAMILIES.TIMEPOINTS, SCAN_FILES_KEY);
+    List<String> scanPaths = new ArrayList<>();
+    if (scanPathBytes != null && scanPathBytes.length > 0) {
+      Collections.addAll(scanPaths, new String(scanPathBytes, UTF8).split(SCAN_FILES_SEPARATOR));
+    }
+    return scanPaths;
+  }
+
+  private static List<Double> readTargetsByWindowId(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles)
+      throws RocksDBException {
+    Map<Integer, Double> targetsById = new HashMap<>();
+    RocksDBAndHandles.RocksDBIterator iterator = dbAndHandles.newIterator(COLUMN_FAMILIES.TARGET_TO_WINDOW);
+    for (iterator.reset(); iterator.isValid(); iterator.next()) {
+      targetsById.put(decodeInt(iterator.value()), decodeDouble(iterator.key()));
+    }
+
+    // Window ids are dense, so they can index a list directly.
+    List<Double> targets = new ArrayList<>(targetsById.size());
+    for (int i = 0; i < targetsById.size(); i++) {
+      Double target = targetsById.get(i);
+      if (target == null) {
+        throw new RuntimeException(String.format("Index is missing window %d of %d", i, targetsById.size()));
+      }
+      targets.add(target);
+    }
+    return targets;
+  }
+
+  private Iterator<Pair<Double, List<XZ>>> getIteratorOverLegacyTraces(
+      RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles) throws RocksDBException {
     final RocksDBAndHandles.RocksDBIterator rangesIterator = dbAndHandles.newIterator(COLUMN_FAMILIES.TARGET_TO_WINDOW);
 
     rangesIterator.reset();
@@ -608,4 +998,44 @@ public class TraceIndexExtractor {
     }
     return results;
   }
+
+  static byte[] encodeInt(int val) {
+    return ByteBuffer.allocate(Integer.BYTES).putInt(val).array();
+  }
+
+  static int decodeInt(byte[] bytes) {
+    return ByteBuffer.wrap(bytes).getInt();
+  }
+
+  static byte[] encodeDouble(double val) {
+    return ByteBuffer.allocate(Double.BYTES).putDouble(val).array();
+  }
+
+  static double decodeDouble(byte[] bytes) {
+    return ByteBuffer.wrap(bytes).getDouble();
+  }
+
+  static byte[] encodeTraceKey(int scanId, int windowId) {
+    return ByteBuffer.allocate(2 * Integer.BYTES).putInt(scanId).putInt(windowId).array();
+  }
+
+  /* Float precision (~7 significant digits) is plenty for summed intensities, and halves the size of the traces, which
+   * make up nearly all of an index. */
+  static byte[] encodeFloatTrace(List<Double> vals) {
+    ByteBuffer buffer = ByteBuffer.allocate(vals.size() * Float.BYTES);
+    for (Double val : vals) {
+      buffer.putFloat(val.floatValue());
+    }
+    return buffer.array();
+  }
+
+  static float[] decodeFloatTrace(byte[] bytes) {
+    if (bytes.length % Float.BYTES != 0) {
+      throw new RuntimeException(String.format("Trace byte array length %d is not a multiple of %d",
+          bytes.length, Float.BYTES));
+    }
+    float[] vals = new float[bytes.length / Float.BYTES];
+    ByteBuffer.wrap(bytes).asFloatBuffer().get(vals);
+    return vals;
+  }
 }
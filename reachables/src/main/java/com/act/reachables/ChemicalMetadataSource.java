@@ -0,0 +1,44 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Supplies the extended chemical attributes that are serialized with each node of a reachables tree.  Lookups are
+ * batched so that implementations backed by a database can make one round trip per batch rather than per node.
+ */
+public interface ChemicalMetadataSource {
+  /**
+   * Fetches the extended attributes of a batch of chemicals.
+   * @param ids The ids of the chemicals to fetch, in ascending order.
+   * @return A map from id to the chemical's attributes.  Chemicals that can't be found are absent.
+   * @throws JSONException
+   */
+  Map<Long, JSONObject> fetchChemicalMetadata(List<Long> ids) throws JSONException;
+}
@@ -0,0 +1,157 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * An immutable, array-backed copy of a Tree&lt;Long&gt; for analytics over very large trees.
+ *
+ * The nodes reachable from the roots are renumbered 0..size-1 in breadth-first order, roots first.  This gives two
+ * useful properties:
+ *   - every node's index is greater than its parent's, so a pass over increasing indices sees parents before children
+ *     and a pass over decreasing indices sees children before parents, without recursion or an explicit stack;
+ *   - the children of a node get consecutive indices, so the child lists are stored compressed-sparse-row style as
+ *     just the index of each node's first child.
+ * Children keep the iteration order of the source tree's child sets.
+ */
+class CompactTree {
+  private static final int NO_PARENT = -1;
+
+  private final long[] ids;
+  private final int[] parents;
+  // The children of node i are the indices in [firstChildren[i], firstChildren[i + 1]).
+  private final int[] firstChildren;
+  private final int rootCount;
+
+  // Node ids in ascending order and the index of each, for looking up nodes by id.
+  private final long[] sortedIds;
+  private final int[] sortedIdIndices;
+
+  private CompactTree(long[] ids, int[] parents, int[] firstChildren, int rootCount) {
+    this.ids = ids;
+    this.parents = parents;
+    this.firstChildren = firstChildren;
+    this.rootCount = rootCount;
+
+    // Sorting primitives and then placing each index by binary search avoids boxing millions of indices.
+    this.sortedIds = Arrays.copyOf(ids, ids.length);
+    Arrays.sort(this.sortedIds);
+    for (int i = 1; i < sortedIds.length; i++) {
+      if (sortedIds[i] == sortedIds[i - 1]) {
+        throw new IllegalArgumentException(String.format("Node %d appears more than once in the tree", sortedIds[i]));
+      }
+    }
+    this.sortedIdIndices = new int[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      sortedIdIndices[Arrays.binarySearch(sortedIds, ids[i])] = i;
+    }
+  }
+
+  /**
+   * Copies the part of a tree that is reachable from its roots.
+   * @param tree The tree to copy.
+   * @return A compact copy of the tree.
+   */
+  static CompactTree fromTree(Tree<Long> tree) {
+    // Every node but the roots has a parent, so the reachable nodes can't outnumber all the nodes.
+    int capacity = tree.allNodes().size();
+    long[] ids = new long[capacity];
+    int[] parents = new int[capacity];
+    int[] firstChildren = new int[capacity + 1];
+
+    int size = 0;
+    for (Long root : tree.roots()) {
+      ids[size] = root;
+      parents[size] = NO_PARENT;
+      size++;
+    }
+    int rootCount = size;
+
+    // The id array doubles as the breadth-first queue: node i's children are appended as i is visited.
+    for (int i = 0; i < size; i++) {
+      firstChildren[i] = size;
+      Set<Long> children = tree.getChildren(ids[i]);
+      if (children == null) {
+        continue;
+      }
+      for (Long child : children) {
+        if (size == capacity) {
+          throw new IllegalArgumentException(
+              "Tree has more reachable nodes than nodes with parents, so it must have a cycle or a missing parent");
+        }
+        ids[size] = child;
+        parents[size] = i;
+        size++;
+      }
+    }
+    firstChildren[size] = size;
+
+    return new CompactTree(Arrays.copyOf(ids, size), Arrays.copyOf(parents, size),
+        Arrays.copyOf(firstChildren, size + 1), rootCount);
+  }
+
+  int size() {
+    return ids.length;
+  }
+
+  int rootCount() {
+    return rootCount;
+  }
+
+  long id(int index) {
+    return ids[index];
+  }
+
+  /**
+   * @return The index of the node's parent, or -1 for roots.
+   */
+  int parent(int index) {
+    return parents[index];
+  }
+
+  int firstChild(int index) {
+    return firstChildren[index];
+  }
+
+  /**
+   * @return One past the index of the node's last child.
+   */
+  int childrenEnd(int index) {
+    return firstChildren[index + 1];
+  }
+
+  int childCount(int index) {
+    return firstChildren[index + 1] - firstChildren[index];
+  }
+
+  /**
+   * @return The index of the node with this id, or -1 if it's not in the tree.
+   */
+  int indexOf(long id) {
+    int position = Arrays.binarySearch(sortedIds, id);
+    return position < 0 ? -1 : sortedIdIndices[position];
+  }
+}
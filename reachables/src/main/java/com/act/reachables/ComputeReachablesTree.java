@@ -31,9 +31,13 @@ import act.shared.helpers.MongoDBToJSON;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -41,29 +45,29 @@ import java.util.regex.Pattern;
 
 public class ComputeReachablesTree {
 
-  HashMap<Long, Long> importantAncestor;
+  private static final int NO_ANCESTOR = -1;
+  private static final int ADD_TREE_PROGRESS_INTERVAL = 100000;
+
   HashMap<Long, String> importantClades;
-  HashMap<Long, String> functionalCategory;
-  HashMap<Long, Double> subtreeVal;
-  HashMap<Long, Double> subtreeSz;
-  HashMap<Long, Double> subtreeVendorsSz;
   Tree<Long> tree;
+  // The analytics below are indexed by node position in this compact copy of the tree.
+  CompactTree compactTree;
+  int[] importantAncestor;
+  String[] functionalCategory;
+  double[] subtreeVal;
+  double[] subtreeSz;
+  double[] subtreeVendorsSz;
   private static final TargetSelection SUBSTRUCTURES = new TargetSelection();
   MongoDB db;
 
   ComputeReachablesTree(MongoDB db) {
     this.db = db;
 
-    this.importantAncestor = new HashMap<Long, Long>();
-    this.functionalCategory = new HashMap<Long, String>();
-    this.subtreeVal = new HashMap<Long, Double>();
-    this.subtreeSz = new HashMap<Long, Double>();
-    this.subtreeVendorsSz = new HashMap<Long, Double>();
-
     logProgress("Initiating WavefrontExpansion.expandAndPickParents");
 
     this.tree = new WavefrontExpansion().expandAndPickParents();
     this.tree.ensureForest();
+    this.compactTree = CompactTree.fromTree(this.tree);
 
     logProgress("Initiating initImportantClades");
     initImportantClades();
@@ -72,9 +76,13 @@ public class ComputeReachablesTree {
     // each node TO closest ancestor that has > _significantFanout
     computeImportantAncestors();
 
+    // One batched fetch serves both the prices and the vendor counts below.
+    logProgress("Initiating fetch of vendors and prices for %d nodes\n", this.compactTree.size());
+    Map<Long, Chemical> vendorsAndPrices = fetchVendorsAndPrices();
+
     logProgress("Initiating computeSubtreeValues Sigma prices");
     // each node TO sum of the values of its children + its own value
-    computeSubtreeValues();
+    computeSubtreeValues(vendorsAndPrices);
 
     logProgress("Initiating computeSubtreeSizes");
     // each node TO the size of the subtree rooted under it
@@ -83,7 +91,7 @@ public class ComputeReachablesTree {
     logProgress("Initiating computeSubtreeVendorSizes");
     // each node TO the size of the subtree, i.e.,
     // total # of unique (vendor, subtree chemical) pairs in the subtree
-    computeSubtreeVendorSizes();
+    computeSubtreeVendorSizes(vendorsAndPrices);
 
     boolean singleTree = false;
     if (singleTree) {
@@ -127,147 +135,155 @@ public class ComputeReachablesTree {
   }
 
   private void computeImportantAncestors() {
-    // populate this.importantAncestor
     // for each node the closest ancestor that has > _significantFanout
+    this.importantAncestor = importantAncestors(this.compactTree, GlobalParams.actTreeSignificantFanout);
+    // and the functional category of that ancestor's clade
+    this.functionalCategory = functionalCategories(this.compactTree, this.importantAncestor, this.importantClades);
 
-    // for logging, we keep the ancestor -> subtree set
-    HashMap<Long, Set<Long>> ancestory = new HashMap<Long, Set<Long>>();
-    // init worklist with the roots of the tree
-    List<Long> worklist = new ArrayList<Long>();
-    worklist.addAll(this.tree.roots());
-    // process the worklist
-    while (worklist.size() > 0) {
-      Long elem = worklist.remove(0);
-      if (this.tree.getChildren(elem) != null)
-        for (Long child : this.tree.getChildren(elem))
-          worklist.add(child);
-
-      // now process this elem
-      if (this.tree.getChildren(elem) != null && this.tree.getChildren(elem).size() > GlobalParams.actTreeSignificantFanout) {
-        this.importantAncestor.put(elem, elem); // this node itself is significant so it overrides anything above
-        ancestory.put(elem, new HashSet<Long>());
-        ancestory.get(elem).add(elem);
-      } else {
-        // this elem itself is not significant, so it can possibly inherit from parents.
-        if (this.importantAncestor.containsKey(this.tree.getParent(elem))) {
-          Long impAnc = this.importantAncestor.get(this.tree.getParent(elem));
-          this.importantAncestor.put(elem, impAnc);
-          ancestory.get(impAnc).add(elem);
-        }
-      }
-    }
-    // done
-
-    // now assign to each node a functional category Fcat:
-    // 1. find for each important ancestor its Fcat:
-    //     Look it up in importantClades
-    //    (either the ancestor directly will have an entry OR need to follow its parents until we find one that has an entry)
-    // 2. Assign all the children (gotten from the ancestory map) Fcat
-
-    for (Long ancestor : ancestory.keySet()) {
-      // 1. find for each important ancestor its Fcat
-      String Fcat = this.importantClades.get(ancestor);
-      if (Fcat == null) {
-        // ancestor is not directly tagged an important functional category "head",
-        // therefore, we need to go up to its parents until we find one.
-        Long hasFcat = ancestor;
-        while (hasFcat != null && (Fcat = this.importantClades.get(hasFcat)) == null) {
-          hasFcat = this.tree.getParent(hasFcat);
+    if (GlobalParams.actTreeDumpClades) {
+      // for logging, we group the nodes by ancestor: ancestor -> subtree set
+      Map<Integer, List<Integer>> ancestory = new LinkedHashMap<>();
+      for (int i = 0; i < this.compactTree.size(); i++) {
+        int ancestor = this.importantAncestor[i];
+        if (ancestor != NO_ANCESTOR) {
+          ancestory.computeIfAbsent(ancestor, k -> new ArrayList<>()).add(i);
         }
-        // at the end of this either a) we reached the root, and hasFcat got to null,
-        // or b) Fcat != null and so we have an assignment
-      }
-
-      // 2. Assign all the children (gotten from the ancestory map) Fcat
-      for (Long n : ancestory.get(ancestor)) {
-        this.functionalCategory.put(n, Fcat == null ? "unknown" : Fcat);
       }
-    }
 
-    if (GlobalParams.actTreeDumpClades) {
       // diagnostic dump:
       logProgress("-------------------------------------------------------------");
       logProgress("Main branchoff point\tID\tNames");
       logProgress("-------------------------------------------------------------");
-      for (Long ancestor : ancestory.keySet()) {
-        if (this.tree.roots().contains(ancestor))
+      for (Map.Entry<Integer, List<Integer>> entry : ancestory.entrySet()) {
+        if (this.compactTree.parent(entry.getKey()) == -1)
           continue;
         logProgress("\n\n");
-        for (Long e : ancestory.get(ancestor)) {
-          logProgress("%d\t%d\t%s\n", ancestor, e, getNames(e));
+        long ancestorId = this.compactTree.id(entry.getKey());
+        for (Integer e : entry.getValue()) {
+          long id = this.compactTree.id(e);
+          logProgress("%d\t%d\t%s\n", ancestorId, id, getNames(id));
         }
       }
       logProgress("-------------------------------------------------------------");
     }
   }
 
-  class InorderTraverseCountSubtreeSz extends InorderTraverse<Long> {
-    InorderTraverseCountSubtreeSz(Tree<Long> t) { super(t); }
-
-    @Override
-    Double nodeValue(Double initVal, List<Double> childrenVals) {
-      Double sum = initVal;
-      for (Double s : childrenVals) sum += s;
-      return sum;
+  /**
+   * Finds each node's important ancestor: the closest node at or above it that has more than `fanout` children.
+   * A single pass in index order suffices, as parents always precede their children in a CompactTree.
+   * @param tree The tree to analyze.
+   * @param fanout The number of children a node must exceed to be important.
+   * @return The index of each node's important ancestor, or -1 where there is none.
+   */
+  static int[] importantAncestors(CompactTree tree, int fanout) {
+    int[] ancestors = new int[tree.size()];
+    for (int i = 0; i < ancestors.length; i++) {
+      int parent = tree.parent(i);
+      if (tree.childCount(i) > fanout) {
+        ancestors[i] = i; // this node itself is significant so it overrides anything above
+      } else {
+        // this node itself is not significant, so it can possibly inherit from its parent.
+        ancestors[i] = parent == -1 ? NO_ANCESTOR : ancestors[parent];
+      }
     }
+    return ancestors;
   }
 
-  private void computeSubtreeVendorSizes() {
-    HashMap<Long, Double> vendors_val = new HashMap<Long, Double>();
-    for (Long n : this.tree.allNodes()) {
-      Chemical c = this.db.getChemicalFromChemicalUUID(n);
-      if (c == null)
-        vendors_val.put(n, 0.0);
-      else
-        vendors_val.put(n, new Double(c.getChemSpiderNumUniqueVendors()));
+  /**
+   * Assigns each node that has an important ancestor the functional category of that ancestor, which is the category
+   * of the closest clade at or above the ancestor, or "unknown" if there is none.
+   * @param tree The tree to analyze.
+   * @param ancestors The important ancestors, as computed by importantAncestors.
+   * @param clades A map from the ids of the heads of important clades to their category names.
+   * @return The functional category of each node, or null for nodes without an important ancestor.
+   */
+  static String[] functionalCategories(CompactTree tree, int[] ancestors, Map<Long, String> clades) {
+    // The category of the closest clade head at or above each node, pushed down from the roots in one pass.
+    String[] nearestClade = new String[tree.size()];
+    for (int i = 0; i < nearestClade.length; i++) {
+      String clade = clades.get(tree.id(i));
+      int parent = tree.parent(i);
+      nearestClade[i] = clade != null || parent == -1 ? clade : nearestClade[parent];
     }
-    InorderTraverseCountSubtreeSz traversal = new InorderTraverseCountSubtreeSz(this.tree);
-    for (Long root : this.tree.roots()) {
-      traversal.exec(root,
-          vendors_val /* input values: node->#uniq_vendors */,
-          this.subtreeVendorsSz/* output values: node->subtree_value */);
+
+    String[] categories = new String[tree.size()];
+    for (int i = 0; i < categories.length; i++) {
+      if (ancestors[i] != NO_ANCESTOR) {
+        String category = nearestClade[ancestors[i]];
+        categories[i] = category == null ? "unknown" : category;
+      }
     }
+    return categories;
   }
 
-  private void computeSubtreeSizes() {
-    HashMap<Long, Double> ident = new HashMap<Long, Double>();
-    for (Long n : this.tree.allNodes()) ident.put(n, 1.0);
-    InorderTraverseCountSubtreeSz traversal = new InorderTraverseCountSubtreeSz(this.tree);
-    for (Long root : this.tree.roots()) {
-      traversal.exec(root,
-          ident /* input values: node->1 */,
-          this.subtreeSz/* output values: node->subtree_value */);
+  /**
+   * Sums values over every subtree.  A single pass in reverse index order suffices, as children always follow their
+   * parents in a CompactTree.  Children are added in order before their parent's own value, so that the sums round
+   * exactly as the recursive traversal this replaces did.
+   * @param tree The tree to analyze.
+   * @param values The value of each node.
+   * @return The sum of the values in the subtree rooted at each node.
+   */
+  static double[] subtreeSums(CompactTree tree, double[] values) {
+    double[] sums = new double[tree.size()];
+    for (int i = sums.length - 1; i >= 0; i--) {
+      double childrenSum = 0.0;
+      for (int child = tree.firstChild(i); child < tree.childrenEnd(i); child++) {
+        childrenSum += sums[child];
+      }
+      sums[i] = values[i] + childrenSum;
     }
+    return sums;
   }
 
-  class InorderTraverseWithSubtreeSum extends InorderTraverse<Long> {
-    InorderTraverseWithSubtreeSum(Tree<Long> t) { super(t); }
-
-    @Override
-    Double nodeValue(Double initVal, List<Double> childrenVals) {
-      Double sum = 0.0;
-      for (Double s : childrenVals)
-        sum += s;
-      return initVal + sum;
+  Map<Long, Chemical> fetchVendorsAndPrices() {
+    List<Long> ids = new ArrayList<>(this.compactTree.size());
+    for (int i = 0; i < this.compactTree.size(); i++) {
+      ids.add(this.compactTree.id(i));
     }
+    return this.db.getChemicalVendorsAndPricesFromChemicalUUIDs(ids);
+  }
+
+  private void computeSubtreeVendorSizes(Map<Long, Chemical> vendorsAndPrices) {
+    this.subtreeVendorsSz = subtreeSums(this.compactTree, nodeVendorCounts(this.compactTree, vendorsAndPrices));
   }
 
-  private void computeSubtreeValues() {
-    HashMap<Long, Double> nodeValues = getIndividualNodePrices();
-    InorderTraverseWithSubtreeSum traversal = new InorderTraverseWithSubtreeSum(this.tree);
-    for (Long root : this.tree.roots()) {
-      traversal.exec(root,
-          nodeValues /* input values: node->node_value */,
-          this.subtreeVal/* output values: node->subtree_value */);
+  /**
+   * @param tree The tree whose nodes to look up.
+   * @param vendorsAndPrices Chemicals by id, as fetched by MongoDB.getChemicalVendorsAndPricesFromChemicalUUIDs.
+   * @return The number of unique vendors of each node's chemical, or 0 for chemicals that weren't found.
+   */
+  static double[] nodeVendorCounts(CompactTree tree, Map<Long, Chemical> vendorsAndPrices) {
+    double[] vendors = new double[tree.size()];
+    for (int i = 0; i < vendors.length; i++) {
+      Chemical c = vendorsAndPrices.get(tree.id(i));
+      vendors[i] = c == null ? 0.0 : c.getChemSpiderNumUniqueVendors().doubleValue();
     }
+    return vendors;
   }
 
-  private HashMap<Long, Double> getIndividualNodePrices() {
-    HashMap<Long, Double> nodePrices = new HashMap<Long, Double>();
+  private void computeSubtreeSizes() {
+    double[] ident = new double[this.compactTree.size()];
+    Arrays.fill(ident, 1.0);
+    this.subtreeSz = subtreeSums(this.compactTree, ident);
+  }
+
+  private void computeSubtreeValues(Map<Long, Chemical> vendorsAndPrices) {
     REFS which = GlobalParams.pullPricesFrom() == GlobalParams._PricesFrom[0] ? REFS.SIGMA : REFS.DRUGBANK;
-    for (Long n : this.tree.allNodes()) {
+    this.subtreeVal = subtreeSums(this.compactTree, getIndividualNodePrices(this.compactTree, vendorsAndPrices, which));
+  }
+
+  /**
+   * @param tree The tree whose nodes to look up.
+   * @param vendorsAndPrices Chemicals by id, as fetched by MongoDB.getChemicalVendorsAndPricesFromChemicalUUIDs.
+   * @param which The source of prices, SIGMA or DRUGBANK.
+   * @return The price of each node's chemical, or 0 for chemicals that weren't found or have no price.
+   */
+  static double[] getIndividualNodePrices(CompactTree tree, Map<Long, Chemical> vendorsAndPrices, REFS which) {
+    double[] nodePrices = new double[tree.size()];
+    for (int i = 0; i < nodePrices.length; i++) {
       Double price = 0.0;
-      Chemical c = this.db.getChemicalFromChemicalUUID(n);
+      Chemical c = vendorsAndPrices.get(tree.id(i));
       if (c != null) {
         if (c.getRef(which) != null) { // else price stays 0.0
           price = c.getRefMetric(which);
@@ -275,7 +291,7 @@ public class ComputeReachablesTree {
             price = 0.0;
         }
       }
-      nodePrices.put(n, price);
+      nodePrices[i] = price;
     }
     return nodePrices;
   }
@@ -288,36 +304,37 @@ public class ComputeReachablesTree {
   private void addTreeSingleRoot() {
     HashMap<Long, Node> nodes = new HashMap<Long, Node>();
 
-    for (Long root : this.tree.roots()) {
+    for (int r = 0; r < this.compactTree.rootCount(); r++) {
+      Long root = this.compactTree.id(r);
       Node tree_root = Node.get(root, true);
       nodes.put(root, tree_root);
       ActData.instance().ActTree.addNodeTreeSpecific(tree_root, root, 0, null /* root of single tree */);
       setRootAttributes(tree_root, -1);
 
-      addTreeUnder(null, root, 0, nodes, root);
+      addTreeUnder(null, r, 0, nodes, root);
     }
     logProgress("\nDone addTreeSingleRoot");
   }
 
-  private void addTreeNativeRoots() {
+  void addTreeNativeRoots() {
     HashMap<Long, Node> nodes = new HashMap<Long, Node>();
 
-    for (Long root : this.tree.roots()) {
-      // This conditional will prevent a null pointer exception from happening where we try to iterate through a
-      // parent's children.
-      if (this.tree.getChildren(root) == null) {
+    for (int r = 0; r < this.compactTree.rootCount(); r++) {
+      // Roots without children have nothing to add.
+      if (this.tree.getChildren(this.compactTree.id(r)) == null) {
         logProgress("Tree does not have any children, so ignore it");
         continue;
       }
 
       // instead of adding the root as the central hub, we add a separate tree for each
       // native/cofactor (which should all be the children of the root)
-      for (Long nativ : this.tree.getChildren(root)) {
-        Node native_center = Node.get(nativ, true);
-        nodes.put(nativ, native_center);
-        ActData.instance().ActTree.addNodeTreeSpecific(native_center, nativ, 0, null /* root of disjoint tree */);
+      for (int nativ = this.compactTree.firstChild(r); nativ < this.compactTree.childrenEnd(r); nativ++) {
+        Long nativId = this.compactTree.id(nativ);
+        Node native_center = Node.get(nativId, true);
+        nodes.put(nativId, native_center);
+        ActData.instance().ActTree.addNodeTreeSpecific(native_center, nativId, 0, null /* root of disjoint tree */);
         // setRootAttributes(tree_root, -1);
-        addTreeUnder(null, nativ, 0, nodes, nativ);
+        addTreeUnder(null, nativ, 0, nodes, nativId);
       }
     }
     logProgress("\nDone addTreeNativeRoots");
@@ -325,54 +342,71 @@ public class ComputeReachablesTree {
 
   int addTreeUnderCallCount = 0;
 
-  private void addTreeUnder(Long parentid, Long n, Integer atlayer, HashMap<Long, Node> nodes, Long root) {
-    addTreeUnderCallCount++;
-    logProgress("com.act.reachables.ComputeReachablesTree: Num nodeMapping added to tree (TODO: speedup): %d\r", addTreeUnderCallCount);
-
-    // more than one child, it makes sense to add this node as a branch off point.
-    Node node = Node.get(n, true);
-    ActData.instance().ActTree.addNodeTreeSpecific(node, n, atlayer, parentid);
-    nodes.put(n, node);
-    @SuppressWarnings("unchecked")
-    HashMap<String, Integer> attr = (HashMap<String, Integer>)this.tree.nodeAttributes.get(n);
-    // need to add if layer == 1 then globalLayer->1, hostLayer=getHostLayerOf(n) else globalLayer->layer, hostLayer=-1
-    setNodeAttributes(node, n, attr, root);
-
-    // add edge to parent
-    if (parentid != null) {
-      Node parentnode = Node.get(parentid, false);
-      Edge to_parent_edge = Edge.get(node, parentnode, true);
-      ActData.instance().ActTree.addEdgeTreeSpecific(to_parent_edge, node.id);
-      Integer globalLayer = attr.get("globalLayer");
-      double globalLayerPositive = Integer.valueOf(2 + (globalLayer != null ? globalLayer : 0)).doubleValue(); // make sure it is a positive number.
-      Edge.setAttribute(to_parent_edge, "globalLayerPositive", globalLayerPositive);
-      Edge.setAttribute(to_parent_edge, "globalLayerPositive_inv", 1.0/globalLayerPositive);
-      Edge.setAttribute(to_parent_edge, "functionalCategory", this.functionalCategory.get(n) != null ? this.functionalCategory.get(n) : "");
-      Edge.setAttribute(to_parent_edge, "importantAncestor", this.importantAncestor.get(n) != null ? "" + this.importantAncestor.get(n): "");
-      Edge.setAttribute(to_parent_edge, "under_root", root);
+  // A node still to be added by addTreeUnder, with the parent it is to be attached to.
+  private static class PendingTreeNode {
+    final Long parentid;
+    final int index;
+    final int atlayer;
+
+    PendingTreeNode(Long parentid, int index, int atlayer) {
+      this.parentid = parentid;
+      this.index = index;
+      this.atlayer = atlayer;
     }
+  }
 
-    Set<Long> children = this.tree.getChildren(n);
+  /**
+   * Adds the subtree rooted at a node to the ActTree, in the same depth-first preorder as a recursive walk, but with an
+   * explicit stack so that deep trees can't overflow the call stack.
+   */
+  private void addTreeUnder(Long rootParentid, int rootIndex, Integer rootLayer, HashMap<Long, Node> nodes, Long root) {
+    Deque<PendingTreeNode> stack = new ArrayDeque<>();
+    stack.push(new PendingTreeNode(rootParentid, rootIndex, rootLayer));
+
+    while (!stack.isEmpty()) {
+      PendingTreeNode pending = stack.pop();
+      Long parentid = pending.parentid;
+      int index = pending.index;
+      int atlayer = pending.atlayer;
+      Long n = this.compactTree.id(index);
+
+      addTreeUnderCallCount++;
+      if (addTreeUnderCallCount % ADD_TREE_PROGRESS_INTERVAL == 0) {
+        logProgress("Num nodeMapping added to tree: %d\r", addTreeUnderCallCount);
+      }
 
-    int num_children_added = 0;
-    if (children != null && children.size() <= GlobalParams.actTreeCompressNodesWithChildrenLessThan) {
-      // only one child, so this node is just a connector node,
-      // skip it and connect child directly to parent
-      for (Long ch : children)
-        addTreeUnder(parentid, ch, atlayer + 1, nodes, root); // notice that we leave the parent as "parent" and not "n"
+      // more than one child, it makes sense to add this node as a branch off point.
+      Node node = Node.get(n, true);
+      ActData.instance().ActTree.addNodeTreeSpecific(node, n, atlayer, parentid);
+      nodes.put(n, node);
+      @SuppressWarnings("unchecked")
+      HashMap<String, Integer> attr = (HashMap<String, Integer>)this.tree.nodeAttributes.get(n);
+      // need to add if layer == 1 then globalLayer->1, hostLayer=getHostLayerOf(n) else globalLayer->layer, hostLayer=-1
+      setNodeAttributes(node, index, attr, root);
+
+      // add edge to parent
+      if (parentid != null) {
+        Node parentnode = Node.get(parentid, false);
+        Edge to_parent_edge = Edge.get(node, parentnode, true);
+        ActData.instance().ActTree.addEdgeTreeSpecific(to_parent_edge, node.id);
+        Integer globalLayer = attr.get("globalLayer");
+        double globalLayerPositive = Integer.valueOf(2 + (globalLayer != null ? globalLayer : 0)).doubleValue(); // make sure it is a positive number.
+        Edge.setAttribute(to_parent_edge, "globalLayerPositive", globalLayerPositive);
+        Edge.setAttribute(to_parent_edge, "globalLayerPositive_inv", 1.0/globalLayerPositive);
+        Edge.setAttribute(to_parent_edge, "functionalCategory", functionalCategoryOf(index));
+        Edge.setAttribute(to_parent_edge, "importantAncestor", importantAncestorOf(index));
+        Edge.setAttribute(to_parent_edge, "under_root", root);
+      }
 
-      // IMP: num_children_added to this node remains 0
-    } else {
-      // recurse to all children
-      if (children != null)
-        for (Long ch : children) {
-          addTreeUnder(node.id, ch, atlayer + 1, nodes, root);
-          num_children_added++;
-        }
+      // Children are pushed last to first so that they are popped, and so added, in order.
+      int firstChild = this.compactTree.firstChild(index);
+      int numChildren = this.compactTree.childCount(index);
+      // if this node is just a connector node, skip it and connect its children directly to its parent
+      Long childrensParent = numChildren <= GlobalParams.actTreeCompressNodesWithChildrenLessThan ? parentid : node.id;
+      for (int ch = this.compactTree.childrenEnd(index) - 1; ch >= firstChild; ch--) {
+        stack.push(new PendingTreeNode(childrensParent, ch, atlayer + 1));
+      }
     }
-
-    // if (num_children_added == 0 && (parentid != null && parentid == -1))
-    //   Node.setAttribute(node, "centralAndWithNoChild", true);
   }
 
   private void setRootAttributes(Node n, int layer) {
@@ -387,26 +421,35 @@ public class ComputeReachablesTree {
     Node.setAttribute(n.getIdentifier(), "globalLayer", layer);
   }
 
-  private void setNodeAttributes(Node n, Long nid, HashMap<String, Integer> attributes, Long root) {
+  private String functionalCategoryOf(int index) {
+    return this.functionalCategory[index] != null ? this.functionalCategory[index] : "";
+  }
+
+  private String importantAncestorOf(int index) {
+    int ancestor = this.importantAncestor[index];
+    return ancestor != NO_ANCESTOR ? "" + this.compactTree.id(ancestor) : "";
+  }
+
+  private void setNodeAttributes(Node n, int index, HashMap<String, Integer> attributes, Long root) {
+    Long nid = this.compactTree.id(index);
     Chemical c = this.db.getChemicalFromChemicalUUID(nid);
     String txt = null;
 
     for (String key : attributes.keySet())
       Node.setAttribute(n.getIdentifier(), key, attributes.get(key));
-    Node.setAttribute(n.getIdentifier(), "subtreeSz", this.subtreeSz.get(nid) != null ? this.subtreeSz.get(nid) : -1);
-    Node.setAttribute(n.getIdentifier(), "subtreeVendorsSz", this.subtreeVendorsSz.get(nid) != null ? this.subtreeVendorsSz.get(nid) : -1);
-    Node.setAttribute(n.getIdentifier(), "subtreeValue", this.subtreeVal.get(nid) != null ? this.subtreeVal.get(nid) : -1);
-    Double subtreeValueIncrement = subtreeValueIncrement(nid);
-    if (subtreeValueIncrement != null)
-      Node.setAttribute(n.getIdentifier(), "subtreeValueIncrement", subtreeValueIncrement);
-    if (subtreeValueIncrement != null && subtreeValueIncrement > 0.0)
+    Node.setAttribute(n.getIdentifier(), "subtreeSz", this.subtreeSz[index]);
+    Node.setAttribute(n.getIdentifier(), "subtreeVendorsSz", this.subtreeVendorsSz[index]);
+    Node.setAttribute(n.getIdentifier(), "subtreeValue", this.subtreeVal[index]);
+    Double subtreeValueIncrement = subtreeValueIncrement(index);
+    Node.setAttribute(n.getIdentifier(), "subtreeValueIncrement", subtreeValueIncrement);
+    if (subtreeValueIncrement > 0.0)
       Node.setAttribute(n.getIdentifier(), "subtreeValueIncrementLog", Math.log(subtreeValueIncrement));
-    Node.setAttribute(n.getIdentifier(), "functionalCategory", this.functionalCategory.get(nid) != null ? this.functionalCategory.get(nid) : "");
-    Node.setAttribute(n.getIdentifier(), "importantAncestor", this.importantAncestor.get(nid) != null ? "" + this.importantAncestor.get(nid) : "");
+    Node.setAttribute(n.getIdentifier(), "functionalCategory", functionalCategoryOf(index));
+    Node.setAttribute(n.getIdentifier(), "importantAncestor", importantAncestorOf(index));
     Node.setAttribute(n.getIdentifier(), "num_children", this.tree.getChildren(nid) != null ? this.tree.getChildren(nid).size() : 0);
     Node.setAttribute(n.getIdentifier(), "parent", this.tree.getParent(nid) != null ? this.tree.getParent(nid) : -1);
     Node.setAttribute(n.getIdentifier(), "under_root", root);
-    if (this.importantAncestor.get(nid) != null && this.importantAncestor.get(nid) == nid)
+    if (this.importantAncestor[index] == index)
       Node.setAttribute(n.getIdentifier(), "owns_clade", true);
     if (txt != null) Node.setAttribute(n.getIdentifier(), "fulltxt", txt);
     if (c != null) {
@@ -576,24 +619,14 @@ public class ComputeReachablesTree {
     urlArr.put(url);
   }
 
-  private Double subtreeValueIncrement(Long nid) {
-    if (this.subtreeVal.get(nid) == null)
-      return null;
-    Double nodeVal = this.subtreeVal.get(nid);
-    if (this.tree.getChildren(nid) != null) {
-      // if there are some children then nodeVal := its value - max (children's val)
-      Double max = 0.0;
-      for (Long ch : this.tree.getChildren(nid)) {
-        Double chVal = this.subtreeVal.get(ch);
-        if (chVal != null)
-          max = Math.max(max, chVal);
-      }
-      nodeVal -= max;
-      // by defn, since the subtreeVal are cummulative sums, subtracting the
-      // max child will not result in a negative val, so logs can be safely taken
-    }
-
-    return nodeVal;
+  private Double subtreeValueIncrement(int index) {
+    // nodeVal := its value - max (children's val), or just its value if there are no children
+    double max = 0.0;
+    for (int ch = this.compactTree.firstChild(index); ch < this.compactTree.childrenEnd(index); ch++)
+      max = Math.max(max, this.subtreeVal[ch]);
+    // by defn, since the subtreeVal are cummulative sums, subtracting the
+    // max child will not result in a negative val, so logs can be safely taken
+    return this.subtreeVal[index] - max;
   }
 
   private static String[] getReadableName(String inchi, List<String> brendaNames, List<String> synonyms) {
@@ -0,0 +1,299 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams a reachables forest to JSON in the same nested format as JSONDisjointTrees, without building the tree of
+ * JSONObjects in memory.
+ *
+ * Nodes are written in depth-first order, each as soon as it is reached, so the writer holds just one stack frame per
+ * level of the tree on top of the (primitive) child index it builds over the node ids.  Chemical metadata is fetched
+ * ahead of the writer in batches of consecutive nodes, sorted by id, so a database-backed source needs one lookup per
+ * batch rather than one per node.
+ */
+public class JSONDisjointTreesWriter {
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private ChemicalMetadataSource metadataSource;
+  private int batchSize;
+
+  public JSONDisjointTreesWriter(ChemicalMetadataSource metadataSource) {
+    this(metadataSource, DEFAULT_BATCH_SIZE);
+  }
+
+  public JSONDisjointTreesWriter(ChemicalMetadataSource metadataSource, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException(String.format("Batch size must be positive, but was %d", batchSize));
+    }
+    this.metadataSource = metadataSource;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Writes a tree as pretty-printed JSON.  The stream is flushed but not closed.
+   * @param tree The tree to write.
+   * @param out The stream to write to.
+   * @throws IOException
+   * @throws JSONException
+   */
+  public void write(Network tree, OutputStream out) throws IOException, JSONException {
+    write(tree.parents, tree.toParentEdge, out);
+  }
+
+  void write(Map<Long, Long> parentIds, Map<Long, Edge> toParentEdges, OutputStream out)
+      throws IOException, JSONException {
+    ChildIndex index = new ChildIndex(parentIds);
+    int rootCount = index.childCount(index.virtualRoot());
+    if (rootCount == 0) {
+      throw new RuntimeException("All nodeMapping have parents! Where is the root? Abort.");
+    }
+
+    DepthFirstCursor writeCursor = new DepthFirstCursor(index);
+    MetadataPrefetcher prefetcher = new MetadataPrefetcher(index);
+
+    JsonGenerator generator = JSON_FACTORY.createGenerator(out);
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    generator.useDefaultPrettyPrinter();
+
+    // As in JSONDisjointTrees, a forest is written as the children of a proxy root.
+    if (rootCount > 1) {
+      generator.writeStartObject();
+      generator.writeStringField("name", "root");
+      generator.writeArrayFieldStart("children");
+    }
+
+    while (writeCursor.advance()) {
+      int node = writeCursor.node();
+      boolean hasChildren = index.childCount(node) > 0;
+      if (writeCursor.isEntering()) {
+        Long nid = index.id(node);
+        JSONObject nObj = JSONHelper.nodeObj(prefetcher.next(), Node.get(nid, false));
+        nObj.put("name", nid);
+        if (toParentEdges.get(nid) != null) {
+          nObj.put("edge_up", JSONHelper.edgeObj(toParentEdges.get(nid), null /* no ordering reqd for trees */));
+        }
+
+        generator.writeStartObject();
+        writeFields(generator, nObj);
+        if (hasChildren) {
+          generator.writeArrayFieldStart("children");
+        }
+      } else {
+        if (hasChildren) {
+          generator.writeEndArray();
+        }
+        generator.writeEndObject();
+      }
+    }
+
+    if (rootCount > 1) {
+      generator.writeEndArray();
+      generator.writeEndObject();
+    }
+    generator.flush();
+  }
+
+  private static void writeFields(JsonGenerator generator, JSONObject obj) throws IOException, JSONException {
+    String[] names = JSONObject.getNames(obj);
+    if (names == null) {
+      return;
+    }
+    for (String name : names) {
+      // Values are small (mostly strings and flat objects), so org.json's serialization of each is passed through.
+      generator.writeFieldName(name);
+      generator.writeRawValue(JSONObject.valueToString(obj.get(name)));
+    }
+  }
+
+  /**
+   * Hands out node metadata in depth-first order, fetching it a batch at a time with a cursor that runs ahead of the
+   * writer over the same traversal.
+   */
+  private class MetadataPrefetcher {
+    private ChildIndex index;
+    private DepthFirstCursor lookahead;
+    private List<Long> batchIds = Collections.emptyList();
+    private Map<Long, JSONObject> batch = Collections.emptyMap();
+    private int position = 0;
+
+    MetadataPrefetcher(ChildIndex index) {
+      this.index = index;
+      this.lookahead = new DepthFirstCursor(index);
+    }
+
+    /**
+     * @return The metadata of the next node in depth-first order, or an empty object if there is none.
+     */
+    JSONObject next() throws JSONException {
+      if (position == batchIds.size()) {
+        fetchNextBatch();
+      }
+      JSONObject metadata = batch.get(batchIds.get(position++));
+      return metadata == null ? new JSONObject() : metadata;
+    }
+
+    private void fetchNextBatch() throws JSONException {
+      List<Long> ids = new ArrayList<>(batchSize);
+      while (ids.size() < batchSize && lookahead.advance()) {
+        if (lookahead.isEntering()) {
+          ids.add(index.id(lookahead.node()));
+        }
+      }
+      // Ids are handed out in traversal order, but requested in id order.
+      List<Long> sortedIds = new ArrayList<>(ids);
+      Collections.sort(sortedIds);
+      batch = metadataSource.fetchChemicalMetadata(sortedIds);
+      batchIds = ids;
+      position = 0;
+    }
+  }
+
+  /**
+   * The children of every node, stored compressed-sparse-row style over the node ids in ascending order.  Children
+   * and roots are in ascending id order, and the roots are stored as the children of a virtual root that follows the
+   * real nodes.  Nodes whose parent isn't in the tree are treated as roots, as JSONDisjointTrees does.
+   */
+  private static class ChildIndex {
+    private long[] ids;
+    // The children of node i are children[firstChildren[i]] .. children[firstChildren[i + 1] - 1].
+    private int[] firstChildren;
+    private int[] children;
+
+    ChildIndex(Map<Long, Long> parentIds) {
+      ids = new long[parentIds.size()];
+      int i = 0;
+      for (Long id : parentIds.keySet()) {
+        ids[i++] = id;
+      }
+      Arrays.sort(ids);
+
+      int[] parents = new int[ids.length];
+      firstChildren = new int[ids.length + 2];
+      for (i = 0; i < ids.length; i++) {
+        Long parentId = parentIds.get(ids[i]);
+        int parent = parentId == null ? -1 : Arrays.binarySearch(ids, parentId);
+        parents[i] = parent < 0 ? virtualRoot() : parent;
+        firstChildren[parents[i] + 1]++;
+      }
+      for (i = 1; i < firstChildren.length; i++) {
+        firstChildren[i] += firstChildren[i - 1];
+      }
+
+      children = new int[ids.length];
+      int[] nextSlot = Arrays.copyOf(firstChildren, firstChildren.length);
+      for (i = 0; i < ids.length; i++) {
+        children[nextSlot[parents[i]]++] = i;
+      }
+    }
+
+    int virtualRoot() {
+      return ids.length;
+    }
+
+    long id(int node) {
+      return ids[node];
+    }
+
+    int childCount(int node) {
+      return firstChildren[node + 1] - firstChildren[node];
+    }
+  }
+
+  /**
+   * Walks a ChildIndex depth first from its virtual root, stopping at each real node once on the way down and once on
+   * the way back up.  Only the current path is kept, so memory is proportional to the depth of the tree.
+   */
+  private static class DepthFirstCursor {
+    private ChildIndex index;
+    private int[] pathNodes = new int[16];
+    // The position in ChildIndex.children of the next child to visit, for each node on the path.
+    private int[] pathNextChildren = new int[16];
+    private int depth = 0;
+    private int node;
+    private boolean entering;
+
+    DepthFirstCursor(ChildIndex index) {
+      this.index = index;
+      push(index.virtualRoot());
+    }
+
+    /**
+     * @return False once the whole tree has been walked.
+     */
+    boolean advance() {
+      if (depth == 0) {
+        return false;
+      }
+      int top = depth - 1;
+      int parent = pathNodes[top];
+      if (pathNextChildren[top] < index.firstChildren[parent + 1]) {
+        node = index.children[pathNextChildren[top]++];
+        entering = true;
+        push(node);
+        return true;
+      }
+
+      depth--;
+      if (parent == index.virtualRoot()) {
+        return false;
+      }
+      node = parent;
+      entering = false;
+      return true;
+    }
+
+    int node() {
+      return node;
+    }
+
+    boolean isEntering() {
+      return entering;
+    }
+
+    private void push(int node) {
+      if (depth == pathNodes.length) {
+        pathNodes = Arrays.copyOf(pathNodes, depth * 2);
+        pathNextChildren = Arrays.copyOf(pathNextChildren, depth * 2);
+      }
+      pathNodes[depth] = node;
+      pathNextChildren[depth] = index.firstChildren[node];
+      depth++;
+    }
+  }
+}
@@ -28,7 +28,9 @@ import act.server.MongoDB;
 import act.shared.Chemical;
 import act.shared.Chemical.REFS;
 import act.shared.Reaction;
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.json.JSONArray;
@@ -43,6 +45,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -51,6 +57,9 @@ public class LoadAct extends SteppedTask {
   private static String _fileloc = "com.act.reachables.LoadAct";
 
   private static final boolean SET_METADATA_ON_NW_NODES = false;
+  // Chemicals are fetched with one query per batch of ids.
+  private static final int CHEMICAL_BATCH_SIZE = 10000;
+  private static final Pattern ABSTRACT_INCHI_PATTERN = Pattern.compile("^InChI=1S\\/[A-Z0-9]*R");
 
   private static final String DEFAULT_DB_HOST = "localhost";
   private static final int DEFAULT_PORT = 27017;
@@ -443,82 +452,193 @@ public class LoadAct extends SteppedTask {
   }
 
   private void pullChemicalsReferencedInRxns() {
-    int N = ActData.instance().chemsReferencedInRxns.size();
-    int count = 0;
-    logProgress("Extracting metadata from chemicals.");
-    for (Long id : ActData.instance().chemsReferencedInRxns) {
-      logProgress("\t pullChemicalsReferencedInRxns: %d\r", count++);
-      Chemical c = this.db.getChemicalFromChemicalUUID(id);
-      ActData.instance().chemInchis.put(c.getInChI(), id);
-      ActData.instance().chemId2Inchis.put(id, c.getInChI());
-      ActData.instance().chemIdIsAbstraction.put(id, isAbstractInChI(c.getInChI()));
-      String name = c.getShortestBRENDAName();
-      if (name == null) {
-        // see if there is a metacyc name:
-        Object meta = c.getRef(Chemical.REFS.METACYC, new String[] { "meta" });
-        if (meta != null) {
-          // if we are here, the entry was referenced in metacyc, so must
-          // have some name association there. see if we can pull that out.
-
-          // the xref.METACYC.meta field should *always* be a JSONArray
-          // (even if its an array with a single JSONObject within it)
-          // sanity check that, and abort if the type does not match
-          if (!(meta instanceof JSONArray)) {
-            throw new RuntimeException("Expect only Arrays in db.chemicals.{xref.METACYC.meta}, but found: " + meta.getClass());
-          }
-
-          name = ((JSONObject) ((JSONArray)meta).get(0) ).getString("sname");
-
-          // if failed to pull out a name from metacyc, report it
-          if (name == null)
-            System.out.println("ERROR: Looks like a metacyc entry chemical, but no metacyc name: " + id);
+    List<Long> ids = new ArrayList<>(ActData.instance().chemsReferencedInRxns);
+    logProgress("Extracting metadata from %d chemicals.\n", ids.size());
+    // The whole chemical is needed to set metadata on the network nodes; otherwise just the fields summarize reads.
+    BasicDBObject fields = SET_METADATA_ON_NW_NODES ? null : chemicalSummaryFields();
+    hydrateChemicals(this.db, ids, fields, CHEMICAL_BATCH_SIZE, Runtime.getRuntime().availableProcessors(),
+        this::installChemicalSummary);
+    logProgress("");
+  }
+
+  /**
+   * The parts of a chemical that LoadAct records in ActData.
+   */
+  static class ChemicalSummary {
+    final Long id;
+    final Chemical chemical;
+    final boolean isAbstraction;
+    final String readableName;
+    // Only extracted when setting metadata on network nodes, and then null if there is no toxicity annotation.
+    final Set<Integer> ld50s;
+
+    ChemicalSummary(Long id, Chemical chemical, boolean isAbstraction, String readableName, Set<Integer> ld50s) {
+      this.id = id;
+      this.chemical = chemical;
+      this.isAbstraction = isAbstraction;
+      this.readableName = readableName;
+      this.ld50s = ld50s;
+    }
+  }
+
+  static BasicDBObject chemicalSummaryFields() {
+    BasicDBObject fields = new BasicDBObject();
+    // MongoDB.convertDBObjectToChemical expects names, isCofactor and isNative to be present.
+    for (String field : new String[] {"InChI", "canonical", "names", "isCofactor", "isNative", "xref.METACYC",
+        "xref.WIKIPEDIA"}) {
+      fields.put(field, true);
+    }
+    return fields;
+  }
+
+  /**
+   * Fetches and summarizes chemicals, one `$in` query per batch of ids.  Each batch is parsed on a pool of threads
+   * while the next one is fetched, and the summaries are handed to the writer on the calling thread in the order of
+   * the ids, so the writer needs no synchronization.
+   * @param db The DB to read chemicals from.
+   * @param ids The ids of the chemicals to summarize.
+   * @param fields The fields to fetch, or null for all of them.
+   * @param batchSize The number of chemicals to fetch per query.
+   * @param threads The number of threads to parse chemicals with.
+   * @param writer Receives the summary of every chemical.
+   */
+  static void hydrateChemicals(MongoDB db, List<Long> ids, BasicDBObject fields, int batchSize, int threads,
+                               Consumer<ChemicalSummary> writer) {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      ForkJoinTask<List<ChemicalSummary>> pending = null;
+      int start = 0, written = 0;
+      while (start < ids.size() || pending != null) {
+        ForkJoinTask<List<ChemicalSummary>> submitted = null;
+        if (start < ids.size()) {
+          List<Long> batchIds = ids.subList(start, Math.min(start + batchSize, ids.size()));
+          Map<Long, DBObject> docs = fetchChemicalDocs(db, batchIds, fields);
+          submitted = pool.submit(() -> batchIds.parallelStream()
+              .map(id -> summarize(id, db.convertDBObjectToChemical(docs.get(id))))
+              .collect(Collectors.toList()));
+          start += batchIds.size();
         }
-      }
-      if (name == null) {
-        // Try to use wikipedia
-        Object meta = c.getRef(Chemical.REFS.WIKIPEDIA, new String[] { "metadata" });
-        if (meta != null) {
-          if (!(meta instanceof JSONObject)) {
-            throw new RuntimeException("Unable to parse Wikipedia metadata.");
-          }
-          name = (String) ((JSONObject) meta).get("article");
+
+        if (pending != null) {
+          List<ChemicalSummary> summaries = pending.get();
+          summaries.forEach(writer);
+          written += summaries.size();
+          logProgress("\t pullChemicalsReferencedInRxns: %d/%d\r", written, ids.size());
         }
+
+        pending = submitted;
       }
-      if (name == null) {
-        // stuff the inchi into the name
-        name = c.getInChI();
-      }
-      ActData.instance().chemId2ReadableName.put(id, name);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
 
-      if (SET_METADATA_ON_NW_NODES) {
-        String[] xpath = { "metadata", "toxicity" };
-        Object o = c.getRef(REFS.DRUGBANK, xpath);
-        if (o == null || !(o instanceof String))
-          continue;
-        Set<Integer> ld50s = extractLD50vals((String)o);
-        ActData.instance().chemToxicity.put(id, ld50s);
+  private static Map<Long, DBObject> fetchChemicalDocs(MongoDB db, List<Long> ids, BasicDBObject fields) {
+    BasicDBList idList = new BasicDBList();
+    idList.addAll(ids);
+    DBIterator iterator = db.getIteratorOverChemicals(
+        new BasicDBObject("_id", new BasicDBObject("$in", idList)), fields);
+    Map<Long, DBObject> docs = new HashMap<>(ids.size());
+    try {
+      while (iterator.hasNext()) {
+        DBObject doc = iterator.next();
+        docs.put(((Number) doc.get("_id")).longValue(), doc);
+      }
+    } finally {
+      iterator.close();
+    }
+    // Check here rather than while parsing, so the error reaches the caller as is rather than wrapped by the pool.
+    for (Long id : ids) {
+      if (!docs.containsKey(id)) {
+        throw new RuntimeException(String.format("Chemical %d is referenced by a reaction but is not in the DB", id));
+      }
+    }
+    return docs;
+  }
 
-        // set chemical attributes
-        String txt = null; // D MongoDB.chemicalAsString(c, id);
-        Set<Integer> tox = ActData.instance().chemToxicity.get(id);
-        Long n1 = ActData.instance().chemsInAct.get(id).getIdentifier();
-        int fanout = ActData.instance().rxnsThatConsumeChem.containsKey(id) ? ActData.instance().rxnsThatConsumeChem.get(id).size() : -1;
-        int fanin = ActData.instance().rxnsThatProduceChem.containsKey(id) ? ActData.instance().rxnsThatProduceChem.get(id).size() : -1;
+  static ChemicalSummary summarize(Long id, Chemical c) {
+    String name = c.getShortestBRENDAName();
+    if (name == null) {
+      // see if there is a metacyc name:
+      Object meta = c.getRef(Chemical.REFS.METACYC, new String[] { "meta" });
+      if (meta != null) {
+        // if we are here, the entry was referenced in metacyc, so must
+        // have some name association there. see if we can pull that out.
+
+        // the xref.METACYC.meta field should *always* be a JSONArray
+        // (even if its an array with a single JSONObject within it)
+        // sanity check that, and abort if the type does not match
+        if (!(meta instanceof JSONArray)) {
+          throw new RuntimeException("Expect only Arrays in db.chemicals.{xref.METACYC.meta}, but found: " + meta.getClass());
+        }
 
-        setMetadata(n1, tox, c, txt, fanout, fanin);
+        name = ((JSONObject) ((JSONArray)meta).get(0) ).getString("sname");
 
+        // if failed to pull out a name from metacyc, report it
+        if (name == null)
+          System.out.println("ERROR: Looks like a metacyc entry chemical, but no metacyc name: " + id);
       }
     }
-    logProgress("");
+    if (name == null) {
+      // Try to use wikipedia
+      Object meta = c.getRef(Chemical.REFS.WIKIPEDIA, new String[] { "metadata" });
+      if (meta != null) {
+        if (!(meta instanceof JSONObject)) {
+          throw new RuntimeException("Unable to parse Wikipedia metadata.");
+        }
+        name = (String) ((JSONObject) meta).get("article");
+      }
+    }
+    if (name == null) {
+      // stuff the inchi into the name
+      name = c.getInChI();
+    }
+
+    Set<Integer> ld50s = null;
+    if (SET_METADATA_ON_NW_NODES) {
+      String[] xpath = { "metadata", "toxicity" };
+      Object o = c.getRef(REFS.DRUGBANK, xpath);
+      if (o instanceof String)
+        ld50s = extractLD50vals((String)o);
+    }
+
+    return new ChemicalSummary(id, c, isAbstractInChI(c.getInChI()), name, ld50s);
+  }
+
+  private void installChemicalSummary(ChemicalSummary summary) {
+    Long id = summary.id;
+    Chemical c = summary.chemical;
+    ActData.instance().chemInchis.put(c.getInChI(), id);
+    ActData.instance().chemId2Inchis.put(id, c.getInChI());
+    ActData.instance().chemIdIsAbstraction.put(id, summary.isAbstraction);
+    ActData.instance().chemId2ReadableName.put(id, summary.readableName);
+
+    if (SET_METADATA_ON_NW_NODES) {
+      if (summary.ld50s == null)
+        return;
+      ActData.instance().chemToxicity.put(id, summary.ld50s);
+
+      // set chemical attributes
+      String txt = null; // D MongoDB.chemicalAsString(c, id);
+      Set<Integer> tox = ActData.instance().chemToxicity.get(id);
+      Long n1 = ActData.instance().chemsInAct.get(id).getIdentifier();
+      int fanout = ActData.instance().rxnsThatConsumeChem.containsKey(id) ? ActData.instance().rxnsThatConsumeChem.get(id).size() : -1;
+      int fanin = ActData.instance().rxnsThatProduceChem.containsKey(id) ? ActData.instance().rxnsThatProduceChem.get(id).size() : -1;
+
+      setMetadata(n1, tox, c, txt, fanout, fanin);
+    }
   }
 
-  private boolean isAbstractInChI(String inchi) {
-    // Create a Pattern object
-    Pattern r = Pattern.compile("^InChI=1S\\/[A-Z0-9]*R");
-    return r.matcher(inchi).find();
+  private static boolean isAbstractInChI(String inchi) {
+    return ABSTRACT_INCHI_PATTERN.matcher(inchi).find();
   }
 
-  private Set<Integer> extractLD50vals(String annotation) {
+  private static Set<Integer> extractLD50vals(String annotation) {
     // an example of what we want to process is: "Oral, mouse: LD50 = 338 mg/kg; Oral, rat: LD50 = 1944 mg/kg"
     // a second example of what to process is:   "Acute oral toxicity (LD<sub>50</sub>) in rats is 264 mg/kg."
     // a third example of what to process is :   "Oral mouse and rat LD<sub>50</sub> are 338 mg/kg and 425 mg/kg respectively"
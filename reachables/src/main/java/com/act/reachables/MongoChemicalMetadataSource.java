@@ -0,0 +1,56 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import act.server.MongoDB;
+import act.shared.Chemical;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fetches extended chemical attributes from the chemicals collection, one query per batch.
+ */
+public class MongoChemicalMetadataSource implements ChemicalMetadataSource {
+  private MongoDB db;
+
+  public MongoChemicalMetadataSource(MongoDB db) {
+    this.db = db;
+  }
+
+  @Override
+  public Map<Long, JSONObject> fetchChemicalMetadata(List<Long> ids) throws JSONException {
+    Map<Long, JSONObject> metadata = new HashMap<>(ids.size());
+    Iterator<Chemical> chemicals = db.getChemicalsbyIds(ids, true);
+    while (chemicals.hasNext()) {
+      Chemical c = chemicals.next();
+      metadata.put(c.getUuid(), new JSONObject(ComputeReachablesTree.getExtendedChemicalInformationJSON(c)));
+    }
+    return metadata;
+  }
+}
@@ -46,6 +46,7 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -98,6 +99,13 @@ public class Network implements Serializable {
                                     this.parents, this.toParentEdge);
   }
 
+  /**
+   * Writes the same JSON as disjointTrees, but streams it out node by node rather than building it in memory.
+   */
+  public void writeDisjointTrees(MongoDB db, OutputStream out) throws IOException, JSONException {
+    new JSONDisjointTreesWriter(new MongoChemicalMetadataSource(db)).write(this, out);
+  }
+
   void addNode(Node n, Long nid) {
     if (this.nodeMapping.containsKey(n)) {
       if (!Boolean.valueOf((String)Node.getAttribute(n.id, "isrxn"))) {
@@ -336,6 +344,12 @@ class JSONDisjointTrees {
   public static JSONObject get(MongoDB db, Set<Node> nodes, Set<Edge> edges,
                                HashMap<Long, Long> parentIds, HashMap<Long, Edge> toParentEdges)
       throws JSONException {
+    return get(new MongoChemicalMetadataSource(db), nodes, edges, parentIds, toParentEdges);
+  }
+
+  public static JSONObject get(ChemicalMetadataSource metadataSource, Set<Node> nodes, Set<Edge> edges,
+                               HashMap<Long, Long> parentIds, HashMap<Long, Edge> toParentEdges)
+      throws JSONException {
     // init the json object with structure:
     // {
     //   "name": "nodeid"
@@ -351,7 +365,8 @@ class JSONDisjointTrees {
     HashMap<Long, JSONObject> nodeObjs = new HashMap<>();
     // un-deconstruct tree...
     for (Long nid : parentIds.keySet()) {
-      JSONObject nObj = JSONHelper.nodeObj(db, nodeById.get(nid));
+      JSONObject chemicalInfo = metadataSource.fetchChemicalMetadata(Collections.singletonList(nid)).get(nid);
+      JSONObject nObj = JSONHelper.nodeObj(chemicalInfo, nodeById.get(nid));
       nObj.put("name", nid);
 
       if (toParentEdges.get(nid) != null) {
@@ -389,7 +404,7 @@ class JSONDisjointTrees {
       json = null;
       throw new RuntimeException("All nodeMapping have parents! Where is the root? Abort.");
     } else if (unAssignedToParent.size() == 1) {
-      json = unAssignedToParent.toArray(new JSONObject[0])[0]; // return the only element in the set
+      json = nodeObjs.get(unAssignedToParent.iterator().next()); // return the only tree
     } else {
       json = new JSONObject();
       for (Long cid : unAssignedToParent) {
@@ -400,8 +415,7 @@ class JSONDisjointTrees {
 
     return json;
   }
-  /* Note: there is a streaming variant of JSON tree serialization in the commit history if it is ever needed.
-   * See f45bc81818322b8054cf88ae1c22ba5ad654a5d1 for details. */
+  /* Note: JSONDisjointTreesWriter streams this same structure out without holding it in memory. */
 }
 
 class JSONHelper {
@@ -410,6 +424,17 @@ class JSONHelper {
     Chemical thisChemical = db.getChemicalFromChemicalUUID(n.id);
     JSONObject no = thisChemical == null ? new JSONObject() :
         new JSONObject(ComputeReachablesTree.getExtendedChemicalInformationJSON(thisChemical));
+    return nodeObj(no, n);
+  }
+
+  /**
+   * Adds a node's tree attributes to its chemical's extended attributes.
+   * @param chemicalInfo The chemical's extended attributes, which this modifies, or null if it has none.
+   * @param n The node.
+   * @return The node's JSON representation.
+   */
+  public static JSONObject nodeObj(JSONObject chemicalInfo, Node n) throws JSONException {
+    JSONObject no = chemicalInfo == null ? new JSONObject() : chemicalInfo;
     no.put("id", n.id);
     HashMap<String, Serializable> attr = n.getAttr();
     for (String k : attr.keySet()) {
@@ -0,0 +1,255 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Groups a stream of (key, value) pairs by key, preserving the order in which each key's values were added.
+ *
+ * Pairs are buffered in memory and sorted; if the buffer outgrows its budget it is written to a temporary file as a
+ * sorted run and the runs are k-way merged at the end.  Keys are compared as unsigned bytes, which is RocksDB's default
+ * ordering, so groups can be written straight into an index.
+ */
+public class ExternalKeyGrouper implements Closeable {
+  public static final long DEFAULT_MAX_BUFFERED_BYTES = 256L << 20;
+
+  // Rough per-entry cost of the Entry object and its two array headers, so the budget tracks actual heap usage.
+  private static final int ENTRY_OVERHEAD_BYTES = 64;
+  private static final int RUN_IO_BUFFER_SIZE = 1 << 16;
+
+  public interface GroupConsumer {
+    void accept(byte[] key, List<byte[]> values) throws IOException;
+  }
+
+  private static class Entry {
+    final byte[] key;
+    final long sequence;
+    final byte[] value;
+
+    Entry(byte[] key, long sequence, byte[] value) {
+      this.key = key;
+      this.sequence = sequence;
+      this.value = value;
+    }
+  }
+
+  private static final Comparator<Entry> ENTRY_COMPARATOR = (a, b) -> {
+    int c = compareUnsigned(a.key, b.key);
+    return c != 0 ? c : Long.compare(a.sequence, b.sequence);
+  };
+
+  private final File scratchDir;
+  private final long maxBufferedBytes;
+
+  private List<Entry> buffer = new ArrayList<>();
+  private long bufferedBytes = 0L;
+  private long nextSequence = 0L;
+  private List<File> runs = new ArrayList<>();
+
+  /**
+   * @param scratchDir The directory in which to write sorted runs, or null for the system temp directory.
+   * @param maxBufferedBytes The approximate amount of memory to use before spilling a run to disk.
+   */
+  public ExternalKeyGrouper(File scratchDir, long maxBufferedBytes) {
+    this.scratchDir = scratchDir;
+    this.maxBufferedBytes = maxBufferedBytes;
+  }
+
+  public void add(byte[] key, byte[] value) throws IOException {
+    buffer.add(new Entry(key, nextSequence++, value));
+    bufferedBytes += key.length + value.length + ENTRY_OVERHEAD_BYTES;
+    if (bufferedBytes >= maxBufferedBytes) {
+      spill();
+    }
+  }
+
+  public int getSpilledRunCount() {
+    return runs.size();
+  }
+
+  /**
+   * Hand each distinct key and all of its values to the consumer, in key order.  Should be called once, after all
+   * pairs have been added.
+   * @param consumer The consumer for each group.
+   * @throws IOException
+   */
+  public void forEachGroup(GroupConsumer consumer) throws IOException {
+    if (runs.isEmpty()) {
+      Collections.sort(buffer, ENTRY_COMPARATOR);
+      emitGroups(buffer.iterator(), consumer);
+      buffer = new ArrayList<>();
+      bufferedBytes = 0L;
+      return;
+    }
+
+    if (!buffer.isEmpty()) {
+      spill();
+    }
+
+    List<RunReader> readers = new ArrayList<>(runs.size());
+    try {
+      PriorityQueue<RunReader> heap =
+          new PriorityQueue<>(runs.size(), (a, b) -> ENTRY_COMPARATOR.compare(a.current, b.current));
+      for (File run : runs) {
+        RunReader reader = new RunReader(run);
+        readers.add(reader);
+        if (reader.advance()) {
+          heap.add(reader);
+        }
+      }
+
+      emitGroups(new Iterator<Entry>() {
+        @Override
+        public boolean hasNext() {
+          return !heap.isEmpty();
+        }
+
+        @Override
+        public Entry next() {
+          RunReader reader = heap.poll();
+          Entry e = reader.current;
+          try {
+            if (reader.advance()) {
+              heap.add(reader);
+            }
+          } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+          }
+          return e;
+        }
+      }, consumer);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      for (RunReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  private void emitGroups(Iterator<Entry> sortedEntries, GroupConsumer consumer) throws IOException {
+    byte[] groupKey = null;
+    List<byte[]> groupValues = new ArrayList<>();
+    while (sortedEntries.hasNext()) {
+      Entry e = sortedEntries.next();
+      if (groupKey != null && compareUnsigned(groupKey, e.key) != 0) {
+        consumer.accept(groupKey, groupValues);
+        groupValues = new ArrayList<>();
+      }
+      groupKey = e.key;
+      groupValues.add(e.value);
+    }
+    if (groupKey != null) {
+      consumer.accept(groupKey, groupValues);
+    }
+  }
+
+  private void spill() throws IOException {
+    Collections.sort(buffer, ENTRY_COMPARATOR);
+    File run = File.createTempFile("grouper-run-", ".bin", scratchDir);
+    run.deleteOnExit();
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(run), RUN_IO_BUFFER_SIZE))) {
+      for (Entry e : buffer) {
+        out.writeInt(e.key.length);
+        out.write(e.key);
+        out.writeLong(e.sequence);
+        out.writeInt(e.value.length);
+        out.write(e.value);
+      }
+    }
+    runs.add(run);
+    buffer = new ArrayList<>();
+    bufferedBytes = 0L;
+  }
+
+  @Override
+  public void close() {
+    for (File run : runs) {
+      run.delete();
+    }
+    runs.clear();
+    buffer = new ArrayList<>();
+    bufferedBytes = 0L;
+  }
+
+  public static int compareUnsigned(byte[] a, byte[] b) {
+    int length = Math.min(a.length, b.length);
+    for (int i = 0; i < length; i++) {
+      int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return a.length - b.length;
+  }
+
+  private static class RunReader implements Closeable {
+    private final DataInputStream in;
+    private Entry current;
+
+    RunReader(File run) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), RUN_IO_BUFFER_SIZE));
+    }
+
+    boolean advance() throws IOException {
+      int keyLength;
+      try {
+        keyLength = in.readInt();
+      } catch (EOFException e) {
+        current = null;
+        return false;
+      }
+      byte[] key = new byte[keyLength];
+      in.readFully(key);
+      long sequence = in.readLong();
+      byte[] value = new byte[in.readInt()];
+      in.readFully(value);
+      current = new Entry(key, sequence, value);
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
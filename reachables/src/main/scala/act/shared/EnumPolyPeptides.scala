@@ -23,7 +23,7 @@
 
 package act.shared
 
-import java.io.PrintWriter
+import java.io.{BufferedWriter, File, FileInputStream, FileOutputStream, FileWriter}
 
 import com.act.lcms.MS1.MetlinIonMass
 import act.shared.ChemicalSymbols.{AllAminoAcids, AminoAcid, Atom, C, H, N, O, P, S}
@@ -32,6 +32,10 @@ import act.shared.ChemicalSymbols.{Arg, Asn, Asp, Gln, Glu, His, Lys, Thr, Trp,
 import act.shared.ChemicalSymbols.MonoIsotopicMass
 import act.shared.ChemicalSymbols.Helpers.{computeChemicalFormulaFromAAFormula, computeFormulaFromElements, computeMassFromAtomicFormula, fromSymbol}
 import com.act.lcms.MS1
+import org.apache.commons.io.IOUtils
+
+import scala.collection.parallel.ForkJoinTaskSupport
+import scala.concurrent.forkjoin.ForkJoinPool
 
 object EnumPolyPeptides {
   // This class enumerates all polypeptides upto a certain mass.
@@ -42,12 +46,28 @@ object EnumPolyPeptides {
   // See also the test `checkSpecificPeptides() { val dppsat: Peptide ..}` with mass 586.259859
 
   // The primary interface is through the function `getPeptideEnumerator` and the heavy 
-  // lifting done by `getAminoAcidCombinations`. We only need to get combinations and not
+  // lifting done by `ResidueMultisets`. We only need to get combinations and not
   // permutations because all peptides with the same multi-set of aminoacids will have the
   // same mass. Once we enumerate the multi-sets, we compute for each `M` its ion masses
   // such as `M+H` `M+Na` by calling into the MS1.MetlinIonMass and this `row` of data
   // is held in PeptideMass. That is what we write to the output file.
 
+  // The aminoacids we pick from, in the order in which the enumeration picks them.
+  // note: "Isoleucine" being an isomer of "Leucine", we remove it here to avoid duplication
+  val enumeratedAminoAcids: Array[AminoAcid] = (AllAminoAcids diff List(Ile)).toArray
+
+  // Per-residue masses and atom counts, laid out as arrays so that the enumeration can add and
+  // remove a residue with a handful of primitive operations instead of building maps per peptide
+  private val enumeratedAtoms: Array[Atom] = enumeratedAminoAcids.flatMap(_.elems.keys).distinct
+  private val residueMasses: Array[Double] = enumeratedAminoAcids.map(_.mass.initMass)
+  private val residueAtomCounts: Array[Array[Int]] =
+    enumeratedAminoAcids.map(aa => enumeratedAtoms.map(a => aa.elems.getOrElse(a, 0)))
+  private val massOfWater: Double = List(H, O, H).map(_.mass).reduce(_ + _).initMass
+
+  // need an instance of the class to call Map[Atom, Int] -> String. It only reads its own fields
+  // when building formula strings, so one instance is shared by all rows and threads.
+  private val formulaBuilder = new MassToFormula
+
   class Peptide(val len: Int, 
     val composition: Map[AminoAcid, Int], 
     val formula: Map[Atom, Int], 
@@ -57,8 +77,7 @@ object EnumPolyPeptides {
                     val formula: Map[Atom, Int],
                     val mass: MonoIsotopicMass,
                     val ionMasses: List[(MetlinIonMass, MonoIsotopicMass)]) {
-    // need an instance of the class to call Map[Atom, Int] -> String
-    val m2f = new MassToFormula
+    val m2f = formulaBuilder
 
     override def toString() = {
       // convert the representative to a string, DPPSAT
@@ -109,25 +128,89 @@ object EnumPolyPeptides {
     new PeptideMass(aaList, chemFormula, mass, ionMasses)
   }
 
-  def getAminoAcidCombinations(maxLen: Int): Iterator[List[AminoAcid]] = {
-    // scala stdlib has a combinations(k) where it returns lists of size `k`
-    // to allow this combinations to create with repetitions we just give it
-    // the max allowed repetitions
-
-    // first, create a list by replicating the elements maxLen number of times
-    // this is a list of lists
-    // note: "Isoleucine" being an isomer of "Leucine", we remove it here to avoid duplication
-    val aminoAcidsDedup = AllAminoAcids diff List(Ile)
-    val replicatedLists: List[List[ChemicalSymbols.AminoAcid]] = List.fill(maxLen)(aminoAcidsDedup)
-
-    // flatten the list created above, so that we have one long list of as many
-    // repeated amino acids as can be in the final set. by repeating them here,
-    // we can then pick *without* repetition
-    val pickSetNonDistinctElems: List[ChemicalSymbols.AminoAcid] = replicatedLists.flatten
-
-    // then we just ask the standard library to give us a standard combinations
-    // i.e., pick `maxLen` elements from this mega-list
-    pickSetNonDistinctElems.combinations(maxLen)
+  /**
+    * Walks over every multi-set of `len` aminoacids, visiting each one exactly once.
+    *
+    * A multi-set is held as a non-decreasing sequence of indices into `enumeratedAminoAcids`, and we step
+    * to the next one like an odometer: bump the rightmost position that can still grow and reset all positions
+    * after it to the same value. Masses and atom counts are kept as running prefix sums over the sequence, so a
+    * step only recomputes the positions that changed rather than the whole peptide.
+    *
+    * The enumeration can be restricted to multi-sets whose first (i.e., smallest) residue is in
+    * [firstLeading, lastLeading], which splits the space into independent pieces that can be run in parallel.
+    */
+  class ResidueMultisets(len: Int,
+                         firstLeading: Int = 0,
+                         lastLeading: Int = enumeratedAminoAcids.length - 1) {
+    private val lastResidue = enumeratedAminoAcids.length - 1
+    private val residues = Array.fill(len)(firstLeading)
+    private val prefixMass = new Array[Double](len + 1)
+    private val prefixAtoms = Array.fill(len + 1)(new Array[Int](enumeratedAtoms.length))
+    private var started = false
+    private var exhausted = len < 1 || firstLeading > lastLeading
+
+    if (!exhausted) updatePrefixesFrom(0)
+
+    private def updatePrefixesFrom(pos: Int): Unit = {
+      for (p <- pos until len) {
+        val residue = residues(p)
+        prefixMass(p + 1) = prefixMass(p) + residueMasses(residue)
+        val prev = prefixAtoms(p)
+        val curr = prefixAtoms(p + 1)
+        val delta = residueAtomCounts(residue)
+        for (a <- curr.indices) curr(a) = prev(a) + delta(a)
+      }
+    }
+
+    // moves to the next multi-set, returning false once they have all been visited
+    def advance(): Boolean = {
+      if (exhausted) return false
+      if (!started) {
+        started = true
+        return true
+      }
+
+      var pos = len - 1
+      while (pos > 0 && residues(pos) == lastResidue) pos -= 1
+      if (pos == 0 && residues(0) == lastLeading) {
+        exhausted = true
+        return false
+      }
+
+      val bumped = residues(pos) + 1
+      for (p <- pos until len) residues(p) = bumped
+      updatePrefixesFrom(pos)
+      true
+    }
+
+    def aminoAcids: List[AminoAcid] = residues.map(enumeratedAminoAcids(_)).toList
+
+    // same as `formulaToListAAs`: sorted, so that it looks like ADPPST as opposed to SAPDTP
+    def representative: List[AminoAcid] = aminoAcids.sortWith(_.symbol < _.symbol)
+
+    // same as `computeChemicalFormulaFromAAFormula` over the multi-set
+    def formula: Map[Atom, Int] = enumeratedAtoms.zip(prefixAtoms(len)).toMap
+
+    // same as `computeMonoIsotopicMass`: N-1 waters are removed to link N aminoacids into a chain
+    def mass: MonoIsotopicMass = new MonoIsotopicMass(prefixMass(len) - massOfWater * (len - 1))
+
+    def map[T](f: ResidueMultisets => T): Iterator[T] = new Iterator[T] {
+      private var ready = advance()
+      def hasNext = ready
+      def next() = {
+        if (!ready) throw new NoSuchElementException("All multi-sets have been enumerated")
+        val value = f(ResidueMultisets.this)
+        ready = advance()
+        value
+      }
+    }
+  }
+
+  // Enumerates the combinations with repetition of `len` aminoacids. We used to get these by replicating
+  // the aminoacid list `len` times and calling the stdlib `combinations(len)` over it, but that spends
+  // almost all of its time generating and discarding duplicates. The multi-sets come out in the same order.
+  def getAminoAcidCombinations(len: Int): Iterator[List[AminoAcid]] = {
+    new ResidueMultisets(len).map(_.aminoAcids)
   }
 
   implicit def toFormula(aas: List[AminoAcid]): Map[AminoAcid, Int] = {
@@ -139,15 +222,18 @@ object EnumPolyPeptides {
   // Then we calculate its monoisotopic mass and hold that representative polypeptide for reference
   // The second option allows selection of a subset of ions to output e.g., "M+H,M+Na". If None
   // specified, it will write all metlin ion masses to the output.
-  def getPeptideEnumerator(maxLen: Int, ions: Option[List[String]]): Iterator[PeptideMass] = {
-    // we first get an iterator over all combinations with repetition of aminoacid sets
-    val aminoAcidGroups = getAminoAcidCombinations(maxLen)
-
-    // convert each List[AminoAcids] to Map[AminoAcids -> count]
-    // (using toFormula implicitly), and then to PeptideMass row
-    val peptideMasses = aminoAcidGroups.map(l => toPeptideMassRow(l, ions))
+  def getPeptideEnumerator(len: Int, ions: Option[List[String]]): Iterator[PeptideMass] = {
+    getPeptideEnumerator(len, getMetlinIons(ions), 0, enumeratedAminoAcids.length - 1)
+  }
 
-    peptideMasses
+  // Enumerates only those peptides whose first residue, in `enumeratedAminoAcids` order, is in
+  // [firstLeading, lastLeading]. Each peptide is visited once, so disjoint ranges partition the output.
+  def getPeptideEnumerator(len: Int, ions: List[MetlinIonMass],
+                           firstLeading: Int, lastLeading: Int): Iterator[PeptideMass] = {
+    new ResidueMultisets(len, firstLeading, lastLeading).map(m => {
+      val mass = m.mass
+      new PeptideMass(m.representative, m.formula, mass, computeMetlinIonMasses(mass, ions))
+    })
   }
 
   def getMetlinIons(ionsRestriction: Option[List[String]]): List[MetlinIonMass] = ionsRestriction match {
@@ -161,9 +247,12 @@ object EnumPolyPeptides {
     // My guess is that by using the `public static final ionDeltas` as the key the scala compiler
     // should be clever enough to not create copies of the key. The only extra memory we will use here
     // should be the computed mass values for the ions (the values of the map).
-    def ionMassTuple(ion: MetlinIonMass) = (ion -> new MonoIsotopicMass(MS1.computeIonMz(m.initMass, ion)))
-    val ionMasses: List[(MetlinIonMass, MonoIsotopicMass)] = getMetlinIons(ions).map(ionMassTuple).toList
-    ionMasses
+    computeMetlinIonMasses(m, getMetlinIons(ions))
+  }
+
+  def computeMetlinIonMasses(m: MonoIsotopicMass,
+    ions: List[MetlinIonMass]): List[(MetlinIonMass, MonoIsotopicMass)] = {
+    ions.map(ion => ion -> new MonoIsotopicMass(MS1.computeIonMz(m.initMass, ion)))
   }
 
   def getTSVHdr(ions: Option[List[String]]) = {
@@ -191,6 +280,13 @@ object EnumPolyPeptides {
       masses foreach log
     }
 
+    // add the counts accumulated by another (e.g., per-thread) Stats object into this one
+    def merge(that: Stats): Unit = {
+      histogram = that.histogram.foldLeft(histogram) { case (acc, (bucket, c)) =>
+        acc + (bucket -> (acc.getOrElse(bucket, 0) + c))
+      }
+    }
+
     def mkString(kvDelim: String = "\t", entryDelim: String = "\n") = {
       // we want to output the histogram such that it can be easily slurped into a plotter, e.g., gnuplot
       // for that ideally, we would like to output two columns, the first column being bucket's start_mz
@@ -207,43 +303,78 @@ object EnumPolyPeptides {
     }
   }
 
-  def writeFlush(outFile: PrintWriter, line: String) = {
-    outFile.write(line + "\n")
-    outFile.flush
+  // Writes all peptides of length `len` to `out`. The space is split by leading residue and the pieces are
+  // enumerated in parallel, each into its own buffered part file under `partDir`; the parts are then appended
+  // to `out` in order, so the output is the same as a sequential run's.
+  def writePeptidesOfLength(out: FileOutputStream, partDir: File, len: Int, ions: List[MetlinIonMass],
+                            taskSupport: ForkJoinTaskSupport, stats: Option[Stats]): Unit = {
+    val leadingResidues = (0 until enumeratedAminoAcids.length).par
+    leadingResidues.tasksupport = taskSupport
+
+    val parts: List[(File, Option[Stats])] = leadingResidues.map(leading => {
+      val partFile = File.createTempFile(s"peptides-$len-$leading-", ".tsv", partDir)
+      partFile.deleteOnExit()
+      val partStats = stats.map(_ => new Stats)
+      val partOut = new BufferedWriter(new FileWriter(partFile), OUTPUT_BUFFER_SIZE)
+      try {
+        getPeptideEnumerator(len, ions, leading, leading).foreach(row => {
+          partStats.foreach(_ log row)
+          partOut.write(row.toString)
+          partOut.write('\n')
+        })
+      } finally {
+        partOut.close()
+      }
+      (partFile, partStats)
+    }).toList
+
+    parts.foreach { case (partFile, partStats) =>
+      val in = new FileInputStream(partFile)
+      try {
+        IOUtils.copyLarge(in, out)
+      } finally {
+        in.close()
+      }
+      partFile.delete()
+      for (s <- stats; p <- partStats) s merge p
+    }
   }
 
   def main(args: Array[String]) {
 
     val className = this.getClass.getCanonicalName
-    val opts = List(optOutFile, optMaxLen, optIonSet, optRunStats, optRunTests)
+    val opts = List(optOutFile, optMaxLen, optIonSet, optThreads, optRunStats, optRunTests)
     val cmdLine: CmdLineParser = new CmdLineParser(className, args, opts)
 
     // read the command line options
     val maxPeptideLength: Int = (cmdLine get optMaxLen).toInt
-    val outTsvFile: PrintWriter = new PrintWriter(cmdLine get optOutFile)
+    val outTsvPath = new File(cmdLine get optOutFile).getAbsoluteFile
+    val outTsvFile = new FileOutputStream(outTsvPath)
     val ionSetGiven: String = cmdLine get optIonSet
     val ionSet: Option[List[String]] = ionSetGiven match { 
       case null => None
       case _ => Some(ionSetGiven.split(',').toList) 
     }
+    val numThreads: Int = Option(cmdLine get optThreads).map(_.toInt).getOrElse(DEFAULT_THREADS)
 
     // we'll be logging statistics, if the cmd line says so
-    val stats = new Stats
+    val stats = if (cmdLine has optRunStats) Some(new Stats) else None
 
     // do the actual work
-    writeFlush(outTsvFile, getTSVHdr(ionSet) mkString "\t")
-    (1 to maxPeptideLength).foreach { peptideLen =>
-      val allMasses = getPeptideEnumerator(peptideLen, ionSet)
-      allMasses.foreach(x => {
-          stats log x
-          writeFlush(outTsvFile, x.toString)
-        })
+    val pool = new ForkJoinPool(numThreads)
+    try {
+      val ions = getMetlinIons(ionSet)
+      outTsvFile.write((getTSVHdr(ionSet).mkString("\t") + "\n").getBytes)
+      (1 to maxPeptideLength).foreach { peptideLen =>
+        val taskSupport = new ForkJoinTaskSupport(pool)
+        writePeptidesOfLength(outTsvFile, outTsvPath.getParentFile, peptideLen, ions, taskSupport, stats)
+      }
+    } finally {
+      pool.shutdown()
+      outTsvFile.close()
     }
-    outTsvFile.close()
 
-    if (cmdLine has optRunStats) {
-      println(stats.mkString()) 
-    }
+    stats.foreach(s => println(s.mkString()))
 
     // TODO: move to scalatest. 
     // run unit test to make sure code is still sane
@@ -252,6 +383,9 @@ object EnumPolyPeptides {
     }
   }
 
+  val DEFAULT_THREADS = Runtime.getRuntime.availableProcessors
+  val OUTPUT_BUFFER_SIZE = 1 << 20
+
   val optOutFile = new OptDesc(
                     param = "o",
                     longParam = "output-file",
@@ -277,6 +411,15 @@ object EnumPolyPeptides {
                               specify that set as a comma separated list here. E.g., M+H,M+Na""",
                     isReqd = false, hasArg = true)
 
+  val optThreads = new OptDesc(
+                    param = "j",
+                    longParam = "threads",
+                    name = "num threads",
+                    desc = s"""Number of threads to enumerate peptides on. The enumeration for each length is
+                              split by its first amino acid. Defaults to the number of processors,
+                              here $DEFAULT_THREADS.""",
+                    isReqd = false, hasArg = true)
+
   val optRunStats = new OptDesc(
                     param = "s",
                     longParam = "run-stats",
@@ -296,7 +439,7 @@ object EnumPolyPeptides {
   def runAllUnitTests() {
     println(s"${Console.BLUE}Running all tests!")
     checkNChooseK
-    checkEnumerationSizeCorrect
+    checkEnumerationSizeCorrect()
     checkSpecificPeptides
     checkAllAminoAcidMasses
   }
@@ -322,7 +465,7 @@ object EnumPolyPeptides {
 
   def combinationsWithRepeats(n: Int, r: Int) = choose(n+r-1, r)
 
-  def checkEnumerationSizeCorrect() {
+  def checkEnumerationSizeCorrect(lengths: Range = 1 to 6) {
 
     // we will create an enumeration class, get all its elements (will take time), and then
     // compare the size against the expected combinations formula
@@ -332,8 +475,8 @@ object EnumPolyPeptides {
       assert( enumSz == sz )
     }
 
-    // now iterate with peptide lengths 1..6
-    (1 to 6).toList.map(len => (len, combinationsWithRepeats(20, len))).foreach(checkNumPeptidesEnumCorrect)
+    // now iterate with peptide lengths 1..6, unless asked for others
+    lengths.toList.map(len => (len, combinationsWithRepeats(20, len))).foreach(checkNumPeptidesEnumCorrect)
   }
 
   def checkSpecificPeptides() {
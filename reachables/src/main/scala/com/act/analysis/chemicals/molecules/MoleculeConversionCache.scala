@@ -0,0 +1,217 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.analysis.chemicals.molecules
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.atomic.{AtomicInteger, AtomicReferenceArray, LongAdder}
+
+import chemaxon.struc.Molecule
+import com.act.analysis.chemicals.molecules.MoleculeFormat.MoleculeFormatType
+import com.github.benmanes.caffeine.cache.{Cache, Caffeine}
+import org.apache.logging.log4j.LogManager
+
+import scala.collection.concurrent.TrieMap
+
+/**
+  * The one place in the JVM where molecule conversions are cached, shared by MoleculeImporter and MoleculeExporter and
+  * therefore by every projector, SAR scorer and desalter running in the process.
+  *
+  * Imports are keyed by a 64 bit hash of the import format and the molecule string rather than by the string itself,
+  * so each string is held once (inside its entry) no matter how many callers ask for it.  Every entry carries one
+  * export slot per format, so exporting an imported molecule to several formats costs one cache entry, not one per
+  * format.  Molecules that were never imported (e.g. projection products) get an entry on first export.  Molecules are
+  * mutable and don't define equality, so they are mapped to their entries by identity.
+  */
+object MoleculeConversionCache {
+  private val LOGGER = LogManager.getLogger(getClass)
+
+  val DEFAULT_MAX_SIZE = 10000L
+  // Formats are registered as they are first used; there are only a handful in practice.
+  private val MAX_FORMAT_SLOTS = 32
+
+  private var maxSize = DEFAULT_MAX_SIZE
+  @volatile private var stringToEntry: Cache[java.lang.Long, Entry] = buildStringCache()
+  @volatile private var moleculeToEntry: Cache[Molecule, Entry] = buildMoleculeCache()
+
+  private val formatSlots = TrieMap[MoleculeFormatType, Int]()
+  private val nextFormatSlot = new AtomicInteger()
+
+  private val importHits = new LongAdder
+  private val importMisses = new LongAdder
+  private val exportHits = new LongAdder
+  private val exportMisses = new LongAdder
+
+  private class Entry(val source: String, val importFormat: MoleculeFormatType) {
+    @volatile var molecule: Molecule = _
+    val exports = new AtomicReferenceArray[String](MAX_FORMAT_SLOTS)
+
+    def isFor(mol: String, format: MoleculeFormatType): Boolean = {
+      source != null && source.equals(mol) && importFormat.equals(format)
+    }
+  }
+
+  /**
+    * A snapshot of how the cache has been doing since the last reset.
+    */
+  case class Stats(importHits: Long, importMisses: Long, exportHits: Long, exportMisses: Long) {
+    def importHitRate: Double = rate(importHits, importMisses)
+
+    def exportHitRate: Double = rate(exportHits, exportMisses)
+
+    def hitRate: Double = rate(importHits + exportHits, importMisses + exportMisses)
+
+    private def rate(hits: Long, misses: Long): Double = if (hits + misses == 0) 0.0 else hits.toDouble / (hits + misses)
+
+    override def toString: String = {
+      f"imports: $importHits%d hits / $importMisses%d misses (${importHitRate * 100}%.1f%%), " +
+        f"exports: $exportHits%d hits / $exportMisses%d misses (${exportHitRate * 100}%.1f%%)"
+    }
+  }
+
+  def stats: Stats = Stats(importHits.sum, importMisses.sum, exportHits.sum, exportMisses.sum)
+
+  def resetStats(): Unit = {
+    List(importHits, importMisses, exportHits, exportMisses).foreach(_.reset())
+  }
+
+  def clear(): Unit = {
+    stringToEntry = buildStringCache()
+    moleculeToEntry = buildMoleculeCache()
+  }
+
+  /**
+    * Wipes the cache and changes its maximum size to the designated value
+    *
+    * @param size Maximum number of imported strings (and, separately, of molecules) to hold on to
+    */
+  def setMaxSize(size: Long): Unit = {
+    LOGGER.info(s"${getClass.getCanonicalName} cache size has changed to $size.")
+    maxSize = size
+    clear()
+  }
+
+  private def buildStringCache(): Cache[java.lang.Long, Entry] = {
+    val caffeine = Caffeine.newBuilder().asInstanceOf[Caffeine[java.lang.Long, Entry]]
+    caffeine.maximumSize(maxSize)
+    caffeine.build[java.lang.Long, Entry]()
+  }
+
+  private def buildMoleculeCache(): Cache[Molecule, Entry] = {
+    // Weak keys are compared by identity, which is what we want for mutable molecules.
+    val caffeine = Caffeine.newBuilder().weakKeys().asInstanceOf[Caffeine[Molecule, Entry]]
+    caffeine.maximumSize(maxSize)
+    caffeine.build[Molecule, Entry]()
+  }
+
+  /**
+    * Gets the molecule previously imported from this string and format, or imports (and caches) it.
+    *
+    * @param mol      The molecule string.
+    * @param format   The format the string is in.
+    * @param importer Does the actual import on a miss.
+    *
+    * @return The imported molecule.  This is shared with every other caller that imports the same string.
+    */
+  def importMolecule(mol: String, format: MoleculeFormatType, importer: => Molecule): Molecule = {
+    val key: java.lang.Long = hashKey(mol, format)
+    val entry = stringToEntry.getIfPresent(key)
+    if (entry != null && entry.isFor(mol, format) && entry.molecule != null) {
+      importHits.increment()
+      return entry.molecule
+    }
+
+    importMisses.increment()
+    val newMolecule = importer
+    val newEntry = new Entry(mol, format)
+    newEntry.molecule = newMolecule
+    // On the rare hash collision this evicts the other string, which is simply re-imported next time it is seen.
+    stringToEntry.put(key, newEntry)
+    moleculeToEntry.put(newMolecule, newEntry)
+    newMolecule
+  }
+
+  /**
+    * Gets the string previously exported from this exact molecule object in this format, or exports (and caches) it.
+    *
+    * @param mol      The molecule.
+    * @param format   The format to export to.
+    * @param exporter Does the actual export on a miss.
+    *
+    * @return The molecule as a string.
+    */
+  def exportMolecule(mol: Molecule, format: MoleculeFormatType, exporter: => String): String = {
+    val slot = formatSlot(format)
+    if (slot >= MAX_FORMAT_SLOTS) {
+      exportMisses.increment()
+      return exporter
+    }
+
+    val entry = moleculeToEntry.get(mol, new java.util.function.Function[Molecule, Entry] {
+      override def apply(m: Molecule): Entry = new Entry(null, null)
+    })
+    val cached = entry.exports.get(slot)
+    if (cached != null) {
+      exportHits.increment()
+      return cached
+    }
+
+    exportMisses.increment()
+    val exported = exporter
+    entry.exports.set(slot, exported)
+    exported
+  }
+
+  private def formatSlot(format: MoleculeFormatType): Int = {
+    formatSlots.getOrElse(format, formatSlots.synchronized {
+      formatSlots.getOrElse(format, {
+        val slot = nextFormatSlot.getAndIncrement()
+        if (slot == MAX_FORMAT_SLOTS) {
+          LOGGER.warn(s"More than $MAX_FORMAT_SLOTS export formats in use; exports to $format will not be cached.")
+        }
+        formatSlots.put(format, slot)
+        slot
+      })
+    })
+  }
+
+  /**
+    * 64 bit FNV-1a over the format and the molecule string, with a separator byte that can't appear in either.
+    */
+  private def hashKey(mol: String, format: MoleculeFormatType): Long = {
+    val FNV_OFFSET_BASIS = 0xcbf29ce484222325L
+    val FNV_PRIME = 0x100000001b3L
+    var hash = FNV_OFFSET_BASIS
+    def update(bytes: Array[Byte]): Unit = {
+      var i = 0
+      while (i < bytes.length) {
+        hash = (hash ^ (bytes(i) & 0xff)) * FNV_PRIME
+        i += 1
+      }
+    }
+    update(format.toString.getBytes(StandardCharsets.UTF_8))
+    update(Array[Byte](0))
+    update(mol.getBytes(StandardCharsets.UTF_8))
+    hash
+  }
+}
@@ -26,12 +26,9 @@ package com.act.analysis.chemicals.molecules
 import chemaxon.formats.MolExporter
 import chemaxon.marvin.io.MolExportException
 import chemaxon.struc.Molecule
-import com.act.analysis.chemicals.molecules.MoleculeFormat.MoleculeFormatType
-import com.github.benmanes.caffeine.cache.{Cache, Caffeine}
 import org.apache.logging.log4j.LogManager
 
 import scala.collection.JavaConverters._
-import scala.collection.concurrent.TrieMap
 
 /**
   * Provides a consistent place to handle molecule exportation
@@ -39,36 +36,22 @@ import scala.collection.concurrent.TrieMap
   */
 object MoleculeExporter {
   private val LOGGER = LogManager.getLogger(getClass)
-  private var maxCacheSize = 10000L
-  // By hashing also on the format we can support a molecule being converted to multiple formats in a given JVM
-  private val moleculeCache = TrieMap[MoleculeFormat.MoleculeFormatType, Cache[Molecule, String]]()
 
   // Defaults to inchi which has aux information.
   private var defaultFormat: List[MoleculeFormat.MoleculeFormatType] = List(MoleculeFormat.inchi)
 
+  // Exports are cached in MoleculeConversionCache, with one slot per format, shared with MoleculeImporter.
   def clearCache(): Unit ={
-    moleculeCache.keySet.foreach(key => moleculeCache.put(key, buildCache(key)))
+    MoleculeConversionCache.clear()
   }
 
   /**
-    * Wipes all the current caches and changes their maximum sizes to the designated value
+    * Wipes the shared conversion cache and changes its maximum size to the designated value
     *
     * @param size Maximum number of elements in the cache
     */
   def setCacheSize(size: Long): Unit = {
-    LOGGER.info(s"${getClass.getCanonicalName} cache size has changed to $size " +
-      s"per ${MoleculeFormatType.getClass.getCanonicalName}.")
-    maxCacheSize = size
-    clearCache()
-  }
-
-  private def buildCache(moleculeFormatType: MoleculeFormatType): Cache[Molecule, String] = {
-    val caffeine = Caffeine.newBuilder().asInstanceOf[Caffeine[Molecule, String]]
-    caffeine.maximumSize(maxCacheSize)
-
-    // If you want to debug how the cache is doing
-    caffeine.recordStats()
-    caffeine.build[Molecule, String]()
+    MoleculeConversionCache.setMaxSize(size)
   }
 
   def setDefaultFormat(format: MoleculeFormat.MoleculeFormatType): Unit = {
@@ -99,21 +82,8 @@ object MoleculeExporter {
 
   // The basic format
   def exportMolecule(mol: Molecule, format: MoleculeFormat.MoleculeFormatType): String = {
-    val formatCache = moleculeCache.get(format)
-
-    if (formatCache.isEmpty) {
-      moleculeCache.put(format, buildCache(format))
-    }
-
-    val moleculeString: Option[String] = Option(moleculeCache(format).getIfPresent(mol))
-
-    if (moleculeString.isEmpty) {
-      val newFormat = MolExporter.exportToFormat(mol, MoleculeFormat.getExportString(format))
-      moleculeCache(format).put(mol, newFormat)
-      return newFormat
-    }
-
-    moleculeString.get
+    MoleculeConversionCache.exportMolecule(mol, format,
+      MolExporter.exportToFormat(mol, MoleculeFormat.getExportString(format)))
   }
 
   @throws[MolExportException]
@@ -26,42 +26,25 @@ package com.act.analysis.chemicals.molecules
 import act.shared.Chemical
 import chemaxon.formats.{MolFormatException, MolImporter}
 import chemaxon.struc.Molecule
-import com.act.analysis.chemicals.molecules.MoleculeFormat.MoleculeFormatType
-import com.github.benmanes.caffeine.cache.{Cache, Caffeine}
 import org.apache.logging.log4j.LogManager
 
 import scala.collection.JavaConverters._
-import scala.collection.concurrent.TrieMap
 
 object MoleculeImporter {
   private val LOGGER = LogManager.getLogger(getClass)
-  private var maxCacheSize = 10000L
-  // Have a cache for each format.
-  private val moleculeCache = TrieMap[MoleculeFormat.MoleculeFormatType, Cache[String, Molecule]]()
 
+  // Imports are cached in MoleculeConversionCache, which is shared with MoleculeExporter.
   def clearCache(): Unit = {
-    moleculeCache.keySet.foreach(key => moleculeCache.put(key, buildCache(key)))
+    MoleculeConversionCache.clear()
   }
 
   /**
-    * Wipes all the current caches and changes their maximum sizes to the designated value
+    * Wipes the shared conversion cache and changes its maximum size to the designated value
     *
     * @param size Maximum number of elements in the cache
     */
   def setCacheSize(size: Long): Unit = {
-    LOGGER.info(s"${getClass.getCanonicalName} cache size has changed to $size " +
-      s"per ${MoleculeFormatType.getClass.getCanonicalName}.")
-    maxCacheSize = size
-    clearCache()
-  }
-
-  private def buildCache(moleculeFormatType: MoleculeFormatType): Cache[String, Molecule] = {
-    val caffeine = Caffeine.newBuilder().asInstanceOf[Caffeine[String, Molecule]]
-    caffeine.maximumSize(maxCacheSize)
-
-    // If you want to debug how the cache is doing
-    caffeine.recordStats()
-    caffeine.build[String, Molecule]()
+    MoleculeConversionCache.setMaxSize(size)
   }
 
   // For java
@@ -106,25 +89,15 @@ object MoleculeImporter {
 
   @throws[MolFormatException]
   def importMolecule(mol: String, format: MoleculeFormat.MoleculeFormatType): Molecule = {
-    val formatCache = moleculeCache.get(format)
-    if (formatCache.isEmpty) {
-      moleculeCache.put(format, buildCache(format))
-    }
-
-    val molecule: Option[Molecule] = Option(moleculeCache(format).getIfPresent(mol))
-
-    if (molecule.isEmpty) {
+    MoleculeConversionCache.importMolecule(mol, format, {
       val newMolecule = MolImporter.importMol(mol, MoleculeFormat.getImportString(format))
 
       // Note: All these functions work in place on the molecule...
       val cleaningApplyFunction = MoleculeFormat.Cleaning.applyCleaningOnMolecule(newMolecule)_
       format.cleaningOptions.foreach(cleaningApplyFunction)
 
-      moleculeCache(format).put(mol, newMolecule)
-      return newMolecule
-    }
-
-    molecule.get
+      newMolecule
+    })
   }
 
   @throws[MolFormatException]
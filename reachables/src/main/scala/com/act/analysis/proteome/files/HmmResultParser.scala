@@ -27,6 +27,8 @@ import java.io.File
 
 import org.apache.logging.log4j.LogManager
 
+import scala.collection.mutable.ListBuffer
+
 /**
   * Takes in a HMM result
   *
@@ -39,11 +41,15 @@ import org.apache.logging.log4j.LogManager
   * The lines of results that are good have a format described in HmmResultLine.
   *
   * Should be called as HmmResultParser.parseFile(<FileName>) which gives back a list of maps of each of the lines.
+  *
+  * Output from a run with multiple queries repeats the above once per query, see parseQueries.
   */
 object HmmResultParser {
   private val logger = LogManager.getLogger(getClass.getName)
   private val START_PARSING_INDICATOR = "------- ------ -----"
   private val STOP_PARSING_INDICATOR = "inclusion threshold"
+  private val QUERY_INDICATOR = "Query:"
+  private val QUERY_END_INDICATOR = "//"
 
   def parseFile(lines: Iterator[String]): Iterator[Map[String, String]] = {
     // Group 2 has everything after the start parsing indicator
@@ -74,6 +80,43 @@ object HmmResultParser {
     result_proteins._1.map(HmmResultLine.parse)
   }
 
+  /**
+    * Splits the output of a multi-query run into one result per query.
+    *
+    * Each query's section starts with a "Query:" line naming it and ends with a "//" line.  Only the current
+    * section is buffered, so the full output of a long run never needs to be held in memory.
+    *
+    * @param lines Lines of HMMER output, such as the stdout of a running phmmer process.
+    *
+    * @return Pairs of the query name and that query's result lines, in the order the queries were run.
+    */
+  def parseQueries(lines: Iterator[String]): Iterator[(String, List[Map[String, String]])] = {
+    val bufferedLines = lines.buffered
+
+    new Iterator[(String, List[Map[String, String]])] {
+      override def hasNext: Boolean = {
+        // Skip the run's header, which comes before the first query
+        while (bufferedLines.hasNext && !bufferedLines.head.startsWith(QUERY_INDICATOR)) bufferedLines.next()
+        bufferedLines.hasNext
+      }
+
+      override def next(): (String, List[Map[String, String]]) = {
+        if (!hasNext) throw new NoSuchElementException("No more queries in HMMER output.")
+
+        // Query:       12345  [L=112]
+        val queryName = bufferedLines.next().stripPrefix(QUERY_INDICATOR).trim.split("\\s+")(0)
+
+        val queryLines = new ListBuffer[String]()
+        while (bufferedLines.hasNext && !bufferedLines.head.trim.equals(QUERY_END_INDICATOR)) {
+          queryLines.append(bufferedLines.next())
+        }
+        if (bufferedLines.hasNext) bufferedLines.next()
+
+        (queryName, parseFile(queryLines.iterator).toList)
+      }
+    }
+  }
+
   def parseFile(openFile: File): Iterator[Map[String, String]] = {
     /*
       Note: If we are using an iterator here, we can't use .length to determine anything.
@@ -27,6 +27,7 @@ import java.io.File
 
 import com.act.analysis.chemicals.ChemicalSimilarity
 import com.act.workflow.tool_manager.jobs.Job
+import com.act.workflow.tool_manager.jobs.management.utility.JobResultCache
 import com.act.workflow.tool_manager.tool_wrappers.{ClustalOmegaWrapper, ScalaJobWrapper}
 import com.act.workflow.tool_manager.workflow.Workflow
 import com.act.workflow.tool_manager.workflow.workflow_mixins.base.WorkingDirectoryUtility
@@ -51,6 +52,7 @@ class OrganismBasedRoToLcmsScoring extends Workflow with RoToSequences with SarT
   private val OPTION_OUTPUT_TSV = "t"
   private val OPTION_ORGANISM_REGEX = "o"
   private val OPTION_CHEMICAL_SIMILARITY_STRING = "s"
+  private val OPTION_CACHE_DIRECTORY = "k"
 
   override def getCommandLineOptions: Options = {
 
@@ -114,6 +116,13 @@ class OrganismBasedRoToLcmsScoring extends Workflow with RoToSequences with SarT
           "Different parameters can be tuned and also provided as the input string, " +
           "which can be found at the previously mentioned web link."),
 
+      CliOption.builder(OPTION_CACHE_DIRECTORY).
+        longOpt("cache-directory").
+        hasArg.
+        desc("A directory in which to cache the SAR tree scoring results.  If the aligned FASTA file, " +
+          "InChI corpus and similarity method match a previous run, the scoring is skipped and the previous " +
+          "output is restored.  Note that the contents of the database are not considered."),
+
       CliOption.builder("h").argName("help").desc("Prints this help message").longOpt("help")
     )
     val opts: Options = new Options()
@@ -184,6 +193,13 @@ class OrganismBasedRoToLcmsScoring extends Workflow with RoToSequences with SarT
       ScalaJobWrapper.wrapScalaFunction("Construct SAR Trees",
         constructSarTreesFromAlignedFasta(alignedFastaPath, inchiFile, outputFile) _
       )
+    if (cl.hasOption(OPTION_CACHE_DIRECTORY)) {
+      sarTrees.cacheResultsIn(
+        new JobResultCache(new File(cl.getOptionValue(OPTION_CACHE_DIRECTORY))),
+        List(alignedFastaPath, inchiFile),
+        List(outputFile),
+        List(cl.getOptionValue(OPTION_DATABASE), cl.getOptionValue(OPTION_CHEMICAL_SIMILARITY_STRING, "")))
+    }
     headerJob.thenRun(sarTrees)
 
     headerJob
@@ -23,8 +23,10 @@
 
 package com.act.analysis.proteome.scripts
 
-import java.io.{File, FileNotFoundException, InputStream, OutputStream}
+import java.io.{BufferedWriter, File, FileNotFoundException, FileWriter}
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ArrayBlockingQueue, ConcurrentHashMap, ConcurrentLinkedQueue, ExecutionException, Future}
+import java.util.concurrent.{ThreadPoolExecutor, TimeUnit}
 
 import act.shared.{Seq => DbSeq}
 import com.act.analysis.proteome.files.HmmResultParser
@@ -33,16 +35,14 @@ import com.act.workflow.tool_manager.workflow.workflow_mixins.mongo.sequence_db.
 import com.act.workflow.tool_manager.workflow.workflow_mixins.mongo.{MongoKeywords, SequenceKeywords}
 import com.mongodb.{BasicDBList, BasicDBObject}
 import org.apache.commons.cli.{CommandLine, DefaultParser, HelpFormatter, Options, ParseException, Option => CliOption}
-import org.apache.commons.io.{FileUtils, IOUtils}
+import org.apache.commons.codec.digest.DigestUtils
+import org.apache.commons.io.FileUtils
 import org.apache.logging.log4j.LogManager
 import org.json.{JSONArray, JSONObject}
 
-import scala.collection.JavaConversions._
 import scala.collection.JavaConverters._
+import scala.collection.mutable
 import scala.collection.mutable.ListBuffer
-import scala.concurrent.ExecutionContext.Implicits.global
-import scala.concurrent.duration.Duration
-import scala.concurrent.{Await, Future}
 import scala.sys.process._
 
 object OddSequencesToProteinPredictionFlow extends ConditionalToSequence {
@@ -56,12 +56,17 @@ object OddSequencesToProteinPredictionFlow extends ConditionalToSequence {
   private val OPTION_WORKING_DIRECTORY = "w"
   private val OPTION_COMPARE_PROTEOME_LOCATION = "l"
   private val OPTION_DATABASE = "d"
+  private val OPTION_THREADS = "t"
+  private val DEFAULT_THREADS = Runtime.getRuntime.availableProcessors
+  // Sequences sharing a proteome set are sent to phmmer in groups of at most this many queries, so that a large
+  // group can still be split across workers.
+  private val QUERY_GROUP_SIZE = 100
   private val found = new AtomicInteger()
   private val processed = new AtomicInteger()
   private val foundWithSequenceInferred = new AtomicInteger()
   private val counterDisplayRate = 10
   private var orgsToProteomes: Map[String, List[File]] = Map()
-  private var hasInit = false
+  private var initializedProteomeLocation: Option[File] = None
 
 
   def main(args: Array[String]): Unit = {
@@ -113,6 +118,11 @@ object OddSequencesToProteinPredictionFlow extends ConditionalToSequence {
         desc("The name of the MongoDB to use for this query.").
         required(true),
 
+      CliOption.builder(OPTION_THREADS).
+        longOpt("threads").
+        hasArg.
+        desc(s"The number of phmmer processes to run at once. Default is the number of processors ($DEFAULT_THREADS)."),
+
       CliOption.builder("h").argName("help").desc("Prints this help message").longOpt("help")
     )
 
@@ -133,6 +143,7 @@ object OddSequencesToProteinPredictionFlow extends ConditionalToSequence {
     val workingDir = new File(cl.getOptionValue(OPTION_WORKING_DIRECTORY, null))
     val proteomeLocation = new File(cl.getOptionValue(OPTION_COMPARE_PROTEOME_LOCATION))
     val database = cl.getOptionValue(OPTION_DATABASE)
+    val threads = cl.getOptionValue(OPTION_THREADS, DEFAULT_THREADS.toString).toInt
 
     /* - - - - Setup Directory structure - - - - */
     // Note: These are all temporary given we are writing everything to a DB in the end.
@@ -147,25 +158,24 @@ object OddSequencesToProteinPredictionFlow extends ConditionalToSequence {
 
     /* - - - - Counters used to track our progress as we go - - - - */
     logger.info("Starting assignment of inferred sequences to odd database entries.")
-    val sequenceSearch: (DbSeq) => Boolean = defineSequenceSearch(fastaDirectory)(Some(proteomeLocation))(database)
-
-    // .par evaluates the iterator which takes a while (It is a mongoDB cursor movement).
-    // We can get everything going right away AND in parallel by just making it into a future.
-    val futureList = Future.traverse(matchingSequences)(x => Future(sequenceSearch(x)))
-
-    Await.ready(futureList, Duration.Inf)
+    // The cursor is consumed as phmmer workers free up, rather than being drained into one future per sequence.
+    inferSequences(fastaDirectory)(Some(proteomeLocation))(database)(matchingSequences, threads)
 
     // Cleanup our file structure
     FileUtils.deleteDirectory(fastaDirectory)
   }
 
-  def init(proteomeLocation: File) = {
-    logger.info("Creating a table of reference proteomes for future lookup.")
-    if (!proteomeLocation.exists()) throw new FileNotFoundException(s"Proteome location of ${proteomeLocation.getAbsolutePath} does not exist.")
-    /* - - - - Discover relevant sequence entries, put their organisms into a lookup table - - - - */
-    val organismProteomes = proteomeLocation.listFiles().toList
-    orgsToProteomes = classifyOrganismByProteome(organismProteomes)
-    logger.info("Finished creating reference proteome table.")
+  def init(proteomeLocation: File): Unit = synchronized {
+    // Only rebuild the lookup table if we are pointed at a different set of reference proteomes.
+    if (!initializedProteomeLocation.exists(_.equals(proteomeLocation))) {
+      logger.info("Creating a table of reference proteomes for future lookup.")
+      if (!proteomeLocation.exists()) throw new FileNotFoundException(s"Proteome location of ${proteomeLocation.getAbsolutePath} does not exist.")
+      /* - - - - Discover relevant sequence entries, put their organisms into a lookup table - - - - */
+      val organismProteomes = proteomeLocation.listFiles().toList
+      orgsToProteomes = classifyOrganismByProteome(organismProteomes)
+      initializedProteomeLocation = Option(proteomeLocation)
+      logger.info("Finished creating reference proteome table.")
+    }
   }
 
   def oddQuery(): BasicDBObject = {
@@ -257,82 +267,180 @@ object OddSequencesToProteinPredictionFlow extends ConditionalToSequence {
                           (sequence: DbSeq): Boolean = {
     // TODO Check if the database already has an entry for this seq that is inferred.
     // If it is empty, return false, else return true
-    val proteomeLocation = if (currentProteomeLocation.isDefined) {
-      currentProteomeLocation.get
-    } else {
-      defaultReferenceProteomes
-    }
+    inferSequences(fastaDirectory)(currentProteomeLocation)(database)(Iterator(sequence), threads = 1).nonEmpty
+  }
 
-    if (!hasInit) {
-      init(proteomeLocation)
-      hasInit = true
-    }
-    /* - - - - Setup temp files that will hold the data prior to database upload - - - - */
-    val prefix = sequence.getUUID.toString
-    val outputFastaPath = new File(fastaDirectory, s"$prefix.output.fasta")
+  /**
+    * Infers full sequences for each of the supplied odd sequences and stores them in the database, under each
+    * sequence's "inferred_sequences" metadata field.
+    *
+    * @param fastaDirectory          Scratch directory for query files and the cached concatenated proteomes.
+    * @param currentProteomeLocation Directory of reference proteomes, or None to use the default location.
+    * @param database                The MongoDB that the sequences come from and are written back to.
+    * @param sequences               The odd sequences.  This may be a database cursor, it is consumed only once.
+    * @param threads                 The maximum number of phmmer processes to run at once.
+    *
+    * @return The ids of the sequences that had at least one sequence inferred for them.
+    */
+  def inferSequences(fastaDirectory: File)
+                    (currentProteomeLocation: Option[File])
+                    (database: String)
+                    (sequences: Iterator[DbSeq], threads: Int = DEFAULT_THREADS): Set[Long] = {
+    val proteomeLocation = currentProteomeLocation.getOrElse(defaultReferenceProteomes)
+    val mongoDatabaseConnection = connectToMongoDatabase(database)
 
-    if (processed.incrementAndGet() % counterDisplayRate == 0) {
-      logger.debug(s"Found reference proteome for ${found.get()} " +
-        s"(${foundWithSequenceInferred.get()} with inferred sequences) out of ${processed.get()} sequences")
-    }
+    searchSequences(fastaDirectory, proteomeLocation, threads)(sequences)((sequence, resultingSequences) => {
+      /* - - - - Do the update to the database - - - - */
+      val metadata = sequence.getMetadata
+      val inferArray = new JSONArray()
+      resultingSequences.map(_.asJson).foreach(inferArray.put)
 
-    // Figure out which reference proteomes should be used for this sequence
-    val proteomesToQueryAgainst = getMatchingProteomes(sequence)
-    if (proteomesToQueryAgainst.isEmpty) return false
-    found.incrementAndGet()
+      if (resultingSequences.nonEmpty) {
+        logger.debug(s"Finished inferring additional sequences for sequence ${sequence.getUUID}")
+      }
 
-    // Create the FASTA file out of the database sequence
-    writeFastaFileForEachDocument(database, outputFastaPath)(sequence.getUUID.toLong)
+      metadata.put("inferred_sequences", inferArray)
+      sequence.setMetadata(metadata)
 
-    /* - - - - Use Phmmer to find matching/close sequences - - - - */
-    var hmmResponse: Option[List[String]] = None
-    def writeFastaToStdin(out: OutputStream) {
-      val output = createUberProteome(proteomesToQueryAgainst.get)
-      output.foreach(x => out.write(x.getBytes))
-      out.close()
-    }
+      mongoDatabaseConnection.updateMetadata(sequence)
+    })
+  }
 
-    def readHmmResultOutput(in: InputStream): Unit = {
-      hmmResponse = Some(IOUtils.toString(in, "UTF-8").split("\n").toList)
-      in.close()
-    }
-    def logErrors(err: InputStream) {
-      val error = IOUtils.toString(err, "UTF-8")
-      if (error.nonEmpty) {
-        logger.error(error)
-      }
-      err.close()
+  /**
+    * Runs phmmer for each sequence against the reference proteomes of its organism (Or genus).
+    *
+    * Sequences that resolve to the same proteome set are written to a shared query file and searched by a single
+    * phmmer invocation, against a concatenated proteome that is only built once for that set.  At most `threads`
+    * invocations run at once; when all of them are busy the caller runs the next group itself, which keeps the
+    * sequence iterator from being read far ahead of the searches.
+    *
+    * @param fastaDirectory   Scratch directory for query files and the cached concatenated proteomes.
+    * @param proteomeLocation Directory of reference proteomes.
+    * @param threads          The maximum number of phmmer processes to run at once.
+    * @param phmmerCommand    The phmmer executable to run.
+    * @param sequences        The sequences to search for.
+    * @param onResult         Called from a worker thread with each searched sequence and the sequences inferred for it.
+    *
+    * @return The ids of the sequences that had at least one sequence inferred for them.
+    */
+  def searchSequences(fastaDirectory: File, proteomeLocation: File, threads: Int = DEFAULT_THREADS,
+                      phmmerCommand: String = HmmerWrapper.HmmCommands.Phmmer.getCommand)
+                     (sequences: Iterator[DbSeq])
+                     (onResult: (DbSeq, List[SequenceEntry]) => Unit): Set[Long] = {
+    init(proteomeLocation)
+
+    val proteomeCache = new ProteomeCache(setupDirectory(fastaDirectory, "proteomeCache"))
+    val inferredIds = new ConcurrentLinkedQueue[Long]()
+
+    def searchGroup(proteomes: List[File], group: List[DbSeq]): Unit = {
+      val inferred = searchGroupWithPhmmer(fastaDirectory, proteomeLocation, phmmerCommand,
+        proteomeCache.get(proteomes), group, onResult)
+      inferredIds.addAll(inferred.asJavaCollection)
     }
-    // We grab the exit code to ensure that the process has completed before deleting the file.
-    List(HmmerWrapper.HmmCommands.Phmmer.getCommand, outputFastaPath.getAbsolutePath, "-").
-      run(new ProcessIO(writeFastaToStdin, readHmmResultOutput, logErrors)).
-      exitValue()
 
-    FileUtils.deleteQuietly(outputFastaPath)
+    val pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue[Runnable](threads), new ThreadPoolExecutor.CallerRunsPolicy)
+    val submitted = new ListBuffer[Future[_]]()
+    def submit(proteomes: List[File], group: List[DbSeq]): Unit = {
+      submitted.append(pool.submit(new Runnable {
+        override def run(): Unit = searchGroup(proteomes, group)
+      }))
+    }
 
-    /* - - - - Take the HMM result and parse the source sequence file for the sequence - - - - */
-    val sourceSequenceLinks = getRelevantSequencesFromPhmmerStdout(hmmResponse.get, proteomeLocation)
-    val resultingSequences = parseResultSequences(sourceSequenceLinks)
+    try {
+      // Groups are flushed as soon as they fill up, so only partially filled groups are held in memory.
+      val pendingGroups = new mutable.HashMap[List[File], ListBuffer[DbSeq]]()
+      sequences.foreach(sequence => {
+        if (processed.incrementAndGet() % counterDisplayRate == 0) {
+          logger.debug(s"Found reference proteome for ${found.get()} " +
+            s"(${foundWithSequenceInferred.get()} with inferred sequences) out of ${processed.get()} sequences")
+        }
+
+        // Figure out which reference proteomes should be used for this sequence
+        val proteomesToQueryAgainst = getMatchingProteomes(sequence)
+        if (proteomesToQueryAgainst.isDefined) {
+          found.incrementAndGet()
+          val group = pendingGroups.getOrElseUpdate(proteomesToQueryAgainst.get, new ListBuffer[DbSeq]())
+          group.append(sequence)
+
+          if (group.length >= QUERY_GROUP_SIZE) {
+            pendingGroups.remove(proteomesToQueryAgainst.get)
+            submit(proteomesToQueryAgainst.get, group.toList)
+          }
+        }
+      })
+      pendingGroups.foreach({ case (proteomes, group) => submit(proteomes, group.toList) })
+
+      submitted.foreach(future => {
+        try {
+          future.get()
+        } catch {
+          case e: ExecutionException => throw new RuntimeException(e.getCause)
+        }
+      })
+    } finally {
+      pool.shutdown()
+    }
 
-    /* - - - - Do the update to the database - - - - */
-    val mongoDatabaseConnection = connectToMongoDatabase(database)
-    val metadata = sequence.getMetadata
-    val inferArray = new JSONArray()
-    val jsons = resultingSequences.asJavaCollection.map(x => x.asJson)
-    jsons.foreach(inferArray.put)
+    inferredIds.asScala.toSet
+  }
 
+  /**
+    * Searches a group of sequences that share the same reference proteomes with one phmmer invocation.
+    *
+    * @return The ids of the sequences in the group that had at least one sequence inferred for them.
+    */
+  private def searchGroupWithPhmmer(fastaDirectory: File, proteomeLocation: File, phmmerCommand: String,
+                                    uberProteome: File, group: List[DbSeq],
+                                    onResult: (DbSeq, List[SequenceEntry]) => Unit): List[Long] = {
+    val sequencesByQueryName: Map[String, DbSeq] = group.map(s => (s.getUUID.toString, s)).toMap
+    val queryFasta = File.createTempFile("phmmer_queries", ".fasta", fastaDirectory)
+    writeQueryFasta(queryFasta, group)
+
+    val inferred = new ListBuffer[Long]()
+    try {
+      /* - - - - Use Phmmer to find matching/close sequences - - - - */
+      // A multi-query phmmer rewinds its target for every query, so the target must be a file rather than stdin.
+      // The output stream is parsed one query block at a time, so it is never held in memory as a whole.
+      val phmmerOutput = List(phmmerCommand, queryFasta.getAbsolutePath, uberProteome.getAbsolutePath).
+        lines_!(ProcessLogger(error => logger.error(error))).iterator
+
+      HmmResultParser.parseQueries(phmmerOutput).foreach({ case (queryName, hits) =>
+        val sequence = sequencesByQueryName.get(queryName)
+        if (sequence.isEmpty) {
+          logger.error(s"phmmer reported results for query $queryName, which was not part of the query file.")
+        } else {
+          /* - - - - Take the HMM result and parse the source sequence file for the sequence - - - - */
+          val sourceSequenceLinks = getRelevantSequencesFromPhmmerResults(hits, proteomeLocation)
+          val resultingSequences = parseResultSequences(sourceSequenceLinks)
+
+          if (resultingSequences.nonEmpty) {
+            foundWithSequenceInferred.incrementAndGet()
+            inferred.append(sequence.get.getUUID.toLong)
+          }
 
-    if (resultingSequences.nonEmpty) {
-      logger.debug(s"Finished inferring additional sequences for sequence ${sequence.getUUID}")
-      foundWithSequenceInferred.incrementAndGet()
+          onResult(sequence.get, resultingSequences)
+        }
+      })
+    } finally {
+      FileUtils.deleteQuietly(queryFasta)
     }
 
-    metadata.put("inferred_sequences", inferArray)
-    sequence.setMetadata(metadata)
-
-    mongoDatabaseConnection.updateMetadata(sequence)
+    inferred.toList
+  }
 
-    resultingSequences.nonEmpty
+  private def writeQueryFasta(outputFile: File, sequences: List[DbSeq]): Unit = {
+    val outputWriter = new BufferedWriter(new FileWriter(outputFile))
+    try {
+      sequences.foreach(sequence => {
+        // The id is the whole header, which is what phmmer reports as the query name.
+        // FASTA format defines X as an unknown amino acid, while some sequences in our DB use * to designate that.
+        outputWriter.write(s">${sequence.getUUID}\n")
+        outputWriter.write(s"${sequence.getSequence.replace("*", "X")}\n")
+      })
+    } finally {
+      outputWriter.close()
+    }
   }
 
   private def getMatchingProteomes(sequence: DbSeq): Option[List[File]] = {
@@ -353,29 +461,69 @@ object OddSequencesToProteinPredictionFlow extends ConditionalToSequence {
     }
   }
 
-  private def createUberProteome(files: List[File]): Iterator[String] ={
+  /**
+    * Writes each concatenated set of reference proteomes to disk once, the first time it is needed.
+    *
+    * Files are named after the proteomes they contain (Including their sizes and modification times), so a
+    * concatenated proteome left in the cache directory by an earlier run is reused only if its sources are unchanged.
+    */
+  private class ProteomeCache(cacheDirectory: File) {
+    private val entries = new ConcurrentHashMap[List[File], CachedProteome]()
+
+    def get(proteomes: List[File]): File = {
+      entries.putIfAbsent(proteomes, new CachedProteome(proteomes))
+      entries.get(proteomes).file
+    }
+
+    private class CachedProteome(proteomes: List[File]) {
+      // Lazy vals are initialized under a lock, so concurrent groups with the same proteomes write this only once.
+      lazy val file: File = {
+        val key = proteomes.map(f => s"${f.getAbsolutePath}:${f.length}:${f.lastModified}").mkString("\n")
+        val cachedFile = new File(cacheDirectory, s"${DigestUtils.sha1Hex(key)}.fasta")
+        if (!cachedFile.exists) {
+          // Write to a temporary file first so an interrupted write is never mistaken for a complete one.
+          val partialFile = new File(cacheDirectory, s"${cachedFile.getName}.partial")
+          createUberProteome(proteomes, partialFile)
+          if (!partialFile.renameTo(cachedFile)) {
+            throw new RuntimeException(s"Unable to move concatenated proteome to ${cachedFile.getAbsolutePath}")
+          }
+        }
+        cachedFile
+      }
+    }
+  }
+
+  private def createUberProteome(files: List[File], outputFile: File): Unit = {
     /*
     Sometimes, there might be matching organism proteomes
     (Multiple strains or genus-level matching), so we make one file containing all of them
     */
-    val lines = files.toIterator.flatMap(f => {
-        val fileMap = scala.io.Source.fromFile(f).getLines.map(l => {
-          // Fasta headers start with '>', indicating a new sequence is being shown.
-          val currentLine = if (l.startsWith(">")) {
-            // Keep a reference to the FASTA file that this sequence is in by referencing it in the fasta header
-            s">${f.getName} | ${l.replaceFirst(">", "")}\n"
-          } else {
-            s"$l\n"
-          }
-          currentLine
-        })
-        fileMap
-    })
-    lines
+    val outputWriter = new BufferedWriter(new FileWriter(outputFile))
+    try {
+      files.foreach(f => {
+        val inputProteome = scala.io.Source.fromFile(f)
+        try {
+          inputProteome.getLines.foreach(l => {
+            // Fasta headers start with '>', indicating a new sequence is being shown.
+            val currentLine = if (l.startsWith(">")) {
+              // Keep a reference to the FASTA file that this sequence is in by referencing it in the fasta header
+              s">${f.getName} | ${l.replaceFirst(">", "")}\n"
+            } else {
+              s"$l\n"
+            }
+            outputWriter.write(currentLine)
+          })
+        } finally {
+          inputProteome.close()
+        }
+      })
+    } finally {
+      outputWriter.close()
+    }
   }
 
-  private def getRelevantSequencesFromPhmmerStdout(lines: List[String], proteomeLocation: File): List[SequenceConnection] = {
-    val parsedFile = HmmResultParser.parseFile(lines.toIterator).toList
+  private def getRelevantSequencesFromPhmmerResults(parsedFile: List[Map[String, String]],
+                                                    proteomeLocation: File): List[SequenceConnection] = {
     parsedFile.map(p =>
       SequenceConnection(
         new File(proteomeLocation, p(HmmResultParser.HmmResultLine.SEQUENCE_NAME)),
@@ -32,6 +32,7 @@ import com.act.biointerpretation.sarinference.SarTreeNode.ScoringFunctions
 import com.act.biointerpretation.sarinference.{LibMcsClustering, ProductScorer, SarTreeNodeList}
 import com.act.jobs.JavaRunnable
 import com.act.workflow.tool_manager.jobs.Job
+import com.act.workflow.tool_manager.jobs.management.utility.JobResultCache
 import com.act.workflow.tool_manager.tool_wrappers.{JavaJobWrapper, ScalaJobWrapper}
 import com.act.workflow.tool_manager.workflow.Workflow
 import com.act.workflow.tool_manager.workflow.workflow_mixins.base.WorkingDirectoryUtility
@@ -54,6 +55,7 @@ class UntargetedMetabolomicsWorkflow extends Workflow with WorkingDirectoryUtili
   private val OPTION_LCMS_INPUT = "l"
   private val OPTION_STARTING_POINT = "S"
   private val OPTION_ENDING_POINT = "E"
+  private val OPTION_CACHE_DIRECTORY = "c"
 
   // This heuristically balances the consideration of wanting high percentage to rank
   // highly, but not wanting those with only a couple of total matches to rank highly,
@@ -116,6 +118,14 @@ class UntargetedMetabolomicsWorkflow extends Workflow with WorkingDirectoryUtili
         .desc("What point of the workflow to end at. Handled similarly to starting point. Default is to run until " +
           "the last step, namely meshing the results."),
 
+      CliOption.builder(OPTION_CACHE_DIRECTORY).
+        required(false).
+        hasArg.
+        longOpt("cache-directory").
+        desc("A directory in which to cache the outputs of the expansion, clustering and scoring jobs.  Jobs whose " +
+          "inputs and parameters match a previous run are skipped and their outputs restored from this directory, " +
+          "so a failed workflow can be rerun without recomputing every upstream step."),
+
       CliOption.builder("h").argName("help").desc("Prints this help message").longOpt("help")
     )
 
@@ -219,6 +229,21 @@ class UntargetedMetabolomicsWorkflow extends Workflow with WorkingDirectoryUtili
       maxMass = Integer.parseInt(cl.getOptionValue(OPTION_MASS_THRESHOLD))
     }
 
+    val resultCache: Option[JobResultCache] =
+      if (cl.hasOption(OPTION_CACHE_DIRECTORY)) {
+        Option(new JobResultCache(new File(cl.getOptionValue(OPTION_CACHE_DIRECTORY))))
+      } else {
+        None
+      }
+
+    /**
+      * Opts a job into result caching if the user supplied a cache directory.
+      */
+    def cacheIfEnabled(job: Job, inputs: List[File], outputs: List[File], parameters: List[String]): Job = {
+      resultCache.foreach(cache => job.cacheResultsIn(cache, inputs, outputs, parameters))
+      job
+    }
+
     /**
       * Define all jobs
       */
@@ -230,17 +255,22 @@ class UntargetedMetabolomicsWorkflow extends Workflow with WorkingDirectoryUtili
         rawSubstratesFile,
         filteredSubstratesFile,
         maxMass)
-      headerJob.thenRun(JavaJobWrapper.wrapJavaFunction("mass filter", massFilteringRunnable))
+      headerJob.thenRun(cacheIfEnabled(
+        JavaJobWrapper.wrapJavaFunction("mass filter", massFilteringRunnable),
+        List(rawSubstratesFile), List(filteredSubstratesFile), List(maxMass.toString)))
 
       // Build one job per RO for L2 expansion
-      val singleThreadExpansionRunnables =
+      val expansionJobs =
         roIds.map(roId =>
-          L2ExpansionDriver.getRunnableOneSubstrateRoExpander(
-            List(roId).asJava,
-            filteredSubstratesFile,
-            predictionsFiles(roId)))
+          cacheIfEnabled(
+            JavaJobWrapper.wrapJavaFunction("expansion",
+              L2ExpansionDriver.getRunnableOneSubstrateRoExpander(
+                List(roId).asJava,
+                filteredSubstratesFile,
+                predictionsFiles(roId))),
+            List(filteredSubstratesFile), List(predictionsFiles(roId)), List(roId.toString)))
       // Run one job per RO for L2 expansion
-      addJavaRunnableBatch("expansion", singleThreadExpansionRunnables)
+      headerJob.thenRunBatch(expansionJobs)
     }
 
     def addLcmsJob()(): Unit = {
@@ -262,13 +292,16 @@ class UntargetedMetabolomicsWorkflow extends Workflow with WorkingDirectoryUtili
       logger.info("Adding clustering jobs.")
       // TODO: when Michael adds the capability, change this workflow to run the clustering jobs and LCMS job in parallel
       // Build one job per RO for clustering
-      val clusteringRunnables =
+      val clusteringJobs =
         roIds.map(roId =>
-          LibMcsClustering.getClusterer(
-            predictionsFiles(roId),
-            sarTreeFiles(roId)))
+          cacheIfEnabled(
+            JavaJobWrapper.wrapJavaFunction("cluster",
+              LibMcsClustering.getClusterer(
+                predictionsFiles(roId),
+                sarTreeFiles(roId))),
+            List(predictionsFiles(roId)), List(sarTreeFiles(roId)), List(roId.toString)))
       val batchSize = 1 // To limit memory usage
-      addJavaRunnableBatch("cluster", clusteringRunnables, batchSize)
+      headerJob.thenRunBatch(clusteringJobs, batchSize)
     }
 
     def addSarScoringJobs()(): Unit = {
@@ -276,30 +309,40 @@ class UntargetedMetabolomicsWorkflow extends Workflow with WorkingDirectoryUtili
       verifyInputFile(lcmsFile)
 
       // Build one job per RO for sar scoring, using a random set of LCMS hits instead of actual data.
-      val sarScoringRunnables = roIds.map(roId =>
-        LibMcsClustering.getSarScorer(
-          predictionsFiles(roId),
-          sarTreeFiles(roId),
-          lcmsFile,
-          scoredSarsFiles(roId),
-          SAR_SCORING_FUNCTION,
-          SUBTREE_THRESHOLD)
+      val sarScoringJobs = roIds.map(roId =>
+        cacheIfEnabled(
+          JavaJobWrapper.wrapJavaFunction("sarScoring",
+            LibMcsClustering.getSarScorer(
+              predictionsFiles(roId),
+              sarTreeFiles(roId),
+              lcmsFile,
+              scoredSarsFiles(roId),
+              SAR_SCORING_FUNCTION,
+              SUBTREE_THRESHOLD)),
+          List(predictionsFiles(roId), sarTreeFiles(roId), lcmsFile),
+          List(scoredSarsFiles(roId)),
+          List(roId.toString, SAR_SCORING_FUNCTION.toString, SUBTREE_THRESHOLD.toString))
       )
-      addJavaRunnableBatch("sarScoring", sarScoringRunnables)
+      headerJob.thenRunBatch(sarScoringJobs)
     }
 
     def addProductScoringJobs()(): Unit = {
       logger.info("Adding  product scoring job.")
       verifyInputFile(lcmsFile)
 
-      val productScoringRunnables = roIds.map(roId =>
-        ProductScorer.getProductScorer(
-          predictionsFiles(roId),
-          scoredSarsFiles(roId),
-          lcmsFile,
-          scoredProductsFiles(roId)
-        ))
-      addJavaRunnableBatch("productScoring", productScoringRunnables)
+      val productScoringJobs = roIds.map(roId =>
+        cacheIfEnabled(
+          JavaJobWrapper.wrapJavaFunction("productScoring",
+            ProductScorer.getProductScorer(
+              predictionsFiles(roId),
+              scoredSarsFiles(roId),
+              lcmsFile,
+              scoredProductsFiles(roId)
+            )),
+          List(predictionsFiles(roId), scoredSarsFiles(roId), lcmsFile),
+          List(scoredProductsFiles(roId)),
+          List(roId.toString)))
+      headerJob.thenRunBatch(productScoringJobs)
     }
 
     def addMeshResultsJob()(): Unit = {
@@ -398,14 +441,6 @@ class UntargetedMetabolomicsWorkflow extends Workflow with WorkingDirectoryUtili
     Map() ++ roIds.map(r => (r, new File(workingDir, fileName + "." + r.toString)))
   }
 
-  /**
-    * Adds a list of JavaRunnables to the job manager as a batch.
-    */
-  def addJavaRunnableBatch(name: String, runnables: List[JavaRunnable], batchSize: Int = 20): Unit = {
-    val jobs = runnables.map(runnable => JavaJobWrapper.wrapJavaFunction(name, runnable))
-    headerJob.thenRunBatch(jobs, batchSize)
-  }
-
   object StartingPoints {
     sealed case class StartingPoint(name: String){
       override def toString = name
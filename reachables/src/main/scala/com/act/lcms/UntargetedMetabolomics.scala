@@ -243,6 +243,97 @@ class Peak(
 
 class PeakSpectra(val peaks: Set[Peak])
 
+// Sorted (mz, rt) index over the peaks of a single LCMS trace, used to align peaks across traces without
+// the pairwise scans that `MonoIsotopicMass`'s constant hashCode forces on hash based grouping.
+//
+// Peaks are clustered by mz, in ascending mz order: a peak joins the current cluster if its mz `equals` the
+// cluster's key (the lowest mz in it), and starts a new cluster otherwise. Cluster keys are therefore never
+// `equals` to each other, so at most the two keys either side of a query mz can match it. Within a cluster,
+// peaks are sorted by retention time, so that lookups only scan the peaks inside the drift window.
+class AlignedPeakIndex(peaks: Set[Peak]) {
+  // slack on the binary search bounds, so that floating point differences between `a - b < tol` and
+  // `a < b + tol` never exclude a peak that `equals` would accept. Candidates are always checked with `equals`.
+  private val searchSlack = 1e-9
+
+  // clusters in ascending mz order, with the peaks in each cluster also in ascending mz order
+  private val clustersByMz: Array[Array[Peak]] = {
+    val byMz = peaks.toArray.sortBy(_.mz.initMass)
+    val clusters = scala.collection.mutable.ArrayBuffer[scala.collection.mutable.ArrayBuffer[Peak]]()
+    byMz.foreach { p =>
+      if (clusters.isEmpty || !p.mz.equals(clusters.last.head.mz)) {
+        clusters += scala.collection.mutable.ArrayBuffer[Peak]()
+      }
+      clusters.last += p
+    }
+    clusters.map(_.toArray).toArray
+  }
+  private val clusterKeys: Array[MonoIsotopicMass] = clustersByMz.map(_.head.mz)
+  private val clusterPeaks: Array[Array[Peak]] = clustersByMz.map(_.sortBy(_.rt.time))
+  private val clusterMasses: Array[Double] = clusterKeys.map(_.initMass)
+  private val clusterRts: Array[Array[Double]] = clusterPeaks.map(_.map(_.rt.time))
+  private val clusterSets: Array[Set[Peak]] = clusterPeaks.map(_.toSet)
+
+  def mzs: Array[MonoIsotopicMass] = clusterKeys
+
+  // index of the first element of `sorted` that is >= `value`
+  private def lowerBound(sorted: Array[Double], value: Double): Int = {
+    var lo = 0
+    var hi = sorted.length
+    while (lo < hi) {
+      val mid = (lo + hi) >>> 1
+      if (sorted(mid) < value) lo = mid + 1 else hi = mid
+    }
+    lo
+  }
+
+  // the cluster whose key `equals` this mz, preferring the closer key if both neighbours match
+  private def clusterAt(mz: MonoIsotopicMass): Option[Int] = {
+    val idx = lowerBound(clusterMasses, mz.initMass)
+    val candidates = List(idx - 1, idx).filter(i => i >= 0 && i < clusterKeys.length && clusterKeys(i).equals(mz))
+    candidates match {
+      case List() => None
+      case cs => Some(cs.minBy(i => math.abs(clusterMasses(i) - mz.initMass)))
+    }
+  }
+
+  // all peaks in the cluster at this mz, or the empty set if there is none
+  def peaksAt(mz: MonoIsotopicMass): Set[Peak] = clusterAt(mz).map(clusterSets(_)).getOrElse(Set())
+
+  // the peaks in the cluster at this mz that are also at this mz and rt (up to tolerances)
+  def peaksAt(mz: MonoIsotopicMass, rt: RetentionTime): Set[Peak] = clusterAt(mz) match {
+    case None => Set()
+    case Some(c) =>
+      val rts = clusterRts(c)
+      val hi = rt.time + RetentionTime.driftTolerated + searchSlack
+      var i = lowerBound(rts, rt.time - RetentionTime.driftTolerated - searchSlack)
+      val found = Set.newBuilder[Peak]
+      while (i < rts.length && rts(i) <= hi) {
+        val p = clusterPeaks(c)(i)
+        if (p.mz.equals(mz) && p.rt.equals(rt)) found += p
+        i += 1
+      }
+      found.result()
+  }
+}
+
+object AlignedPeakIndex {
+  // the mzs that appear across all traces, where mzs that `equals` one already seen (in trace order) are
+  // dropped, sorted by mass. This is the indexed equivalent of `.distinct.sortBy(_.initMass)` over the keys.
+  def distinctMzs(indices: List[AlignedPeakIndex]): List[MonoIsotopicMass] = {
+    val seen = new java.util.TreeMap[java.lang.Double, MonoIsotopicMass]()
+    def alreadySeen(mz: MonoIsotopicMass): Boolean = {
+      val below = seen.floorEntry(mz.initMass)
+      val above = seen.ceilingEntry(mz.initMass)
+      (below != null && below.getValue.equals(mz)) || (above != null && above.getValue.equals(mz))
+    }
+    for (index <- indices; mz <- index.mzs) {
+      if (!alreadySeen(mz)) seen.put(mz.initMass, mz)
+    }
+    import scala.collection.JavaConverters._
+    seen.values.asScala.toList
+  }
+}
+
 sealed trait HasId {
   val id: String
   override def toString = id
@@ -459,11 +550,13 @@ class UntargetedMetabolomics(val controls: List[RawPeaks], val hypotheses: List[
     val peaksKeyedByMzAndRt = findAlignedPeaks(peakSetsForAllReplicates)
     val peaksByMzAndRtNonEmpty = handleMissingPks(addProxyPeak)(peaksKeyedByMzAndRt)
 
+    // each (mz, rt) group is independent, so we can compare them in parallel
     val sharedPeaks: Set[Peak] = peaksByMzAndRtNonEmpty
+      .toList
+      .par
+      .flatMap(peakCmpFn(_))
+      .seq
       .toSet
-      .map(peakCmpFn)
-      .filter(_.isDefined)
-      .map{ case Some(p) => p }
     val provenance = new ComputedData(sources = exprs.map(_.origin))
     new RawPeaks(provenance, new PeakSpectra(sharedPeaks))
   }
@@ -516,32 +609,27 @@ class UntargetedMetabolomics(val controls: List[RawPeaks], val hypotheses: List[
   //       to those peaks in that experiment that have the corresponding (mz, rt).
   //    -- If there are no peaks at that mz, rt in that experiment then it'll be an empty set at that list loc
   def findAlignedPeaks(exprData: List[Set[Peak]]): Map[(MonoIsotopicMass, RetentionTime), List[Set[Peak]]] = {
-    
-    // first group each peakset in the list of exprs into a map(mz -> peakset)
-    val exprToMzPeaks: List[Map[MonoIsotopicMass, Set[Peak]]] = exprData.map(_.groupBy(_.mz))
-    // then take the mz's out a layer and map each mz -> list(peakset)
-    val allMzs = exprToMzPeaks.flatMap(mp => mp.keys).distinct.sortBy(_.initMass)
-    val peaksAtMz: Map[MonoIsotopicMass, List[Set[Peak]]] = {
-      // for each experiment, get the `mz` if it is there in that experiment, or else empty Set()
-      allMzs.map(mz => mz -> exprToMzPeaks.map(mzPeaks => mzPeaks.getOrElse(mz, Set())))
-    }.toMap
-
-    // now for each mz, find all experiments and all retention times within them where this mz appears
-    val mzRtToPeaks = for (
-      mz <- peaksAtMz.keys;
-      // for each unique mz, find all peaks in each experiment at that mz
+
+    // first index each peakset in the list of exprs by sorted (mz, rt), which groups peaks into mz clusters
+    val exprIndices: List[AlignedPeakIndex] = exprData.map(new AlignedPeakIndex(_))
+    // then take the mz's out a layer, keeping only one of any mzs that are equal across experiments
+    val allMzs: List[MonoIsotopicMass] = AlignedPeakIndex.distinctMzs(exprIndices)
+
+    // now for each mz, find all experiments and all retention times within them where this mz appears.
+    // different mzs never share peaks in this computation, so we process the mz bands in parallel
+    val mzRtToPeaks = allMzs.par.flatMap { mz =>
+      // for each unique mz, find all peaks in each experiment at that mz, or else empty Set()
+      val peaksAtThisMz: List[Set[Peak]] = exprIndices.map(_.peaksAt(mz))
       // and then pull up the optimal covering set of retention times for that mz
-      rt <- optimalRts(peaksAtMz(mz))
-    ) yield {
-      // now filter down to all peaks at that mz, rt
-      val peaksAtThisMz: List[Set[Peak]] = peaksAtMz(mz)
-      // TODO: is filtering on mz redundant? Maybe not so if hashcode for mz always leads to collisions
-      // this filter is done with `equals`
-      val peaksAtThisMzRt: List[Set[Peak]] = peaksAtThisMz.map(s => s.filter(isAtMzRt(mz, rt)))
-      (mz, rt) -> peaksAtThisMzRt
+      optimalRts(peaksAtThisMz).map { rt =>
+        // now narrow down to all peaks at that mz, rt. the index only scans peaks within the drift window,
+        // and checks candidates with `equals` (see `isAtMzRt`)
+        val peaksAtThisMzRt: List[Set[Peak]] = exprIndices.map(_.peaksAt(mz, rt))
+        (mz, rt) -> peaksAtThisMzRt
+      }
     }
 
-    mzRtToPeaks.toMap
+    mzRtToPeaks.seq.toMap
   }
 
   def isAtMzRt(mz: MonoIsotopicMass, rt: RetentionTime)(p: Peak): Boolean = {
@@ -557,8 +645,20 @@ class UntargetedMetabolomics(val controls: List[RawPeaks], val hypotheses: List[
 
     // to do that, we combine all retention times together in one list
     val rtsAcrossAllExpr: List[RetentionTime] = peaksToRtForThisMz.flatten.sortWith(RetentionTime.isLt)
-    // for each element in the list, calculate the number of other elements it is equal to O(n^2)
-    val numElemsEqual: List[Int] = rtsAcrossAllExpr.map(t => rtsAcrossAllExpr.count(r => r.equals(t)))
+    // for each element in the list, calculate the number of other elements it is equal to. since the list is
+    // sorted, only the elements within the drift window around each element need to be checked
+    val numElemsEqual: List[Int] = {
+      val sortedRts = rtsAcrossAllExpr.toArray
+      val times = sortedRts.map(_.time)
+      val slack = 1e-9
+      var lo = 0
+      var hi = 0
+      sortedRts.toList.zipWithIndex.map { case (t, i) =>
+        while (times(lo) < times(i) - RetentionTime.driftTolerated - slack) lo += 1
+        while (hi < times.length && times(hi) <= times(i) + RetentionTime.driftTolerated + slack) hi += 1
+        (lo until hi).count(j => sortedRts(j).equals(t))
+      }
+    }
     // order the retention times according to how many elements before and after they cover
     // Also, to keep it as a stable sort, we ensure that when the counts are equal we order by RT
     val rtsInMaxCoverOrder = rtsAcrossAllExpr
@@ -708,10 +708,6 @@ class Cascade(target: Long) {
       thisSequenceResult
     }).flatten.map(_.asInstanceOf[Long])
 
-    // Here we choose to add inferred sequences for all entries matching
-    lazy val sequenceSearch: (DbSeq) => Boolean =
-      OddSequencesToProteinPredictionFlow.defineSequenceSearch(workingDir)(None)(cascades.DEFAULT_DB._3)
-
     val abstractOrQuestionableSequencesQuery = OddSequencesToProteinPredictionFlow.oddQuery()
     val theseReactions = new BasicDBList
     matchingSequences.foreach(theseReactions.add)
@@ -728,8 +724,9 @@ class Cascade(target: Long) {
     // This is a step that tries to infer sequences when sequences make otherwise be 
     // fragmented or in some be suspect in regard to concreteness.
     if (Cascade.DO_HMMER_SEQ && matchingSequences.diff(oddSeqs.map(_.getUUID.toLong: Long).toSet).size < 5) {
-      // Filter with side effects, eep.
-      val anyInferredSeqs: List[DbSeq] = oddSeqs.filter(sequenceSearch)
+      // Here we choose to add inferred sequences for all entries matching.  The search writes them to the DB as it goes.
+      val anyInferredSeqs: Set[Long] =
+        OddSequencesToProteinPredictionFlow.inferSequences(workingDir)(None)(cascades.DEFAULT_DB._3)(oddSeqs.iterator)
 
       /*
       At this point we have three sets,
@@ -742,7 +739,7 @@ class Cascade(target: Long) {
     */
       val A: Set[Long] = matchingSequences
       val B: Set[Long] = oddSeqs.map(_.getUUID.toLong: Long).toSet
-      val C: Set[Long] = anyInferredSeqs.map(_.getUUID.toLong: Long).toSet
+      val C: Set[Long] = anyInferredSeqs
 
       matchingSequences = A.diff(B).union(C)
       Node.setAttribute(node.id, "hasSequence", matchingSequences.nonEmpty)
@@ -23,8 +23,10 @@
 
 package com.act.workflow.tool_manager.jobs
 
+import java.io.File
+
 import com.act.workflow.tool_manager.jobs.management.JobManager
-import com.act.workflow.tool_manager.jobs.management.utility.AtomicLatch
+import com.act.workflow.tool_manager.jobs.management.utility.{AtomicLatch, JobResultCache}
 import org.apache.logging.log4j.{LogManager, Logger}
 
 import scala.collection.mutable.ListBuffer
@@ -44,6 +46,11 @@ abstract class Job(name: String) {
 
   private val flags: ListBuffer[JobFlag.Flag] = ListBuffer[JobFlag.Flag]()
 
+  private var resultCache: Option[CachedResultDescription] = None
+  // Only set while a job that missed the cache is running, so that we know to store its outputs on success.  Set on
+  // the job's worker thread and read and cleared by whichever thread completes the job.
+  @volatile private var pendingCacheKey: Option[String] = None
+
   /**
     * Adds a flag to this job, which designates that certain, advanced behavior should occur
     *
@@ -62,6 +69,29 @@ abstract class Job(name: String) {
     */
   def getFlags: List[JobFlag.Flag] = flags.toList
 
+  /**
+    * Opts this job into result caching.
+    *
+    * When the job starts, a key is computed from its name, the parameters and the current contents of the input files.
+    * If the cache already holds an entry for that key, the outputs are copied back into place and the job is
+    * marked as a success without running.  Otherwise, the job runs as normal and its outputs are stored on success.
+    *
+    * Only use this for jobs whose outputs are fully determined by the given inputs and parameters.
+    * Anything else the job reads (For example, a database) is not part of the key.
+    *
+    * @param cache      The cache to store outputs in and restore them from
+    * @param inputs     Files or directories the job reads.  Hashed when the job starts, so they may be produced upstream.
+    * @param outputs    Files or directories the job writes
+    * @param parameters Any other values that influence the job's outputs
+    *
+    * @return this, for chaining
+    */
+  def cacheResultsIn(cache: JobResultCache, inputs: List[File], outputs: List[File],
+                     parameters: List[String] = List()): Job = {
+    resultCache = Option(CachedResultDescription(cache, inputs, outputs, parameters))
+    this
+  }
+
   /**
     * Defined by the given type of job to effectively run asynchronously.
     */
@@ -80,7 +110,11 @@ abstract class Job(name: String) {
           case true =>
             logger.trace(s"Started command ${this}")
             internalState.setJobStatus(StatusCodes.Running)
-            asyncJob()
+            if (restoredFromCache()) {
+              markAsSuccess()
+            } else {
+              asyncJob()
+            }
 
           case false =>
             val message = s"Attempted to start a job that has already been started.  " +
@@ -93,6 +127,46 @@ abstract class Job(name: String) {
 
   private def status: StatusManager = internalState.statusManager
 
+  /**
+    * Looks up this job in its result cache, if it has one.
+    *
+    * @return True if the outputs were restored from the cache and the job does not need to run.
+    */
+  private def restoredFromCache(): Boolean = {
+    if (resultCache.isEmpty) return false
+    val description = resultCache.get
+
+    try {
+      val key = description.cache.computeKey(getName, description.parameters, description.inputs)
+      if (description.cache.contains(key)) {
+        logger.info(s"Found cached results for job $getName, skipping execution.")
+        description.cache.restore(key, description.outputs)
+        true
+      } else {
+        pendingCacheKey = Option(key)
+        false
+      }
+    } catch {
+      // A broken cache should never stop the workflow, we just fall back to running the job.
+      case e: Exception =>
+        logger.error(s"Unable to use result cache for job $getName, running it instead: ${e.getMessage}", e)
+        pendingCacheKey = None
+        false
+    }
+  }
+
+  private def storeInCache(): Unit = {
+    if (resultCache.isEmpty || pendingCacheKey.isEmpty) return
+    val description = resultCache.get
+
+    try {
+      description.cache.store(pendingCacheKey.get, description.outputs)
+    } catch {
+      case e: Exception => logger.error(s"Unable to store results of job $getName in cache: ${e.getMessage}", e)
+    }
+    pendingCacheKey = None
+  }
+
   def getName: String = {
     this.name
   }
@@ -166,6 +240,7 @@ abstract class Job(name: String) {
   }
 
   protected def markAsSuccess(): Unit = {
+    storeInCache()
     internalState.markAsSuccess()
   }
 
@@ -174,6 +249,12 @@ abstract class Job(name: String) {
   }
 }
 
+/**
+  * Everything a job needs to know to store its results in, or restore them from, a JobResultCache.
+  */
+case class CachedResultDescription(cache: JobResultCache, inputs: List[File], outputs: List[File],
+                                   parameters: List[String])
+
 class InternalState(job: Job) {
   val runManager = new RunManager(job)
   val statusManager = new StatusManager
@@ -0,0 +1,153 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.workflow.tool_manager.jobs.management.utility
+
+import java.io.{BufferedInputStream, File, FileInputStream}
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+
+import org.apache.commons.codec.binary.Hex
+import org.apache.commons.io.FileUtils
+import org.apache.logging.log4j.LogManager
+
+/**
+  * A content-addressed store of job outputs, kept in a local directory.
+  *
+  * Each entry lives in a subdirectory named after the hash of a job's name, parameters and the contents of its input
+  * files.  An entry is only considered valid once its completion marker has been written, so a job that is killed
+  * halfway through storing its outputs will simply be rerun next time.
+  *
+  * @param cacheDirectory The directory in which all cache entries live.  Created if it does not exist.
+  */
+class JobResultCache(val cacheDirectory: File) {
+  private val logger = LogManager.getLogger(getClass.getName)
+
+  private val COMPLETION_MARKER = "COMPLETE"
+  private val OUTPUT_PREFIX = "output."
+  private val MISSING_FILE_TOKEN = "<missing>"
+  private val READ_BUFFER_SIZE = 1 << 16
+
+  cacheDirectory.mkdirs()
+
+  /**
+    * Computes the key of a job invocation.  Input files are hashed by content, not by path or modification time,
+    * so regenerating an identical upstream file does not invalidate the entry.
+    *
+    * @param jobName    Name of the job, which separates jobs that happen to share inputs.
+    * @param parameters Any non-file parameters that influence the job's output.
+    * @param inputs     Files (or directories) that the job reads.
+    *
+    * @return A hex encoded SHA-256 digest.
+    */
+  def computeKey(jobName: String, parameters: List[String], inputs: List[File]): String = {
+    val digest = MessageDigest.getInstance("SHA-256")
+    updateWithString(digest, jobName)
+    parameters.foreach(updateWithString(digest, _))
+    inputs.foreach(updateWithFile(digest, _))
+    Hex.encodeHexString(digest.digest())
+  }
+
+  def contains(key: String): Boolean = new File(entryDirectory(key), COMPLETION_MARKER).exists
+
+  /**
+    * Copies the outputs of a completed entry back to where the job would have written them.
+    *
+    * @param key     The key of the entry
+    * @param outputs The locations the job writes to, in the same order they were stored in.
+    */
+  def restore(key: String, outputs: List[File]): Unit = {
+    logger.info(s"Restoring ${outputs.length} cached outputs from entry $key")
+    outputs.zipWithIndex.foreach({ case (output, index) =>
+      val cached = new File(entryDirectory(key), s"$OUTPUT_PREFIX$index")
+      if (cached.isDirectory) {
+        FileUtils.deleteQuietly(output)
+        FileUtils.copyDirectory(cached, output)
+      } else if (cached.exists) {
+        FileUtils.copyFile(cached, output)
+      }
+    })
+  }
+
+  /**
+    * Saves the outputs of a job that just completed successfully.  Outputs that the job did not create are skipped,
+    * and will likewise be skipped on restore.
+    *
+    * @param key     The key of the entry
+    * @param outputs The files (or directories) the job wrote.
+    */
+  def store(key: String, outputs: List[File]): Unit = {
+    val entry = entryDirectory(key)
+    FileUtils.deleteQuietly(entry)
+    entry.mkdirs()
+
+    outputs.zipWithIndex.foreach({ case (output, index) =>
+      val cached = new File(entry, s"$OUTPUT_PREFIX$index")
+      if (output.isDirectory) {
+        FileUtils.copyDirectory(output, cached)
+      } else if (output.exists) {
+        FileUtils.copyFile(output, cached)
+      } else {
+        logger.warn(s"Output file ${output.getAbsolutePath} does not exist and will not be cached.")
+      }
+    })
+
+    // The marker goes last so that partially written entries are never treated as hits.
+    FileUtils.touch(new File(entry, COMPLETION_MARKER))
+    logger.info(s"Stored ${outputs.length} outputs in cache entry $key")
+  }
+
+  private def entryDirectory(key: String): File = new File(cacheDirectory, key)
+
+  private def updateWithString(digest: MessageDigest, value: String): Unit = {
+    val bytes = value.getBytes(StandardCharsets.UTF_8)
+    // Length prefix each value so that ("ab", "c") and ("a", "bc") hash differently.
+    digest.update(BigInt(bytes.length).toByteArray)
+    digest.update(bytes)
+  }
+
+  private def updateWithFile(digest: MessageDigest, file: File): Unit = {
+    if (!file.exists) {
+      updateWithString(digest, MISSING_FILE_TOKEN)
+    } else if (file.isDirectory) {
+      // Sort children so that the hash does not depend on the file system's listing order.
+      file.listFiles.sortBy(_.getName).foreach(child => {
+        updateWithString(digest, child.getName)
+        updateWithFile(digest, child)
+      })
+    } else {
+      updateWithString(digest, file.length.toString)
+      val stream = new BufferedInputStream(new FileInputStream(file))
+      try {
+        val buffer = new Array[Byte](READ_BUFFER_SIZE)
+        var read = stream.read(buffer)
+        while (read != -1) {
+          digest.update(buffer, 0, read)
+          read = stream.read(buffer)
+        }
+      } finally {
+        stream.close()
+      }
+    }
+  }
+}
@@ -55,6 +55,10 @@ import squants.thermal.TemperatureConversions.TemperatureConversions
 // TODO is there a better way to import?
 import squants.DimensionlessConversions._
 
+import java.io.Writer
+
+import scala.collection.parallel.ForkJoinTaskSupport
+import scala.concurrent.forkjoin.ForkJoinPool
 import scala.math.sinh
 import org.apache.commons.cli.{CommandLine, DefaultParser, HelpFormatter, Options, ParseException, Option => CliOption}
 import org.apache.logging.log4j.LogManager
@@ -384,6 +388,106 @@ class ROIModel {
   }
 }
 
+/**
+  * The cost, investment and ROI models for one operation mode and location, reduced to a handful of Doubles, so that
+  * large grids of scenarios can be evaluated without allocating squants quantities for every cell.
+  *
+  * The per ton cost of the models above has the form `titerCoefficient / titer + yieldCoefficient / yield + fixed`.
+  * Rather than re-deriving those coefficients by hand, we solve for them by evaluating CostModel itself at three
+  * scenarios, and check the result against a fourth.  That keeps them faithful to squants' arithmetic, e.g., adding
+  * the DSP Price to the fermentation Price keeps the fermentation's product mass, so the DSP cost lands in the titer
+  * coefficient.  Investment and ROI are linear in the curve and the profit per ton, and mirror InvestModel and ROIModel.
+  *
+  * As in the rest of this file, yields are in percent g/g, titers in g/L and prices in USD per ton.
+  */
+class CompiledCostModel(val mode: Defaults.OperationMode, val location: Defaults.Location) {
+  private val investModel = new InvestModel()
+  private val roiModel = new ROIModel()
+
+  private def modelPerTonCost(yieldPercent: Double, titerGPerL: Double): Double = {
+    val cost = new CostModel().getPerTonCost(Yield(yieldPercent grams, 100 grams), Titer(titerGPerL grams, 1 litres),
+      mode, location)
+    cost.convertToBase(1 tonnes).value
+  }
+
+  // Three scenarios give three equations for the three coefficients.
+  private val (titerCoefficient, yieldCoefficient, fixedPerTonCost) = {
+    val base = modelPerTonCost(100, 1)
+    val titerCoefficient = 2 * (base - modelPerTonCost(100, 2))
+    val yieldCoefficient = 100 * (modelPerTonCost(50, 1) - base)
+    (titerCoefficient, yieldCoefficient, base - titerCoefficient - yieldCoefficient / 100)
+  }
+
+  {
+    val yieldPercent = Defaults.defaultYield.ratio * 100
+    val titerGPerL = Defaults.defaultTiter.gPerL
+    val expected = modelPerTonCost(yieldPercent, titerGPerL)
+    val compiled = perTonCost(yieldPercent, titerGPerL)
+    if (math.abs(compiled - expected) > 1e-9 * math.abs(expected)) {
+      throw new IllegalStateException(s"The cost model is no longer of the form a / titer + b / yield + c: " +
+        s"compiled cost $compiled != $expected at the default yield and titer")
+    }
+  }
+
+  private val maxYieldRatio = Defaults.maxYield.ratio
+  private val maxTiterGPerL = Defaults.maxTiter.gPerL
+  private val maxProjectInvestment = investModel.maxProjectInvestment.value
+  private val maxProjectDays = investModel.maxProjectTime.toDays
+
+  // NPV and total gain for a profit of 1 USD per ton, following the profit ramp and discounting in ROIModel.
+  private val (npvPerProfitPerTon, gainPerProfitPerTon) = {
+    val years = roiModel.yearsToFullScale
+    val starting = roiModel.startingVolume.value
+    val step = (roiModel.volume.value - starting) / (years - 2)
+    val profitRamp = (0 until years).map(_ * step + starting)
+    val discounted = profitRamp.zip(1 until years).map({ case (profit, year) =>
+      profit / math.pow(1 + roiModel.rate.value, 1.0 * year)
+    })
+    (discounted.sum, profitRamp.sum)
+  }
+
+  /**
+    * The cost of goods in USD per ton, as CostModel.getPerTonCost.
+    */
+  def perTonCost(yieldPercent: Double, titerGPerL: Double): Double = {
+    titerCoefficient / titerGPerL + yieldCoefficient / yieldPercent + fixedPerTonCost
+  }
+
+  private def investmentCurve(yieldPercent: Double, titerGPerL: Double): Double = {
+    investModel.asymptoticCurve(yieldPercent / 100 / maxYieldRatio, titerGPerL / maxTiterGPerL)
+  }
+
+  /**
+    * The investment needed in USD, as the Money returned by InvestModel.getInvestmentRequired.
+    */
+  def investmentCost(yieldPercent: Double, titerGPerL: Double): Double = {
+    maxProjectInvestment * investmentCurve(yieldPercent, titerGPerL)
+  }
+
+  /**
+    * The project time needed in days, as the Time returned by InvestModel.getInvestmentRequired.
+    */
+  def investmentDays(yieldPercent: Double, titerGPerL: Double): Double = {
+    maxProjectDays * investmentCurve(yieldPercent, titerGPerL)
+  }
+
+  /**
+    * The NPV in USD, as the Money returned by ROIModel.getROI.
+    */
+  def npv(yieldPercent: Double, titerGPerL: Double, pricePerTon: Double): Double = {
+    (pricePerTon - perTonCost(yieldPercent, titerGPerL)) * npvPerProfitPerTon
+  }
+
+  /**
+    * The ROI, as the value of the Dimensionless returned by ROIModel.getROI.
+    */
+  def roi(yieldPercent: Double, titerGPerL: Double, pricePerTon: Double): Double = {
+    val gain = (pricePerTon - perTonCost(yieldPercent, titerGPerL)) * gainPerProfitPerTon
+    val invested = investmentCost(yieldPercent, titerGPerL)
+    (gain - invested) / invested
+  }
+}
+
 object ExploreRange {
   val costmodel = new CostModel()
   val investmodel = new InvestModel()
@@ -477,6 +581,58 @@ object ExploreRange {
     contents.mkString("\n")
   }
 
+  val OUTCOME_GRID_HEADER = List("Titer", "Price", "Yield", "NPV", "ROIPercent", "COGS", "InvestM", "InvestY")
+  val DEFAULT_THREADS = Runtime.getRuntime.availableProcessors
+  // Each thread formats this many titer and price combinations per batch, which bounds how much of the table is
+  // held in memory before it is written out.
+  private val GRID_ROWS_PER_THREAD = 16
+
+  /**
+    * Writes the outcome of every combination of yield, titer and price to `out`, as TSV with one scenario per line.
+    * Values are formatted as in getOutcomeVsYieldTable, and lines are ordered by price, then titer, then yield.
+    *
+    * Scenarios are evaluated by a CompiledCostModel on `threads` threads, one batch of titer and price combinations
+    * at a time.  Each batch is written out before the next is started, so the table is never held in full.
+    *
+    * @return The number of scenarios written.
+    */
+  def writeOutcomeGrid(yields: Seq[Double], titers: Seq[Double], prices: Seq[Double],
+                       mode: Defaults.OperationMode, location: Defaults.Location,
+                       out: Writer, threads: Int = DEFAULT_THREADS): Long = {
+    val model = new CompiledCostModel(mode, location)
+    val yieldValues = yields.toArray
+
+    def rowsFor(titer: Double, price: Double): String = {
+      val rows = new StringBuilder
+      yieldValues.foreach(yieldPc => {
+        val npv = model.npv(yieldPc, titer, price) / 1e6
+        val roiPc = model.roi(yieldPc, titer, price) * 100
+        val cogsForTon = model.perTonCost(yieldPc, titer)
+        val investMillions = model.investmentCost(yieldPc, titer) / 1e6
+        val investYears = model.investmentDays(yieldPc, titer) / 365
+        rows.append(f"$titer%2.2f\t$price%2.2f\t$yieldPc%2.2f\t$npv%.2f\t$roiPc%.2f\t$cogsForTon%.2f\t$investMillions%.2f\t$investYears%.2f\n")
+      })
+      rows.toString
+    }
+
+    out.write(OUTCOME_GRID_HEADER.mkString("\t") + "\n")
+    val pool = new ForkJoinPool(threads)
+    try {
+      val titersAndPrices = for (price <- prices.iterator; titer <- titers.iterator) yield (titer, price)
+      titersAndPrices.grouped(threads * GRID_ROWS_PER_THREAD).foreach(batch => {
+        val parallelBatch = batch.par
+        parallelBatch.tasksupport = new ForkJoinTaskSupport(pool)
+        // Mapping a parallel collection keeps its order, so rows come out as they went in.
+        parallelBatch.map({ case (titer, price) => rowsFor(titer, price) }).seq.foreach(out.write)
+      })
+    } finally {
+      pool.shutdown()
+    }
+    out.flush()
+
+    yieldValues.length.toLong * titers.length * prices.length
+  }
+
   private val OPTION_MARKET_PRICE = "p"
   private val OPTION_MODE = "m"
   private val OPTION_OUTFORMAT = "f"
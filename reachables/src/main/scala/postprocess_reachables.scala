@@ -23,7 +23,7 @@
 
 package com.act.reachables
 
-import java.io.{File, PrintWriter}
+import java.io.{BufferedOutputStream, File, FileOutputStream, PrintWriter}
 
 import act.server.MongoDB
 
@@ -141,9 +141,13 @@ object postprocess_reachables {
     write_to(e, tree2table(tree, reachables))
     println("Done: Written reachables tree as spreadsheet to: "  + e)
 
-    val disjointtrees = tree.disjointTrees(db) // a JSONObject
-    val treejson = disjointtrees.toString(2) // serialized using indent = 2
-    write_to(t, treejson)
+    // streamed out node by node, as the whole forest as a JSONObject may not fit in memory
+    val treeStream = new BufferedOutputStream(new FileOutputStream(t))
+    try {
+      tree.writeDisjointTrees(db, treeStream)
+    } finally {
+      treeStream.close()
+    }
     println("Done: Writing disjoint trees")
 
     if (write_graph_too) {
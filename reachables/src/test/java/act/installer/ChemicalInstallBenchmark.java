@@ -0,0 +1,295 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer;
+
+import act.server.ChemicalBulkWriter;
+import act.server.MongoDB;
+import act.shared.Chemical;
+import com.act.utils.BenchmarkHarness;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the per-chemical install path (getNextAvailableChemicalDBid + submitToActChemicalDB) against
+ * ChemicalBulkWriter on synthetic chemicals, then checks that both produced the same InChI -> id assignments.
+ *
+ * Each path writes to its own scratch DB, which must not already contain chemicals and is dropped afterwards.
+ */
+public class ChemicalInstallBenchmark {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(ChemicalInstallBenchmark.class);
+
+  private static final String OPTION_DB_HOST = "H";
+  private static final String OPTION_DB_PORT = "p";
+  private static final String OPTION_DB_PREFIX = "d";
+  private static final String OPTION_COUNT = "n";
+  private static final String OPTION_DUPLICATE_RATE = "r";
+  private static final String OPTION_BATCH_SIZE = "b";
+  private static final String OPTION_SKIP_PER_CHEMICAL = "s";
+
+  private static final String DEFAULT_DB_HOST = "localhost";
+  private static final String DEFAULT_DB_PORT = "27017";
+  private static final String DEFAULT_DB_PREFIX = "chemical_install_benchmark";
+  private static final String DEFAULT_COUNT = "1000000";
+  private static final String DEFAULT_DUPLICATE_RATE = "0.1";
+
+  private static final int PROGRESS_INTERVAL = 100000;
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "This class benchmarks installing synthetic chemicals one at a time against installing them in bulk, ",
+      "and verifies that both approaches assign the same ids.",
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_DB_HOST)
+        .argName("hostname")
+        .desc(String.format("The DB host to which to connect (default: %s)", DEFAULT_DB_HOST))
+        .hasArg()
+        .longOpt("db-host")
+    );
+    add(Option.builder(OPTION_DB_PORT)
+        .argName("port")
+        .desc(String.format("The DB port to which to connect (default: %s)", DEFAULT_DB_PORT))
+        .hasArg()
+        .longOpt("db-port")
+    );
+    add(Option.builder(OPTION_DB_PREFIX)
+        .argName("name prefix")
+        .desc(String.format("The prefix of the scratch DB names, which get suffixes _single and _bulk (default: %s)",
+            DEFAULT_DB_PREFIX))
+        .hasArg()
+        .longOpt("db-prefix")
+    );
+    add(Option.builder(OPTION_COUNT)
+        .argName("count")
+        .desc(String.format("The number of chemicals to submit (default: %s)", DEFAULT_COUNT))
+        .hasArg()
+        .longOpt("count")
+    );
+    add(Option.builder(OPTION_DUPLICATE_RATE)
+        .argName("rate")
+        .desc(String.format("The fraction of submissions that repeat an earlier InChI and so must be merged " +
+            "(default: %s)", DEFAULT_DUPLICATE_RATE))
+        .hasArg()
+        .longOpt("duplicate-rate")
+    );
+    add(Option.builder(OPTION_BATCH_SIZE)
+        .argName("batch size")
+        .desc(String.format("The bulk writer's batch size (default: %d)", ChemicalBulkWriter.DEFAULT_BATCH_SIZE))
+        .hasArg()
+        .longOpt("batch-size")
+    );
+    add(Option.builder(OPTION_SKIP_PER_CHEMICAL)
+        .desc("Only run the bulk path, which is useful at counts where the per-chemical path takes hours")
+        .longOpt("skip-per-chemical")
+    );
+    add(Option.builder("h")
+        .argName("help")
+        .desc("Prints this help message")
+        .longOpt("help")
+    );
+  }};
+
+  public static final HelpFormatter HELP_FORMATTER = new HelpFormatter();
+  static {
+    HELP_FORMATTER.setWidth(100);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opts = new Options();
+    for (Option.Builder b : OPTION_BUILDERS) {
+      opts.addOption(b.build());
+    }
+
+    CommandLine cl = null;
+    try {
+      CommandLineParser parser = new DefaultParser();
+      cl = parser.parse(opts, args);
+    } catch (ParseException e) {
+      System.err.format("Argument parsing failed: %s\n", e.getMessage());
+      HELP_FORMATTER.printHelp(ChemicalInstallBenchmark.class.getCanonicalName(), HELP_MESSAGE, opts, null, true);
+      System.exit(1);
+    }
+
+    if (cl.hasOption("help")) {
+      HELP_FORMATTER.printHelp(ChemicalInstallBenchmark.class.getCanonicalName(), HELP_MESSAGE, opts, null, true);
+      return;
+    }
+
+    String dbHost = cl.getOptionValue(OPTION_DB_HOST, DEFAULT_DB_HOST);
+    Integer dbPort = Integer.valueOf(cl.getOptionValue(OPTION_DB_PORT, DEFAULT_DB_PORT));
+    String dbPrefix = cl.getOptionValue(OPTION_DB_PREFIX, DEFAULT_DB_PREFIX);
+    int count = Integer.parseInt(cl.getOptionValue(OPTION_COUNT, DEFAULT_COUNT));
+    double duplicateRate = Double.parseDouble(cl.getOptionValue(OPTION_DUPLICATE_RATE, DEFAULT_DUPLICATE_RATE));
+    int batchSize = Integer.parseInt(
+        cl.getOptionValue(OPTION_BATCH_SIZE, String.valueOf(ChemicalBulkWriter.DEFAULT_BATCH_SIZE)));
+
+    String bulkDbName = dbPrefix + "_bulk";
+    MongoDB bulkDb = openEmptyDB(dbHost, dbPort, bulkDbName);
+    long bulkMillis = runBulk(bulkDb, count, duplicateRate, batchSize);
+    report("Bulk", count, bulkMillis);
+
+    if (!cl.hasOption(OPTION_SKIP_PER_CHEMICAL)) {
+      String singleDbName = dbPrefix + "_single";
+      MongoDB singleDb = openEmptyDB(dbHost, dbPort, singleDbName);
+      long singleMillis = runPerChemical(singleDb, count, duplicateRate);
+      report("Per-chemical", count, singleMillis);
+      LOGGER.info("Speedup: %.1fx", (double) singleMillis / Math.max(bulkMillis, 1L));
+
+      verifySameIds(singleDb, bulkDb, count, duplicateRate);
+      singleDb.close();
+      MongoDB.dropDB(dbHost, dbPort, singleDbName, true);
+    }
+
+    bulkDb.close();
+    MongoDB.dropDB(dbHost, dbPort, bulkDbName, true);
+  }
+
+  private static MongoDB openEmptyDB(String host, int port, String name) {
+    MongoDB db = new MongoDB(host, port, name);
+    if (db.getNextAvailableChemicalDBid() != 0L) {
+      String msg = String.format("Scratch DB %s already contains chemicals; refusing to use it", name);
+      LOGGER.error(msg);
+      throw new RuntimeException(msg);
+    }
+    return db;
+  }
+
+  private static long runPerChemical(MongoDB db, int count, double duplicateRate) {
+    SyntheticChemicals chemicals = new SyntheticChemicals(count, duplicateRate);
+    long start = System.currentTimeMillis();
+    while (chemicals.hasNext()) {
+      db.submitToActChemicalDB(chemicals.next(), db.getNextAvailableChemicalDBid());
+      logProgress("Per-chemical", chemicals.getSubmitted(), start);
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  private static long runBulk(MongoDB db, int count, double duplicateRate, int batchSize) {
+    SyntheticChemicals chemicals = new SyntheticChemicals(count, duplicateRate);
+    long start = System.currentTimeMillis();
+    try (ChemicalBulkWriter writer = db.getChemicalBulkWriter(batchSize)) {
+      while (chemicals.hasNext()) {
+        writer.submit(chemicals.next());
+        logProgress("Bulk", chemicals.getSubmitted(), start);
+      }
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  private static void verifySameIds(MongoDB singleDb, MongoDB bulkDb, int count, double duplicateRate) {
+    // Loading a writer on each DB is the quickest way to get at their complete InChI -> id maps.
+    ChemicalBulkWriter single = singleDb.getChemicalBulkWriter(1);
+    ChemicalBulkWriter bulk = bulkDb.getChemicalBulkWriter(1);
+    int distinct = new SyntheticChemicals(count, duplicateRate).countDistinct();
+    int mismatches = 0;
+    for (int i = 0; i < distinct; i++) {
+      String inchi = SyntheticChemicals.inchi(i);
+      Long singleId = single.getIdForInChI(inchi);
+      Long bulkId = bulk.getIdForInChI(inchi);
+      if (singleId == null || !singleId.equals(bulkId)) {
+        mismatches++;
+      }
+    }
+    if (mismatches > 0) {
+      LOGGER.error("%d of %d InChIs were assigned different ids by the two paths", mismatches, distinct);
+    } else {
+      LOGGER.info("Both paths assigned identical ids to all %d distinct InChIs", distinct);
+    }
+  }
+
+  private static void report(String label, int count, long millis) {
+    LOGGER.info("%s: installed %d chemicals in %.1fs (%.0f chemicals/sec)",
+        label, count, millis / 1000.0, count * 1000.0 / Math.max(millis, 1L));
+  }
+
+  private static void logProgress(String label, int submitted, long start) {
+    if (submitted % PROGRESS_INTERVAL == 0) {
+      long elapsed = Math.max(System.currentTimeMillis() - start, 1L);
+      LOGGER.info("%s: %d chemicals submitted, %.0f chemicals/sec", label, submitted, submitted * 1000.0 / elapsed);
+    }
+  }
+
+  /**
+   * A reproducible sequence of chemicals in which roughly duplicateRate of the entries repeat an earlier InChI.
+   */
+  private static class SyntheticChemicals {
+    private final int count;
+    private final double duplicateRate;
+    private final Random random = new Random(BenchmarkHarness.DEFAULT_SEED);
+    private int submitted = 0;
+    private int distinct = 0;
+
+    SyntheticChemicals(int count, double duplicateRate) {
+      this.count = count;
+      this.duplicateRate = duplicateRate;
+    }
+
+    /* Fake BRENDA InChIs skip the Indigo InChIKey computation in Chemical.setInchi, which would otherwise dominate
+     * the running time of both paths and hide the DB costs we want to measure. */
+    static String inchi(int index) {
+      return String.format("InChI=/FAKE/BRENDA/benchmark-%d", index);
+    }
+
+    boolean hasNext() {
+      return submitted < count;
+    }
+
+    Chemical next() {
+      int index;
+      if (distinct > 0 && random.nextDouble() < duplicateRate) {
+        index = random.nextInt(distinct);
+      } else {
+        index = distinct++;
+      }
+      Chemical c = new Chemical(-1L);
+      c.setInchi(inchi(index));
+      c.addSynonym(String.format("benchmark synonym %d", submitted));
+      submitted++;
+      return c;
+    }
+
+    int getSubmitted() {
+      return submitted;
+    }
+
+    int countDistinct() {
+      while (hasNext()) {
+        next();
+      }
+      return distinct;
+    }
+  }
+}
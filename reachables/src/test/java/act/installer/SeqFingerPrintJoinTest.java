@@ -0,0 +1,96 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer;
+
+import act.shared.helpers.P;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SeqFingerPrintJoinTest {
+
+  private static final List<String> ECS = Arrays.asList("1.1.1.1", "1.1.1.2", "2.7.1.1", "4.2.1.17");
+  private static final List<String> ORGS = Arrays.asList("Homo sapiens", "Escherichia coli", "Bacillus subtilis");
+
+  private static Set<SeqFingerPrint> randomFingerPrints(Random random) {
+    List<String> orgs = new ArrayList<>(), refs = new ArrayList<>();
+    for (int i = random.nextInt(3); i > 0; i--) {
+      orgs.add(ORGS.get(random.nextInt(ORGS.size())));
+    }
+    for (int i = random.nextInt(4); i > 0; i--) {
+      refs.add(String.valueOf(1000 + random.nextInt(25)));
+    }
+    // Occasionally leave the ec# out: such fingerprints must never match anything.
+    String ec = random.nextInt(10) == 0 ? null : ECS.get(random.nextInt(ECS.size()));
+    return SeqFingerPrint.expansion(ec, orgs, refs);
+  }
+
+  @Test
+  public void testSortMergeJoinMatchesInferReln() throws Exception {
+    Random random = new Random(20160919L);
+    HashMap<Long, Set<SeqFingerPrint>> rxnIdent = new HashMap<>(), seqIdent = new HashMap<>();
+
+    // A tiny memory budget forces both sorts to spill several runs to disk.
+    Set<P<Long, Long>> joined = new HashSet<>();
+    List<P<Long, Long>> joinedInOrder = new ArrayList<>();
+    try (SeqFingerPrintJoin join = new SeqFingerPrintJoin(null, 16L << 10)) {
+      for (long id = 0; id < 2000; id++) {
+        Set<SeqFingerPrint> fps = randomFingerPrints(random);
+        rxnIdent.put(id, fps);
+        join.addLeft(id, fps);
+      }
+      for (long id = 0; id < 1500; id++) {
+        Set<SeqFingerPrint> fps = randomFingerPrints(random);
+        seqIdent.put(id, fps);
+        join.addRight(id, fps);
+      }
+
+      join.forEachMatch((rxnId, seqId) -> {
+        P<Long, Long> pair = new P<>(rxnId, seqId);
+        joined.add(pair);
+        joinedInOrder.add(pair);
+      });
+    }
+
+    Set<P<Long, Long>> expected = SeqFingerPrint.inferReln(rxnIdent, seqIdent);
+    assertTrue("Synthetic fixtures produce matches", expected.size() > 0);
+    assertEquals("Each pair is emitted once", joined.size(), joinedInOrder.size());
+    assertEquals("Sort-merge join finds the same pairs as the in-memory join", expected, joined);
+
+    for (int i = 1; i < joinedInOrder.size(); i++) {
+      P<Long, Long> prev = joinedInOrder.get(i - 1), curr = joinedInOrder.get(i);
+      assertTrue("Pairs are ordered by reaction id then sequence id",
+          prev.fst() < curr.fst() || (prev.fst().equals(curr.fst()) && prev.snd() < curr.snd()));
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer.bing;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BingSearchCacheTest {
+
+  private Path tempDirPath;
+  private List<NameSearchResults> snapshot;
+
+  @Before
+  public void setUp() throws Exception {
+    tempDirPath = Files.createTempDirectory(BingSearchCacheTest.class.getName(), new FileAttribute[0]);
+
+    snapshot = new ArrayList<>();
+
+    NameSearchResults complete = new NameSearchResults("acetaminophen");
+    complete.setTotalCountSearchResults(1234567L);
+    complete.setTopSearchResults(new HashSet<>(Arrays.asList(
+        makeSearchResult("Acetaminophen - Wikipedia", "A pain reliever", "en.wikipedia.org/wiki/Paracetamol"),
+        makeSearchResult("Acetaminophen Oral", null, "www.webmd.com/drugs/acetaminophen")
+    )));
+    snapshot.add(complete);
+
+    NameSearchResults countOnly = new NameSearchResults("butanol");
+    countOnly.setTotalCountSearchResults(42L);
+    snapshot.add(countOnly);
+
+    NameSearchResults emptyTopResults = new NameSearchResults("some obscure name");
+    emptyTopResults.setTotalCountSearchResults(0L);
+    emptyTopResults.setTopSearchResults(new HashSet<>());
+    snapshot.add(emptyTopResults);
+
+    // Neither field has been fetched yet.
+    snapshot.add(new NameSearchResults("unfetched"));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tempDirPath.toFile());
+  }
+
+  private static SearchResult makeSearchResult(String title, String description, String url) {
+    SearchResult searchResult = new SearchResult();
+    searchResult.setTitle(title);
+    searchResult.setDescription(description);
+    searchResult.setUrl(url);
+    return searchResult;
+  }
+
+  // SearchResult doesn't implement equals, so compare a canonical string form of the top results.
+  private static Set<String> describeTopSearchResults(Set<SearchResult> topSearchResults) {
+    if (topSearchResults == null) {
+      return null;
+    }
+    Set<String> descriptions = new TreeSet<>();
+    for (SearchResult searchResult : topSearchResults) {
+      descriptions.add(String.format("%s|%s|%s",
+          searchResult.getTitle(), searchResult.getDescription(), searchResult.getUrl()));
+    }
+    return descriptions;
+  }
+
+  private static void assertSameResults(String context, NameSearchResults expected, NameSearchResults actual) {
+    assertNotNull(String.format("%s: results for %s are present", context, expected.getName()), actual);
+    assertEquals(String.format("%s: name matches", context), expected.getName(), actual.getName());
+    assertEquals(String.format("%s: total count matches for %s", context, expected.getName()),
+        expected.getTotalCountSearchResults(), actual.getTotalCountSearchResults());
+    assertEquals(String.format("%s: top search results match for %s", context, expected.getName()),
+        describeTopSearchResults(expected.getTopSearchResults()),
+        describeTopSearchResults(actual.getTopSearchResults()));
+  }
+
+  private void assertCacheServesSnapshot(String context, BingSearchCache cache) {
+    List<String> names = new ArrayList<>();
+    for (NameSearchResults expected : snapshot) {
+      names.add(expected.getName());
+      assertSameResults(context, expected, cache.getNameSearchResult(expected.getName()));
+    }
+    names.add("not in the snapshot");
+
+    Map<String, NameSearchResults> found = cache.getNameSearchResults(names);
+    assertEquals(String.format("%s: only cached names are returned", context), snapshot.size(), found.size());
+    assertFalse(String.format("%s: uncached names are absent", context), found.containsKey("not in the snapshot"));
+    assertNull(String.format("%s: single lookups of uncached names return null", context),
+        cache.getNameSearchResult("not in the snapshot"));
+  }
+
+  @Test
+  public void testNameSearchResultsJsonRoundTrip() throws Exception {
+    for (NameSearchResults expected : snapshot) {
+      assertSameResults("JSON", expected, NameSearchResults.fromJsonNode(expected.toJsonNode()));
+    }
+
+    NameSearchResults emptyTopResults = NameSearchResults.fromJsonNode(snapshot.get(2).toJsonNode());
+    assertTrue("Empty top results stay empty rather than becoming null",
+        emptyTopResults.getTopSearchResults() != null && emptyTopResults.getTopSearchResults().isEmpty());
+    NameSearchResults unfetched = NameSearchResults.fromJsonNode(snapshot.get(3).toJsonNode());
+    assertEquals("Unfetched counts keep their default", Long.valueOf(-1L), unfetched.getTotalCountSearchResults());
+    assertNull("Unfetched top results stay null", unfetched.getTopSearchResults());
+  }
+
+  @Test
+  public void testFlatFileSnapshotRoundTrip() throws Exception {
+    File file = new File(tempDirPath.toFile(), "snapshot.json");
+    assertEquals("Every result is written", snapshot.size(),
+        FlatFileBingSearchCache.write(file, snapshot.iterator()));
+
+    BingSearchCache cache = BingCacheSnapshot.openLocalCache(file);
+    assertTrue("Flat file snapshots are opened as flat files", cache instanceof FlatFileBingSearchCache);
+    assertCacheServesSnapshot("Flat file", cache);
+  }
+
+  @Test
+  public void testRocksDBSnapshotRoundTrip() throws Exception {
+    File dir = new File(tempDirPath.toFile(), "snapshot.db");
+    assertEquals("Every result is written", snapshot.size(),
+        RocksDBBingSearchCache.write(dir, snapshot.iterator()));
+
+    BingSearchCache cache = BingCacheSnapshot.openLocalCache(dir);
+    assertTrue("Snapshot directories are opened as RocksDB", cache instanceof RocksDBBingSearchCache);
+    try {
+      assertCacheServesSnapshot("RocksDB", cache);
+    } finally {
+      ((RocksDBBingSearchCache) cache).close();
+    }
+  }
+
+  @Test
+  public void testEmptySnapshot() throws Exception {
+    File file = new File(tempDirPath.toFile(), "empty.json");
+    assertEquals("Nothing is written", 0L,
+        FlatFileBingSearchCache.write(file, Collections.<NameSearchResults>emptyIterator()));
+    assertNull("Empty snapshots have no results",
+        FlatFileBingSearchCache.open(file).getNameSearchResult("acetaminophen"));
+  }
+}
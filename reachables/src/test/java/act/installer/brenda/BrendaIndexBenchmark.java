@@ -0,0 +1,354 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer.brenda;
+
+import com.act.utils.BenchmarkHarness;
+import com.act.utils.ExternalKeyGrouper;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds the KMValue column family of the on-disk BRENDA index from a synthetic row stream, so that index
+ * construction can be timed without a BRENDA MySQL server.
+ *
+ * By default this also runs the previous construction strategy (a read-modify-write of a Java-serialized list for
+ * every key of every row) into a second DB, reports the speedup and on-disk size of both, and checks that every key
+ * decodes to the same entries in both indexes.
+ */
+public class BrendaIndexBenchmark {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(BrendaIndexBenchmark.class);
+
+  private static final String OPTION_ROWS = "n";
+  private static final String OPTION_EC_NUMBERS = "e";
+  private static final String OPTION_ORGANISMS = "o";
+  private static final String OPTION_MAX_LITERATURE = "l";
+  private static final String OPTION_MEMORY_MB = "m";
+  private static final String OPTION_SCRATCH_DIR = "d";
+  private static final String OPTION_SKIP_LEGACY = "s";
+
+  private static final String DEFAULT_ROWS = "1000000";
+  private static final String DEFAULT_EC_NUMBERS = "5000";
+  private static final String DEFAULT_ORGANISMS = "2000";
+  private static final String DEFAULT_MAX_LITERATURE = "3";
+  private static final String DEFAULT_MEMORY_MB = String.valueOf(ExternalKeyGrouper.DEFAULT_MAX_BUFFERED_BYTES >> 20);
+
+  private static final int LITERATURE_ID_SPACE = 50000;
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "This class benchmarks construction of the on-disk BRENDA index using synthetic KM value rows, ",
+      "and verifies that the sorted build produces the same entries as the previous row-at-a-time build.",
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_ROWS)
+        .argName("count")
+        .desc(String.format("The number of synthetic rows to index (default: %s)", DEFAULT_ROWS))
+        .hasArg()
+        .longOpt("rows")
+    );
+    add(Option.builder(OPTION_EC_NUMBERS)
+        .argName("count")
+        .desc(String.format("The number of distinct EC numbers to draw from (default: %s)", DEFAULT_EC_NUMBERS))
+        .hasArg()
+        .longOpt("ec-numbers")
+    );
+    add(Option.builder(OPTION_ORGANISMS)
+        .argName("count")
+        .desc(String.format("The number of distinct organisms to draw from (default: %s)", DEFAULT_ORGANISMS))
+        .hasArg()
+        .longOpt("organisms")
+    );
+    add(Option.builder(OPTION_MAX_LITERATURE)
+        .argName("count")
+        .desc(String.format("The maximum number of literature references per row (default: %s)",
+            DEFAULT_MAX_LITERATURE))
+        .hasArg()
+        .longOpt("max-literature")
+    );
+    add(Option.builder(OPTION_MEMORY_MB)
+        .argName("megabytes")
+        .desc(String.format("Memory to use for grouping entries before spilling sorted runs (default: %s)",
+            DEFAULT_MEMORY_MB))
+        .hasArg()
+        .longOpt("memory-mb")
+    );
+    add(Option.builder(OPTION_SCRATCH_DIR)
+        .argName("directory")
+        .desc("A directory in which to create the scratch indexes and sorted runs (default: system temp dir)")
+        .hasArg()
+        .longOpt("scratch-dir")
+    );
+    add(Option.builder(OPTION_SKIP_LEGACY)
+        .desc("Only run the sorted build, which is useful at row counts where the previous build takes too long")
+        .longOpt("skip-legacy")
+    );
+    add(Option.builder("h")
+        .argName("help")
+        .desc("Prints this help message")
+        .longOpt("help")
+    );
+  }};
+
+  public static final HelpFormatter HELP_FORMATTER = new HelpFormatter();
+  static {
+    HELP_FORMATTER.setWidth(100);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options opts = new Options();
+    for (Option.Builder b : OPTION_BUILDERS) {
+      opts.addOption(b.build());
+    }
+
+    CommandLine cl = null;
+    try {
+      CommandLineParser parser = new DefaultParser();
+      cl = parser.parse(opts, args);
+    } catch (ParseException e) {
+      System.err.format("Argument parsing failed: %s\n", e.getMessage());
+      HELP_FORMATTER.printHelp(BrendaIndexBenchmark.class.getCanonicalName(), HELP_MESSAGE, opts, null, true);
+      System.exit(1);
+    }
+
+    if (cl.hasOption("help")) {
+      HELP_FORMATTER.printHelp(BrendaIndexBenchmark.class.getCanonicalName(), HELP_MESSAGE, opts, null, true);
+      return;
+    }
+
+    SyntheticRows.Shape shape = new SyntheticRows.Shape(
+        Integer.parseInt(cl.getOptionValue(OPTION_ROWS, DEFAULT_ROWS)),
+        Integer.parseInt(cl.getOptionValue(OPTION_EC_NUMBERS, DEFAULT_EC_NUMBERS)),
+        Integer.parseInt(cl.getOptionValue(OPTION_ORGANISMS, DEFAULT_ORGANISMS)),
+        Integer.parseInt(cl.getOptionValue(OPTION_MAX_LITERATURE, DEFAULT_MAX_LITERATURE)));
+    long maxBufferedBytes = Long.parseLong(cl.getOptionValue(OPTION_MEMORY_MB, DEFAULT_MEMORY_MB)) << 20;
+    File scratchParent = cl.hasOption(OPTION_SCRATCH_DIR) ? new File(cl.getOptionValue(OPTION_SCRATCH_DIR)) : null;
+
+    File scratch = scratchParent == null ?
+        Files.createTempDirectory("brenda-index-benchmark").toFile() :
+        Files.createTempDirectory(scratchParent.toPath(), "brenda-index-benchmark").toFile();
+    RocksDB.loadLibrary();
+
+    try {
+      File sortedPath = new File(scratch, "sorted");
+      RocksDB sortedDb = RocksDB.open(new org.rocksdb.Options().setCreateIfMissing(true), sortedPath.getAbsolutePath());
+      ColumnFamilyHandle sortedCfh = createColumnFamily(sortedDb);
+
+      long start = System.currentTimeMillis();
+      BrendaSupportingEntries.IndexWriter<BrendaSupportingEntries.KMValue> writer =
+          new BrendaSupportingEntries.IndexWriter<>(
+              sortedCfh, sortedDb, BrendaSupportingEntries.KMValue.INSTANCE, scratch, maxBufferedBytes);
+      SyntheticRows rows = new SyntheticRows(shape);
+      while (rows.hasNext()) {
+        rows.next();
+        writer.addRow(rows.ecNumber, rows.literatureList, rows.organism, rows.value);
+      }
+      long keys = writer.finish();
+      long sortedMillis = System.currentTimeMillis() - start;
+      report("Sorted", shape.rows, keys, sortedMillis, sortedDb, sortedCfh);
+      LOGGER.info("Sorted build spilled %d runs", writer.getSpilledRunCount());
+
+      if (!cl.hasOption(OPTION_SKIP_LEGACY)) {
+        File legacyPath = new File(scratch, "legacy");
+        RocksDB legacyDb =
+            RocksDB.open(new org.rocksdb.Options().setCreateIfMissing(true), legacyPath.getAbsolutePath());
+        ColumnFamilyHandle legacyCfh = createColumnFamily(legacyDb);
+
+        start = System.currentTimeMillis();
+        rows = new SyntheticRows(shape);
+        while (rows.hasNext()) {
+          rows.next();
+          for (String literatureId : BrendaSupportingEntries.idsFieldToArray(rows.literatureList)) {
+            byte[] key = BrendaSupportingEntries.IndexWriter.makeKey(rows.ecNumber, literatureId, rows.organism);
+            legacyAddObjectToIndex(legacyDb, legacyCfh, key, rows.value);
+          }
+        }
+        long legacyMillis = System.currentTimeMillis() - start;
+        report("Legacy", shape.rows, keys, legacyMillis, legacyDb, legacyCfh);
+        LOGGER.info("Speedup: %.1fx", (double) legacyMillis / Math.max(sortedMillis, 1L));
+
+        verifySameEntries(sortedDb, sortedCfh, legacyDb, legacyCfh);
+        legacyDb.close();
+      }
+
+      sortedDb.close();
+    } finally {
+      FileUtils.deleteDirectory(scratch);
+    }
+  }
+
+  private static ColumnFamilyHandle createColumnFamily(RocksDB db) throws RocksDBException {
+    return db.createColumnFamily(new ColumnFamilyDescriptor(
+        BrendaSupportingEntries.KMValue.COLUMN_FAMILY_NAME.getBytes(BrendaSupportingEntries.UTF8)));
+  }
+
+  private static void report(String label, int rows, long keys, long millis, RocksDB db, ColumnFamilyHandle cfh)
+      throws RocksDBException {
+    LOGGER.info("%s build: %d rows -> %d keys in %.1fs (%.0f rows/s); estimated live data %s bytes",
+        label, rows, keys, millis / 1000.0, rows * 1000.0 / Math.max(millis, 1L),
+        db.getProperty(cfh, "rocksdb.estimate-live-data-size"));
+  }
+
+  /**
+   * The index construction strategy this benchmark compares against: every key of every row reads, deserializes,
+   * appends to, re-serializes and rewrites that key's whole value list.
+   */
+  private static void legacyAddObjectToIndex(
+      RocksDB db, ColumnFamilyHandle cfh, byte[] key, BrendaSupportingEntries.KMValue val)
+      throws IOException, ClassNotFoundException, RocksDBException {
+    List<BrendaSupportingEntries.KMValue> storedObjects;
+    byte[] existingVal = db.get(cfh, key);
+    if (existingVal != null) {
+      ObjectInputStream oi = new ObjectInputStream(new ByteArrayInputStream(existingVal));
+      storedObjects = (ArrayList<BrendaSupportingEntries.KMValue>) oi.readObject();
+    } else {
+      storedObjects = new ArrayList<>(1);
+    }
+    storedObjects.add(val);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oo = new ObjectOutputStream(bos);
+    oo.writeObject(storedObjects);
+    oo.close();
+    db.put(cfh, key, bos.toByteArray());
+  }
+
+  private static void verifySameEntries(RocksDB sortedDb, ColumnFamilyHandle sortedCfh,
+                                        RocksDB legacyDb, ColumnFamilyHandle legacyCfh)
+      throws IOException, ClassNotFoundException, RocksDBException {
+    long checked = 0L;
+    RocksIterator it = legacyDb.newIterator(legacyCfh);
+    try {
+      for (it.seekToFirst(); it.isValid(); it.next()) {
+        byte[] sortedBytes = sortedDb.get(sortedCfh, it.key());
+        if (sortedBytes == null || !sameEntries(
+            SupportingEntryCodec.decodeList(it.value(), BrendaSupportingEntries.KMValue.INSTANCE),
+            SupportingEntryCodec.decodeList(sortedBytes, BrendaSupportingEntries.KMValue.INSTANCE))) {
+          String msg = String.format("Sorted index differs from legacy index for key %s",
+              new String(it.key(), BrendaSupportingEntries.UTF8));
+          LOGGER.error(msg);
+          throw new RuntimeException(msg);
+        }
+        checked++;
+      }
+    } finally {
+      it.dispose();
+    }
+    LOGGER.info("Verified %d keys match between the legacy and sorted indexes", checked);
+  }
+
+  private static boolean sameEntries(List<BrendaSupportingEntries.KMValue> a, List<BrendaSupportingEntries.KMValue> b)
+      throws IOException {
+    if (a.size() != b.size()) {
+      return false;
+    }
+    for (int i = 0; i < a.size(); i++) {
+      if (!Arrays.equals(SupportingEntryCodec.encodeEntry(a.get(i)), SupportingEntryCodec.encodeEntry(b.get(i)))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * A deterministic stream of KM value rows shaped like BRENDA's: EC numbers and organisms recur across many rows, and
+   * each row carries a comma-separated list of literature references.  Fields are exposed directly to avoid
+   * allocating a row object per iteration.
+   */
+  private static class SyntheticRows {
+    static class Shape {
+      final int rows;
+      final int ecNumbers;
+      final int organisms;
+      final int maxLiterature;
+
+      Shape(int rows, int ecNumbers, int organisms, int maxLiterature) {
+        this.rows = rows;
+        this.ecNumbers = ecNumbers;
+        this.organisms = organisms;
+        this.maxLiterature = maxLiterature;
+      }
+    }
+
+    private final Shape shape;
+    private final Random random = new Random(BenchmarkHarness.DEFAULT_SEED);
+    private int emitted = 0;
+
+    String ecNumber;
+    String literatureList;
+    String organism;
+    BrendaSupportingEntries.KMValue value;
+
+    SyntheticRows(Shape shape) {
+      this.shape = shape;
+    }
+
+    boolean hasNext() {
+      return emitted < shape.rows;
+    }
+
+    void next() {
+      int ec = random.nextInt(shape.ecNumbers);
+      ecNumber = String.format("%d.%d.%d.%d", 1 + ec % 6, 1 + (ec / 6) % 20, 1 + (ec / 120) % 10, ec / 1200 + 1);
+      organism = "Organism " + random.nextInt(shape.organisms);
+
+      int literatureCount = 1 + random.nextInt(shape.maxLiterature);
+      String[] literature = new String[literatureCount];
+      for (int i = 0; i < literatureCount; i++) {
+        literature[i] = String.valueOf(random.nextInt(LITERATURE_ID_SPACE));
+      }
+      literatureList = StringUtils.join(literature, ", ");
+
+      // Roughly one in ten BRENDA KM values has no commentary.
+      String commentary = random.nextInt(10) == 0 ? null : "pH 7.5, 30 C, synthetic row " + emitted;
+      value = new BrendaSupportingEntries.KMValue(random.nextDouble() * 10.0, commentary);
+      emitted++;
+    }
+  }
+}
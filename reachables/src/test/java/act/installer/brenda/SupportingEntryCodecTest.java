@@ -0,0 +1,125 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer.brenda;
+
+import com.act.utils.ExternalKeyGrouper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SupportingEntryCodecTest {
+
+  @Test
+  public void testRoundTripPreservesOrderAndNulls() throws Exception {
+    List<BrendaSupportingEntries.KCatKMValue> expected = Arrays.asList(
+        new BrendaSupportingEntries.KCatKMValue(1.5, "NADH", "pH 7.0"),
+        new BrendaSupportingEntries.KCatKMValue(null, "ATP", null),
+        new BrendaSupportingEntries.KCatKMValue(0.0, "", "\u00b5M, 25\u00b0C")
+    );
+
+    List<byte[]> encoded = new ArrayList<>();
+    for (BrendaSupportingEntries.KCatKMValue val : expected) {
+      encoded.add(SupportingEntryCodec.encodeEntry(val));
+    }
+    List<BrendaSupportingEntries.KCatKMValue> actual = SupportingEntryCodec.decodeList(
+        SupportingEntryCodec.encodeList(encoded), BrendaSupportingEntries.KCatKMValue.INSTANCE);
+
+    assertEquals("All entries are decoded", expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals("KCat/KM value matches", expected.get(i).getKcatKMValue(), actual.get(i).getKcatKMValue());
+      assertEquals("Substrate matches", expected.get(i).getSubstrate(), actual.get(i).getSubstrate());
+      assertEquals("Commentary matches", expected.get(i).getCommentary(), actual.get(i).getCommentary());
+    }
+    assertNull("Null doubles stay null", actual.get(1).getKcatKMValue());
+    assertNull("Null strings stay null", actual.get(1).getCommentary());
+  }
+
+  @Test
+  public void testLegacySerializedValuesAreStillReadable() throws Exception {
+    ArrayList<BrendaSupportingEntries.Cofactor> legacy = new ArrayList<>();
+    legacy.add(new BrendaSupportingEntries.Cofactor("NAD+", "required"));
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oo = new ObjectOutputStream(bos)) {
+      oo.writeObject(legacy);
+    }
+
+    List<BrendaSupportingEntries.Cofactor> actual =
+        SupportingEntryCodec.decodeList(bos.toByteArray(), BrendaSupportingEntries.Cofactor.INSTANCE);
+    assertEquals("Legacy list has one entry", 1, actual.size());
+    assertEquals("Legacy entry is decoded", "NAD+", actual.get(0).getCofactor());
+  }
+
+  @Test
+  public void testSpilledRunsGroupIdenticallyToInMemoryGrouping() throws Exception {
+    // A tiny budget forces a spill every few entries, exercising the k-way merge.
+    List<byte[][]> spilled = group(64 * 3);
+    List<byte[][]> inMemory = group(Long.MAX_VALUE);
+
+    assertEquals("Same number of groups", inMemory.size(), spilled.size());
+    for (int i = 0; i < inMemory.size(); i++) {
+      assertArrayEquals("Same groups in the same order", inMemory.get(i), spilled.get(i));
+    }
+    for (int i = 1; i < inMemory.size(); i++) {
+      assertTrue("Groups come out in key order",
+          ExternalKeyGrouper.compareUnsigned(inMemory.get(i - 1)[0], inMemory.get(i)[0]) < 0);
+    }
+  }
+
+  // Returns each group as its key followed by its values.
+  private List<byte[][]> group(long maxBufferedBytes) throws IOException {
+    Random random = new Random(42L);
+    List<byte[][]> groups = new ArrayList<>();
+    try (ExternalKeyGrouper grouper = new ExternalKeyGrouper(null, maxBufferedBytes)) {
+      for (int i = 0; i < 1000; i++) {
+        // Include bytes >= 0x80 in keys to check that ordering is unsigned.
+        byte[] key = new byte[]{(byte) (random.nextInt(20) * 12), (byte) random.nextInt(3)};
+        byte[] value = String.valueOf(i).getBytes(BrendaSupportingEntries.UTF8);
+        grouper.add(key, value);
+      }
+      if (maxBufferedBytes < Long.MAX_VALUE) {
+        assertTrue("Small budget spills runs", grouper.getSpilledRunCount() > 1);
+      }
+      grouper.forEachGroup((key, values) -> {
+        byte[][] group = new byte[values.size() + 1][];
+        group[0] = key;
+        for (int i = 0; i < values.size(); i++) {
+          group[i + 1] = values.get(i);
+        }
+        groups.add(group);
+      });
+    }
+    return groups;
+  }
+}
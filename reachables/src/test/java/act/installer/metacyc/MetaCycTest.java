@@ -0,0 +1,87 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer.metacyc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetaCycTest {
+  private static final int NUM_FILES = 40;
+  private static final int PARSER_THREADS = 4;
+  private static final int MAX_BUFFERED_MODELS = 3;
+
+  @Test
+  public void testProcessInOrderDeliversModelsInFileOrderWithBoundedBuffering() throws Exception {
+    List<String> files = new ArrayList<>(NUM_FILES);
+    for (int i = 0; i < NUM_FILES; i++) {
+      files.add(String.format("organism-%02d.owl", i));
+    }
+
+    // Parses that have started but whose results the consumer hasn't seen yet.
+    AtomicInteger outstanding = new AtomicInteger(0);
+    AtomicInteger maxOutstanding = new AtomicInteger(0);
+    Random random = new Random(0L);
+
+    List<String> consumedFiles = new ArrayList<>(NUM_FILES);
+    MetaCyc.processInOrder(files, PARSER_THREADS, MAX_BUFFERED_MODELS,
+        file -> {
+          int nowOutstanding = outstanding.incrementAndGet();
+          maxOutstanding.accumulateAndGet(nowOutstanding, Math::max);
+          try {
+            int delay;
+            synchronized (random) {
+              delay = random.nextInt(20);
+            }
+            // Random delays make later files routinely finish before earlier ones.
+            Thread.sleep(delay);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return "model of " + file;
+        },
+        (file, model) -> {
+          assertEquals("Consumer receives the model parsed from its file", "model of " + file, model);
+          consumedFiles.add(file);
+          outstanding.decrementAndGet();
+        });
+
+    assertEquals("Consumer sees every file in file order", files, consumedFiles);
+    assertTrue(String.format("At most %d models are pending at once, but saw %d",
+            MAX_BUFFERED_MODELS, maxOutstanding.get()),
+        maxOutstanding.get() <= MAX_BUFFERED_MODELS);
+    assertEquals("No models are left pending", 0, outstanding.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testProcessInOrderRequiresABuffer() throws Exception {
+    MetaCyc.processInOrder(new ArrayList<String>(), PARSER_THREADS, 0, file -> file, (file, model) -> { });
+  }
+}
@@ -0,0 +1,359 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.server;
+
+import act.shared.Chemical;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteRequestBuilder;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.WriteConcern;
+import com.mongodb.util.JSON;
+import org.bson.BasicBSONEncoder;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class ChemicalBulkWriterTest {
+  // Fake InChIs skip InChI key computation, see Chemical.setInchi.
+  private static final String INCHI_PREFIX = "InChI=/FAKE/BRENDA/TEST/";
+
+  private FakeChemicalsCollection chemicals;
+  private MongoDB db;
+
+  @Before
+  public void setUp() throws Exception {
+    chemicals = new FakeChemicalsCollection();
+    db = mockMongoDBOver(chemicals);
+    // Three chemicals are already installed, with ids 0 through 2.
+    for (String name : Arrays.asList("x", "y", "z")) {
+      db.submitToActChemicalDB(makeChemical(name, name + "-original"), db.getNextAvailableChemicalDBid());
+    }
+  }
+
+  @Test
+  public void testIdsAreAssignedInSubmissionOrder() throws Exception {
+    try (ChemicalBulkWriter writer = db.getChemicalBulkWriter(100)) {
+      assertEquals("Existing chemicals are recognized on construction",
+          Long.valueOf(1L), writer.getIdForInChI(inchi("y")));
+      assertNull("Unseen chemicals have no id", writer.getIdForInChI(inchi("a")));
+
+      assertEquals("New chemicals get ids after the existing ones", 3L, writer.submit(makeChemical("a", "a1")));
+      assertEquals("Ids are allocated in submission order", 4L, writer.submit(makeChemical("b", "b1")));
+      assertEquals("Existing chemicals keep their ids", 1L, writer.submit(makeChemical("y", "y1")));
+      assertEquals("Pending chemicals keep their ids", 3L, writer.submit(makeChemical("a", "a2")));
+      assertEquals("Chemicals without InChIs always get new ids", 5L, writer.submit(new Chemical(-1L)));
+      assertEquals("Chemicals without InChIs always get new ids", 6L, writer.submit(new Chemical(-1L)));
+
+      assertEquals("Pending chemicals can be looked up by InChI", Long.valueOf(4L), writer.getIdForInChI(inchi("b")));
+      assertTrue("New chemicals are pending until flushed", writer.isPending(3L));
+      assertTrue("Merges into existing chemicals are pending until flushed", writer.isPending(1L));
+      assertFalse("Untouched chemicals are not pending", writer.isPending(0L));
+      assertEquals("Nothing is written before the batch fills up", 3, chemicals.documents.size());
+    }
+    assertEquals("Closing the writer installs every new chemical", 7, chemicals.documents.size());
+  }
+
+  @Test
+  public void testFlushesAtBatchBoundary() throws Exception {
+    ChemicalBulkWriter writer = db.getChemicalBulkWriter(3);
+    writer.submit(makeChemical("a", "a1"));
+    writer.submit(makeChemical("x", "x1"));
+    // Duplicates of pending chemicals are merged in memory, so they don't add to the batch.
+    writer.submit(makeChemical("a", "a2"));
+    assertEquals("Nothing is written before the batch fills up", 0, chemicals.bulkWrites);
+    assertEquals("New chemicals are not visible before a flush", 3, chemicals.documents.size());
+
+    writer.submit(makeChemical("b", "b1"));
+    assertEquals("A full batch is written in one bulk operation", 1, chemicals.bulkWrites);
+    assertEquals("The new chemicals were written", 5, chemicals.documents.size());
+    // As in submitToActChemicalDB, the newly submitted chemical's synonyms come before the existing ones.
+    assertEquals("Merges within the batch were applied to the new chemical",
+        Arrays.asList("a2", "a1"), chemicals.get(3L).getSynonyms());
+    assertEquals("Merges into existing chemicals were applied",
+        Arrays.asList("x1", "x-original"), chemicals.get(0L).getSynonyms());
+    assertFalse("Nothing is pending after a flush", writer.isPending(3L) || writer.isPending(0L));
+    assertEquals(2L, writer.getInsertedCount());
+    assertEquals(1L, writer.getMergedCount());
+
+    writer.submit(makeChemical("c", "c1"));
+    assertEquals("The next batch starts empty", 1, chemicals.bulkWrites);
+    writer.close();
+    assertEquals("Close flushes the final, partial batch", 2, chemicals.bulkWrites);
+    assertEquals(6, chemicals.documents.size());
+    assertEquals(3L, writer.getInsertedCount());
+
+    writer.close();
+    assertEquals("Closing again with nothing pending writes nothing", 2, chemicals.bulkWrites);
+  }
+
+  @Test
+  public void testMatchesPerChemicalInstall() throws Exception {
+    FakeChemicalsCollection serialChemicals = new FakeChemicalsCollection();
+    MongoDB serialDb = mockMongoDBOver(serialChemicals);
+    for (String name : Arrays.asList("x", "y", "z")) {
+      serialDb.submitToActChemicalDB(makeChemical(name, name + "-original"), serialDb.getNextAvailableChemicalDBid());
+    }
+
+    // Duplicates of existing, new and pending chemicals, split across several small batches.
+    List<String[]> submissions = Arrays.asList(
+        new String[]{"a", "a1"}, new String[]{"x", "x1"}, new String[]{"a", "a2"}, new String[]{"b", "b1"},
+        new String[]{null, "n1"}, new String[]{"x", "x2"}, new String[]{"a", "a1"}, new String[]{"c", "c1"},
+        new String[]{"b", "b2"}, new String[]{null, "n2"}, new String[]{"z", "z1"}, new String[]{"a", "a3"});
+
+    List<Long> serialIds = new ArrayList<>();
+    for (String[] submission : submissions) {
+      serialIds.add(serialDb.submitToActChemicalDB(
+          makeChemical(submission[0], submission[1]), serialDb.getNextAvailableChemicalDBid()));
+    }
+
+    List<Long> bulkIds = new ArrayList<>();
+    try (ChemicalBulkWriter writer = db.getChemicalBulkWriter(2)) {
+      for (String[] submission : submissions) {
+        bulkIds.add(writer.submit(makeChemical(submission[0], submission[1])));
+      }
+    }
+
+    assertEquals("Bulk and per-chemical installs assign the same ids", serialIds, bulkIds);
+    assertEquals("Bulk and per-chemical installs produce the same documents",
+        serialChemicals.snapshot(), chemicals.snapshot());
+  }
+
+  private static String inchi(String name) {
+    return INCHI_PREFIX + name;
+  }
+
+  private static Chemical makeChemical(String name, String synonym) {
+    Chemical c = name == null ? new Chemical(-1L) : new Chemical(inchi(name));
+    c.addSynonym(synonym);
+    return c;
+  }
+
+  private static MongoDB mockMongoDBOver(FakeChemicalsCollection chemicals) throws Exception {
+    MongoDB db = mock(MongoDB.class, CALLS_REAL_METHODS);
+    Field field = MongoDB.class.getDeclaredField("dbChemicals");
+    field.setAccessible(true);
+    field.set(db, chemicals.collection);
+    return db;
+  }
+
+  /**
+   * Just enough of a chemicals collection for ChemicalBulkWriter and submitToActChemicalDB, backed by a map from id to
+   * document.  Documents are stored as BSON round trips, so they read back as they would from Mongo.
+   */
+  private static class FakeChemicalsCollection {
+    final DBCollection collection = mock(DBCollection.class);
+    final Map<Long, DBObject> documents = new TreeMap<>();
+    int bulkWrites = 0;
+
+    private final MongoDB reader = mock(MongoDB.class, CALLS_REAL_METHODS);
+
+    FakeChemicalsCollection() {
+      doAnswer(new Answer<Long>() {
+        @Override
+        public Long answer(InvocationOnMock invocation) throws Throwable {
+          return (long) documents.size();
+        }
+      }).when(collection).count();
+
+      doAnswer(new Answer<Object>() {
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+          for (Object o : invocation.getArguments()) {
+            store((DBObject) o);
+          }
+          return null;
+        }
+      }).when(collection).insert(Matchers.<DBObject>anyVararg());
+
+      doAnswer(new Answer<Object>() {
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+          for (DBObject doc : matching(invocation.getArgumentAt(0, DBObject.class))) {
+            documents.remove(doc.get("_id"));
+          }
+          return null;
+        }
+      }).when(collection).remove(any(DBObject.class), any(WriteConcern.class));
+
+      Answer<DBObject> findOne = new Answer<DBObject>() {
+        @Override
+        public DBObject answer(InvocationOnMock invocation) throws Throwable {
+          List<DBObject> results = matching(invocation.getArgumentAt(0, DBObject.class));
+          return results.isEmpty() ? null : results.get(0);
+        }
+      };
+      doAnswer(findOne).when(collection).findOne(any(DBObject.class));
+      doAnswer(findOne).when(collection).findOne(any(DBObject.class), any(DBObject.class));
+
+      Answer<DBCursor> find = new Answer<DBCursor>() {
+        @Override
+        public DBCursor answer(InvocationOnMock invocation) throws Throwable {
+          return cursorOver(matching(invocation.getArgumentAt(0, DBObject.class)));
+        }
+      };
+      doAnswer(find).when(collection).find(any(DBObject.class));
+      doAnswer(find).when(collection).find(any(DBObject.class), any(DBObject.class));
+
+      doAnswer(new Answer<BulkWriteOperation>() {
+        @Override
+        public BulkWriteOperation answer(InvocationOnMock invocation) throws Throwable {
+          return newBulkWriteOperation();
+        }
+      }).when(collection).initializeUnorderedBulkOperation();
+    }
+
+    Chemical get(Long id) {
+      return reader.convertDBObjectToChemical(documents.get(id));
+    }
+
+    /**
+     * @return The documents in the collection, as JSON strings keyed by id.
+     */
+    Map<Long, String> snapshot() {
+      Map<Long, String> snapshot = new TreeMap<>();
+      for (Map.Entry<Long, DBObject> entry : documents.entrySet()) {
+        snapshot.put(entry.getKey(), JSON.serialize(entry.getValue()));
+      }
+      return snapshot;
+    }
+
+    private void store(DBObject doc) {
+      // A BSON round trip turns collections into lists, as they would read back from Mongo.
+      DBObject stored = new DefaultDBDecoder().decode(new BasicBSONEncoder().encode(doc), (DBCollection) null);
+      documents.put((Long) stored.get("_id"), stored);
+    }
+
+    private List<DBObject> matching(DBObject query) {
+      List<DBObject> results = new ArrayList<>();
+      for (DBObject doc : documents.values()) {
+        boolean matches = true;
+        for (String key : query.keySet()) {
+          Object expected = query.get(key);
+          Object actual = doc.get(key);
+          if (expected instanceof DBObject && ((DBObject) expected).containsField("$in")) {
+            matches &= ((Collection<?>) ((DBObject) expected).get("$in")).contains(actual);
+          } else {
+            matches &= Objects.equals(expected, actual);
+          }
+        }
+        if (matches) {
+          results.add(doc);
+        }
+      }
+      return results;
+    }
+
+    private DBCursor cursorOver(List<DBObject> results) {
+      final Iterator<DBObject> iterator = results.iterator();
+      DBCursor cursor = mock(DBCursor.class);
+      doAnswer(new Answer<Boolean>() {
+        @Override
+        public Boolean answer(InvocationOnMock invocation) throws Throwable {
+          return iterator.hasNext();
+        }
+      }).when(cursor).hasNext();
+      doAnswer(new Answer<DBObject>() {
+        @Override
+        public DBObject answer(InvocationOnMock invocation) throws Throwable {
+          return iterator.next();
+        }
+      }).when(cursor).next();
+      return cursor;
+    }
+
+    private BulkWriteOperation newBulkWriteOperation() {
+      final List<DBObject> inserts = new ArrayList<>();
+      final List<DBObject> replacements = new ArrayList<>();
+      BulkWriteOperation bulk = mock(BulkWriteOperation.class);
+
+      doAnswer(new Answer<Object>() {
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+          inserts.add(invocation.getArgumentAt(0, DBObject.class));
+          return null;
+        }
+      }).when(bulk).insert(any(DBObject.class));
+
+      doAnswer(new Answer<BulkWriteRequestBuilder>() {
+        @Override
+        public BulkWriteRequestBuilder answer(InvocationOnMock invocation) throws Throwable {
+          final Object id = invocation.getArgumentAt(0, DBObject.class).get("_id");
+          BulkWriteRequestBuilder builder = mock(BulkWriteRequestBuilder.class);
+          doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+              DBObject replacement = invocation.getArgumentAt(0, DBObject.class);
+              assertEquals("Replacements keep the id of the document they replace", id, replacement.get("_id"));
+              replacements.add(replacement);
+              return null;
+            }
+          }).when(builder).replaceOne(any(DBObject.class));
+          return builder;
+        }
+      }).when(bulk).find(any(DBObject.class));
+
+      doAnswer(new Answer<Object>() {
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+          bulkWrites++;
+          for (DBObject doc : inserts) {
+            assertFalse("Inserts never collide with existing documents", documents.containsKey(doc.get("_id")));
+            store(doc);
+          }
+          for (DBObject doc : replacements) {
+            assertTrue("Replacements only target existing documents", documents.containsKey(doc.get("_id")));
+            store(doc);
+          }
+          return null;
+        }
+      }).when(bulk).execute();
+
+      return bulk;
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.analysis.similarity;
+
+import com.act.utils.TSVParser;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SimilarityEngineTest {
+  private static final double DELTA = 1e-9;
+
+  private static final String BENZENE = "InChI=1S/C6H6/c1-2-4-6-5-3-1/h1-6H";
+  private static final String ETHANOL = "InChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3";
+  private static final String MALFORMED = "InChI=1S/not-a-molecule";
+
+  @Test
+  public void testTanimoto() throws Exception {
+    long[] a = {0b1011L, 0L};
+    long[] b = {0b0011L, 1L << 63};
+
+    assertEquals("Identical fingerprints are fully similar", 1.0, SimilarityEngine.tanimoto(a, a), DELTA);
+    assertEquals("Tanimoto is the shared bits over all bits set in either", 2.0 / 4.0,
+        SimilarityEngine.tanimoto(a, b), DELTA);
+    assertEquals("Tanimoto is symmetric", SimilarityEngine.tanimoto(a, b), SimilarityEngine.tanimoto(b, a), DELTA);
+    assertEquals("Disjoint fingerprints are not similar at all", 0.0,
+        SimilarityEngine.tanimoto(new long[]{0b01L}, new long[]{0b10L}), DELTA);
+  }
+
+  @Test
+  public void testTanimotoOfEmptyFingerprints() throws Exception {
+    long[] empty = {0L, 0L};
+    assertEquals("Two empty fingerprints are treated as fully similar", 1.0,
+        SimilarityEngine.tanimoto(empty, empty), DELTA);
+    assertEquals("An empty fingerprint shares nothing with a non-empty one", 0.0,
+        SimilarityEngine.tanimoto(empty, new long[]{1L, 0L}), DELTA);
+  }
+
+  @Test
+  public void testPackBits() throws Exception {
+    float[] bits = new float[130];
+    bits[0] = 1.0f;
+    bits[63] = 1.0f;
+    bits[64] = 1.0f;
+    bits[129] = 1.0f;
+
+    assertArrayEquals("Bits are packed into 64-bit words, rounding the word count up",
+        new long[]{1L | (1L << 63), 1L, 1L << 1}, SimilarityEngine.packBits(bits));
+    assertArrayEquals("An empty fingerprint packs to no words", new long[0], SimilarityEngine.packBits(new float[0]));
+  }
+
+  @Test
+  public void testFingerprintScreen() throws Exception {
+    long[] a = {0b0111L};
+    long[] b = {0b0011L};
+    long[] disjoint = {0b1000L};
+
+    assertTrue("Without a threshold every pair is aligned",
+        SimilarityEngine.passesFingerprintScreen(null, a, disjoint));
+    assertTrue("Pairs above the threshold are aligned", SimilarityEngine.passesFingerprintScreen(0.5, a, b));
+    assertTrue("Pairs exactly at the threshold are aligned",
+        SimilarityEngine.passesFingerprintScreen(2.0 / 3.0, a, b));
+    assertFalse("Pairs below the threshold are skipped", SimilarityEngine.passesFingerprintScreen(0.7, a, b));
+    assertFalse("Disjoint pairs are skipped by any positive threshold",
+        SimilarityEngine.passesFingerprintScreen(0.01, a, disjoint));
+  }
+
+  @Test
+  public void testFormatScoresDistinguishesSkippedAndFailedPairs() throws Exception {
+    assertEquals("Skipped pairs are left blank",
+        Collections.nCopies(4, SimilarityEngine.SKIPPED_PAIR_VALUE), SimilarityEngine.formatScores(null));
+    assertEquals("Failed pairs are marked as such",
+        Collections.nCopies(4, SimilarityEngine.FAILED_PAIR_VALUE),
+        SimilarityEngine.formatScores(SimilarityEngine.FAILED_SCORES));
+    assertEquals("Aligned pairs are written to six decimal places",
+        Arrays.asList("0.500000", "0.250000", "1.000000", "0.000000"),
+        SimilarityEngine.formatScores(new double[]{0.5, 0.25, 1.0, 0.0}));
+  }
+
+  private static List<SimilarityAnalysis.SimilarityOperator> makeQueries() throws Exception {
+    List<SimilarityAnalysis.SimilarityOperator> queries = new ArrayList<>();
+    for (String[] nameAndInchi : new String[][]{{"benzene", BENZENE}, {"ethanol", ETHANOL}}) {
+      SimilarityAnalysis.SimilarityOperator query =
+          SimilarityAnalysis.makeSimilarityOperators(nameAndInchi[0], nameAndInchi[1]);
+      query.init();
+      queries.add(query);
+    }
+    return queries;
+  }
+
+  private static List<Map<String, String>> makeTargets() {
+    List<Map<String, String>> targets = new ArrayList<>();
+    String[][] namesAndInchis = {{"benzene", BENZENE}, {"malformed", MALFORMED}, {"ethanol", ETHANOL}};
+    for (int i = 0; i < namesAndInchis.length; i++) {
+      Map<String, String> target = new HashMap<>();
+      target.put("name", namesAndInchis[i][0]);
+      target.put("id", String.valueOf(i));
+      target.put("inchi", namesAndInchis[i][1]);
+      targets.add(target);
+    }
+    return targets;
+  }
+
+  private static List<Map<String, String>> runAndReadResults(
+      SimilarityEngine engine, List<SimilarityAnalysis.SimilarityOperator> queries, boolean reverse)
+      throws Exception {
+    engine.run();
+
+    List<String> header = new ArrayList<>(Arrays.asList("name", "id", "inchi"));
+    for (SimilarityAnalysis.SimilarityOperator query : queries) {
+      header.addAll(query.getResultFields());
+    }
+
+    File outputFile = File.createTempFile(SimilarityEngineTest.class.getName(), ".tsv");
+    try {
+      if (reverse) {
+        engine.writeReverseResults(outputFile);
+      } else {
+        engine.writeResults(outputFile, header);
+      }
+      TSVParser parser = new TSVParser();
+      parser.parse(outputFile);
+      return parser.getResults();
+    } finally {
+      outputFile.delete();
+    }
+  }
+
+  private static List<String> valuesFor(Map<String, String> row, String columnPrefix) {
+    List<String> values = new ArrayList<>();
+    for (Map.Entry<String, String> entry : row.entrySet()) {
+      if (entry.getKey().startsWith(columnPrefix)) {
+        values.add(entry.getValue());
+      }
+    }
+    assertEquals(String.format("Four score columns for %s", columnPrefix), 4, values.size());
+    return values;
+  }
+
+  @Test
+  public void testPairLoopScreensOutPairsAndMarksFailedTargets() throws Exception {
+    List<SimilarityAnalysis.SimilarityOperator> queries = makeQueries();
+    // No pair can reach a Tanimoto similarity above 1, so every target that can be prepared is screened out.
+    SimilarityEngine engine = new SimilarityEngine(queries, makeTargets(), 1.1, true, 2);
+    List<Map<String, String>> rows = runAndReadResults(engine, queries, false);
+
+    assertEquals("One row per target", 3, rows.size());
+    for (Map<String, String> row : rows) {
+      String expected = "malformed".equals(row.get("name")) ?
+          SimilarityEngine.FAILED_PAIR_VALUE : SimilarityEngine.SKIPPED_PAIR_VALUE;
+      for (SimilarityAnalysis.SimilarityOperator query : queries) {
+        assertEquals(String.format("Scores of target %s against query %s", row.get("name"), query.getName()),
+            Collections.nCopies(4, expected), valuesFor(row, query.getName() + " "));
+      }
+    }
+  }
+
+  @Test
+  public void testPairLoopAlignsEveryPairInBothOrientations() throws Exception {
+    List<SimilarityAnalysis.SimilarityOperator> queries = makeQueries();
+    List<Map<String, String>> targets = makeTargets();
+
+    List<Map<String, String>> rows =
+        runAndReadResults(new SimilarityEngine(queries, targets, null, true, 2), queries, false);
+    assertEquals("Rows are written in target order", Arrays.asList("benzene", "malformed", "ethanol"),
+        Arrays.asList(rows.get(0).get("name"), rows.get(1).get("name"), rows.get(2).get("name")));
+    for (Map<String, String> row : rows) {
+      for (SimilarityAnalysis.SimilarityOperator query : queries) {
+        List<String> values = valuesFor(row, query.getName() + " ");
+        if ("malformed".equals(row.get("name"))) {
+          assertEquals("Pairs with an unparseable target are marked as failed",
+              Collections.nCopies(4, SimilarityEngine.FAILED_PAIR_VALUE), values);
+        } else {
+          for (String value : values) {
+            Double.parseDouble(value); // Every other pair has been aligned.
+          }
+        }
+      }
+    }
+    assertTrue("A molecule aligned with itself has a shape Tanimoto close to one",
+        Double.parseDouble(rows.get(0).get("benzene alignment tanimoto")) > 0.9);
+
+    List<Map<String, String>> reverseRows =
+        runAndReadResults(new SimilarityEngine(queries, targets, null, true, 2), queries, true);
+    assertEquals("One reverse row per query", queries.size(), reverseRows.size());
+    for (int q = 0; q < queries.size(); q++) {
+      Map<String, String> row = reverseRows.get(q);
+      assertEquals("Reverse rows are written in query order", queries.get(q).getName(), row.get("name"));
+      assertEquals("Pairs with an unparseable target are failed in the reverse orientation too",
+          Collections.nCopies(4, SimilarityEngine.FAILED_PAIR_VALUE), valuesFor(row, "malformed (1) "));
+      for (String value : valuesFor(row, "ethanol (2) ")) {
+        Double.parseDouble(value);
+      }
+    }
+    assertTrue("Self-alignment in the reverse orientation also has a shape Tanimoto close to one",
+        Double.parseDouble(reverseRows.get(0).get("benzene (0) alignment tanimoto")) > 0.9);
+  }
+}
@@ -92,4 +92,41 @@ public class RoBinningTest {
     Assert.assertEquals("Butanol should only match the RO since one half of it contains an aliphatic compound and it " +
         "does not match anything in the product side", 1, aliphaticResult.get(0).intValue());
   }
+
+  @Test
+  public void testFingerprintScreenedSearchMatchesFullSearch() throws Exception {
+    Ero aromaticRO = new Ero();
+    aromaticRO.setId(1);
+    aromaticRO.setRo("[H][c:6]1[c:7][c:1][c:2][c:3][c:4]1>>[C:1](=[O:7])1[C,c:2]=[C,c:3][C:4](=[O:8])[C,c:5]=[C,c:6]1");
+
+    Ero aliphaticRO = new Ero();
+    aliphaticRO.setId(2);
+    aliphaticRO.setRo("[C:9]([H])[C:10]([H])>>[C:9]=[C:10]");
+
+    Ero alcoholRO = new Ero();
+    alcoholRO.setId(3);
+    alcoholRO.setRo("[C:1][O:2][H]>>[C:1]=[O:2]");
+
+    ErosCorpus erosCorpus = new ErosCorpus();
+    List<Ero> eros = new ArrayList<>();
+    eros.add(aromaticRO);
+    eros.add(aliphaticRO);
+    eros.add(alcoholRO);
+    erosCorpus.setRos(eros);
+
+    ROBinning roBinning = new ROBinning(erosCorpus, null);
+    roBinning.init();
+
+    String[] inchis = new String[] {
+        "InChI=1S/C6H6/c1-2-4-6-5-3-1/h1-6H",
+        "InChI=1S/C4H10O/c1-4(2)3-5/h4-5H,3H2,1-2H3",
+        "InChI=1S/C7H8O/c8-6-7-4-2-1-3-5-7/h1-5,8H,6H2",
+        "InChI=1S/H2O/h1H2"
+    };
+
+    for (String inchi : inchis) {
+      Assert.assertEquals("Screened search should match the same ROs as the full search for " + inchi,
+          roBinning.processChemical(inchi), roBinning.processChemicalWithScreen(inchi));
+    }
+  }
 }
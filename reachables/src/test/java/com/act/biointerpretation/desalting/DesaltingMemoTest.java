@@ -0,0 +1,97 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.desalting;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DesaltingMemoTest {
+  private static final String FINGERPRINT = "fingerprint";
+  private static final String DESALTED_INCHI = "InChI=1S/CH2O2.K/c2-1-3;/h1H,(H,2,3);/q;+1/p-1";
+  private static final String FRAGMENT_INCHI = "InChI=1S/CH2O2/c2-1-3/h1H,(H,2,3)";
+  private static final String FAILED_INCHI = "InChI=1S/C2H4O2.Na/c1-2(3)4;/h1H3,(H,3,4);/q;+1/p-1";
+
+  private Path tempDirPath;
+  private File memoPath;
+
+  @Before
+  public void setUp() throws Exception {
+    tempDirPath = Files.createTempDirectory(DesaltingMemoTest.class.getName(), new FileAttribute[0]);
+    memoPath = new File(tempDirPath.toFile(), "memo");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tempDirPath.toFile());
+  }
+
+  private Map<String, DesaltingResult> makeResults() {
+    Map<String, DesaltingResult> results = new HashMap<>();
+    results.put(DESALTED_INCHI, DesaltingResult.desalted(Collections.singletonMap(FRAGMENT_INCHI, 1)));
+    results.put(FAILED_INCHI, DesaltingResult.failed("Unable to find a license"));
+    return results;
+  }
+
+  @Test
+  public void testFailuresAreNotMemoized() throws Exception {
+    try (DesaltingMemo memo = DesaltingMemo.open(memoPath, FINGERPRINT)) {
+      memo.putAll(makeResults());
+    }
+
+    try (DesaltingMemo memo = DesaltingMemo.open(memoPath, FINGERPRINT)) {
+      DesaltingResult desalted = memo.get(DESALTED_INCHI);
+      assertNotNull("Successful results survive reopening the memo", desalted);
+      assertEquals("Memoized fragments match what was stored",
+          Collections.singletonMap(FRAGMENT_INCHI, 1), desalted.getFragments());
+      assertNull("Failed results are not memoized", memo.get(FAILED_INCHI));
+      assertEquals("Memo hit is counted", 1L, memo.getHits());
+      assertEquals("Unmemoized failure is counted as a miss", 1L, memo.getMisses());
+    }
+  }
+
+  @Test
+  public void testMemoIsDiscardedWhenROsChange() throws Exception {
+    try (DesaltingMemo memo = DesaltingMemo.open(memoPath, FINGERPRINT)) {
+      memo.putAll(makeResults());
+    }
+
+    try (DesaltingMemo memo = DesaltingMemo.open(memoPath, FINGERPRINT + "-changed")) {
+      assertNull("Results from other ROs are discarded", memo.get(DESALTED_INCHI));
+    }
+  }
+}
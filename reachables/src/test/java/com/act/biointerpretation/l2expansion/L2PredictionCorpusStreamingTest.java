@@ -0,0 +1,158 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.l2expansion;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+
+public class L2PredictionCorpusStreamingTest {
+
+  private static final int NUM_PREDICTIONS = 50;
+  private static final String EVEN_RO = "RO_EVEN";
+  private static final String ODD_RO = "RO_ODD";
+
+  private File tempDir;
+  private List<L2Prediction> predictions;
+
+  @Before
+  public void setUp() throws Exception {
+    tempDir = Files.createTempDirectory(L2PredictionCorpusStreamingTest.class.getName()).toFile();
+
+    predictions = new ArrayList<>();
+    for (int i = 0; i < NUM_PREDICTIONS; i++) {
+      predictions.add(new L2Prediction(i,
+          L2PredictionChemical.getPredictionChemicals(Arrays.asList("substrate_" + i)),
+          i % 2 == 0 ? EVEN_RO : ODD_RO,
+          L2PredictionChemical.getPredictionChemicals(Arrays.asList("product_" + i, "product_" + (i + 1)))));
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(tempDir);
+  }
+
+  @Test
+  public void testNdjsonRoundTrip() throws IOException {
+    File corpusFile = new File(tempDir, "corpus.ndjson");
+    try (L2PredictionCorpusWriter writer =
+             new L2PredictionCorpusWriter(corpusFile, L2PredictionCorpusWriter.Format.NDJSON)) {
+      writer.writeAll(predictions);
+      assertEquals("Writer should count every prediction", NUM_PREDICTIONS, writer.getCount());
+    }
+
+    assertEquals("File should hold one prediction per line",
+        NUM_PREDICTIONS, Files.readAllLines(corpusFile.toPath()).size());
+
+    try (L2PredictionCorpusReader reader = L2PredictionCorpusReader.open(corpusFile)) {
+      assertEquals("Format should be detected as NDJSON", L2PredictionCorpusWriter.Format.NDJSON, reader.getFormat());
+      assertPredictionsMatch(predictions, readAll(reader));
+    }
+  }
+
+  @Test
+  public void testLegacyCorpusFilesAreReadable() throws IOException {
+    // Files written by the in-memory corpus should stream.
+    File legacyFile = new File(tempDir, "legacy.json");
+    new L2PredictionCorpus(predictions).writePredictionsToJsonFile(legacyFile);
+    try (L2PredictionCorpusReader reader = L2PredictionCorpusReader.open(legacyFile)) {
+      assertEquals("Format should be detected as legacy JSON",
+          L2PredictionCorpusWriter.Format.LEGACY_JSON, reader.getFormat());
+      assertPredictionsMatch(predictions, readAll(reader));
+    }
+
+    // Legacy files written by the streaming writer should load into an in-memory corpus.
+    File streamedLegacyFile = new File(tempDir, "streamed_legacy.json");
+    try (L2PredictionCorpusWriter writer =
+             new L2PredictionCorpusWriter(streamedLegacyFile, L2PredictionCorpusWriter.Format.LEGACY_JSON)) {
+      writer.writeAll(predictions);
+    }
+    L2PredictionCorpus corpus = L2PredictionCorpus.readPredictionsFromJsonFile(streamedLegacyFile);
+    assertPredictionsMatch(predictions, corpus.getCorpus());
+    assertEquals("Id map should be populated on load",
+        ODD_RO, corpus.getPredictionFromId(3).getProjectorName());
+  }
+
+  @Test
+  public void testParallelPipelineMatchesSequentialPipeline() throws IOException {
+    File corpusFile = new File(tempDir, "corpus.ndjson");
+    try (L2PredictionCorpusWriter writer =
+             new L2PredictionCorpusWriter(corpusFile, L2PredictionCorpusWriter.Format.NDJSON)) {
+      writer.writeAll(predictions);
+    }
+
+    Predicate<L2Prediction> isEven = prediction -> prediction.getProjectorName().equals(EVEN_RO);
+    L2PredictionPipeline pipeline = new L2PredictionPipeline()
+        .filter(isEven)
+        .transform(prediction -> {
+          prediction.setProjectorName(prediction.getProjectorName() + ":seen");
+          return prediction;
+        });
+
+    List<L2Prediction> sequential = new ArrayList<>();
+    try (L2PredictionCorpusReader reader = L2PredictionCorpusReader.open(corpusFile)) {
+      pipeline.run(reader, sequential::add);
+    }
+
+    // A batch size that does not divide the corpus exercises the final partial batch.
+    List<L2Prediction> parallel = new ArrayList<>();
+    try (L2PredictionCorpusReader reader = L2PredictionCorpusReader.open(corpusFile)) {
+      pipeline.runInParallel(reader, parallel::add, 4, 7);
+    }
+
+    assertEquals("Half of the predictions should pass the filter", NUM_PREDICTIONS / 2, sequential.size());
+    assertEquals("Transformation should be applied", EVEN_RO + ":seen", sequential.get(0).getProjectorName());
+    assertPredictionsMatch(sequential, parallel);
+  }
+
+  private List<L2Prediction> readAll(L2PredictionCorpusReader reader) {
+    List<L2Prediction> result = new ArrayList<>();
+    reader.forEachRemaining(result::add);
+    return result;
+  }
+
+  private void assertPredictionsMatch(List<L2Prediction> expected, List<L2Prediction> actual) {
+    assertEquals("Corpora should be the same size", expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals("Ids should match in order", expected.get(i).getId(), actual.get(i).getId());
+      assertEquals("Projector names should match",
+          expected.get(i).getProjectorName(), actual.get(i).getProjectorName());
+      assertEquals("Substrates should match",
+          expected.get(i).getSubstrateInchis(), actual.get(i).getSubstrateInchis());
+      assertEquals("Products should match", expected.get(i).getProductInchis(), actual.get(i).getProductInchis());
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.l2expansion;
+
+import chemaxon.formats.MolExporter;
+import chemaxon.formats.MolFormatException;
+import chemaxon.formats.MolImporter;
+import chemaxon.reaction.ReactionException;
+import chemaxon.struc.Molecule;
+import com.act.analysis.chemicals.molecules.MoleculeConversionCache;
+import com.act.analysis.chemicals.molecules.MoleculeExporter;
+import com.act.analysis.chemicals.molecules.MoleculeFormat;
+import com.act.analysis.chemicals.molecules.MoleculeFormat$;
+import com.act.analysis.chemicals.molecules.MoleculeImporter;
+import com.act.biointerpretation.Utils.ReactionProjector;
+import com.act.biointerpretation.mechanisminspection.Ero;
+import com.act.biointerpretation.mechanisminspection.ErosCorpus;
+import com.act.utils.BenchmarkHarness;
+import com.act.utils.CLIUtil;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures MoleculeConversionCache under an L2 projection workload.  A synthetic set of substrate InChIs (with some
+ * repeats) is imported and projected through single substrate ROs, and every product is exported and then re-imported
+ * the way downstream SAR scoring and desalting would.  Each pass over the set reports throughput and cache hit rates:
+ * the first pass shows a cold cache, later passes what other consumers of the same InChIs see.
+ */
+public class L2ProjectionCacheBenchmark {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(L2ProjectionCacheBenchmark.class);
+
+  private static final String OPTION_COUNT = "n";
+  private static final String OPTION_DUPLICATE_RATE = "r";
+  private static final String OPTION_PASSES = "p";
+  private static final String OPTION_MAX_ROS = "m";
+  private static final String OPTION_THREADS = "j";
+  private static final String OPTION_CACHE_SIZE = "c";
+
+  private static final String DEFAULT_COUNT = "1000";
+  private static final String DEFAULT_DUPLICATE_RATE = "0.2";
+  private static final String DEFAULT_PASSES = "3";
+  private static final String DEFAULT_MAX_ROS = "50";
+
+  private static final MoleculeFormat.MoleculeFormatType OUTPUT_FORMAT = MoleculeFormat.stdInchi$.MODULE$;
+
+  // Synthetic substrates are carbon chains with optional methyl branches, capped by one of these groups at each end.
+  private static final String[] END_GROUPS = {"", "O", "N", "C(=O)O", "C=O", "S", "Cl", "c1ccccc1"};
+  private static final int MAX_CHAIN_LENGTH = 12;
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "This class projects single substrate ROs over a synthetic set of InChIs, and reports the throughput ",
+      "and hit rates of the shared molecule conversion cache for each pass over the set.",
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_COUNT)
+        .argName("count")
+        .desc(String.format("The number of substrates to project per pass (default: %s)", DEFAULT_COUNT))
+        .hasArg()
+        .longOpt("count")
+    );
+    add(Option.builder(OPTION_DUPLICATE_RATE)
+        .argName("rate")
+        .desc(String.format("The fraction of substrates that repeat an earlier InChI (default: %s)",
+            DEFAULT_DUPLICATE_RATE))
+        .hasArg()
+        .longOpt("duplicate-rate")
+    );
+    add(Option.builder(OPTION_PASSES)
+        .argName("passes")
+        .desc(String.format("The number of passes over the substrates (default: %s)", DEFAULT_PASSES))
+        .hasArg()
+        .longOpt("passes")
+    );
+    add(Option.builder(OPTION_MAX_ROS)
+        .argName("count")
+        .desc(String.format("The number of validation ROs to project (default: %s)", DEFAULT_MAX_ROS))
+        .hasArg()
+        .longOpt("max-ros")
+    );
+    add(Option.builder(OPTION_THREADS)
+        .argName("threads")
+        .desc("The number of projection workers (default: number of processors)")
+        .hasArg()
+        .longOpt("threads")
+    );
+    add(Option.builder(OPTION_CACHE_SIZE)
+        .argName("size")
+        .desc(String.format("The maximum size of the conversion cache (default: %d)",
+            MoleculeConversionCache.DEFAULT_MAX_SIZE()))
+        .hasArg()
+        .longOpt("cache-size")
+    );
+    add(Option.builder("h")
+        .argName("help")
+        .desc("Prints this help message")
+        .longOpt("help")
+    );
+  }};
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(L2ProjectionCacheBenchmark.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    int count = Integer.parseInt(cl.getOptionValue(OPTION_COUNT, DEFAULT_COUNT));
+    double duplicateRate = Double.parseDouble(cl.getOptionValue(OPTION_DUPLICATE_RATE, DEFAULT_DUPLICATE_RATE));
+    int passes = Integer.parseInt(cl.getOptionValue(OPTION_PASSES, DEFAULT_PASSES));
+    int maxRos = Integer.parseInt(cl.getOptionValue(OPTION_MAX_ROS, DEFAULT_MAX_ROS));
+    int threads = Integer.parseInt(
+        cl.getOptionValue(OPTION_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors())));
+    long cacheSize = Long.parseLong(
+        cl.getOptionValue(OPTION_CACHE_SIZE, String.valueOf(MoleculeConversionCache.DEFAULT_MAX_SIZE())));
+
+    MoleculeConversionCache.setMaxSize(cacheSize);
+
+    ErosCorpus roCorpus = new ErosCorpus();
+    roCorpus.loadValidationCorpus();
+    roCorpus.filterCorpusBySubstrateCount(1);
+    List<Ero> ros = roCorpus.getRos().subList(0, Math.min(maxRos, roCorpus.getRos().size()));
+
+    List<String> substrates = makeSyntheticInchis(count, duplicateRate);
+    LOGGER.info("Projecting %d ROs over %d substrates with %d workers", ros.size(), substrates.size(), threads);
+
+    // Reactors are already per thread (see Ero.getReactor), so give each worker its own projector too.
+    ThreadLocal<ReactionProjector> projectors = ThreadLocal.withInitial(ReactionProjector::new);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      for (int pass = 1; pass <= passes; pass++) {
+        MoleculeConversionCache.resetStats();
+        long start = System.currentTimeMillis();
+        long products = pool.submit(() -> substrates.parallelStream()
+            .mapToLong(inchi -> projectSubstrate(inchi, ros, projectors.get()))
+            .sum()
+        ).get();
+        long millis = Math.max(System.currentTimeMillis() - start, 1L);
+
+        LOGGER.info("Pass %d: %d substrates and %d products in %.3fs (%.1f substrates/s, %.1f projections/s)",
+            pass, substrates.size(), products, millis / 1000.0,
+            substrates.size() * 1000.0 / millis, (long) substrates.size() * ros.size() * 1000.0 / millis);
+        LOGGER.info("Pass %d cache: %s (overall hit rate %.1f%%)",
+            pass, MoleculeConversionCache.stats(), MoleculeConversionCache.stats().hitRate() * 100);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static long projectSubstrate(String inchi, List<Ero> ros, ReactionProjector projector) {
+    try {
+      Molecule substrate = MoleculeImporter.importMolecule(inchi);
+      long products = 0L;
+      for (Ero ro : ros) {
+        Map<Molecule[], List<Molecule[]>> projections =
+            projector.getRoProjectionMap(new Molecule[]{substrate}, ro.getReactor());
+        for (List<Molecule[]> productSets : projections.values()) {
+          for (Molecule[] productSet : productSets) {
+            for (Molecule product : productSet) {
+              String productInchi = MoleculeExporter.exportMolecule(product, OUTPUT_FORMAT);
+              try {
+                MoleculeImporter.importMolecule(productInchi);
+              } catch (MolFormatException e) {
+                LOGGER.debug("Could not re-import product %s: %s", productInchi, e.getMessage());
+              }
+              products++;
+            }
+          }
+        }
+      }
+      // Predictions record their substrates' InChIs too.
+      MoleculeExporter.exportMolecule(substrate, OUTPUT_FORMAT);
+      return products;
+    } catch (MolFormatException | ReactionException e) {
+      LOGGER.warn("Could not project substrate %s: %s", inchi, e.getMessage());
+      return 0L;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Builds the substrate list, repeating an earlier InChI with probability duplicateRate.  Conversion to InChI goes
+   * straight through ChemAxon so that it doesn't warm the cache being measured.
+   */
+  private static List<String> makeSyntheticInchis(int count, double duplicateRate) throws IOException {
+    Random random = new Random(BenchmarkHarness.DEFAULT_SEED);
+    String exportFormat = MoleculeFormat$.MODULE$.getExportString(OUTPUT_FORMAT);
+    List<String> inchis = new ArrayList<>(count);
+    int nextSynthetic = 0;
+    while (inchis.size() < count) {
+      if (!inchis.isEmpty() && random.nextDouble() < duplicateRate) {
+        inchis.add(inchis.get(random.nextInt(inchis.size())));
+      } else {
+        Molecule mol = MolImporter.importMol(syntheticSmiles(nextSynthetic), "smiles");
+        inchis.add(MolExporter.exportToFormat(mol, exportFormat));
+        nextSynthetic++;
+      }
+    }
+    return inchis;
+  }
+
+  static String syntheticSmiles(int index) {
+    int chainLength = 1 + index % MAX_CHAIN_LENGTH;
+    int rest = index / MAX_CHAIN_LENGTH;
+    String head = END_GROUPS[rest % END_GROUPS.length];
+    rest /= END_GROUPS.length;
+    String tail = END_GROUPS[rest % END_GROUPS.length];
+    // Whatever is left picks which chain atoms get a methyl branch.
+    int branches = rest / END_GROUPS.length;
+
+    StringBuilder smiles = new StringBuilder(head);
+    for (int i = 0; i < chainLength; i++) {
+      smiles.append('C');
+      if (((branches >> i) & 1) == 1) {
+        smiles.append("(C)");
+      }
+    }
+    return smiles.append(tail).toString();
+  }
+}
@@ -46,6 +46,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
@@ -239,6 +240,46 @@ public class ReactionMergerTest {
     }
   }
 
+  @Test
+  public void testSpilledGroupingMatchesInMemoryHashing() throws Exception {
+    // Draw from small pools so that many reactions collide, and vary every field that SubstratesProducts compares.
+    Random random = new Random(1234L);
+    String[] ecNumbers = {null, "1.1.1.1", "2.7.1.1", ""};
+    List<Reaction> reactions = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      Long[] substrates = randomIds(random, 1 + random.nextInt(2));
+      Long[] products = randomIds(random, 1 + random.nextInt(2));
+      Reaction rxn = new Reaction(
+          i, substrates, products, randomIds(random, random.nextInt(2)), new Long[0], new Long[0],
+          ecNumbers[random.nextInt(ecNumbers.length)],
+          random.nextBoolean() ? ConversionDirectionType.LEFT_TO_RIGHT : ConversionDirectionType.REVERSIBLE,
+          random.nextInt(4) == 0 ? null : StepDirection.LEFT_TO_RIGHT,
+          "Reaction " + i, Reaction.RxnDetailType.CONCRETE);
+      if (random.nextInt(4) == 0) {
+        rxn.setSubstrateCoefficient(substrates[0], 1 + random.nextInt(2));
+      }
+      reactions.add(rxn);
+    }
+
+    List<List<Long>> expected = ReactionMerger.orderReactionGroups(ReactionMerger.hashReactions(reactions.iterator()));
+
+    // 5000 reactions at well over 64 bytes apiece can't fit in this budget, so the grouping must spill to disk.
+    List<List<Long>> actual = new ArrayList<>();
+    long groupCount = ReactionMerger.forEachReactionGroup(reactions.iterator(), null, 16 * 1024, actual::add);
+
+    assertTrue("Corpus produces some merges", expected.size() < reactions.size());
+    assertEquals("Spilled grouping finds the same number of groups", expected.size(), groupCount);
+    assertEquals("Spilled grouping produces identical groups in identical order", expected, actual);
+  }
+
+  private static Long[] randomIds(Random random, int count) {
+    Long[] ids = new Long[count];
+    for (int i = 0; i < count; i++) {
+      ids[i] = Long.valueOf(random.nextInt(6));
+    }
+    return ids;
+  }
+
   /**
    * BRENDA and Metacyc structure their protein objects differently.  BRENDA specifies an "organism" field with a
    * single ID value, while Metacyc specifies a list of "organisms" ids.  Handling these incorrectly can cause
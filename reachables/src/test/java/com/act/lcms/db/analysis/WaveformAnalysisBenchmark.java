@@ -0,0 +1,152 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.db.analysis;
+
+import com.act.lcms.XZ;
+import com.act.utils.BenchmarkHarness;
+import com.act.utils.CLIUtil;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times WaveformAnalysis's primitive kernels on synthetic traces against the List&lt;XZ&gt; adapters and the original
+ * quadratic time alignment, and checks that both produce identical results.
+ */
+public class WaveformAnalysisBenchmark {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(WaveformAnalysisBenchmark.class);
+
+  private static final String OPTION_POINTS = "n";
+  private static final String OPTION_PEAKS = "p";
+
+  private static final String DEFAULT_POINTS = "200000";
+  private static final String DEFAULT_PEAKS = "5000";
+
+  // Roughly the scan rate of our LCMS runs.
+  private static final double MEAN_SCAN_INTERVAL_IN_SECONDS = 0.2;
+  private static final double MAX_INTENSITY = 10000.0;
+  private static final double POSITION_TIME_WINDOW_IN_SECONDS = 1.0;
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "This class benchmarks waveform analysis kernels on synthetic intensity/time traces.",
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_POINTS)
+        .argName("count")
+        .desc(String.format("The number of points in each synthetic trace (default: %s)", DEFAULT_POINTS))
+        .hasArg()
+        .longOpt("points")
+    );
+    add(Option.builder(OPTION_PEAKS)
+        .argName("count")
+        .desc(String.format("The number of peak times to align and check for overlaps (default: %s)", DEFAULT_PEAKS))
+        .hasArg()
+        .longOpt("peaks")
+    );
+    add(BenchmarkHarness.iterationsOption());
+    add(Option.builder("h")
+        .argName("help")
+        .desc("Prints this help message")
+        .longOpt("help")
+    );
+  }};
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(WaveformAnalysisBenchmark.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    int points = Integer.parseInt(cl.getOptionValue(OPTION_POINTS, DEFAULT_POINTS));
+    int peaks = Integer.parseInt(cl.getOptionValue(OPTION_PEAKS, DEFAULT_PEAKS));
+    int iterations = BenchmarkHarness.getIterations(cl);
+
+    Random random = new Random(BenchmarkHarness.DEFAULT_SEED);
+    WaveformAnalysis.Waveform trace = makeTrace(random, points);
+    List<XZ> traceXZs = trace.toXZs();
+
+    List<XZ> adapterPeaks = BenchmarkHarness.timeAndLog(LOGGER, "Compress + peaks (List<XZ>)", iterations, () ->
+        WaveformAnalysis.detectPeaksInIntensityTimeWaveform(
+            WaveformAnalysis.compressIntensityAndTimeGraphsAndFindMaxIntensityInEveryTimeWindow(
+                traceXZs, WaveformAnalysis.COMPRESSION_CONSTANT).getLeft(),
+            WaveformAnalysis.PEAK_DETECTION_THRESHOLD));
+    int[] kernelPeaks = BenchmarkHarness.timeAndLog(LOGGER, "Compress + peaks (Waveform)", iterations, () ->
+        WaveformAnalysis.detectPeakIndicesInWaveform(
+            WaveformAnalysis.compressWaveformAndFindMaxIntensityInEveryTimeWindow(
+                trace, WaveformAnalysis.COMPRESSION_CONSTANT).getLeft(),
+            WaveformAnalysis.PEAK_DETECTION_THRESHOLD));
+    check("Peak counts", adapterPeaks.size() == kernelPeaks.length);
+
+    double[] peakTimes = new double[peaks];
+    for (int i = 0; i < peakTimes.length; i++) {
+      peakTimes[i] = random.nextDouble() * points * MEAN_SCAN_INTERVAL_IN_SECONDS;
+    }
+
+    int[] scanAlignment = BenchmarkHarness.timeAndLog(LOGGER, "Time alignment (scan)", iterations, () ->
+        WaveformAnalysis.alignTimesToReferenceByScan(peakTimes, trace.getTimes(), POSITION_TIME_WINDOW_IN_SECONDS));
+    int[] alignment = BenchmarkHarness.timeAndLog(LOGGER, "Time alignment (two pointer)", iterations, () ->
+        WaveformAnalysis.alignTimesToReference(peakTimes, trace.getTimes(), POSITION_TIME_WINDOW_IN_SECONDS));
+    check("Time alignments", Arrays.equals(scanAlignment, alignment));
+
+    // Shift the second set of times so that only the last few overlap, forcing the scan to look at most pairs.
+    double[] laterPeakTimes = new double[peaks];
+    double offset = points * MEAN_SCAN_INTERVAL_IN_SECONDS * 0.99;
+    for (int i = 0; i < laterPeakTimes.length; i++) {
+      laterPeakTimes[i] = offset + random.nextDouble() * points * MEAN_SCAN_INTERVAL_IN_SECONDS;
+    }
+    boolean scanOverlap = BenchmarkHarness.timeAndLog(LOGGER, "Peak overlap (scan)", iterations, () ->
+        WaveformAnalysis.doPeaksOverlapByScan(peakTimes, laterPeakTimes, POSITION_TIME_WINDOW_IN_SECONDS));
+    boolean overlap = BenchmarkHarness.timeAndLog(LOGGER, "Peak overlap (sorted)", iterations, () ->
+        WaveformAnalysis.doPeaksOverlap(peakTimes, laterPeakTimes, POSITION_TIME_WINDOW_IN_SECONDS));
+    check("Peak overlaps", scanOverlap == overlap);
+  }
+
+  private static WaveformAnalysis.Waveform makeTrace(Random random, int points) {
+    double[] times = new double[points];
+    double[] intensities = new double[points];
+    double time = 0.0;
+    for (int i = 0; i < points; i++) {
+      time += MEAN_SCAN_INTERVAL_IN_SECONDS * (0.5 + random.nextDouble());
+      times[i] = time;
+      // Mostly noise, with a broad sinusoidal signal that produces a steady stream of peaks.
+      intensities[i] = random.nextDouble() * MAX_INTENSITY * (1.0 + Math.sin(i / 20.0)) / 2.0;
+    }
+    return new WaveformAnalysis.Waveform(times, intensities);
+  }
+
+  private static void check(String what, boolean matches) {
+    if (!matches) {
+      String msg = String.format("%s differ between implementations", what);
+      LOGGER.error(msg);
+      throw new RuntimeException(msg);
+    }
+    LOGGER.info("%s match", what);
+  }
+}
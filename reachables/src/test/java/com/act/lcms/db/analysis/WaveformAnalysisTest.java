@@ -0,0 +1,152 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.db.analysis;
+
+import com.act.lcms.XZ;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class WaveformAnalysisTest {
+  private static final double FP_TOLERANCE = 0.0000001;
+
+  private static WaveformAnalysis.Waveform waveform(double[] times, double[] intensities) {
+    return new WaveformAnalysis.Waveform(times, intensities);
+  }
+
+  private static double[] evenlySpacedTimes(int count, double spacing) {
+    double[] times = new double[count];
+    for (int i = 0; i < count; i++) {
+      times[i] = i * spacing;
+    }
+    return times;
+  }
+
+  @Test
+  public void testCompressWaveformSumsWindowsAndTracksMaxes() throws Exception {
+    WaveformAnalysis.Waveform input = waveform(
+        new double[]{0.0, 0.5, 1.0, 1.5, 2.0, 2.5, 3.0},
+        new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0});
+
+    Pair<WaveformAnalysis.Waveform, double[]> compressed =
+        WaveformAnalysis.compressWaveformAndFindMaxIntensityInEveryTimeWindow(input, 3);
+
+    // The last point doesn't fill a whole window, so it is dropped.
+    assertArrayEquals("Windows take the time of their first point",
+        new double[]{0.0, 1.5}, compressed.getLeft().getTimes(), FP_TOLERANCE);
+    assertArrayEquals("Window intensities are sums",
+        new double[]{6.0, 15.0}, compressed.getLeft().getIntensities(), FP_TOLERANCE);
+    assertArrayEquals("Maxes are the largest single intensity in each window",
+        new double[]{3.0, 6.0}, compressed.getRight(), FP_TOLERANCE);
+
+    Pair<List<XZ>, Map<Double, Double>> compressedXZs =
+        WaveformAnalysis.compressIntensityAndTimeGraphsAndFindMaxIntensityInEveryTimeWindow(input.toXZs(), 3);
+    assertEquals("List adapter produces the same number of windows", 2, compressedXZs.getLeft().size());
+    assertEquals("List adapter maps window times to maxes", Double.valueOf(6.0), compressedXZs.getRight().get(1.5));
+  }
+
+  @Test
+  public void testDetectPeakIndicesInWaveform() throws Exception {
+    WaveformAnalysis.Waveform input = waveform(evenlySpacedTimes(8, 1.0),
+        new double[]{0.0, 50.0, 20.0, 30.0, 100.0, 40.0, 45.0, 5.0});
+
+    assertArrayEquals("Peaks are found and ordered by descending intensity",
+        new int[]{4, 1}, WaveformAnalysis.detectPeakIndicesInWaveform(input, 10.0));
+
+    List<XZ> peaks = WaveformAnalysis.detectPeaksInIntensityTimeWaveform(input.toXZs(), 10.0);
+    assertEquals("List adapter finds the same number of peaks", 2, peaks.size());
+    assertEquals("List adapter returns the highest peak's time first", 4.0, peaks.get(0).getTime(), FP_TOLERANCE);
+    assertEquals("List adapter returns the highest peak's intensity first",
+        100.0, peaks.get(0).getIntensity(), FP_TOLERANCE);
+    assertEquals("List adapter returns the second peak's time second", 1.0, peaks.get(1).getTime(), FP_TOLERANCE);
+  }
+
+  @Test
+  public void testRmsOfWaveforms() throws Exception {
+    WaveformAnalysis.Waveform rms = WaveformAnalysis.rmsOfWaveforms(Arrays.asList(
+        waveform(new double[]{0.0, 1.0, 2.0}, new double[]{3.0, 0.0, 0.5}),
+        waveform(new double[]{0.1, 1.1}, new double[]{4.0, 0.0})
+    ));
+
+    assertArrayEquals("RMS is truncated to the shortest waveform and takes the first waveform's times",
+        new double[]{0.0, 1.0}, rms.getTimes(), FP_TOLERANCE);
+    assertArrayEquals("RMS values are floored at one",
+        new double[]{Math.sqrt(12.5), 1.0}, rms.getIntensities(), FP_TOLERANCE);
+  }
+
+  @Test
+  public void testAlignTimesToReferenceMatchesScan() throws Exception {
+    Random random = new Random(0x3A7EL);
+    for (int trial = 0; trial < 200; trial++) {
+      // Use coarse times so that queries often land exactly on window boundaries.
+      List<Double> references = new ArrayList<>();
+      int referenceCount = random.nextInt(50);
+      for (int i = 0; i < referenceCount; i++) {
+        references.add(random.nextInt(100) * 0.5);
+      }
+      if (trial % 4 != 0) {
+        Collections.sort(references); // Most traces are sorted, but exercise the unsorted fallback too.
+      }
+      double[] referenceTimes = references.stream().mapToDouble(Double::doubleValue).toArray();
+
+      double[] queryTimes = new double[random.nextInt(30)];
+      for (int i = 0; i < queryTimes.length; i++) {
+        queryTimes[i] = random.nextBoolean() ? random.nextInt(100) * 0.5 : random.nextDouble() * 50.0;
+      }
+
+      assertArrayEquals(String.format("Alignments match scan for trial %d", trial),
+          WaveformAnalysis.alignTimesToReferenceByScan(queryTimes, referenceTimes, 1.0),
+          WaveformAnalysis.alignTimesToReference(queryTimes, referenceTimes, 1.0));
+    }
+  }
+
+  @Test
+  public void testDoPeaksOverlapMatchesScan() throws Exception {
+    Random random = new Random(0x0F5E7L);
+    for (int trial = 0; trial < 500; trial++) {
+      double[] timesA = new double[random.nextInt(20)];
+      for (int i = 0; i < timesA.length; i++) {
+        timesA[i] = random.nextInt(200) * 0.5;
+      }
+      double[] timesB = new double[random.nextInt(20)];
+      for (int i = 0; i < timesB.length; i++) {
+        timesB[i] = random.nextInt(200) * 0.5;
+      }
+      double threshold = random.nextInt(4) * 0.5;
+
+      assertEquals(String.format("Overlap matches scan for trial %d", trial),
+          WaveformAnalysis.doPeaksOverlapByScan(timesA, timesB, threshold),
+          WaveformAnalysis.doPeaksOverlap(timesA, timesB, threshold));
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.v2;
+
+import com.act.utils.BenchmarkHarness;
+import com.act.utils.CLIUtil;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Times LcmsPeakSpectrum's neighborhood queries over synthetic peaks: the bulk plane sweep, one indexed query per
+ * peak, and (For a sample of peaks, as it is quadratic overall) the full scan that the index replaces.
+ */
+public class LcmsPeakSpectrumBenchmark {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(LcmsPeakSpectrumBenchmark.class);
+
+  private static final String OPTION_COUNT = "n";
+  private static final String OPTION_SAMPLE = "s";
+
+  private static final String DEFAULT_COUNT = "1000000";
+  private static final String DEFAULT_SAMPLE = "1000";
+
+  private static final double MIN_MZ = 50.0;
+  private static final double MAX_MZ = 1000.0;
+  private static final double MAX_TIME = 300.0;
+  private static final double MZ_WINDOW = 0.01;
+  private static final double TIME_WINDOW = 5.0;
+  private static final double MZ_TOLERANCE = 0.01;
+  private static final double TIME_TOLERANCE = 1.0;
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "This class benchmarks peak neighborhood queries on synthetic LCMS peaks.",
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_COUNT)
+        .argName("count")
+        .desc(String.format("The number of synthetic peaks (default: %s)", DEFAULT_COUNT))
+        .hasArg()
+        .longOpt("count")
+    );
+    add(Option.builder(OPTION_SAMPLE)
+        .argName("sample")
+        .desc(String.format("The number of peaks whose neighborhoods are also found by full scan (default: %s)",
+            DEFAULT_SAMPLE))
+        .hasArg()
+        .longOpt("sample")
+    );
+    add(BenchmarkHarness.iterationsOption());
+    add(Option.builder("h")
+        .argName("help")
+        .desc("Prints this help message")
+        .longOpt("help")
+    );
+  }};
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(LcmsPeakSpectrumBenchmark.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    int count = Integer.parseInt(cl.getOptionValue(OPTION_COUNT, DEFAULT_COUNT));
+    int sample = Math.min(count, Integer.parseInt(cl.getOptionValue(OPTION_SAMPLE, DEFAULT_SAMPLE)));
+    int iterations = BenchmarkHarness.getIterations(cl);
+
+    LOGGER.info("Generating %d synthetic peaks", count);
+    Random random = new Random(BenchmarkHarness.DEFAULT_SEED);
+    List<DetectedPeak> peaks = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      peaks.add(new FixedWindowDetectedPeak("synthetic", MIN_MZ + random.nextDouble() * (MAX_MZ - MIN_MZ), MZ_WINDOW,
+          random.nextDouble() * MAX_TIME, TIME_WINDOW, random.nextDouble(), 1.0));
+    }
+    List<DetectedPeak> samplePeaks = peaks.subList(0, sample);
+
+    // A fresh spectrum each time, so that every run includes building the index.
+    List<List<DetectedPeak>> sweepNeighborhoods = time("Plane sweep", iterations,
+        () -> new LcmsPeakSpectrum(peaks).neighborhoodsOf(peaks, MZ_TOLERANCE, TIME_TOLERANCE));
+    time("Indexed query per peak", iterations, () -> {
+      LcmsPeakSpectrum spectrum = new LcmsPeakSpectrum(peaks);
+      return peaks.stream()
+          .map(peak -> spectrum.getNeighborhoodPeaks(peak, MZ_TOLERANCE, TIME_TOLERANCE))
+          .collect(Collectors.toList());
+    });
+
+    LcmsPeakSpectrum spectrum = new LcmsPeakSpectrum(peaks);
+    List<List<DetectedPeak>> scanNeighborhoods = time(String.format("Full scan for %d peaks", sample), iterations,
+        () -> samplePeaks.stream()
+            .map(target -> spectrum.getPeaks(peak ->
+                Math.abs(peak.getRetentionTime() - target.getRetentionTime()) < TIME_TOLERANCE &&
+                    Math.abs(peak.getMz() - target.getMz()) < MZ_TOLERANCE))
+            .collect(Collectors.toList()));
+
+    if (!scanNeighborhoods.equals(sweepNeighborhoods.subList(0, sample))) {
+      String msg = "Plane sweep and full scan neighborhoods differ";
+      LOGGER.error(msg);
+      throw new RuntimeException(msg);
+    }
+    long neighbors = sweepNeighborhoods.stream().mapToLong(List::size).sum();
+    LOGGER.info("Neighborhoods match on the sample (%.2f neighbors per peak overall)", neighbors / (double) count);
+  }
+
+  private static List<List<DetectedPeak>> time(String name, int iterations,
+                                               Supplier<List<List<DetectedPeak>>> query) {
+    BenchmarkHarness.Timing<List<List<DetectedPeak>>> timing = BenchmarkHarness.time(iterations, query);
+    List<List<DetectedPeak>> result = timing.getResult();
+    LOGGER.info("%s: %.3fs per run over %d targets (%.1fK targets/s)",
+        name, timing.getMeanSeconds(), result.size(), result.size() / timing.getMeanSeconds() / 1e3);
+    return result;
+  }
+}
@@ -0,0 +1,164 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.v2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class LcmsPeakSpectrumTest {
+  private static final String SCAN_FILE = "scan_file";
+
+  private static FixedWindowDetectedPeak peak(double mz, double time) {
+    return new FixedWindowDetectedPeak(SCAN_FILE, mz, 0.01, time, 2.0, 1.0, 1.0);
+  }
+
+  /**
+   * Peaks snapped to a coarse grid half of the time, so that queries regularly land exactly on tolerance boundaries.
+   */
+  private static List<DetectedPeak> randomPeaks(Random random, int count) {
+    List<DetectedPeak> peaks = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      double mz = random.nextBoolean() ? 100.0 + random.nextInt(200) * 0.005 : 100.0 + random.nextDouble();
+      double time = random.nextBoolean() ? random.nextInt(60) * 0.5 : random.nextDouble() * 30.0;
+      double mzWindow = 0.001 * (1 + random.nextInt(20));
+      double timeWindow = 0.5 * (1 + random.nextInt(4));
+      peaks.add(new FixedWindowDetectedPeak(SCAN_FILE, mz, mzWindow, time, timeWindow, 1.0, 1.0));
+    }
+    return peaks;
+  }
+
+  private static List<DetectedPeak> neighborhoodByScan(List<DetectedPeak> peaks, DetectedPeak target,
+                                                       double mzTolerance, double timeTolerance) {
+    return peaks.stream()
+        .filter(peak -> Math.abs(peak.getRetentionTime() - target.getRetentionTime()) < timeTolerance &&
+            Math.abs(peak.getMz() - target.getMz()) < mzTolerance)
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void testNeighborhoodPeaksOnExample() throws Exception {
+    DetectedPeak center = peak(100.0, 10.0);
+    DetectedPeak close = peak(100.005, 10.5);
+    DetectedPeak onMzBoundary = peak(100.01, 10.0);
+    DetectedPeak farInTime = peak(100.0, 20.0);
+    DetectedPeak farInMz = peak(101.0, 10.0);
+    LcmsPeakSpectrum spectrum = new LcmsPeakSpectrum(
+        new ArrayList<>(Arrays.asList(farInMz, close, center, farInTime, onMzBoundary)));
+
+    assertEquals("Neighborhoods exclude peaks on or beyond either tolerance, and keep list order",
+        Arrays.asList(close, center), spectrum.getNeighborhoodPeaks(center, 0.01, 1.0));
+    assertEquals("Bulk neighborhoods agree with single queries",
+        Arrays.asList(Arrays.asList(close, center), Collections.singletonList(farInTime)),
+        spectrum.neighborhoodsOf(Arrays.asList(center, farInTime), 0.01, 1.0));
+    assertEquals("Time queries include peaks exactly on the tolerance",
+        Arrays.asList(farInMz, close, center, onMzBoundary), spectrum.getPeaksByTime(10.5, 0.5));
+    assertEquals("m/z queries use the peak's own window",
+        Arrays.asList(close, center, farInTime), spectrum.getPeaksByMZ(100.004, 1.0));
+  }
+
+  @Test
+  public void testQueriesMatchFullScan() throws Exception {
+    Random random = new Random(0xFEA7L);
+    for (int trial = 0; trial < 50; trial++) {
+      List<DetectedPeak> peaks = randomPeaks(random, 1 + random.nextInt(1000));
+      LcmsPeakSpectrum spectrum = new LcmsPeakSpectrum(peaks);
+      double mzTolerance = 0.005 * random.nextInt(4);
+      double timeTolerance = 0.5 * random.nextInt(4);
+
+      for (int query = 0; query < 20; query++) {
+        DetectedPeak target = random.nextBoolean() ?
+            peaks.get(random.nextInt(peaks.size())) : randomPeaks(random, 1).get(0);
+        Double mz = target.getMz();
+        Double time = target.getRetentionTime();
+        String message = String.format("Trial %d, query %d", trial, query);
+
+        assertEquals(message, neighborhoodByScan(peaks, target, mzTolerance, timeTolerance),
+            spectrum.getNeighborhoodPeaks(target, mzTolerance, timeTolerance));
+        assertEquals(message, spectrum.getPeaks(peak -> peak.matchesMz(mz, 1.0)), spectrum.getPeaksByMZ(mz, 1.0));
+        assertEquals(message, spectrum.getPeaks(peak -> peak.matchesMzTime(mz, time, 1.0)),
+            spectrum.getPeaksByMzTime(time, mz, 1.0));
+        assertEquals(message, spectrum.getPeaks(peak -> Math.abs(peak.getRetentionTime() - time) <= timeTolerance),
+            spectrum.getPeaksByTime(time, timeTolerance));
+      }
+
+      List<DetectedPeak> targets = randomPeaks(random, random.nextInt(100));
+      targets.addAll(peaks.subList(0, Math.min(peaks.size(), 100)));
+      List<List<DetectedPeak>> expected = targets.stream()
+          .map(target -> neighborhoodByScan(peaks, target, mzTolerance, timeTolerance))
+          .collect(Collectors.toList());
+      assertEquals(String.format("Bulk neighborhoods match full scan for trial %d", trial),
+          expected, spectrum.neighborhoodsOf(targets, mzTolerance, timeTolerance));
+    }
+  }
+
+  @Test
+  public void testIndexIsRebuiltWhenPeaksAreAdded() throws Exception {
+    LcmsPeakSpectrum spectrum = new LcmsPeakSpectrum();
+    DetectedPeak first = peak(100.0, 10.0);
+    spectrum.addPeak(first);
+    assertEquals(Collections.singletonList(first), spectrum.getNeighborhoodPeaks(100.0, 0.01, 10.0, 1.0));
+
+    DetectedPeak second = peak(100.001, 10.0);
+    spectrum.addPeak(second);
+    assertEquals("Peaks added after a query are found by later queries",
+        Arrays.asList(first, second), spectrum.getNeighborhoodPeaks(100.0, 0.01, 10.0, 1.0));
+  }
+
+  @Test
+  public void testPeaksWithoutFixedWindowsFallBackToFullScan() throws Exception {
+    // Matches every m/z, which no window based search could anticipate.
+    DetectedPeak matchesAnything = new FixedWindowDetectedPeak(SCAN_FILE, 500.0, 0.01, 10.0, 2.0, 1.0, 1.0) {
+      @Override
+      public Boolean matchesMz(Double mz, Double confidenceLevel) {
+        return true;
+      }
+    };
+    DetectedPeak unknownWindow = new FixedWindowDetectedPeak(SCAN_FILE, 100.0, null, 10.0, 2.0, 1.0, 1.0);
+    DetectedPeak nearby = peak(100.0, 10.0);
+
+    assertEquals("Custom peak types are tested against every query",
+        Arrays.asList(matchesAnything, nearby),
+        new LcmsPeakSpectrum(new ArrayList<>(Arrays.asList(matchesAnything, nearby))).getPeaksByMZ(100.0, 1.0));
+    assertEquals("Peaks without a known window are still found by neighborhood queries",
+        Arrays.asList(nearby, unknownWindow),
+        new LcmsPeakSpectrum(new ArrayList<>(Arrays.asList(nearby, unknownWindow))).getNeighborhoodPeaks(
+            100.0, 0.01, 10.0, 1.0));
+  }
+
+  @Test
+  public void testSortByKeyIsStable() throws Exception {
+    double[] keys = {3.0, 1.0, Double.NaN, 1.0, -2.0, 3.0};
+    assertArrayEquals("Positions are sorted by key, ties keep their order and NaN sorts last",
+        new int[]{4, 1, 3, 0, 5, 2}, LcmsPeakSpectrum.sortByKey(keys));
+  }
+}
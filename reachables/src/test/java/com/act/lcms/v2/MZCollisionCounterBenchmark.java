@@ -0,0 +1,142 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.v2;
+
+import com.act.utils.BenchmarkHarness;
+import com.act.utils.CLIUtil;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Times MZCollisionCounter's window collision counting over synthetic ion m/z values, optionally against the original
+ * sweep line (which is only practical for small inputs or sparse m/z distributions).
+ */
+public class MZCollisionCounterBenchmark {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(MZCollisionCounterBenchmark.class);
+
+  private static final String OPTION_COUNT = "n";
+  private static final String OPTION_DENSE_FRACTION = "d";
+  private static final String OPTION_COMPARE_SWEEP = "c";
+
+  private static final String DEFAULT_COUNT = "10000000";
+  private static final String DEFAULT_DENSE_FRACTION = "0.1";
+
+  private static final double WINDOW_HALF_WIDTH = 0.01;
+  private static final double MIN_MZ = 50.0;
+  private static final double MAX_MZ = 1000.0;
+  // Dense m/z's are packed into this many narrow clusters, to mimic the isomer-heavy regions of real ion sets.
+  private static final int DENSE_CLUSTERS = 100;
+  private static final double DENSE_CLUSTER_WIDTH = 0.05;
+  private static final int MAX_STRUCTURES_PER_MZ = 4;
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "This class benchmarks window collision counting on synthetic ion m/z values.",
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_COUNT)
+        .argName("count")
+        .desc(String.format("The number of synthetic ion m/z values (default: %s)", DEFAULT_COUNT))
+        .hasArg()
+        .longOpt("count")
+    );
+    add(Option.builder(OPTION_DENSE_FRACTION)
+        .argName("fraction")
+        .desc(String.format("The fraction of m/z values that fall into a few narrow, dense clusters (default: %s)",
+            DEFAULT_DENSE_FRACTION))
+        .hasArg()
+        .longOpt("dense-fraction")
+    );
+    add(BenchmarkHarness.iterationsOption());
+    add(Option.builder(OPTION_COMPARE_SWEEP)
+        .desc("Also time the original sweep line and check that it produces the same histogram")
+        .longOpt("compare-sweep")
+    );
+    add(Option.builder("h")
+        .argName("help")
+        .desc("Prints this help message")
+        .longOpt("help")
+    );
+  }};
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(MZCollisionCounterBenchmark.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    int count = Integer.parseInt(cl.getOptionValue(OPTION_COUNT, DEFAULT_COUNT));
+    double denseFraction = Double.parseDouble(cl.getOptionValue(OPTION_DENSE_FRACTION, DEFAULT_DENSE_FRACTION));
+    int iterations = BenchmarkHarness.getIterations(cl);
+
+    LOGGER.info("Generating %d synthetic ion m/z values", count);
+    Random random = new Random(BenchmarkHarness.DEFAULT_SEED);
+    double[] clusterCenters = new double[DENSE_CLUSTERS];
+    for (int i = 0; i < clusterCenters.length; i++) {
+      clusterCenters[i] = MIN_MZ + random.nextDouble() * (MAX_MZ - MIN_MZ);
+    }
+    double[] mzs = new double[count];
+    int[] structureCounts = new int[count];
+    for (int i = 0; i < count; i++) {
+      mzs[i] = random.nextDouble() < denseFraction ?
+          clusterCenters[random.nextInt(clusterCenters.length)] + random.nextDouble() * DENSE_CLUSTER_WIDTH :
+          MIN_MZ + random.nextDouble() * (MAX_MZ - MIN_MZ);
+      structureCounts[i] = 1 + random.nextInt(MAX_STRUCTURES_PER_MZ);
+    }
+    // The counter expects sorted m/z's; duplicates are rare enough at double precision not to matter here.
+    Arrays.sort(mzs);
+
+    long[] prefixSumCounts = time("Prefix sum", iterations,
+        () -> MZCollisionCounter.countWindowCollisions(mzs, structureCounts, WINDOW_HALF_WIDTH));
+
+    if (cl.hasOption(OPTION_COMPARE_SWEEP)) {
+      long[] sweepCounts = time("Sweep line", iterations,
+          () -> MZCollisionCounter.countWindowCollisionsBySweep(mzs, structureCounts, WINDOW_HALF_WIDTH));
+      Map<Long, Long> prefixSumHistogram = MZCollisionCounter.histogram(Arrays.stream(prefixSumCounts).boxed());
+      Map<Long, Long> sweepHistogram = MZCollisionCounter.histogram(Arrays.stream(sweepCounts).boxed());
+      if (!prefixSumHistogram.equals(sweepHistogram)) {
+        String msg = "Prefix sum and sweep line histograms differ";
+        LOGGER.error(msg);
+        throw new RuntimeException(msg);
+      }
+      LOGGER.info("Histograms match (%d distinct collision counts)", prefixSumHistogram.size());
+    }
+  }
+
+  private static long[] time(String name, int iterations, Supplier<long[]> counter) {
+    BenchmarkHarness.Timing<long[]> timing = BenchmarkHarness.time(iterations, counter);
+    long[] result = timing.getResult();
+    LOGGER.info("%s: %.3fs per run over %d m/z's (%.1fM m/z's/s)",
+        name, timing.getMeanSeconds(), result.length, result.length / timing.getMeanSeconds() / 1e6);
+    return result;
+  }
+}
@@ -0,0 +1,85 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.v2;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MZCollisionCounterTest {
+  private static final double DEFAULT_HALF_WIDTH = 0.01;
+
+  @Test
+  public void testCountWindowCollisionsOnExample() throws Exception {
+    // The first two windows overlap, the second and third touch at exactly one point, and the last is alone.
+    double[] mzs = {100.0, 100.015, 100.035, 200.0};
+    int[] structureCounts = {3, 2, 1, 4};
+
+    long[] expected = {5L, 6L, 3L, 4L};
+    assertArrayEquals("Collision counts include the window itself and every overlapping window",
+        expected, MZCollisionCounter.countWindowCollisions(mzs, structureCounts, DEFAULT_HALF_WIDTH));
+    assertArrayEquals("Sweep line agrees on the example",
+        expected, MZCollisionCounter.countWindowCollisionsBySweep(mzs, structureCounts, DEFAULT_HALF_WIDTH));
+  }
+
+  @Test
+  public void testCountWindowCollisionsMatchesSweep() throws Exception {
+    Random random = new Random(0x3C011DEL);
+    for (int trial = 0; trial < 100; trial++) {
+      int n = 1 + random.nextInt(2000);
+      TreeSet<Double> uniqueMZs = new TreeSet<>();
+      while (uniqueMZs.size() < n) {
+        // Mix a grid spaced at exactly one window width (to exercise touching windows) with dense and sparse regions.
+        uniqueMZs.add(random.nextBoolean() ?
+            100.0 + random.nextInt(100) * 2 * DEFAULT_HALF_WIDTH :
+            100.0 + random.nextDouble() * (trial % 2 == 0 ? 1.0 : 100.0));
+      }
+      double[] mzs = uniqueMZs.stream().mapToDouble(Double::doubleValue).toArray();
+      int[] structureCounts = new int[mzs.length];
+      for (int i = 0; i < structureCounts.length; i++) {
+        structureCounts[i] = 1 + random.nextInt(5);
+      }
+      double halfWidth = trial % 3 == 0 ? DEFAULT_HALF_WIDTH : 0.005 * (1 + random.nextInt(4));
+
+      long[] sweepCounts = MZCollisionCounter.countWindowCollisionsBySweep(mzs, structureCounts, halfWidth);
+      long[] prefixSumCounts = MZCollisionCounter.countWindowCollisions(mzs, structureCounts, halfWidth);
+      assertArrayEquals(String.format("Collision counts match sweep line for trial %d", trial),
+          sweepCounts, prefixSumCounts);
+      assertEquals(String.format("Histograms match sweep line for trial %d", trial),
+          MZCollisionCounter.histogram(Arrays.stream(sweepCounts).boxed()),
+          MZCollisionCounter.histogram(Arrays.stream(prefixSumCounts).boxed()));
+    }
+  }
+
+  @Test
+  public void testCountWindowCollisionsOnEmptyInput() throws Exception {
+    assertEquals("No m/z's means no counts",
+        0, MZCollisionCounter.countWindowCollisions(new double[0], new int[0], DEFAULT_HALF_WIDTH).length);
+  }
+}
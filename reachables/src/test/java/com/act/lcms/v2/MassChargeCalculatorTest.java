@@ -26,6 +26,7 @@ package com.act.lcms.v2;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -36,6 +37,7 @@ import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class MassChargeCalculatorTest {
@@ -129,6 +131,47 @@ public class MassChargeCalculatorTest {
     );
   }
 
+  @Test
+  public void testParallelMemoizedMapMatchesSerialMap() throws Exception {
+    List<MassChargeCalculator.MZSource> sources = Arrays.asList(
+        new MassChargeCalculator.MZSource("InChI=1S/C7H7NO2/c8-6-3-1-5(2-4-6)7(9)10/h1-4H,8H2,(H,9,10)"),  // PABA
+        new MassChargeCalculator.MZSource("InChI=1S/C7H7NO2/c1-10-7(9)6-3-2-4-8-5-6/h2-5H,1H3"),
+        new MassChargeCalculator.MZSource("InChI=1S/C8H9NO2/c1-6(10)9-7-2-4-8(11)5-3-7/h2-5,11H,1H3,(H,9,10)"), // APAP
+        new MassChargeCalculator.MZSource(151.063329),
+        new MassChargeCalculator.MZSource(Pair.of("APAP", 151.063329))
+    );
+    Set<String> ions = new HashSet<>(Arrays.asList("M+H", "M+Na", "M+K"));
+
+    MassChargeCalculator.MassChargeMap expected =
+        MassChargeCalculator.makeMassChargeMap(sources, ions, null, 1);
+
+    File memoFile = File.createTempFile("mass-memo", ".tsv");
+    memoFile.delete();
+    memoFile.deleteOnExit();
+    try {
+      // The first run populates the memo, the second reads every InChI mass from it.
+      for (int run = 0; run < 2; run++) {
+        MassChargeCalculator.MassChargeMap actual =
+            MassChargeCalculator.makeMassChargeMap(sources, ions, memoFile, 4);
+        assertTrue("Memo file was written", memoFile.exists());
+
+        assertEquals(String.format("(Run %d) Ion m/z's match serial computation", run),
+            expected.ionMZsSorted(), actual.ionMZsSorted());
+        for (Double ionMZ : expected.ionMZsSorted()) {
+          assertEquals(String.format("(Run %d) Ions for %f match serial computation", run, ionMZ),
+              expected.ionMZtoMonoMassAndIonName(ionMZ), actual.ionMZtoMonoMassAndIonName(ionMZ));
+          assertEquals(String.format("(Run %d) Sources for %f match serial computation", run, ionMZ),
+              expected.mapIonMZToSources(ionMZ), actual.mapIonMZToSources(ionMZ));
+        }
+        assertEquals(String.format("(Run %d) Source order matches serial computation", run),
+            StreamSupport.stream(expected.mzSourceIter().spliterator(), false).collect(Collectors.toList()),
+            StreamSupport.stream(actual.mzSourceIter().spliterator(), false).collect(Collectors.toList()));
+      }
+    } finally {
+      memoFile.delete();
+    }
+  }
+
   @Test
   public void testComputeMass() throws Exception {
     List<Pair<MassChargeCalculator.MZSource, Double>> testCases = Arrays.asList(
@@ -0,0 +1,107 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.v2;
+
+import com.act.lcms.XZ;
+import com.act.lcms.db.analysis.WaveformAnalysis;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TraceIndexAnalyzerTest {
+  private static final double FP_TOLERANCE = 0.0000001;
+  // Include a too-short trace, which should be analyzed against the matching prefix of the time points.
+  private static final int[] TRACE_LENGTHS = {1000, 1000, 997, 1000};
+
+  @Test
+  public void testAnalyzeLegacyTraceMatchesWaveformAnalysis() throws Exception {
+    Random random = new Random(0x1E6AC7L);
+    double[] times = makeTimes();
+    for (int traceLength : TRACE_LENGTHS) {
+      // Use full double precision intensities, as legacy indexes store them; they must not be narrowed before analysis.
+      double[] trace = new double[traceLength];
+      for (int i = 0; i < traceLength; i++) {
+        trace[i] = random.nextDouble() * 5000.0 * (1.0 + Math.sin(i / 20.0));
+      }
+      assertResultsMatchWaveformAnalysis(trace, times, TraceIndexAnalyzer.analyzeTrace(100.0, trace, times));
+    }
+  }
+
+  @Test
+  public void testAnalyzeFloatTraceMatchesWaveformAnalysis() throws Exception {
+    Random random = new Random(0xF10A7L);
+    double[] times = makeTimes();
+    /* Analyze the traces on one thread so that its widening buffer is reused, resized for the too-short trace and then
+     * resized back; stale intensities from earlier traces must never leak into later results. */
+    for (int traceLength : TRACE_LENGTHS) {
+      float[] trace = new float[traceLength];
+      double[] widenedTrace = new double[traceLength];
+      for (int i = 0; i < traceLength; i++) {
+        trace[i] = (float) (random.nextDouble() * 5000.0 * (1.0 + Math.sin(i / 20.0)));
+        widenedTrace[i] = trace[i];
+      }
+      assertResultsMatchWaveformAnalysis(widenedTrace, times, TraceIndexAnalyzer.analyzeTrace(100.0, trace, times));
+    }
+  }
+
+  private static double[] makeTimes() {
+    double[] times = new double[1000];
+    for (int i = 0; i < times.length; i++) {
+      times[i] = i * 0.2;
+    }
+    return times;
+  }
+
+  private static void assertResultsMatchWaveformAnalysis(
+      double[] trace, double[] times, List<TraceIndexAnalyzer.AnalysisResult> results) {
+    List<XZ> xzs = new ArrayList<>(trace.length);
+    for (int i = 0; i < trace.length; i++) {
+      xzs.add(new XZ(times[i], trace[i]));
+    }
+
+    // This is how peaks were called before the analyzer switched to primitive kernels.
+    Pair<List<XZ>, Map<Double, Double>> windowsAndMaxes =
+        WaveformAnalysis.compressIntensityAndTimeGraphsAndFindMaxIntensityInEveryTimeWindow(
+            xzs, WaveformAnalysis.COMPRESSION_CONSTANT);
+    List<XZ> windows = windowsAndMaxes.getLeft();
+    Map<Double, Double> windowMaxes = windowsAndMaxes.getRight();
+    List<XZ> expectedPeaks =
+        WaveformAnalysis.detectPeaksInIntensityTimeWaveform(windows, WaveformAnalysis.PEAK_DETECTION_THRESHOLD);
+
+    assertEquals(String.format("Same number of peaks for trace of length %d", trace.length),
+        expectedPeaks.size(), results.size());
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals("Target m/z is attached to each result", 100.0, results.get(i).getMz(), FP_TOLERANCE);
+      assertEquals("Peak times match", expectedPeaks.get(i).getTime(), results.get(i).getPeakTime(), FP_TOLERANCE);
+      assertEquals("Peak intensities are the max intensity in the peak's window",
+          windowMaxes.get(expectedPeaks.get(i).getTime()), results.get(i).getPeakIntensity(), FP_TOLERANCE);
+    }
+  }
+}
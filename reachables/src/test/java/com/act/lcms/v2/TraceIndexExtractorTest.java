@@ -0,0 +1,81 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.v2;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceIndexExtractorTest {
+  @Test
+  public void testFloatTraceRoundTrip() throws Exception {
+    List<Double> trace = Arrays.asList(0.0, 1.5, 123456.789, 3.2e9, 1e-3);
+    byte[] bytes = TraceIndexExtractor.encodeFloatTrace(trace);
+    assertEquals("Traces take four bytes per value", trace.size() * Float.BYTES, bytes.length);
+
+    float[] decoded = TraceIndexExtractor.decodeFloatTrace(bytes);
+    assertEquals("Decoded trace has the same length", trace.size(), decoded.length);
+    for (int i = 0; i < trace.size(); i++) {
+      // Floats keep about seven significant digits.
+      assertEquals("Decoded value is close to original", trace.get(i), decoded[i], Math.abs(trace.get(i)) * 1e-7);
+    }
+  }
+
+  @Test
+  public void testWindowKeysSortInMZOrder() throws Exception {
+    List<Double> targets = Arrays.asList(49.9, 50.0, 100.25, 1000.0, 1000.0001);
+    for (int i = 1; i < targets.size(); i++) {
+      byte[] prev = TraceIndexExtractor.encodeDouble(targets.get(i - 1));
+      byte[] cur = TraceIndexExtractor.encodeDouble(targets.get(i));
+      assertTrue(String.format("Key for %f sorts before key for %f", targets.get(i - 1), targets.get(i)),
+          compareUnsigned(prev, cur) < 0);
+      assertEquals("Target m/z survives a round trip",
+          targets.get(i), TraceIndexExtractor.decodeDouble(cur), 0.0);
+    }
+  }
+
+  @Test
+  public void testTraceKeysGroupByScan() throws Exception {
+    assertArrayEquals("Trace keys are scan id then window id",
+        new byte[] {0, 0, 0, 2, 0, 0, 1, 0}, TraceIndexExtractor.encodeTraceKey(2, 256));
+    assertEquals("Ints survive a round trip",
+        123456, TraceIndexExtractor.decodeInt(TraceIndexExtractor.encodeInt(123456)));
+  }
+
+  // RocksDB's default comparator orders keys bytewise, treating bytes as unsigned.
+  private static int compareUnsigned(byte[] a, byte[] b) {
+    for (int i = 0; i < Math.min(a.length, b.length); i++) {
+      int cmp = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return Integer.compare(a.length, b.length);
+  }
+}
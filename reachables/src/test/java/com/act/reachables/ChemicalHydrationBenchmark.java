@@ -0,0 +1,261 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import act.server.MongoDB;
+import com.act.utils.BenchmarkHarness;
+import com.act.utils.CLIUtil;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.ServerAddress;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times how long LoadAct takes to pull in the chemicals referenced by reactions, comparing the original one query per
+ * chemical against batched, projected queries with parallel parsing.  Optionally seeds a scratch DB with synthetic
+ * chemicals first.  Point this at a local mongod: the DB named here has its chemicals collection dropped when seeding.
+ */
+public class ChemicalHydrationBenchmark {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(ChemicalHydrationBenchmark.class);
+
+  private static final String OPTION_DB_HOST = "H";
+  private static final String OPTION_DB_PORT = "p";
+  private static final String OPTION_DB_NAME = "d";
+  private static final String OPTION_SEED = "s";
+  private static final String OPTION_CHEMICALS = "n";
+  private static final String OPTION_SERIAL_SAMPLE = "r";
+  private static final String OPTION_BATCH_SIZE = "b";
+  private static final String OPTION_THREADS = "t";
+
+  private static final String DEFAULT_DB_HOST = "localhost";
+  private static final String DEFAULT_DB_PORT = "27017";
+  private static final String DEFAULT_DB_NAME = "chemical_hydration_benchmark";
+  private static final String DEFAULT_CHEMICALS = "1000000";
+  private static final String DEFAULT_SERIAL_SAMPLE = "100000";
+  private static final String DEFAULT_BATCH_SIZE = "10000";
+
+  private static final int INSERT_BATCH_SIZE = 10000;
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "This class benchmarks LoadAct's chemical loading against a (optionally seeded) synthetic chemicals DB.",
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_DB_HOST)
+        .argName("host")
+        .desc(String.format("The DB host (default: %s)", DEFAULT_DB_HOST))
+        .hasArg()
+        .longOpt("db-host")
+    );
+    add(Option.builder(OPTION_DB_PORT)
+        .argName("port")
+        .desc(String.format("The DB port (default: %s)", DEFAULT_DB_PORT))
+        .hasArg()
+        .longOpt("db-port")
+    );
+    add(Option.builder(OPTION_DB_NAME)
+        .argName("name")
+        .desc(String.format("The DB to read chemicals from (default: %s)", DEFAULT_DB_NAME))
+        .hasArg()
+        .longOpt("db-name")
+    );
+    add(Option.builder(OPTION_SEED)
+        .desc("Drop the DB's chemicals collection and fill it with synthetic chemicals before timing")
+        .longOpt("seed")
+    );
+    add(Option.builder(OPTION_CHEMICALS)
+        .argName("count")
+        .desc(String.format("The number of chemicals to seed and load, with ids 0 to count - 1 (default: %s)",
+            DEFAULT_CHEMICALS))
+        .hasArg()
+        .longOpt("chemicals")
+    );
+    add(Option.builder(OPTION_SERIAL_SAMPLE)
+        .argName("count")
+        .desc(String.format("The number of chemicals to load one query at a time, as that is slow (default: %s)",
+            DEFAULT_SERIAL_SAMPLE))
+        .hasArg()
+        .longOpt("serial-sample")
+    );
+    add(Option.builder(OPTION_BATCH_SIZE)
+        .argName("size")
+        .desc(String.format("The number of chemicals to fetch per batched query (default: %s)", DEFAULT_BATCH_SIZE))
+        .hasArg()
+        .longOpt("batch-size")
+    );
+    add(Option.builder(OPTION_THREADS)
+        .argName("threads")
+        .desc("The number of threads to parse chemicals with (default: the number of processors)")
+        .hasArg()
+        .longOpt("threads")
+    );
+    add(Option.builder("h")
+        .argName("help")
+        .desc("Prints this help message")
+        .longOpt("help")
+    );
+  }};
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(ChemicalHydrationBenchmark.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    String host = cl.getOptionValue(OPTION_DB_HOST, DEFAULT_DB_HOST);
+    int port = Integer.parseInt(cl.getOptionValue(OPTION_DB_PORT, DEFAULT_DB_PORT));
+    String dbName = cl.getOptionValue(OPTION_DB_NAME, DEFAULT_DB_NAME);
+    int chemicals = Integer.parseInt(cl.getOptionValue(OPTION_CHEMICALS, DEFAULT_CHEMICALS));
+    int serialSample = Math.min(chemicals,
+        Integer.parseInt(cl.getOptionValue(OPTION_SERIAL_SAMPLE, DEFAULT_SERIAL_SAMPLE)));
+    int batchSize = Integer.parseInt(cl.getOptionValue(OPTION_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+    int threads = cl.hasOption(OPTION_THREADS) ?
+        Integer.parseInt(cl.getOptionValue(OPTION_THREADS)) : Runtime.getRuntime().availableProcessors();
+
+    if (cl.hasOption(OPTION_SEED)) {
+      seed(host, port, dbName, chemicals);
+    }
+
+    MongoDB db = new MongoDB(host, port, dbName);
+    List<Long> ids = new ArrayList<>(chemicals);
+    for (long id = 0; id < chemicals; id++) {
+      ids.add(id);
+    }
+
+    // The original LoadAct loop: one query per chemical, fetching the whole document.
+    long start = System.nanoTime();
+    for (Long id : ids.subList(0, serialSample)) {
+      LoadAct.summarize(id, db.getChemicalFromChemicalUUID(id));
+    }
+    double serialNanosPerChemical = (System.nanoTime() - start) / (double) Math.max(serialSample, 1);
+    LOGGER.info("One query per chemical: %.1fs for %d chemicals, or an estimated %.1fs for all %d",
+        serialNanosPerChemical * serialSample / 1e9, serialSample, serialNanosPerChemical * chemicals / 1e9, chemicals);
+
+    AtomicLong written = new AtomicLong();
+    start = System.nanoTime();
+    LoadAct.hydrateChemicals(db, ids, LoadAct.chemicalSummaryFields(), batchSize, threads,
+        summary -> written.incrementAndGet());
+    double batchedSeconds = (System.nanoTime() - start) / 1e9;
+    LOGGER.info("Batched, projected and parallel: %.1fs for %d chemicals", batchedSeconds, written.get());
+  }
+
+  private static void seed(String host, int port, String dbName, int chemicals) throws UnknownHostException {
+    LOGGER.info("Seeding %s:%d/%s with %d synthetic chemicals", host, port, dbName, chemicals);
+    MongoClient client = new MongoClient(new ServerAddress(host, port));
+    try {
+      DBCollection collection = client.getDB(dbName).getCollection("chemicals");
+      collection.drop();
+      Random random = new Random(BenchmarkHarness.DEFAULT_SEED);
+      List<DBObject> docs = new ArrayList<>(INSERT_BATCH_SIZE);
+      for (long id = 0; id < chemicals; id++) {
+        docs.add(makeChemicalDoc(random, id));
+        if (docs.size() == INSERT_BATCH_SIZE) {
+          collection.insert(docs);
+          docs.clear();
+        }
+      }
+      if (!docs.isEmpty()) {
+        collection.insert(docs);
+      }
+    } finally {
+      client.close();
+    }
+  }
+
+  /**
+   * Makes a document shaped like MongoDB.createChemicalDoc's, with a mix of the name sources LoadAct falls back
+   * through and enough other fields (synonyms, pubchem names, keywords, vendors) to make projection matter.
+   */
+  private static DBObject makeChemicalDoc(Random random, long id) {
+    int carbons = 1 + random.nextInt(40);
+    boolean abstraction = random.nextInt(20) == 0;
+    String inchi = String.format("InChI=1S/C%dH%dO%d%s/c%d", carbons, 2 * carbons + 2, random.nextInt(5),
+        abstraction ? "R" : "", id);
+
+    BasicDBList brenda = new BasicDBList();
+    int nameSource = random.nextInt(4);
+    if (nameSource == 0) {
+      brenda.add("brenda name " + id);
+      brenda.add("n" + id);
+    }
+    BasicDBList synonyms = new BasicDBList();
+    BasicDBList pubchemNames = new BasicDBList();
+    BasicDBList keywords = new BasicDBList();
+    for (int i = 0; i < 10; i++) {
+      synonyms.add(String.format("synonym %d of chemical %d", i, id));
+      keywords.add(String.format("keyword %d of chemical %d", i, id));
+    }
+    for (String type : new String[] {"IUPAC", "Systematic", "Traditional"}) {
+      BasicDBList values = new BasicDBList();
+      values.add(String.format("%s name of chemical %d", type, id));
+      pubchemNames.add(new BasicDBObject("type", type).append("values", values));
+    }
+    BasicDBObject names = new BasicDBObject("synonyms", synonyms)
+        .append("pubchem", pubchemNames)
+        .append("brenda", brenda);
+
+    BasicDBObject xrefs = new BasicDBObject("pubchem", id);
+    if (nameSource == 1) {
+      BasicDBList meta = new BasicDBList();
+      meta.add(new BasicDBObject("sname", "metacyc name " + id).append("id", "CPD-" + id));
+      xrefs.append("METACYC", new BasicDBObject("meta", meta));
+    } else if (nameSource == 2) {
+      xrefs.append("WIKIPEDIA", new BasicDBObject("metadata", new BasicDBObject("article", "Chemical_" + id)));
+    }
+    xrefs.append("DRUGBANK", new BasicDBObject("dbid", "DB" + id).append("metadata",
+        new BasicDBObject("toxicity", "Oral, mouse: LD50 = " + random.nextInt(5000) + " mg/kg")));
+
+    BasicDBList vendors = new BasicDBList();
+    for (int i = 0; i < 5; i++) {
+      vendors.add(new BasicDBObject("vendor", "vendor " + i).append("url", "http://example.com/" + id + "/" + i));
+    }
+
+    return new BasicDBObject("_id", id)
+        .append("canonical", null)
+        .append("SMILES", "C" + StringUtils.repeat("C", carbons - 1) + "O")
+        .append("InChI", inchi)
+        .append("InChIKey", "KEY" + id)
+        .append("isCofactor", false)
+        .append("isNative", false)
+        .append("names", names)
+        .append("xref", xrefs)
+        .append("estimateEnergy", null)
+        .append("keywords", keywords)
+        .append("keywords_case_insensitive", keywords)
+        .append("csid", (int) id)
+        .append("num_vendors", vendors.size())
+        .append("vendors", vendors);
+  }
+}
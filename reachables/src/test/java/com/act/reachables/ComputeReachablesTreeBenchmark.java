@@ -0,0 +1,119 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import com.act.utils.BenchmarkHarness;
+import com.act.utils.CLIUtil;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Times ComputeReachablesTree's array-backed tree analytics on a synthetic tree against the map-based, recursive
+ * implementations they replaced, and checks that both produce identical results.
+ */
+public class ComputeReachablesTreeBenchmark {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(ComputeReachablesTreeBenchmark.class);
+
+  private static final String OPTION_NODES = "n";
+
+  private static final String DEFAULT_NODES = "5000000";
+  private static final int MAX_VENDORS = 50;
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "This class benchmarks the reachables tree analytics on a synthetic tree.",
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_NODES)
+        .argName("count")
+        .desc(String.format("The number of nodes in the synthetic tree (default: %s)", DEFAULT_NODES))
+        .hasArg()
+        .longOpt("nodes")
+    );
+    add(BenchmarkHarness.iterationsOption());
+    add(Option.builder("h")
+        .argName("help")
+        .desc("Prints this help message")
+        .longOpt("help")
+    );
+  }};
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(ComputeReachablesTreeBenchmark.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    int nodes = Integer.parseInt(cl.getOptionValue(OPTION_NODES, DEFAULT_NODES));
+    int iterations = BenchmarkHarness.getIterations(cl);
+    int fanout = GlobalParams.actTreeSignificantFanout;
+
+    Random random = new Random(BenchmarkHarness.DEFAULT_SEED);
+    Tree<Long> tree = MapBasedTreeAnalytics.makeTree(random, nodes);
+    Map<Long, String> clades = MapBasedTreeAnalytics.makeClades(random, tree);
+    HashMap<Long, Double> vendors = new HashMap<>();
+    for (Long id : tree.allNodes()) {
+      vendors.put(id, (double) random.nextInt(MAX_VENDORS));
+    }
+
+    CompactTree compactTree = time("Build compact tree", iterations, () -> CompactTree.fromTree(tree));
+    double[] vendorArray = new double[compactTree.size()];
+    for (int i = 0; i < vendorArray.length; i++) {
+      vendorArray[i] = vendors.get(compactTree.id(i));
+    }
+
+    Map<Long, Long> mapAncestors = time("Important ancestors (maps)", iterations, () ->
+        MapBasedTreeAnalytics.importantAncestorsByWorklist(tree, fanout));
+    int[] ancestors = time("Important ancestors (arrays)", iterations, () ->
+        ComputeReachablesTree.importantAncestors(compactTree, fanout));
+    Map<Long, String> mapCategories = time("Functional categories (maps)", iterations, () ->
+        MapBasedTreeAnalytics.functionalCategoriesByWalk(tree, mapAncestors, clades));
+    String[] categories = time("Functional categories (arrays)", iterations, () ->
+        ComputeReachablesTree.functionalCategories(compactTree, ancestors, clades));
+    Map<Long, Double> mapSums = time("Subtree vendor sums (maps)", iterations, () ->
+        MapBasedTreeAnalytics.subtreeSumsByTraversal(tree, vendors));
+    double[] sums = time("Subtree vendor sums (arrays)", iterations, () ->
+        ComputeReachablesTree.subtreeSums(compactTree, vendorArray));
+
+    String mismatch = MapBasedTreeAnalytics.findMismatch(
+        compactTree, ancestors, categories, sums, mapAncestors, mapCategories, mapSums);
+    if (mismatch != null) {
+      LOGGER.error(mismatch);
+      throw new RuntimeException(mismatch);
+    }
+    LOGGER.info("Results for all %d nodes match", compactTree.size());
+  }
+
+  private static <T> T time(String name, int iterations, Supplier<T> kernel) {
+    return BenchmarkHarness.timeAndLog(LOGGER, name, iterations, kernel);
+  }
+}
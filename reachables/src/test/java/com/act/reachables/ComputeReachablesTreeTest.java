@@ -0,0 +1,374 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import act.server.MongoDB;
+import act.shared.Chemical;
+import act.shared.Chemical.REFS;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class ComputeReachablesTreeTest {
+  private static final int RANDOM_TREE_SIZE = 200000;
+  // Enough nodes for several batches of MongoDB's chemical id queries.
+  private static final int VENDOR_TREE_SIZE = 25000;
+  // Far deeper than a recursive walk of the tree could go without overflowing the call stack.
+  private static final int DEEP_TREE_DEPTH = 50000;
+  // Well clear of any ids other tests might put in the shared node and attribute caches.
+  private static final long ID_OFFSET = 8_000_000_000L;
+
+  /**
+   *        10
+   *      /  |  \
+   *    20   30  40
+   *   /  \       |
+   *  50  60     70
+   */
+  private static Tree<Long> smallTree() {
+    return treeFromEdges(10L, new long[][]{{10, 20}, {10, 30}, {10, 40}, {20, 50}, {20, 60}, {40, 70}});
+  }
+
+  private static Tree<Long> treeFromEdges(long root, long[][] edges) {
+    Set<Long> roots = new LinkedHashSet<>();
+    roots.add(root);
+    HashMap<Long, Long> parents = new HashMap<>();
+    HashMap<Long, Set<Long>> children = new HashMap<>();
+    for (long[] edge : edges) {
+      parents.put(edge[1], edge[0]);
+      children.computeIfAbsent(edge[0], k -> new LinkedHashSet<>()).add(edge[1]);
+    }
+    return new Tree<>(roots, parents, children, new HashMap<>());
+  }
+
+  @Test
+  public void testCompactTreeNumbersNodesBreadthFirst() throws Exception {
+    CompactTree tree = CompactTree.fromTree(smallTree());
+    assertEquals(7, tree.size());
+    assertEquals(1, tree.rootCount());
+
+    long[] ids = new long[tree.size()];
+    int[] parents = new int[tree.size()];
+    int[] childCounts = new int[tree.size()];
+    for (int i = 0; i < tree.size(); i++) {
+      ids[i] = tree.id(i);
+      parents[i] = tree.parent(i);
+      childCounts[i] = tree.childCount(i);
+      assertEquals(i, tree.indexOf(ids[i]));
+    }
+    assertArrayEquals(new long[]{10, 20, 30, 40, 50, 60, 70}, ids);
+    assertArrayEquals(new int[]{-1, 0, 0, 0, 1, 1, 3}, parents);
+    assertArrayEquals(new int[]{3, 2, 0, 1, 0, 0, 0}, childCounts);
+    assertEquals(4, tree.firstChild(1));
+    assertEquals(6, tree.childrenEnd(1));
+    assertEquals(-1, tree.indexOf(15L));
+  }
+
+  @Test
+  public void testAnalyticsOnSmallTree() throws Exception {
+    CompactTree tree = CompactTree.fromTree(smallTree());
+
+    // With a fanout of 1, the root and 20 are important, and 40 inherits the root.
+    int[] ancestors = ComputeReachablesTree.importantAncestors(tree, 1);
+    assertArrayEquals(new int[]{0, 1, 0, 0, 1, 1, 0}, ancestors);
+    assertArrayEquals(new int[]{-1, -1, -1, -1, -1, -1, -1}, ComputeReachablesTree.importantAncestors(tree, 3));
+
+    Map<Long, String> clades = new HashMap<>();
+    clades.put(20L, "Lipids");
+    String[] categories = ComputeReachablesTree.functionalCategories(tree, ancestors, clades);
+    assertArrayEquals(new String[]{"unknown", "Lipids", "unknown", "unknown", "Lipids", "Lipids", "unknown"},
+        categories);
+
+    double[] sizes = ComputeReachablesTree.subtreeSums(tree, new double[]{1, 1, 1, 1, 1, 1, 1});
+    assertArrayEquals(new double[]{7, 3, 1, 2, 1, 1, 1}, sizes, 0.0);
+  }
+
+  @Test
+  public void testFunctionalCategoriesComeFromNearestCladeAboveAncestor() throws Exception {
+    CompactTree tree = CompactTree.fromTree(smallTree());
+    int[] ancestors = ComputeReachablesTree.importantAncestors(tree, 1);
+
+    Map<Long, String> clades = new HashMap<>();
+    clades.put(10L, "Steroids");
+    clades.put(50L, "Not an ancestor");
+    String[] categories = ComputeReachablesTree.functionalCategories(tree, ancestors, clades);
+    // 50 is tagged itself, but takes the category of its important ancestor, 20, which inherits the root's.
+    assertEquals("Steroids", categories[tree.indexOf(50L)]);
+    assertEquals("Steroids", categories[tree.indexOf(70L)]);
+
+    int[] noAncestors = ComputeReachablesTree.importantAncestors(tree, 3);
+    for (String category : ComputeReachablesTree.functionalCategories(tree, noAncestors, clades)) {
+      assertNull(category);
+    }
+  }
+
+  @Test
+  public void testAnalyticsMatchMapBasedImplementationsOnRandomTree() throws Exception {
+    Random random = new Random(0x7EEL);
+    Tree<Long> tree = MapBasedTreeAnalytics.makeTree(random, RANDOM_TREE_SIZE);
+    Map<Long, String> clades = MapBasedTreeAnalytics.makeClades(random, tree);
+    CompactTree compactTree = CompactTree.fromTree(tree);
+    assertEquals(RANDOM_TREE_SIZE, compactTree.size());
+
+    // Prices are fractional, so this also checks that sums are added up in the same order.
+    HashMap<Long, Double> prices = new HashMap<>();
+    double[] priceArray = new double[compactTree.size()];
+    for (int i = 0; i < compactTree.size(); i++) {
+      priceArray[i] = random.nextDouble() * 100.0;
+      prices.put(compactTree.id(i), priceArray[i]);
+    }
+
+    int fanout = GlobalParams.actTreeSignificantFanout;
+    int[] ancestors = ComputeReachablesTree.importantAncestors(compactTree, fanout);
+    String mismatch = MapBasedTreeAnalytics.findMismatch(compactTree,
+        ancestors,
+        ComputeReachablesTree.functionalCategories(compactTree, ancestors, clades),
+        ComputeReachablesTree.subtreeSums(compactTree, priceArray),
+        MapBasedTreeAnalytics.importantAncestorsByWorklist(tree, fanout),
+        MapBasedTreeAnalytics.functionalCategoriesByWalk(
+            tree, MapBasedTreeAnalytics.importantAncestorsByWorklist(tree, fanout), clades),
+        MapBasedTreeAnalytics.subtreeSumsByTraversal(tree, prices));
+    assertNull(mismatch, mismatch);
+  }
+
+  @Test
+  public void testAddTreeNativeRootsAddsEachNativesSubtreeInPreorder() throws Exception {
+    long r = ID_OFFSET, a = ID_OFFSET + 1, b = ID_OFFSET + 2, a1 = ID_OFFSET + 3, a2 = ID_OFFSET + 4,
+        a11 = ID_OFFSET + 5, b1 = ID_OFFSET + 6;
+    Tree<Long> tree = treeFromEdges(r, new long[][]{{r, a}, {r, b}, {a, a1}, {a, a2}, {a1, a11}, {b, b1}});
+    List<Long> added = new ArrayList<>();
+    ComputeReachablesTree crt = treeComputedFor(tree, added);
+
+    crt.addTreeNativeRoots();
+
+    assertEquals("Each native's subtree is added depth first, children in order",
+        Arrays.asList(a, a1, a11, a2, b, b1), added);
+    Network actTree = ActData.instance().ActTree;
+    Map<Long, Long> expectedParents = new HashMap<>();
+    expectedParents.put(a, null);
+    expectedParents.put(a1, a);
+    expectedParents.put(a11, a1);
+    expectedParents.put(a2, a);
+    expectedParents.put(b, null);
+    expectedParents.put(b1, b);
+    for (Map.Entry<Long, Long> entry : expectedParents.entrySet()) {
+      Long id = entry.getKey();
+      assertEquals(String.format("Parent of %d", id), entry.getValue(), actTree.get_parent(id));
+      assertEquals(String.format("Native over %d", id),
+          id == a || id == a1 || id == a11 || id == a2 ? a : b, Node.getAttribute(id, "under_root"));
+    }
+    assertEquals("The natives are the roots of their trees", Integer.valueOf(0), actTree.nodeDepths().get(b));
+    assertEquals("Layers count down from the natives", Integer.valueOf(2), actTree.nodeDepths().get(a11));
+    assertNull("The root over the natives is not added", actTree.nodeDepths().get(r));
+    assertTrue("Every child gets an edge to its parent", actTree.toParentEdge.keySet().containsAll(
+        Arrays.asList(a1, a11, a2, b1)));
+  }
+
+  @Test
+  public void testAddTreeNativeRootsSkipsConnectorNodes() throws Exception {
+    long r = ID_OFFSET + 10, a = ID_OFFSET + 11, a1 = ID_OFFSET + 12, a11 = ID_OFFSET + 13, a12 = ID_OFFSET + 14,
+        a111 = ID_OFFSET + 15;
+    Tree<Long> tree = treeFromEdges(r, new long[][]{{r, a}, {a, a1}, {a1, a11}, {a1, a12}, {a11, a111}});
+    ComputeReachablesTree crt = treeComputedFor(tree, new ArrayList<>());
+
+    int compressBelow = GlobalParams.actTreeCompressNodesWithChildrenLessThan;
+    GlobalParams.actTreeCompressNodesWithChildrenLessThan = 1;
+    try {
+      crt.addTreeNativeRoots();
+    } finally {
+      GlobalParams.actTreeCompressNodesWithChildrenLessThan = compressBelow;
+    }
+
+    Network actTree = ActData.instance().ActTree;
+    // a and a11 have one child each, so their children hang off their own parents instead.
+    assertEquals("Children of connectors attach to the connector's parent", null, actTree.get_parent(a1));
+    assertEquals("Branching nodes keep their children", Long.valueOf(a1), actTree.get_parent(a11));
+    assertEquals("Branching nodes keep their children", Long.valueOf(a1), actTree.get_parent(a12));
+    assertEquals("Children of connectors attach to the connector's parent", Long.valueOf(a1), actTree.get_parent(a111));
+    assertEquals("Skipping connectors does not change layers", Integer.valueOf(3), actTree.nodeDepths().get(a111));
+  }
+
+  @Test
+  public void testAddTreeNativeRootsHandlesDeepTrees() throws Exception {
+    // Edges hash by XORing their ends' ids, so spread the ids out to keep the edge cache from degenerating.
+    long[] ids = new long[DEEP_TREE_DEPTH + 1];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = ID_OFFSET + 100 + 7919L * i;
+    }
+    long[][] edges = new long[DEEP_TREE_DEPTH][];
+    for (int i = 0; i < DEEP_TREE_DEPTH; i++) {
+      edges[i] = new long[]{ids[i], ids[i + 1]};
+    }
+    Tree<Long> tree = treeFromEdges(ids[0], edges);
+    List<Long> added = new ArrayList<>();
+    ComputeReachablesTree crt = treeComputedFor(tree, added);
+
+    crt.addTreeNativeRoots();
+
+    assertEquals("Every node under the native is added", DEEP_TREE_DEPTH, added.size());
+    long deepest = ids[DEEP_TREE_DEPTH];
+    Network actTree = ActData.instance().ActTree;
+    assertEquals(Long.valueOf(deepest), added.get(added.size() - 1));
+    assertEquals(Long.valueOf(ids[DEEP_TREE_DEPTH - 1]), actTree.get_parent(deepest));
+    assertEquals(Integer.valueOf(DEEP_TREE_DEPTH - 1), actTree.nodeDepths().get(deepest));
+  }
+
+  @Test
+  public void testVendorsAndPricesAreMappedBackToNodes() throws Exception {
+    Random random = new Random(0x5E11E45L);
+    CompactTree compactTree = CompactTree.fromTree(MapBasedTreeAnalytics.makeTree(random, VENDOR_TREE_SIZE));
+    // Every seventh chemical is missing, and every third has a Sigma price.
+    Map<Long, DBObject> documents = new HashMap<>();
+    for (int i = 0; i < compactTree.size(); i++) {
+      long id = compactTree.id(i);
+      if (id % 7 == 0) {
+        continue;
+      }
+      BasicDBObject xrefs = new BasicDBObject();
+      if (id % 3 == 0) {
+        xrefs.append("SIGMA", new BasicDBObject("metadata",
+            new BasicDBObject("price", String.valueOf(id % 100)).append("gramquant", "2")));
+      }
+      documents.put(id, new BasicDBObject("_id", id).append("num_vendors", (int) (id % 13)).append("xref", xrefs));
+    }
+    List<Integer> batchSizes = new ArrayList<>();
+    MongoDB db = mock(MongoDB.class, CALLS_REAL_METHODS);
+    Field field = MongoDB.class.getDeclaredField("dbChemicals");
+    field.setAccessible(true);
+    field.set(db, mockChemicalsCollection(documents, batchSizes));
+
+    ComputeReachablesTree crt = mock(ComputeReachablesTree.class, CALLS_REAL_METHODS);
+    crt.compactTree = compactTree;
+    crt.db = db;
+    Map<Long, Chemical> vendorsAndPrices = crt.fetchVendorsAndPrices();
+    assertEquals("Chemicals are fetched in batches", Arrays.asList(10000, 10000, 5000), batchSizes);
+
+    double[] vendors = ComputeReachablesTree.nodeVendorCounts(compactTree, vendorsAndPrices);
+    double[] prices = ComputeReachablesTree.getIndividualNodePrices(compactTree, vendorsAndPrices, REFS.SIGMA);
+    for (int i = 0; i < compactTree.size(); i++) {
+      long id = compactTree.id(i);
+      String msg = String.format("Node %d, chemical %d", i, id);
+      assertEquals(msg, id % 7 == 0 ? 0.0 : id % 13, vendors[i], 0.0);
+      assertEquals(msg, id % 7 == 0 || id % 3 != 0 ? 0.0 : (id % 100) / 2.0, prices[i], 0.0);
+    }
+  }
+
+  /**
+   * Makes a ComputeReachablesTree over the given tree without running the reachables computation, with every node
+   * counting once towards the subtree sums.
+   * @param added Receives the ids of nodes in the order their attributes are set, that is, added to the ActTree.
+   */
+  private static ComputeReachablesTree treeComputedFor(Tree<Long> tree, List<Long> added) {
+    for (Long id : tree.allNodes()) {
+      tree.nodeAttributes.put(id, new HashMap<String, Integer>());
+    }
+    ActData.instance().ActTree = new Network("Act Tree");
+
+    ComputeReachablesTree crt = mock(ComputeReachablesTree.class, CALLS_REAL_METHODS);
+    crt.tree = tree;
+    crt.compactTree = CompactTree.fromTree(tree);
+    crt.importantAncestor = ComputeReachablesTree.importantAncestors(crt.compactTree, 1);
+    crt.functionalCategory =
+        ComputeReachablesTree.functionalCategories(crt.compactTree, crt.importantAncestor, new HashMap<>());
+    double[] ones = new double[crt.compactTree.size()];
+    Arrays.fill(ones, 1.0);
+    crt.subtreeSz = ComputeReachablesTree.subtreeSums(crt.compactTree, ones);
+    crt.subtreeVal = crt.subtreeSz;
+    crt.subtreeVendorsSz = crt.subtreeSz;
+
+    crt.db = mock(MongoDB.class);
+    doAnswer(new Answer<Chemical>() {
+      @Override
+      public Chemical answer(InvocationOnMock invocation) throws Throwable {
+        added.add(invocation.getArgumentAt(0, Long.class));
+        return null;
+      }
+    }).when(crt.db).getChemicalFromChemicalUUID(anyLong());
+    return crt;
+  }
+
+  /**
+   * Answers `$in` queries on _id from the given documents, in descending id order, recording the size of each query.
+   */
+  private static DBCollection mockChemicalsCollection(Map<Long, DBObject> documents, List<Integer> batchSizes) {
+    DBCollection collection = mock(DBCollection.class);
+    doAnswer(new Answer<DBCursor>() {
+      @Override
+      public DBCursor answer(InvocationOnMock invocation) throws Throwable {
+        DBObject query = invocation.getArgumentAt(0, DBObject.class);
+        Collection<?> ids = (Collection<?>) ((DBObject) query.get("_id")).get("$in");
+        batchSizes.add(ids.size());
+        List<DBObject> results = new ArrayList<>();
+        for (Object id : ids) {
+          if (documents.containsKey(id)) {
+            results.add(documents.get(id));
+          }
+        }
+        results.sort((x, y) -> Long.compare((Long) y.get("_id"), (Long) x.get("_id")));
+        Iterator<DBObject> iterator = results.iterator();
+        DBCursor cursor = mock(DBCursor.class);
+        doAnswer(new Answer<Boolean>() {
+          @Override
+          public Boolean answer(InvocationOnMock invocation) throws Throwable {
+            return iterator.hasNext();
+          }
+        }).when(cursor).hasNext();
+        doAnswer(new Answer<DBObject>() {
+          @Override
+          public DBObject answer(InvocationOnMock invocation) throws Throwable {
+            return iterator.next();
+          }
+        }).when(cursor).next();
+        return cursor;
+      }
+    }).when(collection).find(any(DBObject.class), any(DBObject.class));
+    return collection;
+  }
+}
@@ -0,0 +1,209 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JSONDisjointTreesWriterTest {
+  // Well clear of any ids other tests might put in the shared node and attribute caches.
+  private static final long ID_OFFSET = 7_000_000_000L;
+
+  /**
+   * Serves metadata for every id not divisible by 5 from memory, and records the batches it was asked for.
+   */
+  private static class InMemoryMetadataSource implements ChemicalMetadataSource {
+    List<List<Long>> batches = new ArrayList<>();
+
+    @Override
+    public Map<Long, JSONObject> fetchChemicalMetadata(List<Long> ids) throws JSONException {
+      batches.add(new ArrayList<>(ids));
+      Map<Long, JSONObject> metadata = new HashMap<>();
+      for (Long id : ids) {
+        if (id % 5 != 0) {
+          JSONObject has = new JSONObject();
+          has.put("wikipedia", "https://en.wikipedia.org/wiki/" + id);
+          JSONObject chemical = new JSONObject();
+          chemical.put("ReadableName", "chemical \"" + id + "\"");
+          chemical.put("has", has);
+          metadata.put(id, chemical);
+        }
+      }
+      return metadata;
+    }
+  }
+
+  private Network network;
+
+  @Before
+  public void setUp() throws Exception {
+    network = new Network("test tree");
+  }
+
+  private void addNode(long id, Long parentId, long root, int depth) {
+    Node node = Node.get(id, true);
+    network.addNodeTreeSpecific(node, id, depth, parentId);
+    Node.setAttribute(id, "under_root", root);
+    Node.setAttribute(id, "subtreeSz", 1.0);
+    if (parentId != null) {
+      Edge edge = Edge.get(node, Node.get(parentId, false), true);
+      Edge.setAttribute(edge, "under_root", root);
+      Edge.setAttribute(edge, "importantAncestor", "" + parentId);
+      network.addEdgeTreeSpecific(edge, id);
+    }
+  }
+
+  /**
+   * Adds a tree whose node i has parent (i - 1) / fanout, like a heap.
+   */
+  private void addTree(long firstId, int size, int fanout) {
+    for (int i = 0; i < size; i++) {
+      Long parentId = i == 0 ? null : firstId + (i - 1) / fanout;
+      addNode(firstId + i, parentId, firstId, 0);
+    }
+  }
+
+  private String writeStreaming(ChemicalMetadataSource source, int batchSize) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new JSONDisjointTreesWriter(source, batchSize).write(network, out);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private String writeInMemory(ChemicalMetadataSource source) throws Exception {
+    return JSONDisjointTrees.get(source, new HashSet<>(network.nodeMapping.values()), network.edges,
+        network.parents, network.toParentEdge).toString();
+  }
+
+  /**
+   * Converts parsed JSON to plain maps and lists, with children sorted by name, as the in-memory serializer's child
+   * order depends on hash order.
+   */
+  private static Object normalize(Object json) throws JSONException {
+    if (json instanceof JSONObject) {
+      JSONObject obj = (JSONObject) json;
+      Map<String, Object> map = new TreeMap<>();
+      String[] names = JSONObject.getNames(obj);
+      if (names != null) {
+        for (String name : names) {
+          map.put(name, normalize(obj.get(name)));
+        }
+      }
+      return map;
+    }
+    if (json instanceof JSONArray) {
+      JSONArray array = (JSONArray) json;
+      List<Object> list = new ArrayList<>();
+      for (int i = 0; i < array.length(); i++) {
+        list.add(normalize(array.get(i)));
+      }
+      Collections.sort(list, (a, b) -> String.valueOf(((Map) a).get("name")).compareTo(
+          String.valueOf(((Map) b).get("name"))));
+      return list;
+    }
+    return json;
+  }
+
+  @Test
+  public void testStreamedForestMatchesInMemoryForest() throws Exception {
+    addTree(ID_OFFSET, 40, 3);
+    addTree(ID_OFFSET + 100, 25, 2);
+    addTree(ID_OFFSET + 200, 1, 2);
+
+    String streamed = writeStreaming(new InMemoryMetadataSource(), 7);
+    String inMemory = writeInMemory(new InMemoryMetadataSource());
+    assertEquals(normalize(new JSONObject(inMemory)), normalize(new JSONObject(streamed)));
+
+    JSONObject root = new JSONObject(streamed);
+    assertEquals("root", root.getString("name"));
+    assertEquals(3, root.getJSONArray("children").length());
+  }
+
+  @Test
+  public void testSingleTreeIsWrittenWithoutProxyRoot() throws Exception {
+    addTree(ID_OFFSET + 300, 10, 4);
+
+    String streamed = writeStreaming(new InMemoryMetadataSource(), 4);
+    String inMemory = writeInMemory(new InMemoryMetadataSource());
+    assertEquals(normalize(new JSONObject(inMemory)), normalize(new JSONObject(streamed)));
+    assertEquals(ID_OFFSET + 300, new JSONObject(streamed).getLong("name"));
+  }
+
+  @Test
+  public void testMetadataIsFetchedOnceInSortedBoundedBatches() throws Exception {
+    addTree(ID_OFFSET + 400, 50, 3);
+    addTree(ID_OFFSET + 500, 30, 2);
+
+    int batchSize = 8;
+    InMemoryMetadataSource source = new InMemoryMetadataSource();
+    writeStreaming(source, batchSize);
+
+    List<Long> fetched = new ArrayList<>();
+    for (List<Long> batch : source.batches) {
+      assertTrue("Batches are no larger than the batch size", batch.size() <= batchSize);
+      List<Long> sorted = new ArrayList<>(batch);
+      Collections.sort(sorted);
+      assertEquals("Batches are requested in id order", sorted, batch);
+      fetched.addAll(batch);
+    }
+    assertEquals("All but the last batch are full", (80 + batchSize - 1) / batchSize, source.batches.size());
+    Collections.sort(fetched);
+    List<Long> expected = new ArrayList<>(network.parents.keySet());
+    Collections.sort(expected);
+    assertEquals("Every node's metadata is fetched exactly once", expected, fetched);
+  }
+
+  @Test
+  public void testDeepTreesAreWrittenWithoutRecursion() throws Exception {
+    int depth = 50000;
+    // Edges are left out, as Edge's hash codes collide along a chain of consecutive ids.
+    for (int i = 0; i < depth; i++) {
+      long id = ID_OFFSET + 1000 + i;
+      network.addNodeTreeSpecific(Node.get(id, true), id, i, i == 0 ? null : id - 1);
+      Node.setAttribute(id, "subtreeSz", (double) (depth - i));
+    }
+
+    String streamed = writeStreaming(new InMemoryMetadataSource(), JSONDisjointTreesWriter.DEFAULT_BATCH_SIZE);
+    int names = 0;
+    for (int i = streamed.indexOf("\"name\""); i >= 0; i = streamed.indexOf("\"name\"", i + 1)) {
+      names++;
+    }
+    assertEquals(depth, names);
+  }
+}
@@ -0,0 +1,263 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+package com.act.reachables;
+
+import act.server.MongoDB;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class LoadActTest {
+  private static final int CHEMICALS = 40;
+  // Matches LoadAct's pattern for abstract InChIs; fake InChIs skip InChI key computation, see Chemical.setInchi.
+  private static final String ABSTRACT_INCHI = "InChI=1S/C2H5R/c1-2/h1H2,2H3";
+
+  private Map<Long, DBObject> documents;
+  private List<DBObject> projections;
+  private MongoDB db;
+
+  @Before
+  public void setUp() throws Exception {
+    documents = new TreeMap<>();
+    for (long id = 0; id < CHEMICALS; id++) {
+      documents.put(id, makeChemicalDoc(id));
+    }
+    projections = new ArrayList<>();
+    db = mock(MongoDB.class, CALLS_REAL_METHODS);
+    Field field = MongoDB.class.getDeclaredField("dbChemicals");
+    field.setAccessible(true);
+    field.set(db, mockChemicalsCollection());
+  }
+
+  @Test
+  public void testSummariesAreWrittenInIdOrder() throws Exception {
+    List<Long> ids = new ArrayList<>(documents.keySet());
+    Collections.shuffle(ids, new Random(0x10ADL));
+
+    List<Long> written = new ArrayList<>();
+    List<Thread> writerThreads = new ArrayList<>();
+    // Small batches over several threads, so that parsing a batch overlaps with fetching the next.
+    LoadAct.hydrateChemicals(db, ids, LoadAct.chemicalSummaryFields(), 7, 4, summary -> {
+      written.add(summary.id);
+      writerThreads.add(Thread.currentThread());
+    });
+
+    assertEquals("Summaries are written in the order of the ids, not of the query results", ids, written);
+    for (Thread thread : writerThreads) {
+      assertEquals("Summaries are written on the calling thread", Thread.currentThread(), thread);
+    }
+    assertEquals("Chemicals are fetched in one query per batch", (CHEMICALS + 6) / 7, projections.size());
+  }
+
+  @Test
+  public void testMissingChemicalIsReported() throws Exception {
+    documents.remove(12L);
+    List<Long> written = new ArrayList<>();
+    try {
+      LoadAct.hydrateChemicals(db, new ArrayList<>(Arrays.asList(3L, 12L, 5L)), LoadAct.chemicalSummaryFields(), 2, 2,
+          summary -> written.add(summary.id));
+      fail("Hydrating a chemical that is not in the DB should fail");
+    } catch (RuntimeException e) {
+      assertEquals("The missing chemical's id is reported",
+          "Chemical 12 is referenced by a reaction but is not in the DB", e.getMessage());
+    }
+    assertFalse("Nothing past the missing chemical is written", written.contains(5L));
+  }
+
+  @Test
+  public void testProjectedFieldsSufficeForSummaries() throws Exception {
+    List<Long> ids = new ArrayList<>(documents.keySet());
+    List<LoadAct.ChemicalSummary> full = new ArrayList<>();
+    LoadAct.hydrateChemicals(db, ids, null, 10, 2, full::add);
+    List<LoadAct.ChemicalSummary> projected = new ArrayList<>();
+    LoadAct.hydrateChemicals(db, ids, LoadAct.chemicalSummaryFields(), 10, 2, projected::add);
+
+    assertEquals(CHEMICALS, projected.size());
+    boolean sawAbstraction = false;
+    for (int i = 0; i < CHEMICALS; i++) {
+      LoadAct.ChemicalSummary expected = full.get(i);
+      LoadAct.ChemicalSummary actual = projected.get(i);
+      String msg = String.format("Summary of chemical %d", expected.id);
+      assertEquals(msg, expected.id, actual.id);
+      assertEquals(msg, expected.readableName, actual.readableName);
+      assertEquals(msg, expected.isAbstraction, actual.isAbstraction);
+      assertEquals(msg, expected.chemical.getInChI(), actual.chemical.getInChI());
+      assertEquals(msg, expected.chemical.isCofactor(), actual.chemical.isCofactor());
+      assertEquals(msg, expected.chemical.isNative(), actual.chemical.isNative());
+      sawAbstraction |= actual.isAbstraction;
+    }
+    assertTrue("Abstract InChIs are recognized", sawAbstraction);
+    assertEquals("BRENDA names come first", "brenda 4", projected.get(4).readableName);
+    assertEquals("MetaCyc names are the first fallback", "metacyc 5", projected.get(5).readableName);
+    assertEquals("Wikipedia articles are the second fallback", "Chemical_6", projected.get(6).readableName);
+    assertEquals("The InChI is the last resort", documents.get(7L).get("InChI"), projected.get(7).readableName);
+  }
+
+  /**
+   * Makes a document shaped like MongoDB.createChemicalDoc's, with one of LoadAct's name sources chosen by id.
+   */
+  private static DBObject makeChemicalDoc(long id) {
+    BasicDBList brenda = new BasicDBList();
+    BasicDBObject xrefs = new BasicDBObject("pubchem", id);
+    switch ((int) (id % 4)) {
+      case 0:
+        brenda.add("brenda " + id);
+        brenda.add("a longer brenda name for " + id);
+        break;
+      case 1:
+        BasicDBList meta = new BasicDBList();
+        meta.add(new BasicDBObject("sname", "metacyc " + id).append("id", "CPD-" + id));
+        xrefs.append("METACYC", new BasicDBObject("meta", meta));
+        break;
+      case 2:
+        xrefs.append("WIKIPEDIA", new BasicDBObject("metadata", new BasicDBObject("article", "Chemical_" + id)));
+        break;
+      default:
+        break;
+    }
+    xrefs.append("DRUGBANK", new BasicDBObject("dbid", "DB" + id));
+
+    BasicDBList synonyms = new BasicDBList();
+    synonyms.add("synonym of " + id);
+    BasicDBList pubchemNames = new BasicDBList();
+    BasicDBList values = new BasicDBList();
+    values.add("IUPAC name of " + id);
+    pubchemNames.add(new BasicDBObject("type", "IUPAC").append("values", values));
+    BasicDBList vendors = new BasicDBList();
+    vendors.add(new BasicDBObject("vendor", "vendor of " + id));
+
+    return new BasicDBObject("_id", id)
+        .append("canonical", null)
+        .append("InChI", id == 9L ? ABSTRACT_INCHI : "InChI=/FAKE/BRENDA/TEST/" + id)
+        .append("isCofactor", id % 5 == 0)
+        .append("isNative", id % 7 == 0)
+        .append("names",
+            new BasicDBObject("synonyms", synonyms).append("pubchem", pubchemNames).append("brenda", brenda))
+        .append("xref", xrefs)
+        .append("num_vendors", vendors.size())
+        .append("vendors", vendors);
+  }
+
+  /**
+   * Answers `$in` queries on _id in descending id order, applying the query's projection the way Mongo would.
+   */
+  private DBCollection mockChemicalsCollection() {
+    DBCollection collection = mock(DBCollection.class);
+    doAnswer(new Answer<DBCursor>() {
+      @Override
+      public DBCursor answer(InvocationOnMock invocation) throws Throwable {
+        DBObject query = invocation.getArgumentAt(0, DBObject.class);
+        DBObject keys = invocation.getArgumentAt(1, DBObject.class);
+        projections.add(keys);
+        Collection<?> ids = (Collection<?>) ((DBObject) query.get("_id")).get("$in");
+        List<DBObject> results = new ArrayList<>();
+        for (Object id : ids) {
+          DBObject doc = documents.get(id);
+          if (doc != null) {
+            results.add(project(doc, keys));
+          }
+        }
+        results.sort((a, b) -> Long.compare((Long) b.get("_id"), (Long) a.get("_id")));
+        return cursorOver(results);
+      }
+    }).when(collection).find(any(DBObject.class), any(DBObject.class));
+    return collection;
+  }
+
+  private static DBObject project(DBObject doc, DBObject keys) {
+    if (keys.keySet().isEmpty()) {
+      return doc;
+    }
+    BasicDBObject projected = new BasicDBObject("_id", doc.get("_id"));
+    for (String key : keys.keySet()) {
+      String[] path = key.split("\\.");
+      DBObject source = doc;
+      BasicDBObject target = projected;
+      for (int i = 0; i < path.length - 1 && source != null; i++) {
+        Object next = source.get(path[i]);
+        source = next instanceof DBObject ? (DBObject) next : null;
+        if (source != null) {
+          if (!target.containsField(path[i])) {
+            target.put(path[i], new BasicDBObject());
+          }
+          target = (BasicDBObject) target.get(path[i]);
+        }
+      }
+      if (source != null && source.containsField(path[path.length - 1])) {
+        target.put(path[path.length - 1], source.get(path[path.length - 1]));
+      }
+    }
+    return projected;
+  }
+
+  private static DBCursor cursorOver(List<DBObject> results) {
+    final Iterator<DBObject> iterator = results.iterator();
+    DBCursor cursor = mock(DBCursor.class);
+    doAnswer(new Answer<Boolean>() {
+      @Override
+      public Boolean answer(InvocationOnMock invocation) throws Throwable {
+        return iterator.hasNext();
+      }
+    }).when(cursor).hasNext();
+    doAnswer(new Answer<DBObject>() {
+      @Override
+      public DBObject answer(InvocationOnMock invocation) throws Throwable {
+        return iterator.next();
+      }
+    }).when(cursor).next();
+    doAnswer(new Answer<DBCursor>() {
+      @Override
+      public DBCursor answer(InvocationOnMock invocation) throws Throwable {
+        return (DBCursor) invocation.getMock();
+      }
+    }).when(cursor).addOption(anyInt());
+    return cursor;
+  }
+}
@@ -0,0 +1,179 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Synthetic reachables trees, and the map-based, recursive tree analytics that ComputeReachablesTree used before it
+ * moved to CompactTree, for checking and timing the array-backed analytics against.
+ */
+class MapBasedTreeAnalytics {
+  // Like the reachables tree, the synthetic tree hangs off one root whose children are the natives and cofactors.
+  private static final int NATIVES = 50;
+  private static final double CLADE_HEAD_FRACTION = 0.001;
+
+  /**
+   * Makes a random tree with one root, whose children are the natives.  Every other node picks its parent from the
+   * nodes before it with a bias towards early nodes, which gives a shallow tree with a spread of fanouts, including
+   * plenty above the significant fanout.  Ids are shuffled so that their order says nothing about the tree's shape.
+   */
+  static Tree<Long> makeTree(Random random, int size) {
+    long[] ids = new long[size];
+    for (int i = 0; i < size; i++) {
+      ids[i] = 3L * i + 1L;
+    }
+    for (int i = size - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      long swap = ids[i];
+      ids[i] = ids[j];
+      ids[j] = swap;
+    }
+
+    Set<Long> roots = new HashSet<>();
+    HashMap<Long, Long> parents = new HashMap<>();
+    HashMap<Long, Set<Long>> children = new HashMap<>();
+    roots.add(ids[0]);
+    for (int i = 1; i < size; i++) {
+      int parent = i <= NATIVES ? 0 : 1 + (int) ((i - 1) * Math.pow(random.nextDouble(), 2));
+      parents.put(ids[i], ids[parent]);
+      children.computeIfAbsent(ids[parent], k -> new HashSet<>()).add(ids[i]);
+    }
+    return new Tree<>(roots, parents, children, new HashMap<>());
+  }
+
+  /**
+   * Marks a random sample of nodes as the heads of important clades.  Like ComputeReachablesTree's clade map, this
+   * has a null key, for clades whose chemicals aren't installed.
+   */
+  static Map<Long, String> makeClades(Random random, Tree<Long> tree) {
+    Map<Long, String> clades = new HashMap<>();
+    clades.put(null, "Missing clade");
+    for (Long id : tree.allNodes()) {
+      if (random.nextDouble() < CLADE_HEAD_FRACTION) {
+        clades.put(id, "Clade " + id);
+      }
+    }
+    return clades;
+  }
+
+  /**
+   * The breadth-first worklist ComputeReachablesTree used to compute important ancestors over the tree's maps.
+   */
+  static Map<Long, Long> importantAncestorsByWorklist(Tree<Long> tree, int fanout) {
+    Map<Long, Long> importantAncestor = new HashMap<>();
+    Deque<Long> worklist = new ArrayDeque<>(tree.roots());
+    while (!worklist.isEmpty()) {
+      Long elem = worklist.removeFirst();
+      Set<Long> children = tree.getChildren(elem);
+      if (children != null) {
+        worklist.addAll(children);
+      }
+      if (children != null && children.size() > fanout) {
+        importantAncestor.put(elem, elem);
+      } else if (importantAncestor.containsKey(tree.getParent(elem))) {
+        importantAncestor.put(elem, importantAncestor.get(tree.getParent(elem)));
+      }
+    }
+    return importantAncestor;
+  }
+
+  /**
+   * Assigns functional categories by walking up from each important ancestor to the nearest clade head, as
+   * ComputeReachablesTree used to.
+   */
+  static Map<Long, String> functionalCategoriesByWalk(
+      Tree<Long> tree, Map<Long, Long> importantAncestor, Map<Long, String> clades) {
+    Map<Long, String> ancestorCategories = new HashMap<>();
+    Map<Long, String> functionalCategory = new HashMap<>();
+    for (Map.Entry<Long, Long> entry : importantAncestor.entrySet()) {
+      Long ancestor = entry.getValue();
+      String fcat = ancestorCategories.get(ancestor);
+      if (fcat == null) {
+        Long hasFcat = ancestor;
+        while (hasFcat != null && (fcat = clades.get(hasFcat)) == null) {
+          hasFcat = tree.getParent(hasFcat);
+        }
+        fcat = fcat == null ? "unknown" : fcat;
+        ancestorCategories.put(ancestor, fcat);
+      }
+      functionalCategory.put(entry.getKey(), fcat);
+    }
+    return functionalCategory;
+  }
+
+  /**
+   * Sums values over every subtree with the recursive InorderTraverse that ComputeReachablesTree used to.
+   */
+  static Map<Long, Double> subtreeSumsByTraversal(Tree<Long> tree, HashMap<Long, Double> values) {
+    InorderTraverse<Long> traversal = new InorderTraverse<Long>(tree) {
+      @Override
+      Double nodeValue(Double initVal, List<Double> childrenVals) {
+        Double sum = 0.0;
+        for (Double s : childrenVals)
+          sum += s;
+        return initVal + sum;
+      }
+    };
+    HashMap<Long, Double> sums = new HashMap<>();
+    for (Long root : tree.roots()) {
+      traversal.exec(root, values, sums);
+    }
+    return sums;
+  }
+
+  /**
+   * @return A description of the first node whose array-backed results differ from the map-based ones, or null if
+   * they all match.
+   */
+  static String findMismatch(CompactTree compactTree, int[] ancestors, String[] categories, double[] sums,
+                             Map<Long, Long> mapAncestors, Map<Long, String> mapCategories,
+                             Map<Long, Double> mapSums) {
+    if (mapSums.size() != compactTree.size()) {
+      return String.format("Compact tree has %d nodes, but %d are reachable", compactTree.size(), mapSums.size());
+    }
+    for (int i = 0; i < compactTree.size(); i++) {
+      Long id = compactTree.id(i);
+      Long ancestor = ancestors[i] == -1 ? null : compactTree.id(ancestors[i]);
+      if (!Objects.equals(ancestor, mapAncestors.get(id))) {
+        return String.format("Important ancestors of %d differ: %s vs %s", id, ancestor, mapAncestors.get(id));
+      }
+      if (!Objects.equals(categories[i], mapCategories.get(id))) {
+        return String.format("Categories of %d differ: %s vs %s", id, categories[i], mapCategories.get(id));
+      }
+      if (sums[i] != mapSums.get(id)) {
+        return String.format("Subtree sums of %d differ: %f vs %f", id, sums[i], mapSums.get(id));
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,105 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.utils;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.logging.log4j.Logger;
+
+import java.util.function.Supplier;
+
+/**
+ * The scaffolding shared by the benchmark main classes, which live in the test source set so that neither they nor
+ * the reference implementations they compare against ship in the main jar.  Run them with
+ * `sbt "test:runMain <benchmark class> <options>"`.
+ */
+public class BenchmarkHarness {
+  // Benchmarks generate their inputs from a fixed seed so that runs are comparable.
+  public static final long DEFAULT_SEED = 0xBE7C4L;
+
+  public static final String OPTION_ITERATIONS = "t";
+  public static final String DEFAULT_ITERATIONS = "5";
+
+  public static Option.Builder iterationsOption() {
+    return Option.builder(OPTION_ITERATIONS)
+        .argName("iterations")
+        .desc(String.format("The number of timed iterations, after one untimed warm-up (default: %s)",
+            DEFAULT_ITERATIONS))
+        .hasArg()
+        .longOpt("iterations");
+  }
+
+  public static int getIterations(CommandLine cl) {
+    return Integer.parseInt(cl.getOptionValue(OPTION_ITERATIONS, DEFAULT_ITERATIONS));
+  }
+
+  /**
+   * The result of the last timed run of a kernel, and the mean time per run.
+   */
+  public static class Timing<T> {
+    private final T result;
+    private final long meanNanos;
+
+    Timing(T result, long meanNanos) {
+      this.result = result;
+      this.meanNanos = meanNanos;
+    }
+
+    public T getResult() {
+      return result;
+    }
+
+    public double getMeanMillis() {
+      return meanNanos / 1e6;
+    }
+
+    public double getMeanSeconds() {
+      return meanNanos / 1e9;
+    }
+  }
+
+  /**
+   * Runs a kernel once to warm up, then the specified number of times while timing it.
+   */
+  public static <T> Timing<T> time(int iterations, Supplier<T> kernel) {
+    T result = kernel.get();
+    long totalNanos = 0L;
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      result = kernel.get();
+      totalNanos += System.nanoTime() - start;
+    }
+    return new Timing<>(result, totalNanos / Math.max(iterations, 1));
+  }
+
+  /**
+   * Times a kernel like time(), logging its mean run time.
+   * @return The kernel's result, for checking against other implementations.
+   */
+  public static <T> T timeAndLog(Logger logger, String name, int iterations, Supplier<T> kernel) {
+    Timing<T> timing = time(iterations, kernel);
+    logger.info(String.format("%s: %.3fms per run", name, timing.getMeanMillis()));
+    return timing.getResult();
+  }
+}
@@ -0,0 +1,112 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer.bing
+
+import java.io.StringWriter
+
+import org.scalatest.{FlatSpec, Matchers}
+import squants.market.USD
+import squants.mass.MassConversions.MassConversions
+import squants.space.VolumeConversions.VolumeConversions
+
+class CompiledCostModelTest extends FlatSpec with Matchers {
+  val RELATIVE_TOLERANCE = 1e-9
+
+  val yieldsPercent = List(1.0, 5.5, 31.9, 60.0, 100.0)
+  val titersGPerL = List(1.0, 3.3, 84.0, 150.0, 200.0)
+  val pricesPerTon = List(500.0, 5547.0, 20000.0)
+
+  def closeTo(expected: Double) = expected +- math.max(math.abs(expected) * RELATIVE_TOLERANCE, 1e-9)
+
+  def scenarios = for (y <- yieldsPercent; t <- titersGPerL) yield (Yield(y grams, 100 grams), Titer(t grams, 1 litres))
+
+  "The CompiledCostModel" should "match CostModel's per ton cost in every location" in {
+    Defaults.allLocations.foreach(location => {
+      val compiled = new CompiledCostModel(Defaults.CMOS, location)
+      scenarios.foreach({ case (y, t) =>
+        val expected = new CostModel().getPerTonCost(y, t, Defaults.CMOS, location).convertToBase(1 tonnes).value
+        compiled.perTonCost(y.ratio * 100, t.gPerL) should be(closeTo(expected))
+      })
+    })
+  }
+
+  "The CompiledCostModel" should "match InvestModel's investment" in {
+    val compiled = new CompiledCostModel(Defaults.CMOS, Defaults.defaultLocation)
+    scenarios.foreach({ case (y, t) =>
+      val (money, time) = new InvestModel().getInvestmentRequired(y, t)
+      compiled.investmentCost(y.ratio * 100, t.gPerL) should be(closeTo(money.value))
+      compiled.investmentDays(y.ratio * 100, t.gPerL) should be(closeTo(time.toDays))
+    })
+  }
+
+  "The CompiledCostModel" should "match ROIModel's NPV and ROI" in {
+    Defaults.allLocations.foreach(location => {
+      val compiled = new CompiledCostModel(Defaults.CMOS, location)
+      for ((y, t) <- scenarios; price <- pricesPerTon) {
+        val (npv, roi) = new ROIModel().getROI(y, t, USD(price), Defaults.CMOS, location)
+        compiled.npv(y.ratio * 100, t.gPerL, price) should be(closeTo(npv.value))
+        compiled.roi(y.ratio * 100, t.gPerL, price) should be(closeTo(roi.value))
+      }
+    })
+  }
+
+  "The CompiledCostModel" should "not support the Build Your Own Plant mode, as CostModel does not" in {
+    an[UnsupportedOperationException] should be thrownBy new CompiledCostModel(Defaults.BYOP, Defaults.defaultLocation)
+  }
+
+  "The outcome grid" should "agree with the per-scenario outcome table" in {
+    val titer = 84.0
+    val price = 5547.0
+    val location = Defaults.ITL
+    val expected = ExploreRange.getOutcomeVsYieldTable(titer, price, "CMOS", location.name).split("\n").toList
+
+    val out = new StringWriter()
+    val written = ExploreRange.writeOutcomeGrid((1 to 100).map(_.toDouble), List(titer), List(price),
+      Defaults.CMOS, location, out, threads = 4)
+    val actual = out.toString.split("\n").toList
+
+    written should be(100)
+    actual.head should be(ExploreRange.OUTCOME_GRID_HEADER.mkString("\t"))
+    actual.length should be(expected.length)
+    actual.tail.zip(expected.tail).foreach({ case (gridRow, tableRow) =>
+      val gridValues = gridRow.split("\t").map(_.toDouble)
+      gridValues.take(2) should be(Array(titer, price))
+      // Values are rounded to cents, so allow for the two computations rounding either way.
+      gridValues.drop(2).zip(tableRow.split("\t").map(_.toDouble)).foreach({ case (actualValue, expectedValue) =>
+        actualValue should be(expectedValue +- 0.0100001)
+      })
+    })
+  }
+
+  "The outcome grid" should "list every scenario in price, titer, yield order" in {
+    val out = new StringWriter()
+    val written = ExploreRange.writeOutcomeGrid(List(10.0, 20.0), List(50.0, 100.0, 150.0), List(1000.0, 2000.0),
+      Defaults.CMOS, Defaults.defaultLocation, out, threads = 3)
+    val scenarios = out.toString.split("\n").toList.tail.map(_.split("\t").take(3).map(_.toDouble).toList)
+
+    written should be(12)
+    scenarios should be(for (p <- List(1000.0, 2000.0); t <- List(50.0, 100.0, 150.0); y <- List(10.0, 20.0))
+      yield List(t, p, y))
+  }
+}
@@ -0,0 +1,209 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.installer.bing
+
+import java.io.{BufferedWriter, File, FileWriter, Writer}
+
+import org.apache.commons.cli.{CommandLine, DefaultParser, HelpFormatter, Options, ParseException, Option => CliOption}
+import org.apache.logging.log4j.LogManager
+import squants.market.USD
+import squants.mass.MassConversions.MassConversions
+import squants.space.VolumeConversions.VolumeConversions
+
+object CostModelGridBenchmark {
+  // Times a yield x titer grid of outcome scenarios at a single market price: the per-scenario squants models on a
+  // sample of the grid (extrapolated to the full grid), CompiledCostModel on the full grid, and the streaming TSV
+  // writer in ExploreRange. The sampled scenarios are also checked against the compiled model.
+
+  val HELP_FORMATTER: HelpFormatter = new HelpFormatter
+  val HELP_MESSAGE = "Benchmarks evaluation of large grids of cost model scenarios."
+  HELP_FORMATTER.setWidth(100)
+  private val logger = LogManager.getLogger(getClass.getName)
+
+  private val OPTION_YIELD_STEPS = "y"
+  private val OPTION_TITER_STEPS = "t"
+  private val OPTION_MARKET_PRICE = "p"
+  private val OPTION_SAMPLE = "s"
+  private val OPTION_THREADS = "j"
+  private val OPTION_OUTPUT = "o"
+
+  private val DEFAULT_STEPS = "1000"
+  private val DEFAULT_SAMPLE = "1000"
+  private val RELATIVE_TOLERANCE = 1e-9
+
+  def main(args: Array[String]) {
+    val cl = parseCommandLineOptions(args)
+
+    val yieldSteps = cl.getOptionValue(OPTION_YIELD_STEPS, DEFAULT_STEPS).toInt
+    val titerSteps = cl.getOptionValue(OPTION_TITER_STEPS, DEFAULT_STEPS).toInt
+    val price = cl.getOptionValue(OPTION_MARKET_PRICE, Defaults.defaultPricePerTon.value.toString).toDouble
+    val sample = cl.getOptionValue(OPTION_SAMPLE, DEFAULT_SAMPLE).toInt
+    val threads = Option(cl.getOptionValue(OPTION_THREADS)).map(_.toInt).getOrElse(ExploreRange.DEFAULT_THREADS)
+    val mode = Defaults.defaultOperationMode
+    val location = Defaults.defaultLocation
+
+    val yields = evenlySpaced(1.0, 100 * Defaults.maxYield.ratio, yieldSteps)
+    val titers = evenlySpaced(1.0, Defaults.maxTiter.gPerL, titerSteps)
+    val gridSize = yields.length.toLong * titers.length
+    logger.info(s"Evaluating a ${yields.length} x ${titers.length} grid of yields and titers at price $price")
+
+    // Per-scenario models, on every n-th scenario of the grid
+    val stride = math.max(1L, gridSize / math.max(sample, 1))
+    val sampled = (0L until gridSize by stride).map(i =>
+      (yields((i % yields.length).toInt), titers((i / yields.length).toInt)))
+    val (perScenario, perScenarioMs) = timed(sampled.map({ case (y, t) =>
+      val yieldIs = Yield(y grams, 100 grams)
+      val titerIs = Titer(t grams, 1 litres)
+      val cogs = new CostModel().getPerTonCost(yieldIs, titerIs, mode, location).convertToBase(1 tonnes).value
+      val (npv, roi) = new ROIModel().getROI(yieldIs, titerIs, USD(price), mode, location)
+      (cogs, npv.value, roi.value)
+    }))
+    logger.info(f"Per-scenario models: $perScenarioMs%d ms for ${sampled.length}%d scenarios, " +
+      f"about ${perScenarioMs.toDouble * gridSize / sampled.length / 1000}%.1f s for the full grid")
+
+    // The compiled model, first checked against the sample
+    val model = new CompiledCostModel(mode, location)
+    sampled.zip(perScenario).foreach({ case ((y, t), (cogs, npv, roi)) =>
+      List((model.perTonCost(y, t), cogs), (model.npv(y, t, price), npv), (model.roi(y, t, price), roi)).foreach({
+        case (compiled, expected) =>
+          if (math.abs(compiled - expected) > RELATIVE_TOLERANCE * math.max(math.abs(expected), 1.0)) {
+            val msg = s"Compiled model gives $compiled instead of $expected at yield $y, titer $t"
+            logger.error(msg)
+            throw new RuntimeException(msg)
+          }
+      })
+    })
+    val (checksum, compiledMs) = timed({
+      var sum = 0.0
+      titers.foreach(t => yields.foreach(y => {
+        sum += model.perTonCost(y, t) + model.npv(y, t, price) + model.roi(y, t, price) +
+          model.investmentCost(y, t) + model.investmentDays(y, t)
+      }))
+      sum
+    })
+    logger.info(s"Compiled model: $compiledMs ms for $gridSize scenarios on one thread (checksum $checksum)")
+
+    // The streaming TSV writer, including formatting
+    val out: Writer = Option(cl.getOptionValue(OPTION_OUTPUT)) match {
+      case Some(path) => new BufferedWriter(new FileWriter(new File(path)))
+      case None => new DiscardingWriter
+    }
+    try {
+      val (written, gridMs) = timed(ExploreRange.writeOutcomeGrid(yields, titers, List(price), mode, location, out,
+        threads))
+      logger.info(s"Outcome grid: $gridMs ms to write $written scenarios on $threads threads")
+    } finally {
+      out.close()
+    }
+  }
+
+  private def evenlySpaced(from: Double, to: Double, steps: Int): IndexedSeq[Double] = {
+    if (steps <= 1) IndexedSeq(from) else (0 until steps).map(i => from + (to - from) * i / (steps - 1))
+  }
+
+  private def timed[T](f: => T): (T, Long) = {
+    val start = System.currentTimeMillis
+    val result = f
+    (result, System.currentTimeMillis - start)
+  }
+
+  // Lets us time the table generation without also timing a disk.
+  private class DiscardingWriter extends Writer {
+    override def write(chars: Array[Char], offset: Int, length: Int): Unit = {}
+    override def write(str: String): Unit = {}
+    override def flush(): Unit = {}
+    override def close(): Unit = {}
+  }
+
+  def parseCommandLineOptions(args: Array[String]): CommandLine = {
+    val opts = getCommandLineOptions
+
+    // Parse command line options
+    var cl: Option[CommandLine] = None
+    try {
+      val parser = new DefaultParser()
+      cl = Option(parser.parse(opts, args))
+    } catch {
+      case e: ParseException =>
+        logger.error(s"Argument parsing failed: ${e.getMessage}\n")
+        exitWithHelp(opts)
+    }
+
+    if (cl.isEmpty) {
+      logger.error("Detected that command line parser failed to be constructed.")
+      exitWithHelp(opts)
+    }
+
+    if (cl.get.hasOption("help")) exitWithHelp(opts)
+
+    cl.get
+  }
+
+  def getCommandLineOptions: Options = {
+    val options = List[CliOption.Builder](
+      CliOption.builder(OPTION_YIELD_STEPS).
+        hasArg.
+        longOpt("yield-steps").
+        desc(s"The number of yields in the grid, evenly spaced up to the max yield. Defaults to $DEFAULT_STEPS."),
+
+      CliOption.builder(OPTION_TITER_STEPS).
+        hasArg.
+        longOpt("titer-steps").
+        desc(s"The number of titers in the grid, evenly spaced up to the max titer. Defaults to $DEFAULT_STEPS."),
+
+      CliOption.builder(OPTION_MARKET_PRICE).
+        hasArg.
+        longOpt("market-price").
+        desc("The market price, in $$/T. Defaults to the default price in the cost model."),
+
+      CliOption.builder(OPTION_SAMPLE).
+        hasArg.
+        longOpt("sample").
+        desc(s"The number of scenarios to evaluate with the per-scenario models. Defaults to $DEFAULT_SAMPLE."),
+
+      CliOption.builder(OPTION_THREADS).
+        hasArg.
+        longOpt("threads").
+        desc("The number of threads to write the outcome grid on. Defaults to the number of processors."),
+
+      CliOption.builder(OPTION_OUTPUT).
+        hasArg.
+        longOpt("output").
+        desc("Where to write the outcome grid TSV. By default it is generated and discarded."),
+
+      CliOption.builder("h").argName("help").desc("Prints this help message").longOpt("help")
+    )
+
+    val opts: Options = new Options()
+    for (opt <- options) {
+      opts.addOption(opt.build)
+    }
+    opts
+  }
+
+  def exitWithHelp(opts: Options): Unit = {
+    HELP_FORMATTER.printHelp(this.getClass.getCanonicalName, HELP_MESSAGE, opts, null, true)
+    System.exit(1)
+  }
+}
@@ -0,0 +1,128 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.shared
+
+import act.shared.ChemicalSymbols.{AllAminoAcids, AminoAcid, Ile}
+import act.shared.EnumPolyPeptides.{ResidueMultisets, combinationsWithRepeats, enumeratedAminoAcids}
+
+import scala.collection.parallel.ForkJoinTaskSupport
+import scala.concurrent.forkjoin.ForkJoinPool
+
+object EnumPolyPeptidesBenchmark {
+  // Times the multi-set enumeration in EnumPolyPeptides against the replicate-and-`combinations` approach it
+  // replaced, for each peptide length up to a maximum. The enumerated counts are checked against the closed form
+  // C(n+r-1, r) at every length, and the multi-sets themselves against the old approach where it is still fast
+  // enough to run. Finally, `checkEnumerationSizeCorrect` is run over all benchmarked lengths.
+
+  def main(args: Array[String]) {
+    val className = this.getClass.getCanonicalName
+    val opts = List(optMaxLen, optLegacyMaxLen, optThreads)
+    val cmdLine: CmdLineParser = new CmdLineParser(className, args, opts)
+
+    val maxLen: Int = Option(cmdLine get optMaxLen).map(_.toInt).getOrElse(DEFAULT_MAX_LEN)
+    val legacyMaxLen: Int = Option(cmdLine get optLegacyMaxLen).map(_.toInt).getOrElse(DEFAULT_LEGACY_MAX_LEN)
+    val numThreads: Int = Option(cmdLine get optThreads).map(_.toInt).getOrElse(EnumPolyPeptides.DEFAULT_THREADS)
+
+    val pool = new ForkJoinPool(numThreads)
+    try {
+      println(List("len", "expected", "legacy_ms", "multisets_ms", "rows_parallel_ms").mkString("\t"))
+      (1 to maxLen).foreach(len => println(benchmarkLength(len, len <= legacyMaxLen, pool).mkString("\t")))
+    } finally {
+      pool.shutdown()
+    }
+
+    EnumPolyPeptides.checkEnumerationSizeCorrect(1 to maxLen)
+    println(s"Enumeration sizes are correct for lengths 1..$maxLen")
+  }
+
+  def benchmarkLength(len: Int, runLegacy: Boolean, pool: ForkJoinPool): List[String] = {
+    val expected = combinationsWithRepeats(enumeratedAminoAcids.length, len)
+
+    val legacyMs = if (runLegacy) {
+      val (legacy, ms) = timed(legacyAminoAcidCombinations(len).map(_.sortBy(_.symbol)).toSet)
+      val current = EnumPolyPeptides.getAminoAcidCombinations(len).map(_.sortBy(_.symbol)).toSet
+      assert(legacy.size == expected, s"Legacy enumeration of length $len has ${legacy.size} != $expected")
+      assert(legacy == current, s"Enumerations of length $len differ from the legacy enumeration")
+      ms.toString
+    } else {
+      "-"
+    }
+
+    val (multisets, multisetsMs) = timed({
+      val enumeration = new ResidueMultisets(len)
+      var count = 0L
+      while (enumeration.advance()) count += 1
+      count
+    })
+    assert(multisets == expected, s"Enumerated $multisets multi-sets of length $len, expected $expected")
+
+    val (rows, rowsMs) = timed({
+      val ions = EnumPolyPeptides.getMetlinIons(None)
+      val leadingResidues = (0 until enumeratedAminoAcids.length).par
+      leadingResidues.tasksupport = new ForkJoinTaskSupport(pool)
+      leadingResidues.map(l => EnumPolyPeptides.getPeptideEnumerator(len, ions, l, l).size.toLong).sum
+    })
+    assert(rows == expected, s"Enumerated $rows peptide rows of length $len, expected $expected")
+
+    List(len.toString, expected.toString, legacyMs, multisetsMs.toString, rowsMs.toString)
+  }
+
+  // The enumeration EnumPolyPeptides used to do: replicate the aminoacid list `len` times and ask
+  // the stdlib for its combinations, most of which are duplicates that it then has to discard.
+  def legacyAminoAcidCombinations(len: Int): Iterator[List[AminoAcid]] = {
+    val aminoAcidsDedup = AllAminoAcids diff List(Ile)
+    List.fill(len)(aminoAcidsDedup).flatten.combinations(len)
+  }
+
+  private def timed[T](f: => T): (T, Long) = {
+    val start = System.currentTimeMillis
+    val result = f
+    (result, System.currentTimeMillis - start)
+  }
+
+  val DEFAULT_MAX_LEN = 10
+  val DEFAULT_LEGACY_MAX_LEN = 5
+
+  val optMaxLen = new OptDesc(
+                    param = "n",
+                    longParam = "max-peptide-length",
+                    name = "max length of peptides",
+                    desc = s"Benchmark all peptide lengths from 1 up to this. Defaults to $DEFAULT_MAX_LEN.",
+                    isReqd = false, hasArg = true)
+
+  val optLegacyMaxLen = new OptDesc(
+                    param = "l",
+                    longParam = "legacy-max-peptide-length",
+                    name = "max length for legacy enumeration",
+                    desc = s"""Only time the old replicate-and-combinations enumeration up to this length, as it
+                              gets very slow beyond it. Defaults to $DEFAULT_LEGACY_MAX_LEN.""",
+                    isReqd = false, hasArg = true)
+
+  val optThreads = new OptDesc(
+                    param = "j",
+                    longParam = "threads",
+                    name = "num threads",
+                    desc = "Number of threads to enumerate peptide rows on. Defaults to the number of processors.",
+                    isReqd = false, hasArg = true)
+}
@@ -0,0 +1,82 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.analysis.chemicals.molecules
+
+import chemaxon.struc.Molecule
+import org.scalatest.{BeforeAndAfterEach, FlatSpec, Matchers}
+
+class MoleculeConversionCacheTest extends FlatSpec with Matchers with BeforeAndAfterEach {
+  override def beforeEach(): Unit = {
+    MoleculeConversionCache.clear()
+    MoleculeConversionCache.resetStats()
+  }
+
+  override def afterEach(): Unit = {
+    MoleculeConversionCache.clear()
+    MoleculeConversionCache.resetStats()
+  }
+
+  "MoleculeConversionCache" should "import each string and format only once." in {
+    var imports = 0
+    def importer: Molecule = {
+      imports += 1
+      new Molecule()
+    }
+
+    val first = MoleculeConversionCache.importMolecule("InChI=1S/CH4/h1H4", MoleculeFormat.inchi, importer)
+    val second = MoleculeConversionCache.importMolecule("InChI=1S/CH4/h1H4", MoleculeFormat.inchi, importer)
+    MoleculeConversionCache.importMolecule("InChI=1S/CH4/h1H4", MoleculeFormat.stdInchi, importer)
+
+    (first eq second) should be(true)
+    imports should be(2)
+    MoleculeConversionCache.stats.importHits should be(1)
+    MoleculeConversionCache.stats.importMisses should be(2)
+  }
+
+  "MoleculeConversionCache" should "keep one export slot per format for each molecule." in {
+    val mol = MoleculeConversionCache.importMolecule("InChI=1S/CH4/h1H4", MoleculeFormat.inchi, new Molecule())
+    var exports = 0
+    def exporter(value: String): String = {
+      exports += 1
+      value
+    }
+
+    MoleculeConversionCache.exportMolecule(mol, MoleculeFormat.inchi, exporter("a")) should be("a")
+    MoleculeConversionCache.exportMolecule(mol, MoleculeFormat.smiles, exporter("b")) should be("b")
+    MoleculeConversionCache.exportMolecule(mol, MoleculeFormat.inchi, exporter("c")) should be("a")
+    MoleculeConversionCache.exportMolecule(new Molecule(), MoleculeFormat.inchi, exporter("d")) should be("d")
+
+    exports should be(3)
+    MoleculeConversionCache.stats.exportHits should be(1)
+    MoleculeConversionCache.stats.exportMisses should be(3)
+  }
+
+  "MoleculeConversionCache" should "forget everything when cleared." in {
+    MoleculeConversionCache.importMolecule("C", MoleculeFormat.smiles, new Molecule())
+    MoleculeConversionCache.clear()
+    MoleculeConversionCache.importMolecule("C", MoleculeFormat.smiles, new Molecule())
+
+    MoleculeConversionCache.stats.importMisses should be(2)
+  }
+}
@@ -0,0 +1,169 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.analysis.proteome.scripts
+
+import java.io.File
+import java.nio.file.Files
+import java.util
+import java.util.concurrent.ConcurrentHashMap
+
+import act.shared.{Seq => DbSeq}
+import com.act.analysis.proteome.scripts.OddSequencesToProteinPredictionFlow.SequenceEntry
+import com.mongodb.BasicDBObject
+import org.apache.commons.io.FileUtils
+import org.apache.commons.lang.SystemUtils.IS_OS_UNIX
+import org.json.JSONObject
+import org.scalatest.{BeforeAndAfterEach, FlatSpec, Matchers}
+
+import scala.collection.JavaConverters._
+import scala.io.Source
+
+class OddSequencesToProteinPredictionFlowTest extends FlatSpec with Matchers with BeforeAndAfterEach {
+  var workingDirectory: File = _
+  var proteomeDirectory: File = _
+  var fastaDirectory: File = _
+  var fakePhmmer: File = _
+  var invocationLog: File = _
+
+  /*
+    Stands in for phmmer.  For every query in the query file ($1) it prints a result block with a single hit,
+    the first sequence of the target database ($2).  Queries whose id ends in 9 get no hits.
+    Each invocation is logged so that we can check how the searches were grouped.
+   */
+  val FAKE_PHMMER =
+    """#!/bin/sh
+      |echo "$1 $2" >> "$0.invocations"
+      |target=$(grep -m 1 '^>' "$2" | cut -c 2-)
+      |echo "# phmmer :: search a protein sequence against a protein database"
+      |echo "# query sequence file: $1"
+      |grep '^>' "$1" | cut -c 2- | while read query; do
+      |  echo "Query:       $query  [L=12]"
+      |  echo "Scores for complete sequences (score includes all domains):"
+      |  echo "   --- full sequence ---   --- best 1 domain ---    -#dom-"
+      |  echo "    E-value  score  bias    E-value  score  bias    exp  N  Sequence  Description"
+      |  echo "    ------- ------ -----    ------- ------ -----   ---- --  --------  -----------"
+      |  case "$query" in
+      |    *9) echo "" ;;
+      |    *) echo "    1.2e-50  160.1   0.1    1.4e-50  159.9   0.1    1.0  1  $target"
+      |       echo "" ;;
+      |  esac
+      |  echo "Domain annotation for each sequence (and alignments):"
+      |  echo "//"
+      |done
+      |echo "[ok]"
+    """.stripMargin
+
+  override def beforeEach(): Unit = {
+    workingDirectory = Files.createTempDirectory("odd_sequences").toFile
+    proteomeDirectory = new File(workingDirectory, "proteomes")
+    fastaDirectory = new File(workingDirectory, "fasta")
+    proteomeDirectory.mkdirs()
+    fastaDirectory.mkdirs()
+
+    FileUtils.writeStringToFile(new File(proteomeDirectory, "ecoli.fasta"),
+      ">sp|P00001|ABC_ECOLI ABC protein OS=Escherichia coli GN=abc PE=1 SV=1\nMKVLAAGIVG\nLLLAAW\n" +
+        ">sp|P00002|DEF_ECOLI DEF protein OS=Escherichia coli GN=def PE=1 SV=1\nMSTNPKPQRK\n")
+    FileUtils.writeStringToFile(new File(proteomeDirectory, "yeast.fasta"),
+      ">sp|P00003|GHI_YEAST GHI protein OS=Saccharomyces cerevisiae GN=ghi PE=1 SV=1\nMDEKLRQ\n")
+
+    fakePhmmer = new File(workingDirectory, "phmmer")
+    FileUtils.writeStringToFile(fakePhmmer, FAKE_PHMMER)
+    fakePhmmer.setExecutable(true)
+    invocationLog = new File(workingDirectory, "phmmer.invocations")
+  }
+
+  override def afterEach(): Unit = {
+    FileUtils.deleteDirectory(workingDirectory)
+  }
+
+  def sequence(id: Long, organism: String): DbSeq = {
+    new DbSeq(id, "1.1.1.1", 1L, organism, "KV*AAG", new util.ArrayList[JSONObject](), new BasicDBObject(),
+      DbSeq.AccDB.genbank)
+  }
+
+  def search(sequences: List[DbSeq], threads: Int = 2): (Set[Long], Map[Long, List[SequenceEntry]]) = {
+    val results = new ConcurrentHashMap[Long, List[SequenceEntry]]()
+    val inferred = OddSequencesToProteinPredictionFlow.searchSequences(
+      fastaDirectory, proteomeDirectory, threads, fakePhmmer.getAbsolutePath)(sequences.iterator)(
+      (sequence, entries) => results.put(sequence.getUUID.toLong, entries))
+    (inferred, results.asScala.toMap)
+  }
+
+  def invocations: List[String] = {
+    val log = Source.fromFile(invocationLog)
+    val lines = log.getLines().toList
+    log.close()
+    lines
+  }
+
+  "The OddSequencesToProteinPredictionFlow" should "run one phmmer per group of sequences sharing proteomes" in {
+    if (IS_OS_UNIX) {
+      val (inferred, results) = search(List(
+        sequence(1, "Escherichia coli"), sequence(2, "Saccharomyces cerevisiae"), sequence(3, "Escherichia coli"),
+        sequence(4, "Homo sapiens"), sequence(19, "Escherichia albertii")))
+
+      // Homo sapiens has no reference proteome, E. albertii falls back to the Escherichia genus
+      invocations.length should be(2)
+      results.keySet should be(Set(1L, 2L, 3L, 19L))
+      inferred should be(Set(1L, 2L, 3L))
+    }
+  }
+
+  "The OddSequencesToProteinPredictionFlow" should "map each query's hits back to the reference sequence" in {
+    if (IS_OS_UNIX) {
+      val (_, results) = search(List(sequence(1, "Escherichia coli"), sequence(2, "Saccharomyces cerevisiae"),
+        sequence(9, "Escherichia coli")))
+
+      results(1L).map(_.sequence) should be(List("MKVLAAGIVGLLLAAW"))
+      results(1L).head.sourceFile.getName should be("ecoli.fasta")
+      results(1L).head.scoreFullSequence should be(160.1)
+      results(1L).head.scoreDomain should be(159.9)
+      results(2L).map(_.sequence) should be(List("MDEKLRQ"))
+      results(9L) should be(List())
+    }
+  }
+
+  "The OddSequencesToProteinPredictionFlow" should "write each concatenated proteome once" in {
+    if (IS_OS_UNIX) {
+      search(List(sequence(1, "Escherichia coli"), sequence(2, "Saccharomyces cerevisiae")))
+      search(List(sequence(3, "Escherichia coli")))
+
+      val cachedProteomes = new File(fastaDirectory, "proteomeCache").listFiles().toList
+      cachedProteomes.length should be(2)
+      cachedProteomes.foreach(_.getName should endWith(".fasta"))
+
+      // All searches against the same proteome set use the same cached file
+      invocations.length should be(3)
+      invocations.map(_.split(" ")(1)).toSet.size should be(2)
+    }
+  }
+
+  "The OddSequencesToProteinPredictionFlow" should "not leave query files behind" in {
+    if (IS_OS_UNIX) {
+      search(List(sequence(1, "Escherichia coli"), sequence(2, "Saccharomyces cerevisiae")), threads = 1)
+
+      fastaDirectory.listFiles().map(_.getName).toList should be(List("proteomeCache"))
+    }
+  }
+}
@@ -116,4 +116,27 @@ class UntargetedMetabolomicsTest extends FlatSpec with Matchers {
     }}
 
   }
+
+  "UntargetedMetabolomics" should "align peaks across replicates by mz and retention time" in {
+    def peak(mz: Double, rt: Double, snr: Double) =
+      new Peak(new MonoIsotopicMass(mz), new RetentionTime(rt), snr * 10, snr * 5, snr)
+
+    // two replicates with a shared peak that drifted slightly in both mz and rt, a shared mz eluting at two
+    // well separated times, and a peak that only appears in the first replicate
+    val repl1 = Set(peak(100.001, 10.0, 5.0), peak(150.000, 20.0, 3.0), peak(150.000, 40.0, 4.0), peak(300.0, 5.0, 2.0))
+    val repl2 = Set(peak(100.004, 10.4, 6.0), peak(150.002, 20.3, 2.0), peak(150.001, 39.8, 1.0))
+
+    val experiment = new UntargetedMetabolomics(controls = List(), hypotheses = List())
+    val aligned = experiment.findAlignedPeaks(List(repl1, repl2))
+
+    aligned.size should be(4)
+    aligned.values.count(_.forall(_.size == 1)) should be(3)
+
+    val onlyInFirst = aligned.filterKeys { case (mz, _) => mz.initMass == 300.0 }.values.head
+    onlyInFirst.map(_.size) should be(List(1, 0))
+
+    val early150 = aligned.filterKeys { case (mz, rt) => mz.initMass < 151.0 && mz.initMass > 149.0 && rt.time < 30.0 }
+    early150.size should be(1)
+    early150.values.head.map(_.head.snr) should be(List(3.0, 2.0))
+  }
 }
@@ -23,12 +23,20 @@
 
 package com.act.workflow.tool_manager.jobs
 
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.atomic.AtomicInteger
+
 import com.act.workflow.tool_manager.jobs.management.JobManager
+import com.act.workflow.tool_manager.jobs.management.utility.JobResultCache
 import com.act.workflow.tool_manager.tool_wrappers.ScalaJobWrapper
 import org.scalatest.concurrent.{ThreadSignaler, TimeLimitedTests}
 import org.scalatest.time.SpanSugar._
+import org.apache.commons.io.FileUtils
 import org.scalatest.{BeforeAndAfterEach, FlatSpec, Matchers}
 
+import scala.io.Source
+
 class JobsTest extends FlatSpec with Matchers with BeforeAndAfterEach with TimeLimitedTests {
   override val defaultTestSignaler = ThreadSignaler
   val timeLimit = 15 seconds
@@ -215,4 +223,47 @@ class JobsTest extends FlatSpec with Matchers with BeforeAndAfterEach with TimeL
     F.internalState.statusManager.isKilled should be(true)
     G.internalState.statusManager.isKilled should be(true)
   }
+
+  "Jobs" should "restore cached outputs instead of rerunning when inputs and parameters are unchanged" in {
+    val workingDir = Files.createTempDirectory("job-result-cache").toFile
+    try {
+      val cache = new JobResultCache(new File(workingDir, "cache"))
+      val input = new File(workingDir, "input")
+      val output = new File(workingDir, "output")
+      FileUtils.writeStringToFile(input, "some input")
+
+      val runCount = new AtomicInteger(0)
+      def cachedJob(name: String, parameter: String): ScalaJob = {
+        // Each run is its own workflow, so start from a clean manager.
+        JobManager.clearManager()
+        val job = ScalaJobWrapper.wrapScalaFunction(name, () => {
+          runCount.incrementAndGet()
+          FileUtils.writeStringToFile(output, s"output for $parameter")
+        })
+        job.cacheResultsIn(cache, List(input), List(output), List(parameter))
+        job
+      }
+
+      JobManager.startJobAndAwaitUntilWorkflowComplete(cachedJob("A", "1"))
+      runCount.get should be(1)
+
+      // Same inputs, so the output should come from the cache even though the file is gone.
+      output.delete()
+      val cachedRun = cachedJob("A", "1")
+      JobManager.startJobAndAwaitUntilWorkflowComplete(cachedRun)
+      runCount.get should be(1)
+      cachedRun.internalState.statusManager.isSuccessful should be(true)
+      Source.fromFile(output).mkString should be("output for 1")
+
+      // A different parameter or changed input contents should both cause a rerun.
+      JobManager.startJobAndAwaitUntilWorkflowComplete(cachedJob("A", "2"))
+      runCount.get should be(2)
+
+      FileUtils.writeStringToFile(input, "some other input")
+      JobManager.startJobAndAwaitUntilWorkflowComplete(cachedJob("A", "1"))
+      runCount.get should be(3)
+    } finally {
+      FileUtils.deleteDirectory(workingDir)
+    }
+  }
 }